@@ -0,0 +1,130 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * Embedded in-memory H2 database shared by the DAO benchmarks. The variant table mirrors the shape of the production
+ * schema closely enough for the data-access path to be representative, and is filled with deterministic pseudo-random
+ * rows so results are reproducible between runs.
+ */
+public final class BenchmarkDatabase {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    public static final String USERNAME = "sa";
+    public static final String PASSWORD = "";
+
+    public static final String[] CHROMOSOMES = { "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12",
+            "13", "14", "15", "16", "17", "18", "19", "20", "21", "22", "X", "Y" };
+
+    public static final long CHROMOSOME_LENGTH = 250000000L;
+
+    private static final long SEED = 42L;
+
+    private static final String SQL_CREATE_VARIANT = "CREATE TABLE IF NOT EXISTS variant ("
+            + "id INT PRIMARY KEY, paper_id INT, gene_id INT, symbol VARCHAR(32), chromosome VARCHAR(2), "
+            + "start BIGINT, stop BIGINT, ref VARCHAR(255), alt VARCHAR(255), category VARCHAR(32), "
+            + "func VARCHAR(32), cdna_change VARCHAR(255), aa_change VARCHAR(255))";
+    private static final String SQL_INDEX_VARIANT = "CREATE INDEX IF NOT EXISTS variant_region "
+            + "ON variant (chromosome, start)";
+    private static final String SQL_INSERT_VARIANT = "INSERT INTO variant (id, paper_id, gene_id, symbol, "
+            + "chromosome, start, stop, ref, alt, category, func) VALUES (?,?,?,?,?,?,?,?,?,?,?)";
+
+    private static final String[] BASES = { "A", "C", "G", "T" };
+    private static final String[] CATEGORIES = { "SNV", "INDEL", "DELETION", "INSERTION" };
+    private static final String[] FUNCS = { "exonic", "intronic", "splicing", "UTR3", "UTR5", "intergenic" };
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private BenchmarkDatabase() {
+        // Utility class, hide constructor.
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * @param name Name of the in-memory database.
+     * @return JDBC URL of a named in-memory database which lives until the JVM exits.
+     */
+    public static String url( String name ) {
+        return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;MODE=MySQL";
+    }
+
+    /**
+     * Opens a plain connection to the given database.
+     */
+    public static Connection connect( String url ) throws SQLException {
+        try {
+            Class.forName( "org.h2.Driver" );
+        } catch ( ClassNotFoundException e ) {
+            throw new SQLException( "H2 driver is missing in classpath.", e );
+        }
+        return DriverManager.getConnection( url, USERNAME, PASSWORD );
+    }
+
+    /**
+     * Creates the variant table in the given database, if necessary, and fills it with the given number of rows.
+     * 
+     * @param url JDBC URL of the database.
+     * @param rows Number of variant rows to generate.
+     */
+    public static void createVariants( String url, int rows ) throws SQLException {
+        Random random = new Random( SEED );
+        try (Connection connection = connect( url )) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute( SQL_CREATE_VARIANT );
+                statement.execute( SQL_INDEX_VARIANT );
+                statement.execute( "TRUNCATE TABLE variant" );
+            }
+            connection.setAutoCommit( false );
+            try (PreparedStatement insert = connection.prepareStatement( SQL_INSERT_VARIANT )) {
+                for ( int id = 1; id <= rows; id++ ) {
+                    long start = 1 + ( long ) ( random.nextDouble() * CHROMOSOME_LENGTH );
+                    int length = random.nextInt( 10 ) == 0 ? 1 + random.nextInt( 50 ) : 1;
+                    insert.setInt( 1, id );
+                    insert.setInt( 2, 1 + random.nextInt( 100 ) );
+                    insert.setInt( 3, 1 + random.nextInt( 20000 ) );
+                    insert.setString( 4, "GENE" + random.nextInt( 20000 ) );
+                    insert.setString( 5, CHROMOSOMES[random.nextInt( CHROMOSOMES.length )] );
+                    insert.setLong( 6, start );
+                    insert.setLong( 7, start + length - 1 );
+                    insert.setString( 8, BASES[random.nextInt( BASES.length )] );
+                    insert.setString( 9, BASES[random.nextInt( BASES.length )] );
+                    insert.setString( 10, CATEGORIES[random.nextInt( CATEGORIES.length )] );
+                    insert.setString( 11, FUNCS[random.nextInt( FUNCS.length )] );
+                    insert.addBatch();
+                    if ( id % 1000 == 0 ) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the cost of a getConnection()/close() cycle across the DAOFactory implementations, single-threaded and
+ * with {@link #CONTENDED_THREADS} threads competing for connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class ConnectionBenchmark {
+
+    static final int CONTENDED_THREADS = 8;
+
+    private static final int POOL_SIZE = 4;
+
+    @Param({ "driverManager", "dataSource", "dataSourceWithLogin", "pooled" })
+    public String factory;
+
+    private DAOFactory daoFactory;
+
+    // Keeps the in-memory database open between connections.
+    private Connection keepAlive;
+
+    @Setup
+    public void setUp() throws SQLException {
+        String url = BenchmarkDatabase.url( "connections" );
+        keepAlive = BenchmarkDatabase.connect( url );
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL( url );
+
+        switch ( factory ) {
+            case "driverManager":
+                daoFactory = new DriverManagerDAOFactory( url, BenchmarkDatabase.USERNAME,
+                        BenchmarkDatabase.PASSWORD );
+                break;
+            case "dataSource":
+                dataSource.setUser( BenchmarkDatabase.USERNAME );
+                dataSource.setPassword( BenchmarkDatabase.PASSWORD );
+                daoFactory = new DataSourceDAOFactory( dataSource );
+                break;
+            case "dataSourceWithLogin":
+                daoFactory = new DataSourceWithLoginDAOFactory( dataSource, BenchmarkDatabase.USERNAME,
+                        BenchmarkDatabase.PASSWORD );
+                break;
+            case "pooled":
+                daoFactory = new PooledDAOFactory( url, BenchmarkDatabase.USERNAME, BenchmarkDatabase.PASSWORD,
+                        POOL_SIZE, POOL_SIZE, 30000, 600000, 0 );
+                break;
+            default:
+                throw new IllegalArgumentException( "Unknown factory: " + factory );
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        daoFactory.close();
+        keepAlive.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void getConnection( Blackhole blackhole ) throws SQLException {
+        cycle( blackhole );
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public void getConnectionContended( Blackhole blackhole ) throws SQLException {
+        cycle( blackhole );
+    }
+
+    private void cycle( Blackhole blackhole ) throws SQLException {
+        Connection connection = daoFactory.getConnection();
+        try {
+            blackhole.consume( connection );
+        } finally {
+            connection.close();
+        }
+    }
+
+}
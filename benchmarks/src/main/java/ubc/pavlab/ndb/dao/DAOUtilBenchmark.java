@@ -0,0 +1,139 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the statement helpers in {@link DAOUtil}: preparing and binding a region lookup, binding alone on an
+ * already prepared statement (boxed varargs versus the typed binder), and building IN-list placeholders of various
+ * sizes.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class DAOUtilBenchmark {
+
+    static final String SQL_REGION = "SELECT id FROM variant WHERE chromosome = ? AND start <= ? AND stop >= ?";
+
+    private static final String URL = BenchmarkDatabase.url( "daoutil" );
+
+    private static final int VARIANT_ROWS = 10000;
+
+    /**
+     * Creates the schema once per trial.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        @Setup(Level.Trial)
+        public void setUp() throws SQLException {
+            BenchmarkDatabase.createVariants( URL, VARIANT_ROWS );
+        }
+    }
+
+    /**
+     * One connection and one prepared statement per benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Session {
+
+        Connection connection;
+        PreparedStatement prepared;
+
+        @Setup(Level.Trial)
+        public void setUp( Database database ) throws SQLException {
+            connection = BenchmarkDatabase.connect( URL );
+            prepared = connection.prepareStatement( SQL_REGION );
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            DAOUtil.close( connection, prepared );
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Placeholders {
+
+        @Param({ "1", "10", "100", "1000" })
+        public int length;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PreparedStatement prepareStatement( Session session ) throws SQLException {
+        return prepareAndClose( session );
+    }
+
+    @Benchmark
+    @Threads(ConnectionBenchmark.CONTENDED_THREADS)
+    public PreparedStatement prepareStatementContended( Session session ) throws SQLException {
+        return prepareAndClose( session );
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PreparedStatement setValues( Session session ) throws SQLException {
+        DAOUtil.setValues( session.prepared, "7", 117559590L, 117559590L );
+        return session.prepared;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PreparedStatement bind( Session session ) throws SQLException {
+        DAOUtil.bind( session.prepared ).bind( "7" ).bind( 117559590L ).bind( 117559590L );
+        return session.prepared;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String preparePlaceHolders( Placeholders placeholders ) {
+        return DAOUtil.preparePlaceHolders( placeholders.length );
+    }
+
+    private static PreparedStatement prepareAndClose( Session session ) throws SQLException {
+        PreparedStatement statement = DAOUtil.prepareStatement( session.connection, SQL_REGION, false, "7",
+                117559590L, 117559590L );
+        DAOUtil.close( statement );
+        return statement;
+    }
+
+}
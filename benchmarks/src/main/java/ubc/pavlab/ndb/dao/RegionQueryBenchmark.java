@@ -0,0 +1,182 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ubc.pavlab.ndb.model.Variant;
+import ubc.pavlab.ndb.utility.IntervalIndex;
+
+/**
+ * Compares answering "all variants in chromosome:start-stop" with SQL range scans against the in-memory
+ * {@link IntervalIndex}, for regions from a single exon to a large part of a chromosome. The SQL path is measured both
+ * returning full variants through {@link VariantDAO#findByRegion} and returning IDs only, the latter being what the
+ * index returns.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class RegionQueryBenchmark {
+
+    private static final String URL = BenchmarkDatabase.url( "region" );
+
+    private static final int QUERIES = 1024;
+
+    /**
+     * The database, a pooled factory and the index built from it, once per trial.
+     */
+    @State(Scope.Benchmark)
+    public static class Data {
+
+        @Param({ "100000" })
+        public int rows;
+
+        @Param({ "1000", "100000", "10000000" })
+        public long width;
+
+        PooledDAOFactory daoFactory;
+        VariantDAO variantDAO;
+        IntervalIndex index;
+        String[] chromosomes = new String[QUERIES];
+        long[] starts = new long[QUERIES];
+
+        @Setup(Level.Trial)
+        public void setUp() throws SQLException {
+            BenchmarkDatabase.createVariants( URL, rows );
+            daoFactory = new PooledDAOFactory( URL, BenchmarkDatabase.USERNAME, BenchmarkDatabase.PASSWORD, 16, 0,
+                    30000, 600000, 0 );
+            variantDAO = daoFactory.getVariantDAO();
+
+            final IntervalIndex.Builder builder = new IntervalIndex.Builder();
+            variantDAO.streamLocations( new RowCallback<Variant>() {
+                @Override
+                public void handle( Variant variant ) {
+                    builder.add( variant.getChromosome(), variant.getStart(), variant.getStop(), variant.getId() );
+                }
+            } );
+            index = builder.build();
+
+            Random random = new Random( 7 );
+            for ( int i = 0; i < QUERIES; i++ ) {
+                chromosomes[i] = BenchmarkDatabase.CHROMOSOMES[random.nextInt( BenchmarkDatabase.CHROMOSOMES.length )];
+                starts[i] = 1 + ( long ) ( random.nextDouble() * ( BenchmarkDatabase.CHROMOSOME_LENGTH - width ) );
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            daoFactory.close();
+        }
+    }
+
+    /**
+     * Cycles each thread through the pre-generated regions.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+
+        int advance() {
+            next = ( next + 1 ) & ( QUERIES - 1 );
+            return next;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Variant> sqlVariants( Data data, Cursor cursor ) {
+        int q = cursor.advance();
+        return data.variantDAO.findByRegion( data.chromosomes[q], data.starts[q], data.starts[q] + data.width - 1 );
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int sqlIds( Data data, Cursor cursor ) throws SQLException {
+        int q = cursor.advance();
+        return selectIds( data, q );
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int[] index( Data data, Cursor cursor ) {
+        int q = cursor.advance();
+        return data.index.overlap( data.chromosomes[q], data.starts[q], data.starts[q] + data.width - 1 );
+    }
+
+    @Benchmark
+    @Threads(ConnectionBenchmark.CONTENDED_THREADS)
+    public int sqlIdsContended( Data data, Cursor cursor ) throws SQLException {
+        int q = cursor.advance();
+        return selectIds( data, q );
+    }
+
+    @Benchmark
+    @Threads(ConnectionBenchmark.CONTENDED_THREADS)
+    public int[] indexContended( Data data, Cursor cursor ) {
+        int q = cursor.advance();
+        return data.index.overlap( data.chromosomes[q], data.starts[q], data.starts[q] + data.width - 1 );
+    }
+
+    private static int selectIds( Data data, int q ) throws SQLException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = data.daoFactory.getConnection();
+            statement = DAOUtil.prepareStatement( connection, DAOUtilBenchmark.SQL_REGION, false );
+            DAOUtil.bind( statement ).bind( data.chromosomes[q] ).bind( data.starts[q] + data.width - 1 )
+                    .bind( data.starts[q] );
+            resultSet = statement.executeQuery();
+            int found = 0;
+            while ( resultSet.next() ) {
+                found += resultSet.getInt( 1 ) >= 0 ? 1 : 0;
+            }
+            return found;
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+    }
+
+}
@@ -23,15 +23,23 @@ import java.io.Serializable;
 import java.util.Map.Entry;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.faces.bean.ApplicationScoped;
 import javax.faces.bean.ManagedBean;
 
 import org.apache.log4j.Logger;
 
+import ubc.pavlab.ndb.exceptions.ConfigurationException;
+import ubc.pavlab.ndb.utility.ConfigSnapshot;
 import ubc.pavlab.ndb.utility.PropertiesFile;
+import ubc.pavlab.ndb.utility.ReloadableConfig;
 
 /**
  * Holds settings from the properties file. Alter the static fields here to meet your requirements if necessary.
+ * <p>
+ * Settings are read from an immutable {@link ConfigSnapshot}, so lookups on the request path never lock. The file is
+ * watched and a changed file is swapped in once it passes validation (unless 'ndb.config.watch' is false); settings
+ * read per request take effect immediately, those read at startup need a restart.
  * 
  * @author mjacobson
  * @version $Id$
@@ -48,27 +56,58 @@ public class ApplicationProperties implements Serializable {
     private static final String PROPERTIES_BACKUP_PATH = System.getProperty( "user.dir" );
     private static final String PROPERTIES_FILE = "ndb.properties";
 
-    private PropertiesFile prop = new PropertiesFile();
+    private static final String PROPERTY_DB = "ndb.db";
+    private static final String PROPERTY_WATCH = "ndb.config.watch";
+
+    private transient ReloadableConfig config;
 
     @PostConstruct
     public void init() {
         log.info( "ApplicationProperties init" );
-        prop.load( PROPERTIES_FILE, PROPERTIES_PATH, PROPERTIES_BACKUP_PATH );
-        for ( Entry<Object, Object> e : prop.entrySet() ) {
-            log.info( e.getKey().toString() + " : " + e.getValue().toString() );
+        config = new ReloadableConfig( PropertiesFile.locate( PROPERTIES_FILE, PROPERTIES_PATH,
+                PROPERTIES_BACKUP_PATH ), new ReloadableConfig.Validator() {
+                    @Override
+                    public void validate( ConfigSnapshot snapshot ) throws ConfigurationException {
+                        if ( snapshot.getProperty( PROPERTY_DB, null ) == null ) {
+                            throw new ConfigurationException( "Required property '" + PROPERTY_DB + "' is missing." );
+                        }
+                        // Throws if it is not a boolean.
+                        snapshot.getBoolean( PROPERTY_WATCH, true );
+                    }
+                } );
+        for ( Entry<String, String> e : config.get().asMap().entrySet() ) {
+            log.info( e.getKey() + " : " + e.getValue() );
+        }
+        if ( config.get().getBoolean( PROPERTY_WATCH, true ) ) {
+            config.watch();
         }
     }
 
+    @PreDestroy
+    public void destroy() {
+        config.close();
+    }
+
     public String getProperty( String key ) {
-        return prop.getProperty( key );
+        return config.get().getProperty( key );
     }
 
     public boolean contains( String key ) {
-        return prop.contains( key );
+        return config.get().contains( key );
+    }
+
+    /**
+     * @return The current settings, for typed lookups.
+     */
+    public ConfigSnapshot getConfig() {
+        return config.get();
     }
 
+    /**
+     * Reads the properties file again, keeping the current settings if it is not valid.
+     */
     public void reload() {
-        init();
+        config.reload();
     }
 
     public String getPropertiesFile() {
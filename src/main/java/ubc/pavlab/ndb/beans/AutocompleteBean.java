@@ -0,0 +1,185 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.beans;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.faces.bean.ApplicationScoped;
+import javax.faces.bean.ManagedBean;
+import javax.faces.bean.ManagedProperty;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.dao.AggregateDAO;
+import ubc.pavlab.ndb.dao.AggregateDAO.Dimension;
+import ubc.pavlab.ndb.dao.DAOFactory;
+import ubc.pavlab.ndb.dao.RowCallback;
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Gene;
+import ubc.pavlab.ndb.model.Paper;
+import ubc.pavlab.ndb.model.Variant;
+import ubc.pavlab.ndb.utility.AutocompleteIndex;
+import ubc.pavlab.ndb.utility.AutocompleteIndex.Suggestion;
+import ubc.pavlab.ndb.utility.AutocompleteIndex.Type;
+
+/**
+ * Type-ahead suggestions over gene symbols and aliases, HGVS strings and paper identifiers, served from memory so
+ * that keystrokes do not reach the database. Genes and papers are ranked by their number of variants, as stored in
+ * the variant_summary table. The index is built at startup and rebuilt by {@link #reload()}.
+ * 
+ * @version $Id$
+ */
+@ManagedBean(name = "autocompleteBean", eager = true)
+@ApplicationScoped
+public class AutocompleteBean implements Serializable {
+
+    private static final long serialVersionUID = 2218540467137760843L;
+
+    private static final Logger log = Logger.getLogger( AutocompleteBean.class );
+
+    private static final String PROPERTY_MAX_ENTRIES = "ndb.autocomplete.maxEntries";
+    private static final int DEFAULT_MAX_ENTRIES = 1000000;
+
+    /**
+     * The maximum number of suggestions per query.
+     */
+    public static final int MAX_RESULTS = 20;
+
+    @ManagedProperty("#{daoFactoryBean}")
+    private DAOFactoryBean daoFactoryBean;
+
+    @ManagedProperty("#{applicationProperties}")
+    private ApplicationProperties applicationProperties;
+
+    private transient volatile AutocompleteIndex index = new AutocompleteIndex.Builder( 0, MAX_RESULTS ).build();
+
+    public AutocompleteBean() {
+        log.info( "AutocompleteBean created" );
+    }
+
+    @PostConstruct
+    public void init() {
+        log.info( "AutocompleteBean init" );
+        reload();
+    }
+
+    /**
+     * Rebuilds the index from the database and swaps it in once complete.
+     */
+    public synchronized void reload() {
+        long startTime = System.currentTimeMillis();
+        DAOFactory daoFactory = daoFactoryBean.getDAOFactory();
+        final AutocompleteIndex.Builder builder = new AutocompleteIndex.Builder( getMaxEntries(), MAX_RESULTS );
+
+        final Map<String, Long> variantsPerGene = findCounts( daoFactory, Dimension.GENE );
+        final Map<String, Long> variantsPerPaper = findCounts( daoFactory, Dimension.PAPER );
+        daoFactory.getVariantDAO().streamAll( new RowCallback<Variant>() {
+            @Override
+            public void handle( Variant variant ) {
+                String label = variant.getSymbol() == null ? "" : variant.getSymbol() + " ";
+                if ( variant.getCdnaChange() != null ) {
+                    builder.add( variant.getCdnaChange(), label + variant.getCdnaChange(), Type.HGVS,
+                            variant.getId(), 0 );
+                }
+                if ( variant.getAaChange() != null ) {
+                    builder.add( variant.getAaChange(), label + variant.getAaChange(), Type.HGVS, variant.getId(), 0 );
+                }
+            }
+        } );
+
+        daoFactory.getGeneDAO().streamAll( new RowCallback<Gene>() {
+            @Override
+            public void handle( Gene gene ) {
+                int score = count( variantsPerGene, gene.getId() );
+                builder.add( gene.getSymbol(), gene.getSymbol(), Type.GENE, gene.getId(), score );
+                if ( gene.getAliases() != null ) {
+                    for ( String alias : gene.getAliases().split( "\\|" ) ) {
+                        builder.add( alias, alias + " (" + gene.getSymbol() + ")", Type.ALIAS, gene.getId(), score );
+                    }
+                }
+            }
+        } );
+
+        daoFactory.getPaperDAO().streamAll( new RowCallback<Paper>() {
+            @Override
+            public void handle( Paper paper ) {
+                int score = count( variantsPerPaper, paper.getId() );
+                String label = paper.getAuthor() + " (" + paper.getYear() + ")";
+                if ( paper.getPubmedId() > 0 ) {
+                    builder.add( Integer.toString( paper.getPubmedId() ), "PMID:" + paper.getPubmedId() + " "
+                            + label, Type.PAPER, paper.getId(), score );
+                }
+                builder.add( paper.getAuthor(), label, Type.PAPER, paper.getId(), score );
+            }
+        } );
+
+        AutocompleteIndex built = builder.build();
+        index = built;
+        log.info( "Autocomplete index loaded with " + built.size() + " entries in "
+                + ( System.currentTimeMillis() - startTime ) + " ms" );
+    }
+
+    /**
+     * @param query The text typed so far.
+     * @param limit The maximum number of suggestions, at most {@link #MAX_RESULTS}.
+     * @return The best matching suggestions, best first.
+     */
+    public List<Suggestion> suggest( String query, int limit ) {
+        return index.suggest( query, limit );
+    }
+
+    public void setDaoFactoryBean( DAOFactoryBean daoFactoryBean ) {
+        this.daoFactoryBean = daoFactoryBean;
+    }
+
+    public void setApplicationProperties( ApplicationProperties applicationProperties ) {
+        this.applicationProperties = applicationProperties;
+    }
+
+    private int getMaxEntries() {
+        String value = applicationProperties.getProperty( PROPERTY_MAX_ENTRIES );
+        return value == null ? DEFAULT_MAX_ENTRIES : Integer.parseInt( value );
+    }
+
+    /**
+     * Reads the variant counts of a dimension from the variant_summary table, so that ranking does not group the
+     * variant table. Without them all suggestions of that type rank equally.
+     */
+    private static Map<String, Long> findCounts( DAOFactory daoFactory, Dimension dimension ) {
+        AggregateDAO aggregateDAO = daoFactory.getAggregateDAO();
+        try {
+            return aggregateDAO.findAll( dimension );
+        } catch ( DAOException e ) {
+            log.warn( "Could not read variant counts by " + dimension + ", ranking without them", e );
+            return Collections.emptyMap();
+        }
+    }
+
+    private static int count( Map<String, Long> counts, int key ) {
+        Long count = counts.get( Integer.toString( key ) );
+        return count == null ? 0 : count.intValue();
+    }
+
+}
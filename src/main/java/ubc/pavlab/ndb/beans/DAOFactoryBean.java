@@ -20,16 +20,27 @@
 package ubc.pavlab.ndb.beans;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.faces.bean.ApplicationScoped;
 import javax.faces.bean.ManagedBean;
 import javax.faces.bean.ManagedProperty;
 
 import org.apache.log4j.Logger;
 
+import ubc.pavlab.ndb.dao.AsyncDAO;
+import ubc.pavlab.ndb.dao.CachingDAOFactory;
 import ubc.pavlab.ndb.dao.DAOFactory;
+import ubc.pavlab.ndb.dao.DAOProperties;
+import ubc.pavlab.ndb.dao.DAOUtil;
+import ubc.pavlab.ndb.dao.InstrumentedDAOFactory;
 import ubc.pavlab.ndb.exceptions.ConfigurationException;
+import ubc.pavlab.ndb.utility.MetricsRegistry;
+
+import com.google.common.cache.CacheStats;
 
 /**
  * Bean injected into services in order to give access to the DAO Factory
@@ -37,7 +48,7 @@ import ubc.pavlab.ndb.exceptions.ConfigurationException;
  * @author mjacobson
  * @version $Id$
  */
-@ManagedBean(name = "daoFactoryBean")
+@ManagedBean(name = "daoFactoryBean", eager = true)
 @ApplicationScoped
 public class DAOFactoryBean implements Serializable {
 
@@ -49,9 +60,23 @@ public class DAOFactoryBean implements Serializable {
     private static final Logger log = Logger.getLogger( DAOFactoryBean.class );
 
     private static final String PROPERTY_DB = "ndb.db";
+    private static final String PROPERTY_CACHE_ENABLED = "ndb.cache.enabled";
+    private static final String PROPERTY_CACHE_VARIANT = "ndb.cache.variant";
+    private static final String PROPERTY_CACHE_GENE = "ndb.cache.gene";
+    private static final String PROPERTY_CACHE_PAPER = "ndb.cache.paper";
+    private static final String PROPERTY_ASYNC_THREADS = "ndb.async.threads";
+    private static final String PROPERTY_ASYNC_QUEUE = "ndb.async.queue";
+    private static final String PROPERTY_ASYNC_TIMEOUT_MS = "ndb.async.timeoutMs";
+
+    private static final int DEFAULT_ASYNC_THREADS = 8;
+    private static final int DEFAULT_ASYNC_QUEUE = 200;
 
     private static DAOFactory daoFactory;
 
+    private static AsyncDAO asyncDAO;
+
+    private static InstrumentedDAOFactory instrumentation;
+
     @ManagedProperty("#{applicationProperties}")
     private ApplicationProperties applicationProperties;
 
@@ -73,16 +98,117 @@ public class DAOFactoryBean implements Serializable {
         }
 
         daoFactory = DAOFactory.getInstance( dbKey );
+        instrumentation = daoFactory instanceof InstrumentedDAOFactory ? ( InstrumentedDAOFactory ) daoFactory : null;
+
+        // Entity lookups go through bounded caches unless disabled.
+        if ( !"false".equalsIgnoreCase( applicationProperties.getProperty( PROPERTY_CACHE_ENABLED ) ) ) {
+            daoFactory = new CachingDAOFactory( daoFactory,
+                    applicationProperties.getProperty( PROPERTY_CACHE_VARIANT ),
+                    applicationProperties.getProperty( PROPERTY_CACHE_GENE ),
+                    applicationProperties.getProperty( PROPERTY_CACHE_PAPER ) );
+        }
 
         log.info( "DAOFactory successfully obtained: " + daoFactory );
+
+        // Pages fan out independent queries on their own pool; leave half the connections for everything else.
+        int maxConnections = daoFactory.getMaxConnections();
+        int threads = integer( PROPERTY_ASYNC_THREADS, maxConnections > 0 ? Math.max( 1, maxConnections / 2 )
+                : DEFAULT_ASYNC_THREADS );
+        asyncDAO = new AsyncDAO( daoFactory, threads, integer( PROPERTY_ASYNC_QUEUE, DEFAULT_ASYNC_QUEUE ),
+                integer( PROPERTY_ASYNC_TIMEOUT_MS, ( int ) AsyncDAO.DEFAULT_TIMEOUT_MS ) );
+
+        registerMetrics( MetricsRegistry.getInstance() );
+    }
+
+    @PreDestroy
+    public void destroy() {
+        log.info( "DAOFactoryBean destroy" );
+        if ( asyncDAO != null ) {
+            asyncDAO.close();
+        }
+        if ( daoFactory != null ) {
+            daoFactory.close();
+        }
+        DAOProperties.close();
     }
 
     public DAOFactory getDAOFactory() {
         return daoFactory;
     }
 
-    public void setSettingsCache( ApplicationProperties applicationProperties ) {
+    /**
+     * @return Runs DAO work in parallel for pages which load independent data.
+     */
+    public AsyncDAO getAsyncDAO() {
+        return asyncDAO;
+    }
+
+    /**
+     * @return The query latency statistics of the database, or null when instrumentation is disabled.
+     */
+    public InstrumentedDAOFactory getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Drops all cached entities, called when a new data release is loaded.
+     */
+    public void invalidateCaches() {
+        if ( daoFactory instanceof CachingDAOFactory ) {
+            ( ( CachingDAOFactory ) daoFactory ).invalidateAll();
+        }
+    }
+
+    /**
+     * @return The statistics of each entity cache by name, empty when caching is disabled.
+     */
+    public Map<String, CacheStats> getCacheStats() {
+        if ( daoFactory instanceof CachingDAOFactory ) {
+            return ( ( CachingDAOFactory ) daoFactory ).getCacheStats();
+        }
+        return Collections.emptyMap();
+    }
+
+    public void setApplicationProperties( ApplicationProperties applicationProperties ) {
         this.applicationProperties = applicationProperties;
     }
 
+    /**
+     * Publishes connection usage, cache hit rates and the async DAO queue; evaluated on every scrape.
+     */
+    private void registerMetrics( MetricsRegistry metrics ) {
+        for ( final String stat : daoFactory.getConnectionStats().keySet() ) {
+            metrics.gauge( "ndb_db_connections{stat=" + MetricsRegistry.label( stat ) + "}",
+                    () -> daoFactory.getConnectionStats().get( stat ) );
+        }
+        if ( instrumentation != null ) {
+            metrics.register( "ndb_db_connection_wait_seconds", instrumentation.getConnectionWait() );
+        }
+
+        for ( final String cache : getCacheStats().keySet() ) {
+            String label = "{cache=" + MetricsRegistry.label( cache ) + "}";
+            metrics.gauge( "ndb_cache_hits" + label, () -> getCacheStats().get( cache ).hitCount() );
+            metrics.gauge( "ndb_cache_misses" + label, () -> getCacheStats().get( cache ).missCount() );
+            metrics.gauge( "ndb_cache_evictions" + label, () -> getCacheStats().get( cache ).evictionCount() );
+            metrics.gauge( "ndb_cache_hit_ratio" + label, () -> getCacheStats().get( cache ).hitRate() );
+            metrics.gauge( "ndb_cache_size" + label,
+                    () -> ( ( CachingDAOFactory ) daoFactory ).getCacheSizes().get( cache ) );
+        }
+        String statements = "{cache=\"statement\"}";
+        metrics.gauge( "ndb_cache_hits" + statements, () -> DAOUtil.getStatementCacheStats().hitCount() );
+        metrics.gauge( "ndb_cache_misses" + statements, () -> DAOUtil.getStatementCacheStats().missCount() );
+        metrics.gauge( "ndb_cache_evictions" + statements, () -> DAOUtil.getStatementCacheStats().evictionCount() );
+        metrics.gauge( "ndb_cache_hit_ratio" + statements, () -> DAOUtil.getStatementCacheStats().hitRate() );
+
+        metrics.gauge( "ndb_async_active", asyncDAO::getActiveCount );
+        metrics.gauge( "ndb_async_queued", asyncDAO::getQueuedCount );
+        metrics.gauge( "ndb_async_rejected", asyncDAO::getRejectedCount );
+        metrics.gauge( "ndb_async_timed_out", asyncDAO::getTimedOutCount );
+    }
+
+    private int integer( String key, int defaultValue ) {
+        String value = applicationProperties.getProperty( key );
+        return value == null ? defaultValue : Integer.parseInt( value.trim() );
+    }
+
 }
@@ -0,0 +1,220 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.beans;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.faces.bean.ApplicationScoped;
+import javax.faces.bean.ManagedBean;
+import javax.faces.bean.ManagedProperty;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.DataRelease;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Keeps track of the current data release by polling the data_release table, and tells listeners when a new release
+ * appears. Entity caches are invalidated first, then the in-memory indexes are rebuilt, then any other registered
+ * listeners run in registration order.
+ * 
+ * @version $Id$
+ */
+@ManagedBean(name = "dataReleaseBean", eager = true)
+@ApplicationScoped
+public class DataReleaseBean implements Serializable {
+
+    private static final long serialVersionUID = -6217309473001528724L;
+
+    private static final Logger log = Logger.getLogger( DataReleaseBean.class );
+
+    private static final String PROPERTY_POLL_SECONDS = "ndb.release.pollSeconds";
+    private static final long DEFAULT_POLL_SECONDS = 60;
+
+    @ManagedProperty("#{applicationProperties}")
+    private ApplicationProperties applicationProperties;
+
+    @ManagedProperty("#{daoFactoryBean}")
+    private DAOFactoryBean daoFactoryBean;
+
+    @ManagedProperty("#{regionIndexBean}")
+    private RegionIndexBean regionIndexBean;
+
+    @ManagedProperty("#{autocompleteBean}")
+    private AutocompleteBean autocompleteBean;
+
+    private final List<DataReleaseListener> listeners = new CopyOnWriteArrayList<>();
+
+    private transient volatile DataRelease current;
+    private transient ScheduledExecutorService poller;
+
+    public DataReleaseBean() {
+        log.info( "DataReleaseBean created" );
+    }
+
+    @PostConstruct
+    public void init() {
+        log.info( "DataReleaseBean init" );
+        listeners.add( new DataReleaseListener() {
+            @Override
+            public void releaseChanged( DataRelease release ) {
+                daoFactoryBean.invalidateCaches();
+            }
+        } );
+        listeners.add( new DataReleaseListener() {
+            @Override
+            public void releaseChanged( DataRelease release ) {
+                regionIndexBean.reload();
+            }
+        } );
+        listeners.add( new DataReleaseListener() {
+            @Override
+            public void releaseChanged( DataRelease release ) {
+                autocompleteBean.reload();
+            }
+        } );
+
+        current = findLatest();
+        log.info( "Current data release: " + current );
+
+        String value = applicationProperties.getProperty( PROPERTY_POLL_SECONDS );
+        long pollSeconds = value == null ? DEFAULT_POLL_SECONDS : Long.parseLong( value );
+        if ( pollSeconds > 0 ) {
+            poller = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon( true )
+                    .setNameFormat( "ndb-release-poller" ).build() );
+            poller.scheduleWithFixedDelay( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        checkForRelease();
+                    } catch ( RuntimeException e ) {
+                        log.error( "Checking for a new data release failed", e );
+                    }
+                }
+            }, pollSeconds, pollSeconds, TimeUnit.SECONDS );
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        log.info( "DataReleaseBean destroy" );
+        if ( poller != null ) {
+            poller.shutdownNow();
+        }
+    }
+
+    /**
+     * Looks up the latest release and notifies the listeners if it differs from the current one.
+     * 
+     * @return True if a new release was found.
+     */
+    public synchronized boolean checkForRelease() {
+        return releaseLoaded( findLatest() );
+    }
+
+    /**
+     * Runs the listeners for the given release and only then makes it current. Until every cache and index has been
+     * rebuilt, {@link #getVersion()} keeps returning the previous version, so nothing derived from the data in the
+     * meantime is labelled with the new one.
+     */
+    synchronized boolean releaseLoaded( DataRelease latest ) {
+        if ( latest == null || latest.equals( current ) ) {
+            return false;
+        }
+        log.info( "New data release " + latest + ", previous " + current );
+        for ( DataReleaseListener listener : listeners ) {
+            try {
+                listener.releaseChanged( latest );
+            } catch ( RuntimeException e ) {
+                log.error( "Data release listener " + listener + " failed", e );
+            }
+        }
+        current = latest;
+        return true;
+    }
+
+    /**
+     * Registers a listener, called after the built-in ones on every new release.
+     */
+    public void addListener( DataReleaseListener listener ) {
+        listeners.add( listener );
+    }
+
+    public void removeListener( DataReleaseListener listener ) {
+        listeners.remove( listener );
+    }
+
+    /**
+     * @return The current data release, or null if the data_release table is empty or unavailable.
+     */
+    public DataRelease getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return A string identifying the current data, changing with every release.
+     */
+    public String getVersion() {
+        return versionOf( current );
+    }
+
+    /**
+     * @return The version string of the given release, as returned by {@link #getVersion()}.
+     */
+    public static String versionOf( DataRelease release ) {
+        return release == null ? "0" : Integer.toString( release.getId() );
+    }
+
+    public void setApplicationProperties( ApplicationProperties applicationProperties ) {
+        this.applicationProperties = applicationProperties;
+    }
+
+    public void setDaoFactoryBean( DAOFactoryBean daoFactoryBean ) {
+        this.daoFactoryBean = daoFactoryBean;
+    }
+
+    public void setRegionIndexBean( RegionIndexBean regionIndexBean ) {
+        this.regionIndexBean = regionIndexBean;
+    }
+
+    public void setAutocompleteBean( AutocompleteBean autocompleteBean ) {
+        this.autocompleteBean = autocompleteBean;
+    }
+
+    private DataRelease findLatest() {
+        try {
+            return daoFactoryBean.getDAOFactory().getDataReleaseDAO().findLatest();
+        } catch ( DAOException e ) {
+            log.warn( "Could not read the data release: " + e.getMessage() );
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.beans;
+
+import ubc.pavlab.ndb.model.DataRelease;
+
+/**
+ * Notified by {@link DataReleaseBean} when a new data release has been loaded into the database, so that anything
+ * derived from the previous data can be dropped or rebuilt.
+ * 
+ * @version $Id$
+ */
+public interface DataReleaseListener {
+
+    /**
+     * @param release The release now current.
+     */
+    void releaseChanged( DataRelease release );
+
+}
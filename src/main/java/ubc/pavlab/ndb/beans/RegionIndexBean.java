@@ -0,0 +1,126 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.beans;
+
+import java.io.Serializable;
+
+import javax.annotation.PostConstruct;
+import javax.faces.bean.ApplicationScoped;
+import javax.faces.bean.ManagedBean;
+import javax.faces.bean.ManagedProperty;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.dao.RowCallback;
+import ubc.pavlab.ndb.dao.VariantDAO;
+import ubc.pavlab.ndb.model.Variant;
+import ubc.pavlab.ndb.utility.IntervalIndex;
+
+/**
+ * Answers "all variants in chromosome:start-stop" from an in-memory interval index instead of a range scan per
+ * request. The index is loaded at startup and rebuilt by {@link #reload()}; queries keep using the previous index until
+ * the new one is complete. Variants without a chromosome or ending before they start are left out and logged.
+ * 
+ * @version $Id$
+ */
+@ManagedBean(name = "regionIndexBean", eager = true)
+@ApplicationScoped
+public class RegionIndexBean implements Serializable {
+
+    private static final long serialVersionUID = -4467210431823371062L;
+
+    private static final Logger log = Logger.getLogger( RegionIndexBean.class );
+
+    private static final int MAX_LOGGED_SKIPS = 10;
+
+    @ManagedProperty("#{daoFactoryBean}")
+    private DAOFactoryBean daoFactoryBean;
+
+    private transient volatile IntervalIndex index = new IntervalIndex.Builder().build();
+
+    public RegionIndexBean() {
+        log.info( "RegionIndexBean created" );
+    }
+
+    @PostConstruct
+    public void init() {
+        log.info( "RegionIndexBean init" );
+        reload();
+    }
+
+    /**
+     * Rebuilds the index from the database and swaps it in once complete.
+     */
+    public synchronized void reload() {
+        long startTime = System.currentTimeMillis();
+        VariantDAO variantDAO = daoFactoryBean.getDAOFactory().getVariantDAO();
+        final IntervalIndex.Builder builder = new IntervalIndex.Builder();
+        final int[] skipped = new int[1];
+        variantDAO.streamLocations( new RowCallback<Variant>() {
+            @Override
+            public void handle( Variant variant ) {
+                // A bad row must not keep the application from starting, so it is left out of the index.
+                String chromosome = variant.getChromosome();
+                if ( !IntervalIndex.Builder.isValid( chromosome, variant.getStart(), variant.getStop() ) ) {
+                    if ( skipped[0]++ < MAX_LOGGED_SKIPS ) {
+                        log.warn( "Variant " + variant.getId() + " left out of the region index, invalid location "
+                                + chromosome + ":" + variant.getStart() + "-" + variant.getStop() );
+                    }
+                    return;
+                }
+                builder.add( chromosome, variant.getStart(), variant.getStop(), variant.getId() );
+            }
+        } );
+        if ( skipped[0] > 0 ) {
+            log.warn( skipped[0] + " variants with an invalid location left out of the region index" );
+        }
+        IntervalIndex built = builder.build();
+        index = built;
+        log.info( "Region index loaded with " + built.size() + " variants in " + built.getChromosomes().size()
+                + " chromosomes in " + ( System.currentTimeMillis() - startTime ) + " ms" );
+    }
+
+    /**
+     * @param chromosome The chromosome, with or without 'chr' prefix.
+     * @param start First position of the region, inclusive.
+     * @param stop Last position of the region, inclusive.
+     * @return The IDs of all variants overlapping the region, ordered by start.
+     */
+    public int[] findIds( String chromosome, long start, long stop ) {
+        return index.overlap( chromosome, start, stop );
+    }
+
+    /**
+     * @return The number of variants overlapping the region.
+     */
+    public int count( String chromosome, long start, long stop ) {
+        return index.count( chromosome, start, stop );
+    }
+
+    public int getSize() {
+        return index.size();
+    }
+
+    public void setDaoFactoryBean( DAOFactoryBean daoFactoryBean ) {
+        this.daoFactoryBean = daoFactoryBean;
+    }
+
+}
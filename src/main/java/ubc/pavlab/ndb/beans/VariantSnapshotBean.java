@@ -0,0 +1,224 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.beans;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.faces.bean.ApplicationScoped;
+import javax.faces.bean.ManagedBean;
+import javax.faces.bean.ManagedProperty;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.dao.AggregateDAO.Dimension;
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.DataRelease;
+import ubc.pavlab.ndb.snapshot.VariantSnapshot;
+import ubc.pavlab.ndb.snapshot.VariantSnapshotWriter;
+
+/**
+ * Serves whole-table aggregates, such as variant counts by gene, category or paper, from a memory-mapped columnar
+ * snapshot of the variant table. The snapshot for the current data release is written to the directory given by
+ * <code>ndb.snapshot.dir</code> (by default the system temporary directory) if it does not exist yet, and rewritten
+ * when a new release appears. Aggregates keep using the previous snapshot until the new one is complete.
+ * <p>
+ * The count of a single gene, paper, category or func is read from the variant_summary table as one row instead, see
+ * {@link #getVariantCount(Dimension, String)}.
+ * 
+ * @version $Id$
+ */
+@ManagedBean(name = "variantSnapshotBean", eager = true)
+@ApplicationScoped
+public class VariantSnapshotBean implements Serializable {
+
+    private static final long serialVersionUID = 2951877410653392417L;
+
+    private static final Logger log = Logger.getLogger( VariantSnapshotBean.class );
+
+    private static final String PROPERTY_SNAPSHOT_DIR = "ndb.snapshot.dir";
+    private static final String FILE_PREFIX = "variants.release-";
+    private static final String FILE_SUFFIX = ".snap";
+
+    @ManagedProperty("#{applicationProperties}")
+    private ApplicationProperties applicationProperties;
+
+    @ManagedProperty("#{daoFactoryBean}")
+    private DAOFactoryBean daoFactoryBean;
+
+    @ManagedProperty("#{dataReleaseBean}")
+    private DataReleaseBean dataReleaseBean;
+
+    private transient volatile VariantSnapshot snapshot;
+
+    public VariantSnapshotBean() {
+        log.info( "VariantSnapshotBean created" );
+    }
+
+    @PostConstruct
+    public void init() {
+        log.info( "VariantSnapshotBean init" );
+        reload();
+        dataReleaseBean.addListener( new DataReleaseListener() {
+            @Override
+            public void releaseChanged( DataRelease release ) {
+                // The release only becomes current once all listeners have run.
+                reload( DataReleaseBean.versionOf( release ) );
+            }
+        } );
+    }
+
+    @PreDestroy
+    public void destroy() {
+        log.info( "VariantSnapshotBean destroy" );
+        close( snapshot );
+    }
+
+    /**
+     * Opens the snapshot of the current data release, writing it first if necessary, and swaps it in once complete.
+     */
+    public void reload() {
+        reload( dataReleaseBean.getVersion() );
+    }
+
+    private synchronized void reload( final String version ) {
+        long startTime = System.currentTimeMillis();
+        File directory = getDirectory();
+        if ( directory == null ) {
+            return;
+        }
+        File file = new File( directory, FILE_PREFIX + version + FILE_SUFFIX );
+        VariantSnapshot previous = snapshot;
+        if ( previous != null && previous.getFile().equals( file ) ) {
+            return;
+        }
+
+        VariantSnapshot opened;
+        try {
+            if ( !file.exists() ) {
+                VariantSnapshotWriter.write( daoFactoryBean.getDAOFactory().getVariantDAO(), file, version );
+            }
+            opened = VariantSnapshot.open( file );
+        } catch ( IOException | DAOException e ) {
+            log.error( "Could not load variant snapshot " + file, e );
+            return;
+        }
+        snapshot = opened;
+        close( previous );
+        log.info( "Variant snapshot " + file + " loaded with " + opened.getRows() + " variants in "
+                + ( System.currentTimeMillis() - startTime ) + " ms" );
+
+        File[] stale = directory.listFiles( new FilenameFilter() {
+            @Override
+            public boolean accept( File dir, String name ) {
+                return name.startsWith( FILE_PREFIX ) && name.endsWith( FILE_SUFFIX )
+                        && !name.equals( FILE_PREFIX + version + FILE_SUFFIX );
+            }
+        } );
+        if ( stale != null ) {
+            for ( File f : stale ) {
+                if ( !f.delete() ) {
+                    log.warn( "Could not delete stale variant snapshot " + f );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The current snapshot, or null if none could be loaded.
+     */
+    public VariantSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public Map<Integer, Integer> getCountsByGene() {
+        VariantSnapshot current = snapshot;
+        return current == null ? Collections.<Integer, Integer> emptyMap() : current
+                .countByInt( VariantSnapshot.GENE_ID );
+    }
+
+    public Map<Integer, Integer> getCountsByPaper() {
+        VariantSnapshot current = snapshot;
+        return current == null ? Collections.<Integer, Integer> emptyMap() : current
+                .countByInt( VariantSnapshot.PAPER_ID );
+    }
+
+    public Map<String, Integer> getCountsByCategory() {
+        VariantSnapshot current = snapshot;
+        return current == null ? Collections.<String, Integer> emptyMap() : current
+                .countBy( VariantSnapshot.CATEGORY );
+    }
+
+    public Map<String, Integer> getCountsByFunc() {
+        VariantSnapshot current = snapshot;
+        return current == null ? Collections.<String, Integer> emptyMap() : current.countBy( VariantSnapshot.FUNC );
+    }
+
+    /**
+     * @param dimension What to count by.
+     * @param key The gene or paper id, category or func.
+     * @return The number of variants under the given key, read as a single row of the variant_summary table.
+     * @throws DAOException If something fails at database level.
+     */
+    public long getVariantCount( Dimension dimension, String key ) throws DAOException {
+        return daoFactoryBean.getDAOFactory().getAggregateDAO().count( dimension, key );
+    }
+
+    public void setApplicationProperties( ApplicationProperties applicationProperties ) {
+        this.applicationProperties = applicationProperties;
+    }
+
+    public void setDaoFactoryBean( DAOFactoryBean daoFactoryBean ) {
+        this.daoFactoryBean = daoFactoryBean;
+    }
+
+    public void setDataReleaseBean( DataReleaseBean dataReleaseBean ) {
+        this.dataReleaseBean = dataReleaseBean;
+    }
+
+    private File getDirectory() {
+        String path = applicationProperties.getProperty( PROPERTY_SNAPSHOT_DIR );
+        File directory = new File( path != null ? path : System.getProperty( "java.io.tmpdir" ) );
+        if ( !( directory.isDirectory() || directory.mkdirs() ) ) {
+            log.error( "Snapshot directory " + directory + " is not available" );
+            return null;
+        }
+        return directory;
+    }
+
+    private static void close( VariantSnapshot snapshot ) {
+        if ( snapshot == null ) {
+            return;
+        }
+        try {
+            snapshot.close();
+        } catch ( IOException e ) {
+            log.warn( "Could not close variant snapshot " + snapshot.getFile(), e );
+        }
+    }
+
+}
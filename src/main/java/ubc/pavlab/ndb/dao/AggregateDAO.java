@@ -0,0 +1,139 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.util.Map;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * This interface represents a contract for a DAO for the variant_summary table, which holds the number of variants
+ * per gene, paper, category and func so that pages can read them as single rows instead of grouping the variant
+ * table. The table is kept current by {@link VariantAggregates}.
+ */
+public interface AggregateDAO {
+
+    /**
+     * The ways variants are counted. Variants with a null value, or an id of 0 which is how a null id is read, are not
+     * counted in that dimension; {@link #key(Variant)} and {@link #getCondition()} must agree on this.
+     */
+    public enum Dimension {
+        GENE("gene_id", "gene_id > 0") {
+            @Override
+            public String key( Variant variant ) {
+                return variant.getGeneId() > 0 ? Integer.toString( variant.getGeneId() ) : null;
+            }
+        },
+        PAPER("paper_id", "paper_id > 0") {
+            @Override
+            public String key( Variant variant ) {
+                return variant.getPaperId() > 0 ? Integer.toString( variant.getPaperId() ) : null;
+            }
+        },
+        CATEGORY("category", "category IS NOT NULL") {
+            @Override
+            public String key( Variant variant ) {
+                return variant.getCategory();
+            }
+        },
+        FUNC("func", "func IS NOT NULL") {
+            @Override
+            public String key( Variant variant ) {
+                return variant.getFunc();
+            }
+        };
+
+        private final String column;
+        private final String condition;
+
+        private Dimension( String column, String condition ) {
+            this.column = column;
+            this.condition = condition;
+        }
+
+        /**
+         * @return The column of the variant table this dimension groups by.
+         */
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * @return The SQL condition on the variant table selecting the rows counted in this dimension.
+         */
+        public String getCondition() {
+            return condition;
+        }
+
+        /**
+         * @return The key the given variant is counted under, or null if it is not counted.
+         */
+        public abstract String key( Variant variant );
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of variants counted under the given key.
+     * 
+     * @param dimension The dimension.
+     * @param key The gene ID, paper ID, category or func.
+     * @return The number of variants, 0 if there are none.
+     * @throws DAOException If something fails at database level.
+     */
+    public long count( Dimension dimension, String key ) throws DAOException;
+
+    /**
+     * Returns all stored counts of a dimension.
+     * 
+     * @param dimension The dimension.
+     * @return The number of variants per key.
+     * @throws DAOException If something fails at database level.
+     */
+    public Map<String, Long> findAll( Dimension dimension ) throws DAOException;
+
+    /**
+     * Adds the given changes to the stored counts in a single transaction. Counts which drop to zero are removed.
+     * 
+     * @param deltas Per dimension, the change of the count per key.
+     * @throws DAOException If something fails at database level; nothing is changed then.
+     */
+    public void applyDeltas( Map<Dimension, Map<String, Long>> deltas ) throws DAOException;
+
+    /**
+     * Counts the variant table with GROUP BY, ignoring the stored counts.
+     * 
+     * @param dimension The dimension.
+     * @return The number of variants per key.
+     * @throws DAOException If something fails at database level.
+     */
+    public Map<String, Long> compute( Dimension dimension ) throws DAOException;
+
+    /**
+     * Replaces all stored counts in a single transaction.
+     * 
+     * @param counts Per dimension, the number of variants per key.
+     * @throws DAOException If something fails at database level; nothing is changed then.
+     */
+    public void replaceAll( Map<Dimension, Map<String, Long>> counts ) throws DAOException;
+
+}
@@ -0,0 +1,186 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+/**
+ * This class represents a concrete JDBC implementation of the {@link AggregateDAO} interface.
+ */
+public class AggregateDAOImpl implements AggregateDAO {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( AggregateDAOImpl.class );
+
+    private static final String SQL_TABLE = "variant_summary";
+
+    private static final String SQL_COUNT = "SELECT variants FROM " + SQL_TABLE + " WHERE dimension = ? AND item = ?";
+    private static final String SQL_LIST_BY_DIMENSION = "SELECT item, variants FROM " + SQL_TABLE
+            + " WHERE dimension = ?";
+    private static final String SQL_ADD = "INSERT INTO " + SQL_TABLE + " (dimension, item, variants) VALUES (?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE variants = variants + VALUES(variants)";
+    private static final String SQL_INSERT = "INSERT INTO " + SQL_TABLE
+            + " (dimension, item, variants) VALUES (?, ?, ?)";
+    private static final String SQL_DELETE_EMPTY = "DELETE FROM " + SQL_TABLE + " WHERE variants <= 0";
+    private static final String SQL_DELETE_ALL = "DELETE FROM " + SQL_TABLE;
+
+    /**
+     * The GROUP BY over the variant table; column and condition come from {@link Dimension}, never from input.
+     */
+    private static final String SQL_COMPUTE = "SELECT %1$s AS item, COUNT(*) AS variants FROM variant"
+            + " WHERE %2$s GROUP BY %1$s";
+
+    private static final int BATCH_SIZE = 1000;
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private DAOFactory daoFactory;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct an Aggregate DAO for the given DAOFactory. Package private so that it can be constructed inside the
+     * DAO package only.
+     * 
+     * @param daoFactory The DAOFactory to construct this Aggregate DAO for.
+     */
+    AggregateDAOImpl( DAOFactory daoFactory ) {
+        this.daoFactory = daoFactory;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public long count( Dimension dimension, String key ) throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = daoFactory.getReadConnection();
+            statement = DAOUtil.prepareStatement( connection, SQL_COUNT, false );
+            DAOUtil.bind( statement ).bind( dimension.name() ).bind( key );
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong( "variants" ) : 0;
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+    }
+
+    @Override
+    public Map<String, Long> findAll( Dimension dimension ) throws DAOException {
+        return list( SQL_LIST_BY_DIMENSION, dimension.name() );
+    }
+
+    @Override
+    public Map<String, Long> compute( Dimension dimension ) throws DAOException {
+        return list( String.format( SQL_COMPUTE, dimension.getColumn(), dimension.getCondition() ) );
+    }
+
+    @Override
+    public void applyDeltas( Map<Dimension, Map<String, Long>> deltas ) throws DAOException {
+        write( deltas, false );
+    }
+
+    @Override
+    public void replaceAll( Map<Dimension, Map<String, Long>> counts ) throws DAOException {
+        write( counts, true );
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private Map<String, Long> list( String sql, Object... values ) throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        Map<String, Long> counts = new HashMap<>();
+        try {
+            connection = daoFactory.getReadConnection();
+            statement = DAOUtil.prepareStatement( connection, sql, false, values );
+            resultSet = statement.executeQuery();
+            while ( resultSet.next() ) {
+                counts.put( resultSet.getString( "item" ), resultSet.getLong( "variants" ) );
+            }
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+        return counts;
+    }
+
+    /**
+     * Writes counts in one transaction, either adding them to the stored ones or replacing all stored ones.
+     */
+    private void write( final Map<Dimension, Map<String, Long>> counts, final boolean replace )
+            throws DAOException {
+        int rows = Transactions.run( daoFactory, "Writing variant summary", connection -> {
+            if ( replace ) {
+                execute( connection, SQL_DELETE_ALL );
+            }
+            int written = 0;
+            try (PreparedStatement statement = connection.prepareStatement( replace ? SQL_INSERT : SQL_ADD )) {
+                int batched = 0;
+                for ( Entry<Dimension, Map<String, Long>> dimension : counts.entrySet() ) {
+                    for ( Entry<String, Long> count : dimension.getValue().entrySet() ) {
+                        if ( count.getKey() == null || count.getValue() == 0 ) {
+                            continue;
+                        }
+                        DAOUtil.setValues( statement, dimension.getKey().name(), count.getKey(), count.getValue() );
+                        statement.addBatch();
+                        written++;
+                        if ( ++batched == BATCH_SIZE ) {
+                            statement.executeBatch();
+                            batched = 0;
+                        }
+                    }
+                }
+                if ( batched > 0 ) {
+                    statement.executeBatch();
+                }
+            }
+            if ( !replace ) {
+                execute( connection, SQL_DELETE_EMPTY );
+            }
+            return written;
+        } );
+        log.debug( ( replace ? "Replaced " : "Updated " ) + rows + " variant summary rows" );
+    }
+
+    private static void execute( Connection connection, String sql ) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement( sql )) {
+            statement.executeUpdate();
+        }
+    }
+
+}
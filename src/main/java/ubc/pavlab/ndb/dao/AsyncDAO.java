@@ -0,0 +1,262 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs DAO work on a bounded pool of its own and hands back futures, so that a page can load independent data at the
+ * same time and wait for the slowest query instead of for the sum of all of them:
+ * 
+ * <pre>
+ * CompletableFuture&lt;Gene&gt; gene = async.submit( f -&gt; f.getGeneDAO().find( id ) );
+ * CompletableFuture&lt;List&lt;Variant&gt;&gt; variants = async.submit( f -&gt; f.getVariantDAO().findByGenes( ids ) );
+ * AsyncDAO.awaitAll( 5, TimeUnit.SECONDS, gene, variants );
+ * </pre>
+ * 
+ * Every call has a timeout after which its future fails with a {@link TimeoutException}. A timed out or cancelled
+ * call is interrupted if it is still running, which frees its thread once the driver returns; a statement already
+ * sent to the database runs to completion there. When all threads are busy and the queue is full, calls fail at once
+ * with a {@link DAOException} rather than piling up behind a slow database.
+ * <p>
+ * The work runs on pool threads, so it must not use the FacesContext or other state bound to the request thread.
+ */
+public class AsyncDAO implements AutoCloseable {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( AsyncDAO.class );
+
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory daoFactory;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+    private final long defaultTimeoutMs;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * @param daoFactory The DAOFactory handed to the work.
+     * @param threads The number of calls running at the same time; keep it below the connection pool size.
+     * @param queueSize The number of calls waiting for a thread before further calls are rejected.
+     * @param defaultTimeoutMs The timeout of calls submitted without one.
+     */
+    public AsyncDAO( DAOFactory daoFactory, int threads, int queueSize, long defaultTimeoutMs ) {
+        this.daoFactory = daoFactory;
+        this.defaultTimeoutMs = defaultTimeoutMs;
+        this.executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>( queueSize ), new ThreadFactoryBuilder().setDaemon( true )
+                        .setNameFormat( "ndb-async-%d" ).build() );
+        this.executor.allowCoreThreadTimeOut( true );
+        this.timer = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon( true )
+                .setNameFormat( "ndb-async-timer" ).build() );
+        log.info( "Async DAO created (threads: " + threads + ", queue: " + queueSize + ", timeoutMs: "
+                + defaultTimeoutMs + ")" );
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Runs the given work with the default timeout.
+     * 
+     * @param work Receives the DAOFactory and returns the result.
+     * @return The future result.
+     */
+    public <T> CompletableFuture<T> submit( Function<? super DAOFactory, ? extends T> work ) {
+        return submit( work, defaultTimeoutMs, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Runs the given work. Cancelling the returned future interrupts the work if it is running.
+     * 
+     * @param work Receives the DAOFactory and returns the result.
+     * @param timeout How long the work may take, including time spent in the queue.
+     * @param unit The unit of the timeout.
+     * @return The future result; fails with a {@link TimeoutException} after the timeout, or with a
+     *         {@link DAOException} if the queue is full.
+     */
+    public <T> CompletableFuture<T> submit( final Function<? super DAOFactory, ? extends T> work, long timeout,
+            TimeUnit unit ) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Future<?> task;
+        // Reads in the work see the writes of the client it is done for, see ReplicaRoutingDAOFactory.
+        final String client = ReplicaRoutingDAOFactory.currentClient();
+        try {
+            task = executor.submit( () -> {
+                if ( result.isDone() ) {
+                    return;
+                }
+                try (ReplicaRoutingDAOFactory.ClientScope scope = ReplicaRoutingDAOFactory.actingFor( client )) {
+                    result.complete( work.apply( daoFactory ) );
+                } catch ( Throwable t ) {
+                    result.completeExceptionally( t );
+                }
+            } );
+        } catch ( RejectedExecutionException e ) {
+            rejected.incrementAndGet();
+            result.completeExceptionally( new DAOException( "Async DAO queue is full (active: "
+                    + executor.getActiveCount() + ", queued: " + executor.getQueue().size() + ")", e ) );
+            return result;
+        }
+
+        final ScheduledFuture<?> timeoutTask = timer.schedule( () -> {
+            result.completeExceptionally( new TimeoutException( "Async DAO call timed out after " + timeout + " "
+                    + unit.toString().toLowerCase() ) );
+        }, timeout, unit );
+        result.whenComplete( ( value, error ) -> {
+            timeoutTask.cancel( false );
+            if ( error instanceof TimeoutException ) {
+                timedOut.incrementAndGet();
+            }
+            if ( error instanceof TimeoutException || error instanceof CancellationException ) {
+                task.cancel( true );
+            }
+        } );
+        return result;
+    }
+
+    /**
+     * Waits for all given futures. As soon as one fails, or when the timeout passes, the unfinished ones are cancelled
+     * and the failure is thrown without waiting for the others.
+     * 
+     * @param timeout How long to wait for all of them together.
+     * @param unit The unit of the timeout.
+     * @param futures The futures to wait for.
+     * @throws DAOException If any future failed, timed out or was cancelled, or the wait was interrupted. A
+     *         DAOException of the work itself is rethrown as is.
+     */
+    public static void awaitAll( long timeout, TimeUnit unit, CompletableFuture<?>... futures ) throws DAOException {
+        final CompletableFuture<Void> all = new CompletableFuture<>();
+        for ( CompletableFuture<?> future : futures ) {
+            future.whenComplete( ( value, error ) -> {
+                if ( error != null ) {
+                    all.completeExceptionally( unwrap( error ) );
+                }
+            } );
+        }
+        CompletableFuture.allOf( futures ).whenComplete( ( value, error ) -> {
+            if ( error == null ) {
+                all.complete( null );
+            } else {
+                all.completeExceptionally( unwrap( error ) );
+            }
+        } );
+
+        try {
+            all.get( timeout, unit );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            cancelAll( futures );
+            throw new DAOException( "Interrupted while waiting for " + futures.length + " queries", e );
+        } catch ( TimeoutException e ) {
+            cancelAll( futures );
+            throw new DAOException( "Timed out after " + timeout + " " + unit.toString().toLowerCase()
+                    + " waiting for " + futures.length + " queries", e );
+        } catch ( CancellationException e ) {
+            cancelAll( futures );
+            throw new DAOException( "Query was cancelled", e );
+        } catch ( ExecutionException e ) {
+            cancelAll( futures );
+            if ( e.getCause() instanceof DAOException ) {
+                throw ( DAOException ) e.getCause();
+            }
+            throw new DAOException( e.getCause() );
+        }
+    }
+
+    /**
+     * Stops accepting work and interrupts running calls.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * @return The number of calls currently running.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return The number of calls waiting for a thread.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return The number of calls rejected because the queue was full, since startup.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The number of calls that timed out, since startup.
+     */
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private static Throwable unwrap( Throwable error ) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static void cancelAll( CompletableFuture<?>... futures ) {
+        for ( CompletableFuture<?> future : futures ) {
+            future.cancel( true );
+        }
+    }
+
+}
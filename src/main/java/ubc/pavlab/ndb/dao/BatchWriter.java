@@ -0,0 +1,450 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+/**
+ * Writes rows in chunks through a single connection, committing after every chunk. Rows are buffered until a chunk
+ * is full and then sent either as a JDBC batch (addBatch/executeBatch) or, with multi-row rewrite enabled, as one
+ * INSERT with a VALUES group per row, which saves MySQL a statement per row even without the driver's
+ * 'rewriteBatchedStatements' option.
+ * <p>
+ * A chunk which fails is rolled back and recorded as a {@link BatchFailure}; later chunks are still written unless
+ * {@link #setStopOnFailure(boolean)} is set. Rows added but not yet flushed are discarded by {@link #close()}, so call
+ * {@link #finish()} once all rows are added.
+ * <p>
+ * Here is a basic use example:
+ * 
+ * <pre>
+ * String sql = BatchWriter.upsert( "INSERT INTO variant (id, chromosome, start) VALUES (?,?,?)", "chromosome",
+ *         "start" );
+ * try (BatchWriter writer = new BatchWriter( daoFactory, sql, 1000 )) {
+ *     writer.setMultiRowRewrite( true );
+ *     for ( Variant variant : variants ) {
+ *         writer.add( variant.getId(), variant.getChromosome(), variant.getStart() );
+ *     }
+ *     BatchResult result = writer.finish();
+ * }
+ * </pre>
+ */
+public class BatchWriter implements AutoCloseable {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( BatchWriter.class );
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * Finds the first VALUES keyword of an INSERT and the opening parenthesis of its group; the group itself is
+     * matched by {@link #findValuesGroup(String)} since it may contain nested parentheses, e.g. <code>NOW()</code>.
+     */
+    private static final Pattern VALUES_GROUP = Pattern.compile( "(?i)\\bVALUES\\s*\\(" );
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory daoFactory;
+    private final String sql;
+    private final int chunkSize;
+
+    private boolean multiRowRewrite = false;
+    private boolean stopOnFailure = false;
+
+    private final Object[][] buffer;
+    private int buffered = 0;
+
+    private Connection connection;
+    private PreparedStatement statement;
+    private int statementRows = 0;
+
+    private long rowsAdded = 0;
+    private long rowsWritten = 0;
+    private int chunks = 0;
+    private final List<BatchFailure> failures = new ArrayList<>();
+    private boolean finished = false;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a BatchWriter with the default chunk size.
+     * 
+     * @param daoFactory The DAOFactory to obtain the connection from.
+     * @param sql The single-row INSERT, UPDATE or DELETE statement to execute per row.
+     */
+    public BatchWriter( DAOFactory daoFactory, String sql ) {
+        this( daoFactory, sql, DEFAULT_CHUNK_SIZE );
+    }
+
+    /**
+     * Construct a BatchWriter.
+     * 
+     * @param daoFactory The DAOFactory to obtain the connection from.
+     * @param sql The single-row INSERT, UPDATE or DELETE statement to execute per row.
+     * @param chunkSize The number of rows per round-trip and per commit.
+     */
+    public BatchWriter( DAOFactory daoFactory, String sql, int chunkSize ) {
+        if ( chunkSize < 1 ) {
+            throw new IllegalArgumentException( "Chunk size must be positive: " + chunkSize );
+        }
+        this.daoFactory = daoFactory;
+        this.sql = sql;
+        this.chunkSize = chunkSize;
+        this.buffer = new Object[chunkSize][];
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * Sets whether each chunk is sent as a single multi-row INSERT instead of a JDBC batch. Only valid for
+     * INSERT ... VALUES (...) statements, optionally followed by ON DUPLICATE KEY UPDATE. Must be set before the first
+     * row is added.
+     */
+    public void setMultiRowRewrite( boolean multiRowRewrite ) {
+        if ( rowsAdded > 0 ) {
+            throw new IllegalStateException( "Multi-row rewrite must be set before adding rows." );
+        }
+        if ( multiRowRewrite && findValuesGroup( sql ) == null ) {
+            throw new IllegalArgumentException( "Multi-row rewrite requires an INSERT ... VALUES (...) statement: "
+                    + sql );
+        }
+        this.multiRowRewrite = multiRowRewrite;
+    }
+
+    /**
+     * Sets whether a failed chunk aborts the whole write with a DAOException instead of being recorded and skipped.
+     */
+    public void setStopOnFailure( boolean stopOnFailure ) {
+        this.stopOnFailure = stopOnFailure;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Builds an upsert from a single-row INSERT by appending ON DUPLICATE KEY UPDATE for the given columns, each
+     * taking the value the row would have inserted.
+     * 
+     * @param insertSql The INSERT ... VALUES (...) statement.
+     * @param updateColumns The columns to overwrite when the row already exists.
+     * @return The upsert statement.
+     */
+    public static String upsert( String insertSql, String... updateColumns ) {
+        if ( updateColumns.length == 0 ) {
+            throw new IllegalArgumentException( "At least one column to update is required." );
+        }
+        StringBuilder builder = new StringBuilder( insertSql ).append( " ON DUPLICATE KEY UPDATE " );
+        for ( int i = 0; i < updateColumns.length; i++ ) {
+            if ( i > 0 ) builder.append( ", " );
+            builder.append( updateColumns[i] ).append( " = VALUES(" ).append( updateColumns[i] ).append( ')' );
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Adds a row. The chunk is written as soon as it is full. The given array is kept until then, so it must not be
+     * modified by the caller.
+     * 
+     * @param values The parameter values of the row, in statement order.
+     * @throws DAOException If a chunk fails while stop-on-failure is set, or the connection cannot be obtained.
+     */
+    public void add( Object... values ) throws DAOException {
+        if ( finished ) {
+            throw new IllegalStateException( "BatchWriter is already finished." );
+        }
+        buffer[buffered++] = values;
+        rowsAdded++;
+        if ( buffered == chunkSize ) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes and commits the rows buffered so far.
+     * 
+     * @throws DAOException If the chunk fails while stop-on-failure is set, or the connection cannot be obtained.
+     */
+    public void flush() throws DAOException {
+        if ( buffered == 0 ) {
+            return;
+        }
+        int rows = buffered;
+        long firstRow = rowsAdded - rows;
+        buffered = 0;
+        chunks++;
+
+        try {
+            if ( connection == null ) {
+                connection = daoFactory.getConnection();
+                connection.setAutoCommit( false );
+            }
+            if ( multiRowRewrite ) {
+                writeMultiRow( rows );
+            } else {
+                writeBatch( rows );
+            }
+            connection.commit();
+            rowsWritten += rows;
+        } catch ( SQLException e ) {
+            Transactions.rollback( connection, "failed chunk" );
+            BatchFailure failure = new BatchFailure( chunks - 1, firstRow, rows, e );
+            failures.add( failure );
+            log.warn( failure );
+            if ( stopOnFailure || connection == null ) {
+                throw new DAOException( failure.toString(), e );
+            }
+        } catch ( RuntimeException | Error e ) {
+            // Roll back before close() switches auto-commit on, which would commit part of the chunk.
+            Transactions.rollback( connection, "failed chunk" );
+            throw e;
+        } finally {
+            for ( int i = 0; i < rows; i++ ) {
+                buffer[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Flushes the remaining rows and releases the connection.
+     * 
+     * @return The outcome of the whole write.
+     * @throws DAOException If the last chunk fails while stop-on-failure is set.
+     */
+    public BatchResult finish() throws DAOException {
+        if ( !finished ) {
+            try {
+                flush();
+            } finally {
+                finished = true;
+                release();
+            }
+        }
+        return new BatchResult( rowsAdded, rowsWritten, chunks, failures );
+    }
+
+    /**
+     * Releases the connection. Rows which have not been flushed yet are discarded.
+     */
+    @Override
+    public void close() {
+        if ( !finished ) {
+            finished = true;
+            if ( buffered > 0 ) {
+                log.warn( "BatchWriter closed with " + buffered + " unflushed rows; they were not written." );
+                buffered = 0;
+            }
+            release();
+        }
+    }
+
+    // Internal -----------------------------------------------------------------------------------
+
+    private void writeBatch( int rows ) throws SQLException {
+        if ( statement == null ) {
+            statement = connection.prepareStatement( sql );
+        }
+        for ( int i = 0; i < rows; i++ ) {
+            DAOUtil.setValues( statement, buffer[i] );
+            statement.addBatch();
+        }
+        try {
+            statement.executeBatch();
+        } finally {
+            statement.clearBatch();
+        }
+    }
+
+    private void writeMultiRow( int rows ) throws SQLException {
+        if ( statement == null || statementRows != rows ) {
+            DAOUtil.close( statement );
+            statement = connection.prepareStatement( rewriteMultiRow( sql, rows ) );
+            statementRows = rows;
+        }
+        int index = 1;
+        for ( int i = 0; i < rows; i++ ) {
+            for ( Object value : buffer[i] ) {
+                StatementBinder.set( statement, index++, value );
+            }
+        }
+        statement.executeUpdate();
+    }
+
+    /**
+     * Repeats the VALUES group of a single-row INSERT for the given number of rows.
+     */
+    static String rewriteMultiRow( String insertSql, int rows ) {
+        int[] bounds = findValuesGroup( insertSql );
+        if ( bounds == null ) {
+            throw new IllegalArgumentException( "Not an INSERT ... VALUES (...) statement: " + insertSql );
+        }
+        String group = insertSql.substring( bounds[0], bounds[1] );
+        StringBuilder builder = new StringBuilder( insertSql.length() + ( group.length() + 1 ) * rows );
+        builder.append( insertSql, 0, bounds[0] );
+        for ( int i = 0; i < rows; i++ ) {
+            if ( i > 0 ) builder.append( ',' );
+            builder.append( group );
+        }
+        return builder.append( insertSql, bounds[1], insertSql.length() ).toString();
+    }
+
+    /**
+     * Finds the parenthesised group following the first VALUES keyword, balancing nested parentheses and skipping
+     * quoted literals.
+     * 
+     * @return The start (at the opening parenthesis) and end (after the closing one) of the group, or null if there
+     *         is no complete group.
+     */
+    static int[] findValuesGroup( String insertSql ) {
+        Matcher matcher = VALUES_GROUP.matcher( insertSql );
+        if ( !matcher.find() ) {
+            return null;
+        }
+        int start = matcher.end() - 1;
+        int depth = 0;
+        char quote = 0;
+        for ( int i = start; i < insertSql.length(); i++ ) {
+            char c = insertSql.charAt( i );
+            if ( quote != 0 ) {
+                if ( c == '\\' ) {
+                    i++;
+                } else if ( c == quote ) {
+                    quote = 0;
+                }
+            } else if ( c == '\'' || c == '"' || c == '`' ) {
+                quote = c;
+            } else if ( c == '(' ) {
+                depth++;
+            } else if ( c == ')' && --depth == 0 ) {
+                return new int[] { start, i + 1 };
+            }
+        }
+        return null;
+    }
+
+    private void release() {
+        Transactions.release( connection, statement );
+        connection = null;
+        statement = null;
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * The outcome of a batch write.
+     */
+    public static final class BatchResult {
+        private final long rowsAdded;
+        private final long rowsWritten;
+        private final int chunks;
+        private final List<BatchFailure> failures;
+
+        BatchResult( long rowsAdded, long rowsWritten, int chunks, List<BatchFailure> failures ) {
+            this.rowsAdded = rowsAdded;
+            this.rowsWritten = rowsWritten;
+            this.chunks = chunks;
+            this.failures = Collections.unmodifiableList( new ArrayList<>( failures ) );
+        }
+
+        public long getRowsAdded() {
+            return rowsAdded;
+        }
+
+        /**
+         * @return The number of rows in chunks which were committed.
+         */
+        public long getRowsWritten() {
+            return rowsWritten;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public List<BatchFailure> getFailures() {
+            return failures;
+        }
+
+        public boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "BatchResult [rowsAdded=" + rowsAdded + ", rowsWritten=" + rowsWritten + ", chunks=" + chunks
+                    + ", failures=" + failures.size() + "]";
+        }
+    }
+
+    /**
+     * A chunk which was rolled back.
+     */
+    public static final class BatchFailure {
+        private final int chunk;
+        private final long firstRow;
+        private final int rows;
+        private final SQLException cause;
+
+        BatchFailure( int chunk, long firstRow, int rows, SQLException cause ) {
+            this.chunk = chunk;
+            this.firstRow = firstRow;
+            this.rows = rows;
+            this.cause = cause;
+        }
+
+        /**
+         * @return The zero-based number of the chunk.
+         */
+        public int getChunk() {
+            return chunk;
+        }
+
+        /**
+         * @return The zero-based number of the first row of the chunk, in the order rows were added.
+         */
+        public long getFirstRow() {
+            return firstRow;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public SQLException getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk " + chunk + " (rows " + firstRow + " to " + ( firstRow + rows - 1 ) + ") failed: "
+                    + cause.getMessage();
+        }
+    }
+
+}
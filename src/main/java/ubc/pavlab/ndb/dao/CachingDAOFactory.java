@@ -0,0 +1,344 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Gene;
+import ubc.pavlab.ndb.model.Paper;
+import ubc.pavlab.ndb.model.Variant;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A DAOFactory decorator which puts a bounded read-through {@link EntityCache} in front of the ID lookups of the
+ * variant, gene and paper DAOs. All other DAO methods, and all other DAOs, go to the wrapped factory's database as
+ * before. Each cache is configured with a Guava CacheBuilderSpec string, see {@link EntityCache}.
+ */
+public class CachingDAOFactory extends DAOFactory {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( CachingDAOFactory.class );
+
+    /**
+     * Roughly 32MB per cache, entries expire after an hour and are refreshed in the background after ten minutes.
+     */
+    public static final String DEFAULT_SPEC = "maximumWeight=33554432,expireAfterWrite=1h,refreshAfterWrite=10m";
+
+    private static final int REFRESH_THREADS = 2;
+
+    private static final Weigher<Integer, Variant> VARIANT_WEIGHER = new Weigher<Integer, Variant>() {
+        @Override
+        public int weigh( Integer id, Variant v ) {
+            return 80 + chars( v.getSymbol(), v.getChromosome(), v.getRef(), v.getAlt(), v.getCategory(),
+                    v.getFunc(), v.getCdnaChange(), v.getAaChange() );
+        }
+    };
+
+    private static final Weigher<Integer, Gene> GENE_WEIGHER = new Weigher<Integer, Gene>() {
+        @Override
+        public int weigh( Integer id, Gene g ) {
+            return 40 + chars( g.getSymbol(), g.getName(), g.getAliases() );
+        }
+    };
+
+    private static final Weigher<Integer, Paper> PAPER_WEIGHER = new Weigher<Integer, Paper>() {
+        @Override
+        public int weigh( Integer id, Paper p ) {
+            return 40 + chars( p.getAuthor(), p.getTitle() );
+        }
+    };
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory delegate;
+    private final ExecutorService refreshExecutor;
+    private final EntityCache<Variant> variantCache;
+    private final EntityCache<Gene> geneCache;
+    private final EntityCache<Paper> paperCache;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * @param delegate The factory providing connections.
+     * @param variantSpec The spec of the variant cache, or null for {@link #DEFAULT_SPEC}.
+     * @param geneSpec The spec of the gene cache, or null for {@link #DEFAULT_SPEC}.
+     * @param paperSpec The spec of the paper cache, or null for {@link #DEFAULT_SPEC}.
+     */
+    public CachingDAOFactory( DAOFactory delegate, String variantSpec, String geneSpec, String paperSpec ) {
+        this.delegate = delegate;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setDaemon( true )
+                        .setNameFormat( "ndb-cache-refresh-%d" ).build() );
+        executor.allowCoreThreadTimeOut( true );
+        this.refreshExecutor = executor;
+
+        final VariantDAO variantDAO = delegate.getVariantDAO();
+        final GeneDAO geneDAO = delegate.getGeneDAO();
+        final PaperDAO paperDAO = delegate.getPaperDAO();
+        this.variantCache = new EntityCache<>( "variant", spec( variantSpec ), VARIANT_WEIGHER,
+                new EntityCache.Finder<Variant>() {
+                    @Override
+                    public Variant find( int id ) {
+                        return variantDAO.find( id );
+                    }
+                }, refreshExecutor );
+        this.geneCache = new EntityCache<>( "gene", spec( geneSpec ), GENE_WEIGHER, new EntityCache.Finder<Gene>() {
+            @Override
+            public Gene find( int id ) {
+                return geneDAO.find( id );
+            }
+        }, refreshExecutor );
+        this.paperCache = new EntityCache<>( "paper", spec( paperSpec ), PAPER_WEIGHER,
+                new EntityCache.Finder<Paper>() {
+                    @Override
+                    public Paper find( int id ) {
+                        return paperDAO.find( id );
+                    }
+                }, refreshExecutor );
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    Connection getConnection() throws SQLException {
+        return delegate.getConnection();
+    }
+
+    @Override
+    Connection getReadConnection() throws SQLException {
+        return delegate.getReadConnection();
+    }
+
+    /**
+     * Drops all cached entities, for example because a new data release was loaded.
+     */
+    public void invalidateAll() {
+        variantCache.invalidateAll();
+        geneCache.invalidateAll();
+        paperCache.invalidateAll();
+        log.info( "Entity caches invalidated" );
+    }
+
+    @Override
+    public void close() {
+        refreshExecutor.shutdownNow();
+        delegate.close();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return delegate.getMaxConnections();
+    }
+
+    @Override
+    public Map<String, Long> getConnectionStats() {
+        return delegate.getConnectionStats();
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * @return The statistics of each cache by name.
+     */
+    public Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        for ( EntityCache<?> cache : getCaches() ) {
+            stats.put( cache.getName(), cache.getStats() );
+        }
+        return stats;
+    }
+
+    /**
+     * @return The approximate number of entries of each cache by name.
+     */
+    public Map<String, Long> getCacheSizes() {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        for ( EntityCache<?> cache : getCaches() ) {
+            sizes.put( cache.getName(), cache.size() );
+        }
+        return sizes;
+    }
+
+    /**
+     * @return The wrapped factory.
+     */
+    public DAOFactory getDelegate() {
+        return delegate;
+    }
+
+    // DAO implementation getters -----------------------------------------------------------------
+
+    @Override
+    public VariantDAO getVariantDAO() {
+        return new CachedVariantDAO( super.getVariantDAO(), variantCache );
+    }
+
+    @Override
+    public GeneDAO getGeneDAO() {
+        return new CachedGeneDAO( super.getGeneDAO(), geneCache );
+    }
+
+    @Override
+    public PaperDAO getPaperDAO() {
+        return new CachedPaperDAO( super.getPaperDAO(), paperCache );
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private EntityCache<?>[] getCaches() {
+        return new EntityCache<?>[] { variantCache, geneCache, paperCache };
+    }
+
+    private static String spec( String spec ) {
+        return spec == null || spec.trim().isEmpty() ? DEFAULT_SPEC : spec.trim();
+    }
+
+    private static int chars( String... values ) {
+        int chars = 0;
+        for ( String value : values ) {
+            if ( value != null ) {
+                // Object header and fields plus two bytes per character.
+                chars += 40 + 2 * value.length();
+            }
+        }
+        return chars;
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    private static final class CachedVariantDAO implements VariantDAO {
+        private final VariantDAO delegate;
+        private final EntityCache<Variant> cache;
+
+        CachedVariantDAO( VariantDAO delegate, EntityCache<Variant> cache ) {
+            this.delegate = delegate;
+            this.cache = cache;
+        }
+
+        @Override
+        public Variant find( int id ) throws DAOException {
+            return cache.get( id );
+        }
+
+        @Override
+        public List<Variant> findByRegion( String chromosome, long start, long stop ) throws DAOException {
+            return delegate.findByRegion( chromosome, start, stop );
+        }
+
+        @Override
+        public List<Variant> findByGenes( Collection<Integer> geneIds ) throws DAOException {
+            return delegate.findByGenes( geneIds );
+        }
+
+        @Override
+        public long streamLocations( RowCallback<? super Variant> callback ) throws DAOException {
+            return delegate.streamLocations( callback );
+        }
+
+        @Override
+        public long streamAll( RowCallback<? super Variant> callback ) throws DAOException {
+            return delegate.streamAll( callback );
+        }
+
+        @Override
+        public long streamAllByPosition( RowCallback<? super Variant> callback ) throws DAOException {
+            return delegate.streamAllByPosition( callback );
+        }
+
+        @Override
+        public RowCursor<Variant> openAll() throws DAOException {
+            return delegate.openAll();
+        }
+
+        @Override
+        public long updateLocations( List<Variant> variants ) throws DAOException {
+            try {
+                return delegate.updateLocations( variants );
+            } finally {
+                for ( Variant variant : variants ) {
+                    cache.invalidate( variant.getId() );
+                }
+            }
+        }
+    }
+
+    private static final class CachedGeneDAO implements GeneDAO {
+        private final GeneDAO delegate;
+        private final EntityCache<Gene> cache;
+
+        CachedGeneDAO( GeneDAO delegate, EntityCache<Gene> cache ) {
+            this.delegate = delegate;
+            this.cache = cache;
+        }
+
+        @Override
+        public Gene find( int id ) throws DAOException {
+            return cache.get( id );
+        }
+
+        @Override
+        public List<Gene> findByIds( Collection<Integer> ids ) throws DAOException {
+            return delegate.findByIds( ids );
+        }
+
+        @Override
+        public long streamAll( RowCallback<? super Gene> callback ) throws DAOException {
+            return delegate.streamAll( callback );
+        }
+    }
+
+    private static final class CachedPaperDAO implements PaperDAO {
+        private final PaperDAO delegate;
+        private final EntityCache<Paper> cache;
+
+        CachedPaperDAO( PaperDAO delegate, EntityCache<Paper> cache ) {
+            this.delegate = delegate;
+            this.cache = cache;
+        }
+
+        @Override
+        public Paper find( int id ) throws DAOException {
+            return cache.get( id );
+        }
+
+        @Override
+        public long streamAll( RowCallback<? super Paper> callback ) throws DAOException {
+            return delegate.streamAll( callback );
+        }
+    }
+
+}
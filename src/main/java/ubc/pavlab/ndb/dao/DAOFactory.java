@@ -22,6 +22,12 @@ package ubc.pavlab.ndb.dao;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -41,6 +47,23 @@ import ubc.pavlab.ndb.exceptions.ConfigurationException;
  * name.driver
  * name.username
  * name.password
+ * name.pool.max
+ * name.pool.minIdle
+ * name.pool.maxWaitMs
+ * name.pool.idleTimeoutMs
+ * name.pool.leakDetectionMs
+ * name.statementCache.size
+ * name.replica.N.url
+ * name.replica.N.username
+ * name.replica.N.password
+ * name.replica.selection
+ * name.replica.ejectMs
+ * name.replica.stickyMs
+ * name.replica.checkMs
+ * name.replica.lagQuery
+ * name.replica.maxLagMs
+ * name.instrument
+ * name.slowQueryMs
  * </pre>
  * 
  * Those marked with * are required, others are optional and can be left away or empty. Only the username is required
@@ -51,10 +74,36 @@ import ubc.pavlab.ndb.exceptions.ConfigurationException;
  * <li>The 'name.driver' must represent the full qualified class name of the JDBC driver.</li>
  * <li>The 'name.username' must represent the username of the database login.</li>
  * <li>The 'name.password' must represent the password of the database login.</li>
+ * <li>The 'name.pool.max' must represent the maximum number of pooled connections.</li>
+ * <li>The 'name.pool.minIdle' must represent the number of idle connections to keep open (default 0).</li>
+ * <li>The 'name.pool.maxWaitMs' must represent how long to wait for a free connection (default 30000).</li>
+ * <li>The 'name.pool.idleTimeoutMs' must represent how long a connection may sit idle (default 600000).</li>
+ * <li>The 'name.pool.leakDetectionMs' must represent how long a connection may be held before it is logged as a
+ * possible leak (default 0, disabled).</li>
+ * <li>The 'name.statementCache.size' must represent the number of PreparedStatements cached per connection by
+ * {@link DAOUtil} (default 64, 0 disables the cache).</li>
+ * <li>The 'name.replica.N.url' must represent the JDBC URL of the N-th read replica, numbered from 1. Replicas use the
+ * driver and pool settings of the primary, and its login unless 'name.replica.N.username' is given.</li>
+ * <li>The 'name.replica.selection' must represent how a replica is picked for a read, 'leastOutstanding' (default) or
+ * 'roundRobin'.</li>
+ * <li>The 'name.replica.ejectMs' must represent how long a replica that fails is left out (default 30000).</li>
+ * <li>The 'name.replica.stickyMs' must represent how long the reads of a client go to the primary after it wrote
+ * (default 5000).</li>
+ * <li>The 'name.replica.checkMs' must represent how often the replicas are checked (default 10000, 0 disables).</li>
+ * <li>The 'name.replica.lagQuery' must represent an SQL query returning how many seconds a replica lags behind the
+ * primary, for example from a heartbeat table. Without it, checks only verify that a replica answers.</li>
+ * <li>The 'name.replica.maxLagMs' must represent how far a replica may lag before it is left out (default 30000).</li>
+ * <li>The 'name.instrument' must represent whether query latencies are recorded by {@link InstrumentedDAOFactory}
+ * (default true).</li>
+ * <li>The 'name.slowQueryMs' must represent how long a statement may run before it is logged as slow (default 0,
+ * disabled). Changes apply when the properties file is reloaded.</li>
  * </ul>
  * If you specify the driver property, then the url property will be assumed as JDBC URL. If you omit the driver
  * property, then the url property will be assumed as JNDI name. When using JNDI with username/password preconfigured,
- * you can omit the username and password properties as well.
+ * you can omit the username and password properties as well. The pool properties only apply together with the driver
+ * property; when 'name.pool.max' is set, connections are pooled by the factory itself instead of being opened through
+ * DriverManager for every call. When replicas are configured, see {@link ReplicaRoutingDAOFactory}, reads are spread
+ * over them and writes go to the database at 'name.url'.
  * <p>
  * Here are basic examples of valid properties for a database with the name 'javabase':
  * 
@@ -63,6 +112,7 @@ import ubc.pavlab.ndb.exceptions.ConfigurationException;
  * javabase.jdbc.driver = com.mysql.jdbc.Driver
  * javabase.jdbc.username = java
  * javabase.jdbc.password = d$7hF_r!9Y
+ * javabase.jdbc.pool.max = 10
  * </pre>
  * 
  * <pre>
@@ -84,6 +134,32 @@ public abstract class DAOFactory {
     private static final String PROPERTY_DRIVER = "driver";
     private static final String PROPERTY_USERNAME = "username";
     private static final String PROPERTY_PASSWORD = "password";
+    private static final String PROPERTY_POOL_MAX = "pool.max";
+    private static final String PROPERTY_POOL_MIN_IDLE = "pool.minIdle";
+    private static final String PROPERTY_POOL_MAX_WAIT_MS = "pool.maxWaitMs";
+    private static final String PROPERTY_POOL_IDLE_TIMEOUT_MS = "pool.idleTimeoutMs";
+    private static final String PROPERTY_POOL_LEAK_DETECTION_MS = "pool.leakDetectionMs";
+    private static final String PROPERTY_STATEMENT_CACHE_SIZE = "statementCache.size";
+    private static final String PROPERTY_REPLICA = "replica.";
+    private static final String PROPERTY_REPLICA_SELECTION = "replica.selection";
+    private static final String PROPERTY_REPLICA_EJECT_MS = "replica.ejectMs";
+    private static final String PROPERTY_REPLICA_STICKY_MS = "replica.stickyMs";
+    private static final String PROPERTY_REPLICA_CHECK_MS = "replica.checkMs";
+    private static final String PROPERTY_REPLICA_LAG_QUERY = "replica.lagQuery";
+    private static final String PROPERTY_REPLICA_MAX_LAG_MS = "replica.maxLagMs";
+    private static final String PROPERTY_INSTRUMENT = "instrument";
+    private static final String PROPERTY_SLOW_QUERY_MS = "slowQueryMs";
+
+    private static final int DEFAULT_POOL_MIN_IDLE = 0;
+    private static final long DEFAULT_POOL_MAX_WAIT_MS = 30000;
+    private static final long DEFAULT_POOL_IDLE_TIMEOUT_MS = 600000;
+    private static final long DEFAULT_POOL_LEAK_DETECTION_MS = 0;
+
+    /**
+     * The latest instrumented factory per database name. Its slow query threshold follows the properties file through
+     * one listener per name, however often {@link #getInstance(String)} is called.
+     */
+    private static final ConcurrentMap<String, InstrumentedDAOFactory> INSTRUMENTED = new ConcurrentHashMap<>();
 
     // Actions ------------------------------------------------------------------------------------
 
@@ -96,7 +172,81 @@ public abstract class DAOFactory {
         String driverClassName = properties.getProperty( PROPERTY_DRIVER, false );
         String password = properties.getProperty( PROPERTY_PASSWORD, false );
         String username = properties.getProperty( PROPERTY_USERNAME, password != null );
-        return getInstance( url, driverClassName, password, username );
+        DAOUtil.setStatementCacheSize(
+                properties.getIntProperty( PROPERTY_STATEMENT_CACHE_SIZE, StatementCache.DEFAULT_MAX_SIZE ) );
+        int poolMax = properties.getIntProperty( PROPERTY_POOL_MAX, 0 );
+        if ( poolMax > 0 && driverClassName == null ) {
+            throw new ConfigurationException( "Property '" + name + "." + PROPERTY_POOL_MAX + "' requires '" + name
+                    + "." + PROPERTY_DRIVER + "'; JNDI DataSources are pooled by the container." );
+        }
+        DAOFactory instance = getInstance( properties, url, driverClassName, password, username, poolMax );
+
+        List<DAOFactory> replicas = new ArrayList<>();
+        for ( int n = 1;; n++ ) {
+            String prefix = PROPERTY_REPLICA + n + ".";
+            String replicaUrl = properties.getProperty( prefix + PROPERTY_URL, false );
+            if ( replicaUrl == null ) {
+                break;
+            }
+            if ( driverClassName == null ) {
+                throw new ConfigurationException( "Property '" + name + "." + prefix + PROPERTY_URL + "' requires '"
+                        + name + "." + PROPERTY_DRIVER + "'." );
+            }
+            String replicaUsername = properties.getProperty( prefix + PROPERTY_USERNAME, false );
+            String replicaPassword = replicaUsername == null ? password : properties.getProperty(
+                    prefix + PROPERTY_PASSWORD, false );
+            replicas.add( getInstance( properties, replicaUrl, driverClassName, replicaPassword,
+                    replicaUsername == null ? username : replicaUsername, poolMax ) );
+        }
+        if ( !replicas.isEmpty() ) {
+            String selectionName = properties.getProperty( PROPERTY_REPLICA_SELECTION, false );
+            ReplicaRoutingDAOFactory.Selection selection = ReplicaRoutingDAOFactory.Selection.LEAST_OUTSTANDING;
+            if ( selectionName != null ) {
+                selection = ReplicaRoutingDAOFactory.Selection.forName( selectionName );
+                if ( selection == null ) {
+                    throw new ConfigurationException( "Property '" + name + "." + PROPERTY_REPLICA_SELECTION
+                            + "' must be 'leastOutstanding' or 'roundRobin', not '" + selectionName + "'." );
+                }
+            }
+            ReplicaRoutingDAOFactory router = new ReplicaRoutingDAOFactory( instance, replicas, selection,
+                    properties.getLongProperty( PROPERTY_REPLICA_EJECT_MS, ReplicaRoutingDAOFactory.DEFAULT_EJECT_MS ),
+                    properties.getLongProperty( PROPERTY_REPLICA_STICKY_MS,
+                            ReplicaRoutingDAOFactory.DEFAULT_STICKY_MS ) );
+            router.startHealthChecks( properties.getLongProperty( PROPERTY_REPLICA_CHECK_MS,
+                    ReplicaRoutingDAOFactory.DEFAULT_CHECK_MS ), properties.getProperty( PROPERTY_REPLICA_LAG_QUERY,
+                    false ), properties.getLongProperty( PROPERTY_REPLICA_MAX_LAG_MS,
+                    ReplicaRoutingDAOFactory.DEFAULT_MAX_LAG_MS ) );
+            instance = router;
+        }
+
+        if ( !"false".equalsIgnoreCase( properties.getProperty( PROPERTY_INSTRUMENT, false ) ) ) {
+            InstrumentedDAOFactory instrumented = new InstrumentedDAOFactory( instance,
+                    properties.getLongProperty( PROPERTY_SLOW_QUERY_MS, 0 ) );
+            if ( INSTRUMENTED.put( name, instrumented ) == null ) {
+                // The slow query threshold can be changed without a restart.
+                DAOProperties.addListener( snapshot -> INSTRUMENTED.get( name ).setSlowQueryMs(
+                        properties.getLongProperty( PROPERTY_SLOW_QUERY_MS, 0 ) ) );
+            }
+            instance = instrumented;
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns a new DAOFactory instance for one database, pooled if poolMax is positive.
+     */
+    private static DAOFactory getInstance( DAOProperties properties, String url, String driverClassName,
+            String password, String username, int poolMax ) throws ConfigurationException {
+        DAOFactory instance = getInstance( url, driverClassName, password, username );
+        if ( poolMax > 0 ) {
+            instance = new PooledDAOFactory( url, username, password, poolMax,
+                    properties.getIntProperty( PROPERTY_POOL_MIN_IDLE, DEFAULT_POOL_MIN_IDLE ),
+                    properties.getLongProperty( PROPERTY_POOL_MAX_WAIT_MS, DEFAULT_POOL_MAX_WAIT_MS ),
+                    properties.getLongProperty( PROPERTY_POOL_IDLE_TIMEOUT_MS, DEFAULT_POOL_IDLE_TIMEOUT_MS ),
+                    properties.getLongProperty( PROPERTY_POOL_LEAK_DETECTION_MS, DEFAULT_POOL_LEAK_DETECTION_MS ) );
+        }
+        return instance;
     }
 
     /**
@@ -150,8 +300,103 @@ public abstract class DAOFactory {
      */
     abstract Connection getConnection() throws SQLException;
 
+    /**
+     * Returns a connection for read-only work, which may be served by a replica that lags behind the primary. The
+     * default implementation returns {@link #getConnection()}. Package private so that it can be used inside the DAO
+     * package only.
+     * 
+     * @return A connection to the database or one of its replicas.
+     * @throws SQLException If acquiring the connection fails.
+     */
+    Connection getReadConnection() throws SQLException {
+        return getConnection();
+    }
+
+    /**
+     * Releases any resources held by this factory, such as pooled connections. The default implementation does
+     * nothing, as connections from DriverManager and JNDI DataSources are not owned by the factory.
+     */
+    public void close() {
+        // Nothing to release by default.
+    }
+
+    /**
+     * Returns the maximum number of connections this factory hands out at the same time, so that parallel tools can
+     * size their worker pools. The default implementation returns 0, meaning no limit is known.
+     * 
+     * @return The maximum number of concurrent connections, or 0 if unknown.
+     */
+    public int getMaxConnections() {
+        return 0;
+    }
+
+    /**
+     * Returns the connection usage of this factory by name, such as the number of active and idle connections of a
+     * pool, for monitoring. The default implementation returns an empty map, as connections from DriverManager and
+     * JNDI DataSources are not tracked by the factory.
+     * 
+     * @return Connection counts by name, in a stable order.
+     */
+    public Map<String, Long> getConnectionStats() {
+        return Collections.emptyMap();
+    }
+
     // DAO implementation getters -----------------------------------------------------------------
 
+    /**
+     * Returns the Variant DAO associated with the current DAOFactory.
+     * 
+     * @return The Variant DAO associated with the current DAOFactory.
+     */
+    public VariantDAO getVariantDAO() {
+        return new VariantDAOImpl( this );
+    }
+
+    /**
+     * Returns the Gene DAO associated with the current DAOFactory.
+     * 
+     * @return The Gene DAO associated with the current DAOFactory.
+     */
+    public GeneDAO getGeneDAO() {
+        return new GeneDAOImpl( this );
+    }
+
+    /**
+     * Returns the Paper DAO associated with the current DAOFactory.
+     * 
+     * @return The Paper DAO associated with the current DAOFactory.
+     */
+    public PaperDAO getPaperDAO() {
+        return new PaperDAOImpl( this );
+    }
+
+    /**
+     * Returns the DataRelease DAO associated with the current DAOFactory.
+     * 
+     * @return The DataRelease DAO associated with the current DAOFactory.
+     */
+    public DataReleaseDAO getDataReleaseDAO() {
+        return new DataReleaseDAOImpl( this );
+    }
+
+    /**
+     * Returns the Ingest DAO associated with the current DAOFactory.
+     * 
+     * @return The Ingest DAO associated with the current DAOFactory.
+     */
+    public IngestDAO getIngestDAO() {
+        return new IngestDAOImpl( this );
+    }
+
+    /**
+     * Returns the Aggregate DAO associated with the current DAOFactory.
+     * 
+     * @return The Aggregate DAO associated with the current DAOFactory.
+     */
+    public AggregateDAO getAggregateDAO() {
+        return new AggregateDAOImpl( this );
+    }
+
     /*
      * public CacheDAO getCacheDAO() {
      * return new CacheDAOImpl( this );
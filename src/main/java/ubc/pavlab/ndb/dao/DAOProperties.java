@@ -19,14 +19,22 @@
 
 package ubc.pavlab.ndb.dao;
 
+import java.util.function.Consumer;
+
 import ubc.pavlab.ndb.exceptions.ConfigurationException;
+import ubc.pavlab.ndb.utility.ConfigSnapshot;
 import ubc.pavlab.ndb.utility.PropertiesFile;
+import ubc.pavlab.ndb.utility.ReloadableConfig;
 
 /**
  * This class immediately loads the DAO properties file 'X.properties' once in memory and provides a constructor
  * which takes the specific key which is to be used as property key prefix of the DAO properties file. There is a
  * property getter which only returns the property prefixed with 'specificKey.' and provides the option to indicate
  * whether the property is mandatory or not.
+ * <p>
+ * The file is watched and reloaded when it changes, see {@link ReloadableConfig}; getters always read the latest
+ * version without locking. Settings used to build a DAOFactory only apply to factories created afterwards, unless
+ * applied through {@link #addListener(Consumer)}.
  */
 public class DAOProperties {
 
@@ -36,11 +44,12 @@ public class DAOProperties {
     private static final String PROPERTIES_PATH = "/usr/local/tomcat/";
     private static final String PROPERTIES_BACKUP_PATH = System.getProperty( "user.dir" );
     private static final String PROPERTIES_FILE = "db.properties";
-    private static final PropertiesFile PROPERTIES = new PropertiesFile();
+    private static final ReloadableConfig PROPERTIES = new ReloadableConfig( PropertiesFile.locate( PROPERTIES_FILE,
+            PROPERTIES_PATH, PROPERTIES_BACKUP_PATH ), null );
 
     static {
 
-        PROPERTIES.load( PROPERTIES_FILE, PROPERTIES_PATH, PROPERTIES_BACKUP_PATH );
+        PROPERTIES.watch();
 
     }
 
@@ -75,7 +84,7 @@ public class DAOProperties {
      */
     public String getProperty( String key, boolean mandatory ) throws ConfigurationException {
         String fullKey = specificKey + "." + key;
-        String property = PROPERTIES.getProperty( fullKey );
+        String property = PROPERTIES.get().getProperty( fullKey );
 
         if ( property == null || property.trim().length() == 0 ) {
             if ( mandatory ) {
@@ -90,4 +99,58 @@ public class DAOProperties {
         return property;
     }
 
+    /**
+     * Returns the DAOProperties instance specific property value associated with the given key as an int, or the
+     * given default value if the property is missing or empty.
+     * 
+     * @param key The key to be associated with a DAOProperties instance specific value.
+     * @param defaultValue The value to return when the property is missing or empty.
+     * @return The DAOProperties instance specific property value associated with the given key.
+     * @throws ConfigurationException If the property value is present but is not a valid integer.
+     */
+    public int getIntProperty( String key, int defaultValue ) throws ConfigurationException {
+        long property = getLongProperty( key, defaultValue );
+        if ( property < Integer.MIN_VALUE || property > Integer.MAX_VALUE ) {
+            throw new ConfigurationException( "Property '" + specificKey + "." + key + "' in properties file '"
+                    + PROPERTIES_FILE + "' is out of range: '" + property + "'." );
+        }
+        return ( int ) property;
+    }
+
+    /**
+     * Returns the DAOProperties instance specific property value associated with the given key as a long, or the
+     * given default value if the property is missing or empty.
+     * 
+     * @param key The key to be associated with a DAOProperties instance specific value.
+     * @param defaultValue The value to return when the property is missing or empty.
+     * @return The DAOProperties instance specific property value associated with the given key.
+     * @throws ConfigurationException If the property value is present but is not a valid integer.
+     */
+    public long getLongProperty( String key, long defaultValue ) throws ConfigurationException {
+        String property = getProperty( key, false );
+        if ( property == null ) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong( property.trim() );
+        } catch ( NumberFormatException e ) {
+            throw new ConfigurationException( "Property '" + specificKey + "." + key + "' in properties file '"
+                    + PROPERTIES_FILE + "' is not a valid integer: '" + property + "'.", e );
+        }
+    }
+
+    /**
+     * @param listener Called with the new settings whenever the DAO properties file is reloaded.
+     */
+    public static void addListener( Consumer<ConfigSnapshot> listener ) {
+        PROPERTIES.addListener( listener );
+    }
+
+    /**
+     * Stops watching the DAO properties file.
+     */
+    public static void close() {
+        PROPERTIES.close();
+    }
+
 }
@@ -26,9 +26,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+import com.google.common.cache.CacheStats;
+
 /**
  * Utility class for DAO's. This class contains commonly used DAO logic which is been refactored in single static
  * methods. As far it contains a PreparedStatement values setter and several quiet close methods.
+ * <p>
+ * PreparedStatements are cached per connection (see {@link StatementCache}); always release them through the close
+ * methods here so they can be reused.
  */
 public final class DAOUtil {
 
@@ -56,6 +61,8 @@ public final class DAOUtil {
 
     /**
      * Returns a PreparedStatement of the given connection, set with the given SQL query and the given parameter values.
+     * The statement is taken from the connection's statement cache when possible; close it with
+     * {@link #close(Statement)} or one of its overloads to return it to the cache.
      * 
      * @param connection The Connection to create the PreparedStatement from.
      * @param sql The SQL query to construct the PreparedStatement with.
@@ -65,14 +72,63 @@ public final class DAOUtil {
      */
     public static PreparedStatement prepareStatement( Connection connection, String sql, boolean returnGeneratedKeys,
             Object... values ) throws SQLException {
-        PreparedStatement preparedStatement = connection.prepareStatement( sql,
-                returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS );
-        setValues( preparedStatement, values );
+        PreparedStatement preparedStatement = prepareStatement( connection, sql, returnGeneratedKeys );
+        try {
+            setValues( preparedStatement, values );
+        } catch ( SQLException e ) {
+            close( preparedStatement );
+            throw e;
+        }
         return preparedStatement;
     }
 
     /**
-     * Set the given parameter values in the given PreparedStatement.
+     * Returns a PreparedStatement of the given connection for the given SQL query, without setting any parameters.
+     * Use this together with {@link #bind(PreparedStatement)} on hot paths to bind typed parameters without boxing.
+     * 
+     * @param connection The Connection to create the PreparedStatement from.
+     * @param sql The SQL query to construct the PreparedStatement with.
+     * @param returnGeneratedKeys Set whether to return generated keys or not.
+     * @throws SQLException If something fails during creating the PreparedStatement.
+     */
+    public static PreparedStatement prepareStatement( Connection connection, String sql, boolean returnGeneratedKeys )
+            throws SQLException {
+        StatementCache cache = StatementCache.forConnection( connection );
+        if ( cache != null ) {
+            return cache.prepare( connection, sql, returnGeneratedKeys );
+        }
+        return connection.prepareStatement( sql,
+                returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS );
+    }
+
+    /**
+     * Sets the maximum number of PreparedStatements cached per connection. Zero disables statement caching. Only
+     * affects caches created after the call.
+     * 
+     * @param size The maximum number of cached statements per connection.
+     */
+    public static void setStatementCacheSize( int size ) {
+        StatementCache.setMaxSize( size );
+    }
+
+    /**
+     * @return Hit, miss and eviction counts of the PreparedStatement caches since startup.
+     */
+    public static CacheStats getStatementCacheStats() {
+        return StatementCache.stats();
+    }
+
+    /**
+     * Stops the threads the DAOs share between requests. Called when the web application is undeployed.
+     */
+    public static void shutdown() {
+        MultiIdLookup.shutdown();
+    }
+
+    /**
+     * Set the given parameter values in the given PreparedStatement. Strings, Integers and Longs are set with their
+     * typed setter, anything else with setObject. Hot queries should prefer {@link #bind(PreparedStatement)}, which
+     * avoids boxing and the varargs array.
      * 
      * @param connection The PreparedStatement to set the given parameter values in.
      * @param values The parameter values to be set in the created PreparedStatement.
@@ -80,10 +136,21 @@ public final class DAOUtil {
      */
     public static void setValues( PreparedStatement preparedStatement, Object... values ) throws SQLException {
         for ( int i = 0; i < values.length; i++ ) {
-            preparedStatement.setObject( i + 1, values[i] );
+            StatementBinder.set( preparedStatement, i + 1, values[i] );
         }
     }
 
+    /**
+     * Returns a binder for the parameters of the given PreparedStatement, starting at the first one. The binder is
+     * short-lived and not shared, so it does not keep the statement or its connection reachable after use.
+     * 
+     * @param preparedStatement The PreparedStatement to bind parameters of.
+     * @return A typed binder for the statement.
+     */
+    public static StatementBinder bind( PreparedStatement preparedStatement ) {
+        return new StatementBinder().reset( preparedStatement );
+    }
+
     /**
      * Converts the given java.util.Date to java.sql.Date.
      * 
@@ -111,12 +178,13 @@ public final class DAOUtil {
     }
 
     /**
-     * Quietly close the Statement. Any errors will be printed to the stderr.
+     * Quietly close the Statement. Cached PreparedStatements are returned to their cache instead. Any errors will be
+     * printed to the stderr.
      * 
      * @param statement The Statement to be closed quietly.
      */
     public static void close( Statement statement ) {
-        if ( statement != null ) {
+        if ( statement != null && !StatementCache.release( statement ) ) {
             try {
                 statement.close();
             } catch ( SQLException e ) {
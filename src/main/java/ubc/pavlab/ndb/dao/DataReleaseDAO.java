@@ -0,0 +1,50 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.DataRelease;
+
+/**
+ * This interface represents a contract for a DAO for the {@link DataRelease} model.
+ */
+public interface DataReleaseDAO {
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the most recent data release, otherwise null.
+     * 
+     * @return The data release with the highest ID, otherwise null.
+     * @throws DAOException If something fails at database level.
+     */
+    public DataRelease findLatest() throws DAOException;
+
+    /**
+     * Adds a release, which tells running applications that the data has changed.
+     * 
+     * @param version A label for the release, such as the date or the source that was loaded.
+     * @return The new release with its generated ID.
+     * @throws DAOException If something fails at database level.
+     */
+    public DataRelease create( String version ) throws DAOException;
+
+}
@@ -0,0 +1,126 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.DataRelease;
+
+/**
+ * This class represents a concrete JDBC implementation of the {@link DataReleaseDAO} interface.
+ */
+public class DataReleaseDAOImpl implements DataReleaseDAO {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final String SQL_FIND_LATEST = "SELECT id, version, released FROM data_release "
+            + "ORDER BY id DESC LIMIT 1";
+    private static final String SQL_INSERT = "INSERT INTO data_release (version, released) VALUES (?, ?)";
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private DAOFactory daoFactory;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a DataRelease DAO for the given DAOFactory. Package private so that it can be constructed inside the
+     * DAO package only.
+     * 
+     * @param daoFactory The DAOFactory to construct this DataRelease DAO for.
+     */
+    DataReleaseDAOImpl( DAOFactory daoFactory ) {
+        this.daoFactory = daoFactory;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public DataRelease findLatest() throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            // Not from a replica: listeners reload their data as soon as a new release shows up.
+            connection = daoFactory.getConnection();
+            statement = DAOUtil.prepareStatement( connection, SQL_FIND_LATEST, false );
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? map( resultSet ) : null;
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+    }
+
+    @Override
+    public DataRelease create( String version ) throws DAOException {
+        DataRelease release = new DataRelease();
+        release.setVersion( version );
+        release.setReleased( new Date() );
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet generatedKeys = null;
+        try {
+            connection = daoFactory.getConnection();
+            statement = DAOUtil.prepareStatement( connection, SQL_INSERT, true, version,
+                    new Timestamp( release.getReleased().getTime() ) );
+            if ( statement.executeUpdate() == 0 ) {
+                throw new DAOException( "Creating data release failed, no rows affected." );
+            }
+            generatedKeys = statement.getGeneratedKeys();
+            if ( !generatedKeys.next() ) {
+                throw new DAOException( "Creating data release failed, no generated key obtained." );
+            }
+            release.setId( generatedKeys.getInt( 1 ) );
+            return release;
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, generatedKeys );
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Map the current row of the given ResultSet to a DataRelease.
+     * 
+     * @param resultSet The ResultSet of which the current row is to be mapped to a DataRelease.
+     * @return The mapped DataRelease from the current row of the given ResultSet.
+     * @throws SQLException If something fails at database level.
+     */
+    private static DataRelease map( ResultSet resultSet ) throws SQLException {
+        DataRelease release = new DataRelease();
+        release.setId( resultSet.getInt( "id" ) );
+        release.setVersion( resultSet.getString( "version" ) );
+        release.setReleased( resultSet.getTimestamp( "released" ) );
+        return release;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.util.concurrent.Executor;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Bounded read-through cache of entities by ID, in front of a DAO lookup. Concurrent misses for the same ID wait for
+ * a single lookup. IDs that do not exist are cached as well, so repeated requests for them do not reach the database
+ * either.
+ * <p>
+ * Bounds, expiry and refresh are configured with a Guava {@link CacheBuilderSpec}, for example
+ * <code>maximumWeight=33554432,expireAfterWrite=1h,refreshAfterWrite=10m</code>. Weights are estimated bytes as
+ * given by the entity's {@link Weigher}. Entries due for refresh keep being served while they are reloaded on the
+ * refresh executor. Statistics are always recorded.
+ * 
+ * @param <V> The type of the cached entities.
+ */
+public final class EntityCache<V> {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( EntityCache.class );
+
+    /**
+     * Estimated fixed cost in bytes of a cache entry, its key and the Optional holding the entity.
+     */
+    static final int ENTRY_OVERHEAD = 96;
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final String name;
+    private final LoadingCache<Integer, Optional<V>> cache;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * @param name The name of the cache, used in logs and statistics.
+     * @param spec The CacheBuilderSpec string giving bounds, expiry and refresh.
+     * @param weigher Estimates the size of an entity in bytes; used when the spec gives a maximumWeight.
+     * @param finder Looks up an entity by ID, returning null if there is none.
+     * @param refreshExecutor Runs refreshes of entries due for refresh.
+     */
+    public EntityCache( String name, String spec, final Weigher<Integer, V> weigher, final Finder<V> finder,
+            Executor refreshExecutor ) {
+        this.name = name;
+        CacheBuilder<Object, Object> builder = CacheBuilder.from( spec ).recordStats();
+        CacheLoader<Integer, Optional<V>> loader = new CacheLoader<Integer, Optional<V>>() {
+            @Override
+            public Optional<V> load( Integer id ) throws DAOException {
+                return Optional.fromNullable( finder.find( id ) );
+            }
+        };
+        if ( spec.contains( "maximumWeight" ) ) {
+            this.cache = builder.weigher( new Weigher<Integer, Optional<V>>() {
+                @Override
+                public int weigh( Integer id, Optional<V> entity ) {
+                    return ENTRY_OVERHEAD + ( entity.isPresent() ? weigher.weigh( id, entity.get() ) : 0 );
+                }
+            } ).build( CacheLoader.asyncReloading( loader, refreshExecutor ) );
+        } else {
+            this.cache = builder.build( CacheLoader.asyncReloading( loader, refreshExecutor ) );
+        }
+        log.info( "Entity cache '" + name + "' created (" + spec + ")" );
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * @param id The ID of the entity.
+     * @return The entity with the given ID, from the cache or else from the database, or null if there is none.
+     * @throws DAOException If the lookup fails at database level.
+     */
+    public V get( int id ) throws DAOException {
+        try {
+            return cache.getUnchecked( id ).orNull();
+        } catch ( UncheckedExecutionException e ) {
+            if ( e.getCause() instanceof DAOException ) {
+                throw ( DAOException ) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the entry of one entity, for example because it was updated.
+     */
+    public void invalidate( int id ) {
+        cache.invalidate( id );
+    }
+
+    /**
+     * Drops all entries, for example because a new data release was loaded.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Hit, miss, load and eviction counts since the cache was created.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return The approximate number of entries.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * Looks up an entity by ID in the database.
+     * 
+     * @param <V> The type of the entity.
+     */
+    public interface Finder<V> {
+
+        /**
+         * @param id The ID of the entity.
+         * @return The entity, or null if there is none.
+         * @throws DAOException If something fails at database level.
+         */
+        V find( int id ) throws DAOException;
+    }
+
+}
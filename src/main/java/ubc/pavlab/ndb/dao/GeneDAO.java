@@ -0,0 +1,64 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Gene;
+
+/**
+ * This interface represents a contract for a DAO for the {@link Gene} model.
+ */
+public interface GeneDAO {
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the gene from the database matching the given ID, otherwise null.
+     * 
+     * @param id The ID of the gene to be returned.
+     * @return The gene from the database matching the given ID, otherwise null.
+     * @throws DAOException If something fails at database level.
+     */
+    public Gene find( int id ) throws DAOException;
+
+    /**
+     * Returns the genes matching the given IDs, ordered by ID. Any number of IDs can be given; IDs without a gene are
+     * skipped.
+     * 
+     * @param ids The IDs of the genes to be returned.
+     * @return The genes matching the given IDs.
+     * @throws DAOException If something fails at database level.
+     */
+    public List<Gene> findByIds( Collection<Integer> ids ) throws DAOException;
+
+    /**
+     * Walks all genes ordered by ID in constant memory, handing each one to the callback.
+     * 
+     * @param callback Receives the genes one at a time.
+     * @return The number of genes read.
+     * @throws DAOException If something fails at database level, or if the callback fails.
+     */
+    public long streamAll( RowCallback<? super Gene> callback ) throws DAOException;
+
+}
@@ -0,0 +1,121 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Gene;
+
+/**
+ * This class represents a concrete JDBC implementation of the {@link GeneDAO} interface.
+ */
+public class GeneDAOImpl implements GeneDAO {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final String SQL_COLUMNS = "id, symbol, name, aliases";
+    private static final String SQL_TABLE = "gene";
+
+    private static final String SQL_FIND_BY_ID = "SELECT " + SQL_COLUMNS + " FROM " + SQL_TABLE + " WHERE id = ?";
+    private static final String SQL_LIST_ORDER_BY_ID = "SELECT " + SQL_COLUMNS + " FROM " + SQL_TABLE
+            + " ORDER BY id";
+
+    static final RowMapper<Gene> MAPPER = new RowMapper<Gene>() {
+        @Override
+        public Gene map( ResultSet resultSet ) throws SQLException {
+            return GeneDAOImpl.map( resultSet );
+        }
+    };
+
+    private static final MultiIdLookup<Gene> LOOKUP_BY_ID = new MultiIdLookup<>( "SELECT " + SQL_COLUMNS + " FROM "
+            + SQL_TABLE, "id", MAPPER );
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private DAOFactory daoFactory;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a Gene DAO for the given DAOFactory. Package private so that it can be constructed inside the DAO
+     * package only.
+     * 
+     * @param daoFactory The DAOFactory to construct this Gene DAO for.
+     */
+    GeneDAOImpl( DAOFactory daoFactory ) {
+        this.daoFactory = daoFactory;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public Gene find( int id ) throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = daoFactory.getReadConnection();
+            statement = DAOUtil.prepareStatement( connection, SQL_FIND_BY_ID, false );
+            DAOUtil.bind( statement ).bind( id );
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? map( resultSet ) : null;
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+    }
+
+    @Override
+    public List<Gene> findByIds( Collection<Integer> ids ) throws DAOException {
+        return LOOKUP_BY_ID.find( daoFactory, ids );
+    }
+
+    @Override
+    public long streamAll( RowCallback<? super Gene> callback ) throws DAOException {
+        return StreamingQuery.forEach( daoFactory, SQL_LIST_ORDER_BY_ID, MAPPER, callback );
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Map the current row of the given ResultSet to a Gene.
+     * 
+     * @param resultSet The ResultSet of which the current row is to be mapped to a Gene.
+     * @return The mapped Gene from the current row of the given ResultSet.
+     * @throws SQLException If something fails at database level.
+     */
+    private static Gene map( ResultSet resultSet ) throws SQLException {
+        Gene gene = new Gene();
+        gene.setId( resultSet.getInt( "id" ) );
+        gene.setSymbol( resultSet.getString( "symbol" ) );
+        gene.setName( resultSet.getString( "name" ) );
+        gene.setAliases( resultSet.getString( "aliases" ) );
+        return gene;
+    }
+
+}
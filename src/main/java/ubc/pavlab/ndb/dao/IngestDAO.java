@@ -0,0 +1,67 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.util.List;
+import java.util.Set;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * This interface represents a contract for a DAO that loads variants in chunks. Every chunk is committed together
+ * with a row in the ingest_checkpoint table, so an interrupted load can be resumed without writing any chunk twice.
+ */
+public interface IngestDAO {
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the chunks of a source that have been written.
+     * 
+     * @param source The name of the loaded source, such as a file of a paper.
+     * @return The numbers of the completed chunks, empty if none.
+     * @throws DAOException If something fails at database level.
+     */
+    public Set<Integer> findCompletedChunks( String source ) throws DAOException;
+
+    /**
+     * Returns the sources with at least one written chunk whose name starts with the given prefix.
+     * 
+     * @param prefix The start of the source names, matched literally.
+     * @return The names of the sources, empty if none.
+     * @throws DAOException If something fails at database level.
+     */
+    public Set<String> findSources( String prefix ) throws DAOException;
+
+    /**
+     * Inserts the variants of a chunk and marks the chunk as completed, in a single transaction. The variant IDs are
+     * generated by the database and not set on the given variants.
+     * 
+     * @param source The name of the loaded source.
+     * @param chunk The number of the chunk within the source.
+     * @param variants The variants to insert.
+     * @throws DAOException If something fails at database level, including when the chunk was already completed;
+     *         nothing is written then.
+     */
+    public void writeChunk( String source, int chunk, List<Variant> variants ) throws DAOException;
+
+}
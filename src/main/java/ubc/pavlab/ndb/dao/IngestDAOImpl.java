@@ -0,0 +1,140 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * This class represents a concrete JDBC implementation of the {@link IngestDAO} interface.
+ */
+public class IngestDAOImpl implements IngestDAO {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final String SQL_LIST_COMPLETED = "SELECT chunk FROM ingest_checkpoint WHERE source = ?";
+    private static final String SQL_LIST_SOURCES = "SELECT DISTINCT source FROM ingest_checkpoint WHERE source LIKE ?";
+    private static final String SQL_INSERT_CHECKPOINT = "INSERT INTO ingest_checkpoint (source, chunk, variants, "
+            + "completed) VALUES (?, ?, ?, ?)";
+    private static final String SQL_INSERT_VARIANT = "INSERT INTO variant (paper_id, gene_id, symbol, chromosome, "
+            + "start, stop, ref, alt, category, func, cdna_change, aa_change) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private DAOFactory daoFactory;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct an Ingest DAO for the given DAOFactory. Package private so that it can be constructed inside the DAO
+     * package only.
+     * 
+     * @param daoFactory The DAOFactory to construct this Ingest DAO for.
+     */
+    IngestDAOImpl( DAOFactory daoFactory ) {
+        this.daoFactory = daoFactory;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public Set<Integer> findCompletedChunks( String source ) throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        Set<Integer> chunks = new HashSet<>();
+        try {
+            connection = daoFactory.getConnection();
+            statement = DAOUtil.prepareStatement( connection, SQL_LIST_COMPLETED, false, source );
+            resultSet = statement.executeQuery();
+            while ( resultSet.next() ) {
+                chunks.add( resultSet.getInt( "chunk" ) );
+            }
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+        return chunks;
+    }
+
+    @Override
+    public Set<String> findSources( String prefix ) throws DAOException {
+        // Backslash is the default LIKE escape character of MySQL.
+        String pattern = prefix.replace( "\\", "\\\\" ).replace( "%", "\\%" ).replace( "_", "\\_" ) + "%";
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        Set<String> sources = new HashSet<>();
+        try {
+            connection = daoFactory.getConnection();
+            statement = DAOUtil.prepareStatement( connection, SQL_LIST_SOURCES, false, pattern );
+            resultSet = statement.executeQuery();
+            while ( resultSet.next() ) {
+                sources.add( resultSet.getString( "source" ) );
+            }
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+        return sources;
+    }
+
+    @Override
+    public void writeChunk( final String source, final int chunk, final List<Variant> variants )
+            throws DAOException {
+        Transactions.run( daoFactory, "Writing chunk " + chunk + " of " + source, connection -> {
+            // The checkpoint goes first so that a chunk completed by someone else fails before any variant is sent.
+            try (PreparedStatement checkpoint = connection.prepareStatement( SQL_INSERT_CHECKPOINT )) {
+                DAOUtil.setValues( checkpoint, source, chunk, variants.size(),
+                        new Timestamp( System.currentTimeMillis() ) );
+                checkpoint.executeUpdate();
+            }
+
+            if ( !variants.isEmpty() ) {
+                try (PreparedStatement statement = connection.prepareStatement( SQL_INSERT_VARIANT )) {
+                    for ( Variant variant : variants ) {
+                        DAOUtil.bind( statement ).bind( variant.getPaperId() ).bind( variant.getGeneId() )
+                                .bind( variant.getSymbol() ).bind( variant.getChromosome() )
+                                .bind( variant.getStart() ).bind( variant.getStop() ).bind( variant.getRef() )
+                                .bind( variant.getAlt() ).bind( variant.getCategory() ).bind( variant.getFunc() )
+                                .bind( variant.getCdnaChange() ).bind( variant.getAaChange() );
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            }
+            return null;
+        } );
+    }
+
+}
@@ -0,0 +1,410 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.utility.LatencyHistogram;
+import ubc.pavlab.ndb.utility.RequestProfile;
+
+/**
+ * A DAOFactory which measures the database work of another one. Connections, and the statements and results they
+ * create, are wrapped in proxies which record
+ * <ul>
+ * <li>how long callers waited for a connection;</li>
+ * <li>per SQL template, a latency histogram of statement execution, the number of rows read or changed and the number
+ * of errors;</li>
+ * <li>statements slower than the slow query threshold, logged to the '{@value #SLOW_QUERY_LOGGER}' logger.</li>
+ * </ul>
+ * Statements run on a profiled request thread are also added to its {@link RequestProfile}.
+ * Used unless the 'name.instrument' property is false; 'name.slowQueryMs' sets the threshold, see
+ * {@link DAOFactory}. Recording costs a reflective call per JDBC method plus a few atomic increments per statement; a
+ * disabled slow query log costs one comparison.
+ */
+public class InstrumentedDAOFactory extends DAOFactory {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    public static final String SLOW_QUERY_LOGGER = "ubc.pavlab.ndb.dao.SlowQueries";
+
+    private static final Logger log = Logger.getLogger( InstrumentedDAOFactory.class );
+    private static final Logger slowLog = Logger.getLogger( SLOW_QUERY_LOGGER );
+
+    /**
+     * Templates recorded separately; statements of any further template are counted together under
+     * {@value #OTHER_TEMPLATE}, so SQL built with values spliced in cannot grow the statistics without bound.
+     */
+    static final int MAX_TEMPLATES = 1000;
+    static final String OTHER_TEMPLATE = "(other statements)";
+
+    /**
+     * Raw SQL texts remembered with their template; beyond this the template is worked out on every execution.
+     */
+    private static final int MAX_SQL_TEXTS = 10000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile( "'(?:[^'\\\\]|\\\\.|'')*'" );
+    private static final Pattern NUMBER_LITERAL = Pattern.compile( "\\b\\d+(\\.\\d+)?\\b" );
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile( "\\?(\\s*,\\s*\\?)+" );
+    private static final Pattern VALUES_LIST = Pattern.compile( "(\\([^()]*\\))(\\s*,\\s*\\([^()]*\\))+" );
+
+    private static final Constructor<?> CONNECTION_PROXY = proxyConstructor( Connection.class,
+            StatementCache.StatementCacheOwner.class );
+    private static final Constructor<?> PREPARED_STATEMENT_PROXY = proxyConstructor( PreparedStatement.class );
+    private static final Constructor<?> STATEMENT_PROXY = proxyConstructor( Statement.class );
+    private static final Constructor<?> RESULT_SET_PROXY = proxyConstructor( ResultSet.class );
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory delegate;
+    private volatile long slowQueryNanos;
+
+    private final LatencyHistogram connectionWait = new LatencyHistogram();
+    private final ConcurrentMap<String, QueryStats> byTemplate = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, QueryStats> bySql = new ConcurrentHashMap<>();
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * @param delegate The DAOFactory to measure.
+     * @param slowQueryMs Statements taking at least this long are logged; 0 disables the slow query log.
+     */
+    public InstrumentedDAOFactory( DAOFactory delegate, long slowQueryMs ) {
+        this.delegate = delegate;
+        setSlowQueryMs( slowQueryMs );
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = delegate.getConnection();
+        connectionWait.record( System.nanoTime() - start );
+        return wrap( connection );
+    }
+
+    @Override
+    Connection getReadConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = delegate.getReadConnection();
+        connectionWait.record( System.nanoTime() - start );
+        return wrap( connection );
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return delegate.getMaxConnections();
+    }
+
+    @Override
+    public Map<String, Long> getConnectionStats() {
+        return delegate.getConnectionStats();
+    }
+
+    /**
+     * @param sql An SQL text.
+     * @return The text with string and number literals replaced by placeholders, and lists of placeholders and of value
+     *         tuples collapsed to their first element.
+     */
+    static String template( String sql ) {
+        String template = STRING_LITERAL.matcher( sql ).replaceAll( "?" );
+        template = NUMBER_LITERAL.matcher( template ).replaceAll( "?" );
+        template = PLACEHOLDER_LIST.matcher( template ).replaceAll( "?, ..." );
+        return VALUES_LIST.matcher( template ).replaceAll( "$1, ..." );
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * @return How long callers waited for a connection.
+     */
+    public LatencyHistogram getConnectionWait() {
+        return connectionWait;
+    }
+
+    /**
+     * @return The statistics of every SQL template executed so far, most total execution time first.
+     */
+    public List<QueryStats> getQueryStats() {
+        List<QueryStats> stats = new ArrayList<>( byTemplate.values() );
+        Collections.sort( stats, new Comparator<QueryStats>() {
+            @Override
+            public int compare( QueryStats a, QueryStats b ) {
+                return Double.compare( b.getLatency().getTotal( TimeUnit.MICROSECONDS ), a.getLatency().getTotal(
+                        TimeUnit.MICROSECONDS ) );
+            }
+        } );
+        return stats;
+    }
+
+    /**
+     * @param slowQueryMs Statements taking at least this long are logged from now on; 0 disables the slow query log.
+     */
+    public void setSlowQueryMs( long slowQueryMs ) {
+        this.slowQueryNanos = slowQueryMs > 0 ? TimeUnit.MILLISECONDS.toNanos( slowQueryMs ) : Long.MAX_VALUE;
+    }
+
+    public DAOFactory getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String toString() {
+        return "InstrumentedDAOFactory[" + delegate + "]";
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private QueryStats stats( String sql ) {
+        QueryStats stats = bySql.get( sql );
+        if ( stats == null ) {
+            String template = template( sql );
+            stats = byTemplate.get( template );
+            if ( stats == null && byTemplate.size() >= MAX_TEMPLATES ) {
+                template = OTHER_TEMPLATE;
+                stats = byTemplate.get( template );
+            }
+            if ( stats == null ) {
+                QueryStats created = new QueryStats( template );
+                stats = byTemplate.putIfAbsent( template, created );
+                if ( stats == null ) {
+                    stats = created;
+                    if ( OTHER_TEMPLATE.equals( template ) ) {
+                        log.warn( "More than " + MAX_TEMPLATES + " SQL templates, counting further ones as "
+                                + OTHER_TEMPLATE );
+                    }
+                }
+            }
+            if ( bySql.size() < MAX_SQL_TEXTS ) {
+                bySql.put( sql, stats );
+            }
+        }
+        return stats;
+    }
+
+    private Connection wrap( Connection connection ) {
+        return ( Connection ) newProxy( CONNECTION_PROXY, new ConnectionHandler( connection ) );
+    }
+
+    private static Constructor<?> proxyConstructor( Class<?>... interfaces ) {
+        try {
+            return Proxy.getProxyClass( InstrumentedDAOFactory.class.getClassLoader(), interfaces ).getConstructor(
+                    InvocationHandler.class );
+        } catch ( NoSuchMethodException e ) {
+            throw new ExceptionInInitializerError( e );
+        }
+    }
+
+    private static Object newProxy( Constructor<?> constructor, InvocationHandler handler ) {
+        try {
+            return constructor.newInstance( handler );
+        } catch ( ReflectiveOperationException e ) {
+            throw new IllegalStateException( "Could not create instrumentation proxy", e );
+        }
+    }
+
+    private static Object invoke( Object target, Method method, Object[] args ) throws Throwable {
+        try {
+            return method.invoke( target, args );
+        } catch ( InvocationTargetException e ) {
+            throw e.getCause();
+        }
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * Wraps the statements a connection creates. Keeps the statement cache of the underlying connection.
+     */
+    private final class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+
+        ConnectionHandler( Connection connection ) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            switch ( method.getName() ) {
+                case "prepareStatement":
+                    PreparedStatement prepared = ( PreparedStatement ) InstrumentedDAOFactory.invoke( connection,
+                            method, args );
+                    return newProxy( PREPARED_STATEMENT_PROXY, new StatementHandler( prepared, ( String ) args[0] ) );
+                case "createStatement":
+                    Statement statement = ( Statement ) InstrumentedDAOFactory.invoke( connection, method, args );
+                    return newProxy( STATEMENT_PROXY, new StatementHandler( statement, null ) );
+                case "close":
+                    DAOUtil.close( connection );
+                    return null;
+                case "getStatementCache":
+                    return StatementCache.forConnection( connection );
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                case "toString":
+                    return "InstrumentedConnection[" + connection + "]";
+                default:
+                    return InstrumentedDAOFactory.invoke( connection, method, args );
+            }
+        }
+    }
+
+    /**
+     * Times the execute methods of a statement and counts the rows of its results.
+     */
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String sql;
+
+        StatementHandler( Statement statement, String sql ) {
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+            if ( name.startsWith( "execute" ) ) {
+                return execute( method, args );
+            }
+            switch ( name ) {
+                case "getResultSet":
+                    ResultSet resultSet = ( ResultSet ) InstrumentedDAOFactory.invoke( statement, method, args );
+                    return resultSet == null || sql == null ? resultSet : wrap( resultSet, stats( sql ) );
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                case "toString":
+                    return "InstrumentedStatement[" + statement + "]";
+                default:
+                    return InstrumentedDAOFactory.invoke( statement, method, args );
+            }
+        }
+
+        private Object execute( Method method, Object[] args ) throws Throwable {
+            String executed = args != null && args.length > 0 && args[0] instanceof String ? ( String ) args[0] : sql;
+            if ( executed == null ) {
+                return InstrumentedDAOFactory.invoke( statement, method, args );
+            }
+            QueryStats stats = stats( executed );
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = InstrumentedDAOFactory.invoke( statement, method, args );
+            } catch ( Throwable t ) {
+                stats.failed();
+                throw t;
+            }
+            long nanos = System.nanoTime() - start;
+            stats.executed( nanos );
+            RequestProfile.queryExecuted( nanos );
+            if ( nanos >= slowQueryNanos ) {
+                slowLog.warn( "Slow query (" + TimeUnit.NANOSECONDS.toMillis( nanos ) + " ms): " + executed );
+            }
+
+            if ( result instanceof ResultSet ) {
+                return wrap( ( ResultSet ) result, stats );
+            }
+            if ( result instanceof Integer || result instanceof Long ) {
+                stats.rows( Math.max( 0, ( ( Number ) result ).longValue() ) );
+            } else if ( result instanceof int[] ) {
+                long changed = 0;
+                for ( int count : ( int[] ) result ) {
+                    changed += Math.max( 0, count );
+                }
+                stats.rows( changed );
+            }
+            return result;
+        }
+
+        private ResultSet wrap( ResultSet resultSet, QueryStats stats ) {
+            return ( ResultSet ) newProxy( RESULT_SET_PROXY, new ResultSetHandler( resultSet, stats ) );
+        }
+    }
+
+    /**
+     * Counts the rows read from a result and adds them to the statistics when it is closed.
+     */
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final QueryStats stats;
+        private long rows = 0;
+        private boolean closed = false;
+
+        ResultSetHandler( ResultSet resultSet, QueryStats stats ) {
+            this.resultSet = resultSet;
+            this.stats = stats;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            switch ( method.getName() ) {
+                case "next":
+                    boolean next = resultSet.next();
+                    if ( next ) {
+                        rows++;
+                    }
+                    return next;
+                case "close":
+                    if ( !closed ) {
+                        closed = true;
+                        stats.rows( rows );
+                    }
+                    resultSet.close();
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                default:
+                    return InstrumentedDAOFactory.invoke( resultSet, method, args );
+            }
+        }
+    }
+
+}
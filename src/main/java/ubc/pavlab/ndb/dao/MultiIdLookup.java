@@ -0,0 +1,332 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Looks up rows by a list of keys, such as the variants of a pasted gene list, without building a new IN clause for
+ * every list length. Lists are rounded up to a bucket size of a power of two by repeating the last key, so a query
+ * has at most {@value #BUCKETS} distinct statements and those stay in the {@link StatementCache}.
+ * <p>
+ * Lists longer than the largest bucket are split into chunks of {@value #MAX_BUCKET_SIZE} keys which are queried in
+ * parallel, each on a connection of its own. Past {@value #TEMP_TABLE_THRESHOLD} keys the list is written to a
+ * temporary table on one connection instead and joined, which keeps the number of round trips and open connections
+ * down for bulk lookups.
+ * <p>
+ * Keys are deduplicated and rows come back ordered by key. Instances are thread safe.
+ * 
+ * @param <T> The type of object rows are mapped to.
+ */
+final class MultiIdLookup<T> {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( MultiIdLookup.class );
+
+    static final int BUCKETS = 11;
+    static final int MAX_BUCKET_SIZE = 1 << ( BUCKETS - 1 );
+    static final int TEMP_TABLE_THRESHOLD = 8 * MAX_BUCKET_SIZE;
+
+    /**
+     * The most chunks of one lookup that are queried at the same time.
+     */
+    private static final int MAX_PARALLEL_CHUNKS = 4;
+
+    private static final String[] PLACEHOLDERS = new String[BUCKETS];
+
+    static {
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            PLACEHOLDERS[i] = DAOUtil.preparePlaceHolders( 1 << i );
+        }
+    }
+
+    private static final String TEMP_TABLE = "lookup_ids";
+    private static final String SQL_CREATE_TEMP_TABLE = "CREATE TEMPORARY TABLE IF NOT EXISTS " + TEMP_TABLE
+            + " (lookup_id INT PRIMARY KEY)";
+    private static final String SQL_CLEAR_TEMP_TABLE = "DELETE FROM " + TEMP_TABLE;
+    private static final String SQL_INSERT_TEMP_TABLE = "INSERT INTO " + TEMP_TABLE + " (lookup_id) VALUES (?)";
+
+    /**
+     * Helper threads shared by all lookups, started on first use and stopped by {@link #shutdown()}.
+     */
+    private static ExecutorService executor;
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final RowMapper<T> mapper;
+    private final String[] bucketSql;
+    private final String joinSql;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * @param select The query without WHERE or ORDER BY clause, such as <code>SELECT ... FROM variant</code>.
+     * @param keyColumn The integer column the keys are matched against.
+     * @param mapper Maps each row to an object.
+     */
+    MultiIdLookup( String select, String keyColumn, RowMapper<T> mapper ) {
+        this.mapper = mapper;
+        this.bucketSql = new String[BUCKETS];
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            bucketSql[i] = select + " WHERE " + keyColumn + " IN (" + PLACEHOLDERS[i] + ") ORDER BY " + keyColumn;
+        }
+        this.joinSql = select + " JOIN " + TEMP_TABLE + " ON " + TEMP_TABLE + ".lookup_id = " + keyColumn
+                + " ORDER BY " + keyColumn;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * @param daoFactory The DAOFactory to obtain connections from.
+     * @param keys The keys to look up, in any order and possibly repeated.
+     * @return The matching rows, ordered by key.
+     * @throws DAOException If something fails at database level.
+     */
+    List<T> find( DAOFactory daoFactory, Collection<Integer> keys ) throws DAOException {
+        SortedSet<Integer> unique = new TreeSet<>( keys );
+        int[] sorted = new int[unique.size()];
+        int n = 0;
+        for ( Integer key : unique ) {
+            sorted[n++] = key;
+        }
+
+        if ( n == 0 ) {
+            return new ArrayList<>();
+        }
+        if ( n > TEMP_TABLE_THRESHOLD ) {
+            return findByJoin( daoFactory, sorted );
+        }
+        if ( n <= MAX_BUCKET_SIZE ) {
+            List<T> list = new ArrayList<>();
+            findChunk( daoFactory, sorted, 0, n, list );
+            return list;
+        }
+        return findInChunks( daoFactory, sorted );
+    }
+
+    /**
+     * Stops the helper threads, so they do not keep the web application's class loader alive after it is undeployed.
+     * A lookup afterwards starts new ones.
+     */
+    static synchronized void shutdown() {
+        if ( executor != null ) {
+            // Not shutdownNow(): a lookup still waiting for a queued helper would never see it complete.
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private static synchronized ExecutorService executor() {
+        if ( executor == null ) {
+            executor = Executors.newFixedThreadPool( MAX_PARALLEL_CHUNKS - 1,
+                    new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "ndb-lookup-%d" ).build() );
+        }
+        return executor;
+    }
+
+    /**
+     * @return The index of the smallest bucket holding the given number of keys.
+     */
+    static int bucket( int keys ) {
+        return keys <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros( keys - 1 );
+    }
+
+    private void findChunk( DAOFactory daoFactory, int[] keys, int from, int to, List<T> list ) throws DAOException {
+        Connection connection = null;
+        try {
+            connection = daoFactory.getReadConnection();
+            findChunk( connection, keys, from, to, list );
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection );
+        }
+    }
+
+    private void findChunk( Connection connection, int[] keys, int from, int to, List<T> list ) throws SQLException {
+        int bucket = bucket( to - from );
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = DAOUtil.prepareStatement( connection, bucketSql[bucket], false );
+            StatementBinder binder = DAOUtil.bind( statement );
+            for ( int i = from; i < to; i++ ) {
+                binder.bind( keys[i] );
+            }
+            // Pad up to the bucket size; repeated keys do not change the result.
+            for ( int i = to - from; i < 1 << bucket; i++ ) {
+                binder.bind( keys[to - 1] );
+            }
+            resultSet = statement.executeQuery();
+            while ( resultSet.next() ) {
+                list.add( mapper.map( resultSet ) );
+            }
+        } finally {
+            DAOUtil.close( resultSet );
+            DAOUtil.close( statement );
+        }
+    }
+
+    private List<T> findInChunks( final DAOFactory daoFactory, final int[] keys ) throws DAOException {
+        final int chunks = ( keys.length + MAX_BUCKET_SIZE - 1 ) / MAX_BUCKET_SIZE;
+        final List<List<T>> results = new ArrayList<>( Collections.<List<T>> nCopies( chunks, null ) );
+        final AtomicInteger next = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int chunk;
+                while ( ( chunk = next.getAndIncrement() ) < chunks ) {
+                    List<T> list = new ArrayList<>();
+                    int from = chunk * MAX_BUCKET_SIZE;
+                    findChunk( daoFactory, keys, from, Math.min( from + MAX_BUCKET_SIZE, keys.length ), list );
+                    results.set( chunk, list );
+                }
+            }
+        };
+
+        int parallelism = Math.min( chunks, MAX_PARALLEL_CHUNKS );
+        int maxConnections = daoFactory.getMaxConnections();
+        if ( maxConnections > 0 ) {
+            // Leave connections for other requests.
+            parallelism = Math.max( 1, Math.min( parallelism, maxConnections / 2 ) );
+        }
+        List<Future<?>> helpers = new ArrayList<>();
+        try {
+            for ( int i = 1; i < parallelism; i++ ) {
+                helpers.add( executor().submit( worker ) );
+            }
+        } catch ( RejectedExecutionException e ) {
+            // Shut down meanwhile; the calling thread claims the remaining chunks.
+        }
+        try {
+            // The calling thread works as well, so the lookup completes even when all helpers are busy elsewhere.
+            worker.run();
+            for ( Future<?> helper : helpers ) {
+                helper.get();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new DAOException( "Interrupted while looking up " + keys.length + " keys", e );
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof DAOException ) {
+                throw ( DAOException ) e.getCause();
+            }
+            throw new DAOException( e.getCause() );
+        } finally {
+            // Stop the remaining helpers from claiming chunks after a failure.
+            next.set( chunks );
+        }
+
+        List<T> list = new ArrayList<>();
+        for ( List<T> result : results ) {
+            list.addAll( result );
+        }
+        return list;
+    }
+
+    private List<T> findByJoin( DAOFactory daoFactory, int[] keys ) throws DAOException {
+        long startTime = System.currentTimeMillis();
+        Connection connection = null;
+        List<T> list = new ArrayList<>();
+        try {
+            connection = daoFactory.getReadConnection();
+            execute( connection, SQL_CREATE_TEMP_TABLE );
+            execute( connection, SQL_CLEAR_TEMP_TABLE );
+            try {
+                insertKeys( connection, keys );
+                PreparedStatement statement = null;
+                ResultSet resultSet = null;
+                try {
+                    statement = DAOUtil.prepareStatement( connection, joinSql, false );
+                    resultSet = statement.executeQuery();
+                    while ( resultSet.next() ) {
+                        list.add( mapper.map( resultSet ) );
+                    }
+                } finally {
+                    DAOUtil.close( resultSet );
+                    DAOUtil.close( statement );
+                }
+            } finally {
+                execute( connection, SQL_CLEAR_TEMP_TABLE );
+            }
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection );
+        }
+        if ( log.isDebugEnabled() ) {
+            log.debug( "Looked up " + keys.length + " keys through " + TEMP_TABLE + " in "
+                    + ( System.currentTimeMillis() - startTime ) + " ms, " + list.size() + " rows" );
+        }
+        return list;
+    }
+
+    private static void insertKeys( Connection connection, int[] keys ) throws SQLException {
+        PreparedStatement statement = null;
+        try {
+            statement = DAOUtil.prepareStatement( connection, SQL_INSERT_TEMP_TABLE, false );
+            for ( int i = 0; i < keys.length; i++ ) {
+                DAOUtil.bind( statement ).bind( keys[i] );
+                statement.addBatch();
+                if ( ( i + 1 ) % MAX_BUCKET_SIZE == 0 || i == keys.length - 1 ) {
+                    statement.executeBatch();
+                }
+            }
+        } finally {
+            DAOUtil.close( statement );
+        }
+    }
+
+    private static void execute( Connection connection, String sql ) throws SQLException {
+        PreparedStatement statement = null;
+        try {
+            statement = DAOUtil.prepareStatement( connection, sql, false );
+            statement.execute();
+        } finally {
+            DAOUtil.close( statement );
+        }
+    }
+
+}
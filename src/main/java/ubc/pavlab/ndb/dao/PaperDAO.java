@@ -0,0 +1,51 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Paper;
+
+/**
+ * This interface represents a contract for a DAO for the {@link Paper} model.
+ */
+public interface PaperDAO {
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the paper from the database matching the given ID, otherwise null.
+     * 
+     * @param id The ID of the paper to be returned.
+     * @return The paper from the database matching the given ID, otherwise null.
+     * @throws DAOException If something fails at database level.
+     */
+    public Paper find( int id ) throws DAOException;
+
+    /**
+     * Walks all papers ordered by ID in constant memory, handing each one to the callback.
+     * 
+     * @param callback Receives the papers one at a time.
+     * @return The number of papers read.
+     * @throws DAOException If something fails at database level, or if the callback fails.
+     */
+    public long streamAll( RowCallback<? super Paper> callback ) throws DAOException;
+
+}
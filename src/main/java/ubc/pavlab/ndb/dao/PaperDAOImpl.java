@@ -0,0 +1,112 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Paper;
+
+/**
+ * This class represents a concrete JDBC implementation of the {@link PaperDAO} interface.
+ */
+public class PaperDAOImpl implements PaperDAO {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final String SQL_COLUMNS = "id, pubmed_id, author, title, year";
+    private static final String SQL_TABLE = "paper";
+
+    private static final String SQL_FIND_BY_ID = "SELECT " + SQL_COLUMNS + " FROM " + SQL_TABLE + " WHERE id = ?";
+    private static final String SQL_LIST_ORDER_BY_ID = "SELECT " + SQL_COLUMNS + " FROM " + SQL_TABLE
+            + " ORDER BY id";
+
+    static final RowMapper<Paper> MAPPER = new RowMapper<Paper>() {
+        @Override
+        public Paper map( ResultSet resultSet ) throws SQLException {
+            return PaperDAOImpl.map( resultSet );
+        }
+    };
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private DAOFactory daoFactory;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a Paper DAO for the given DAOFactory. Package private so that it can be constructed inside the DAO
+     * package only.
+     * 
+     * @param daoFactory The DAOFactory to construct this Paper DAO for.
+     */
+    PaperDAOImpl( DAOFactory daoFactory ) {
+        this.daoFactory = daoFactory;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public Paper find( int id ) throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = daoFactory.getReadConnection();
+            statement = DAOUtil.prepareStatement( connection, SQL_FIND_BY_ID, false );
+            DAOUtil.bind( statement ).bind( id );
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? map( resultSet ) : null;
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+    }
+
+    @Override
+    public long streamAll( RowCallback<? super Paper> callback ) throws DAOException {
+        return StreamingQuery.forEach( daoFactory, SQL_LIST_ORDER_BY_ID, MAPPER, callback );
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Map the current row of the given ResultSet to a Paper.
+     * 
+     * @param resultSet The ResultSet of which the current row is to be mapped to a Paper.
+     * @return The mapped Paper from the current row of the given ResultSet.
+     * @throws SQLException If something fails at database level.
+     */
+    private static Paper map( ResultSet resultSet ) throws SQLException {
+        Paper paper = new Paper();
+        paper.setId( resultSet.getInt( "id" ) );
+        paper.setPubmedId( resultSet.getInt( "pubmed_id" ) );
+        paper.setAuthor( resultSet.getString( "author" ) );
+        paper.setTitle( resultSet.getString( "title" ) );
+        paper.setYear( resultSet.getInt( "year" ) );
+        return paper;
+    }
+
+}
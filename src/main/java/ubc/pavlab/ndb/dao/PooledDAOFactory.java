@@ -0,0 +1,474 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The DriverManager based DAOFactory with a built-in connection pool. Used when the 'name.pool.max' property is set
+ * alongside 'name.driver', so that standalone tools get pooling without a JNDI container.
+ * <p>
+ * Checkout is lock-free on the fast path: idle connections live in a {@link ConcurrentLinkedDeque} used as a stack
+ * (most recently returned first, so warm connections are reused) and the pool size is bounded by a non-fair
+ * {@link Semaphore}, whose uncontended acquire is a single CAS. Callers only block when every connection is checked
+ * out, and then for at most 'maxWaitMs'.
+ * <p>
+ * Connections idle for longer than {@link #VALIDATION_INTERVAL_MS} are validated with {@link Connection#isValid(int)}
+ * before being handed out. A daemon housekeeping thread evicts connections idle for longer than 'idleTimeoutMs'
+ * (keeping 'minIdle' around), tops the pool up to 'minIdle' and, when 'leakDetectionMs' is positive, logs the
+ * acquisition stack trace of connections held for longer than that.
+ */
+class PooledDAOFactory extends DAOFactory {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( PooledDAOFactory.class );
+
+    /**
+     * Connections used more recently than this are handed out without a validation round-trip.
+     */
+    static final long VALIDATION_INTERVAL_MS = 500;
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private static final long MIN_HOUSEKEEPING_PERIOD_MS = 1000;
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private static final Constructor<?> PROXY_CONSTRUCTOR;
+
+    static {
+        try {
+            PROXY_CONSTRUCTOR = Proxy.getProxyClass( PooledDAOFactory.class.getClassLoader(), Connection.class,
+                    StatementCache.StatementCacheOwner.class ).getConstructor( InvocationHandler.class );
+        } catch ( NoSuchMethodException e ) {
+            throw new ExceptionInInitializerError( e );
+        }
+    }
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final String url;
+    private final String username;
+    private final String password;
+
+    private final int maxSize;
+    private final int minIdle;
+    private final long maxWaitMs;
+    private final long idleTimeoutMs;
+    private final long leakDetectionMs;
+
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Set<PooledConnection> checkedOut = Collections
+            .newSetFromMap( new ConcurrentHashMap<PooledConnection, Boolean>() );
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+
+    private final ScheduledExecutorService housekeeper;
+
+    private volatile boolean closed = false;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    PooledDAOFactory( String url, String username, String password, int maxSize, int minIdle, long maxWaitMs,
+            long idleTimeoutMs, long leakDetectionMs ) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min( minIdle, maxSize );
+        this.maxWaitMs = maxWaitMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.leakDetectionMs = leakDetectionMs;
+        this.permits = new Semaphore( maxSize, false );
+
+        long period = idleTimeoutMs;
+        if ( leakDetectionMs > 0 ) {
+            period = Math.min( period, leakDetectionMs );
+        }
+        period = Math.max( MIN_HOUSEKEEPING_PERIOD_MS, period / 2 );
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon( true )
+                .setNameFormat( "ndb-pool-" + POOL_COUNTER.incrementAndGet() + "-housekeeper" ).build() );
+        this.housekeeper.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdle();
+                    detectLeaks();
+                    fillMinIdle();
+                } catch ( RuntimeException e ) {
+                    log.warn( "Connection pool housekeeping failed", e );
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS );
+
+        log.info( "Connection pool created for '" + url + "' (max: " + maxSize + ", minIdle: " + this.minIdle
+                + ", maxWaitMs: " + maxWaitMs + ", idleTimeoutMs: " + idleTimeoutMs + ", leakDetectionMs: "
+                + leakDetectionMs + ")" );
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    Connection getConnection() throws SQLException {
+        if ( closed ) {
+            throw new SQLException( "Connection pool for '" + url + "' is closed." );
+        }
+
+        acquirePermit();
+
+        try {
+            PooledConnection pooled;
+            while ( ( pooled = idle.pollFirst() ) != null ) {
+                if ( isUsable( pooled ) ) {
+                    return checkOut( pooled );
+                }
+                discard( pooled );
+            }
+            return checkOut( createConnection() );
+        } catch ( SQLException | RuntimeException e ) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes every idle connection and stops housekeeping. Connections still checked out are closed when they are
+     * returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ( ( pooled = idle.pollFirst() ) != null ) {
+            discard( pooled );
+        }
+        log.info( "Connection pool for '" + url + "' closed" );
+    }
+
+    /**
+     * @return The number of connections currently checked out of the pool.
+     */
+    int getActiveCount() {
+        return checkedOut.size();
+    }
+
+    /**
+     * @return The number of idle connections ready to be checked out.
+     */
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return The number of open physical connections owned by the pool.
+     */
+    int getTotalCount() {
+        return totalConnections.get();
+    }
+
+    /**
+     * @return An estimate of the number of threads waiting for a connection.
+     */
+    int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return The maximum number of connections the pool will open.
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return maxSize;
+    }
+
+    @Override
+    public Map<String, Long> getConnectionStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put( "active", ( long ) getActiveCount() );
+        stats.put( "idle", ( long ) getIdleCount() );
+        stats.put( "total", ( long ) getTotalCount() );
+        stats.put( "waiting", ( long ) getWaitingCount() );
+        stats.put( "max", ( long ) maxSize );
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "PooledDAOFactory[" + url + ", active: " + getActiveCount() + ", idle: " + getIdleCount() + "]";
+    }
+
+    // Housekeeping -------------------------------------------------------------------------------
+
+    /**
+     * Closes connections which have been idle for longer than the idle timeout, oldest first, while more than
+     * minIdle connections are idle.
+     */
+    void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMs;
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while ( it.hasNext() && idle.size() > minIdle ) {
+            PooledConnection pooled = it.next();
+            // Only the thread which manages to remove the connection from the deque owns it.
+            if ( pooled.lastReturned < cutoff && idle.removeLastOccurrence( pooled ) ) {
+                log.debug( "Evicting idle connection " + pooled );
+                discard( pooled );
+            }
+        }
+    }
+
+    /**
+     * Logs connections which have been checked out for longer than the leak detection threshold, once each.
+     */
+    void detectLeaks() {
+        if ( leakDetectionMs <= 0 ) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - leakDetectionMs;
+        for ( PooledConnection pooled : checkedOut ) {
+            Throwable origin = pooled.checkoutOrigin;
+            if ( origin != null && !pooled.leakReported && pooled.lastBorrowed < cutoff ) {
+                pooled.leakReported = true;
+                log.warn( "Possible connection leak: connection to '" + url + "' checked out for more than "
+                        + leakDetectionMs + "ms", origin );
+            }
+        }
+    }
+
+    /**
+     * Opens connections until minIdle connections are idle, without exceeding the maximum pool size. Each connection
+     * is opened under a permit, like one opened for a caller, so the two cannot together go past the maximum.
+     */
+    void fillMinIdle() {
+        while ( !closed && idle.size() < minIdle && totalConnections.get() < maxSize ) {
+            if ( !permits.tryAcquire() ) {
+                return;
+            }
+            try {
+                PooledConnection pooled = createConnection();
+                pooled.lastReturned = System.currentTimeMillis();
+                idle.offerLast( pooled );
+            } catch ( SQLException e ) {
+                log.warn( "Could not open idle connection to '" + url + "': " + e.getMessage() );
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    // Internal -----------------------------------------------------------------------------------
+
+    private void acquirePermit() throws SQLException {
+        if ( permits.tryAcquire() ) {
+            return;
+        }
+        try {
+            if ( !permits.tryAcquire( maxWaitMs, TimeUnit.MILLISECONDS ) ) {
+                throw new SQLTransientConnectionException( "Timed out after " + maxWaitMs
+                        + "ms waiting for a connection to '" + url + "' (active: " + getActiveCount() + ", max: "
+                        + maxSize + ")." );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException( "Interrupted while waiting for a connection to '" + url + "'.",
+                    e );
+        }
+    }
+
+    private PooledConnection createConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection( url, username, password );
+        totalConnections.incrementAndGet();
+        return new PooledConnection( connection );
+    }
+
+    private boolean isUsable( PooledConnection pooled ) {
+        if ( System.currentTimeMillis() - pooled.lastReturned < VALIDATION_INTERVAL_MS ) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid( VALIDATION_TIMEOUT_SECONDS );
+        } catch ( SQLException e ) {
+            return false;
+        }
+    }
+
+    private Connection checkOut( PooledConnection pooled ) {
+        pooled.lastBorrowed = System.currentTimeMillis();
+        pooled.leakReported = false;
+        pooled.checkoutOrigin = leakDetectionMs > 0 ? new Throwable( "Connection checked out here" ) : null;
+        checkedOut.add( pooled );
+        try {
+            return ( Connection ) PROXY_CONSTRUCTOR.newInstance( new ConnectionHandle( pooled ) );
+        } catch ( ReflectiveOperationException e ) {
+            throw new IllegalStateException( "Could not create pooled connection proxy", e );
+        }
+    }
+
+    /**
+     * Called when a logical connection is closed; resets the physical connection and returns it to the pool.
+     */
+    private void checkIn( PooledConnection pooled ) {
+        checkedOut.remove( pooled );
+        pooled.checkoutOrigin = null;
+        if ( pooled.statementCache != null ) {
+            pooled.statementCache.releaseAll();
+        }
+        try {
+            if ( closed || !reset( pooled.connection ) ) {
+                discard( pooled );
+            } else {
+                pooled.lastReturned = System.currentTimeMillis();
+                idle.offerFirst( pooled );
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean reset( Connection connection ) {
+        try {
+            if ( connection.isClosed() ) {
+                return false;
+            }
+            if ( !connection.getAutoCommit() ) {
+                connection.rollback();
+                connection.setAutoCommit( true );
+            }
+            if ( connection.isReadOnly() ) {
+                connection.setReadOnly( false );
+            }
+            connection.clearWarnings();
+            return true;
+        } catch ( SQLException e ) {
+            log.debug( "Discarding connection which could not be reset: " + e.getMessage() );
+            return false;
+        }
+    }
+
+    private void discard( PooledConnection pooled ) {
+        totalConnections.decrementAndGet();
+        if ( pooled.statementCache != null ) {
+            pooled.statementCache.close();
+        }
+        DAOUtil.close( pooled.connection );
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * A physical connection owned by the pool, with its bookkeeping. Its statement cache lives as long as it does.
+     */
+    private static final class PooledConnection {
+        final Connection connection;
+        final StatementCache statementCache = StatementCache.newInstance();
+        volatile long lastBorrowed;
+        volatile long lastReturned;
+        volatile Throwable checkoutOrigin;
+        volatile boolean leakReported;
+
+        PooledConnection( Connection connection ) {
+            this.connection = connection;
+        }
+
+        @Override
+        public String toString() {
+            return connection.toString();
+        }
+    }
+
+    /**
+     * The logical connection handed out to a single caller. Closing it returns the physical connection to the pool;
+     * any use after that fails as it would on a closed connection.
+     */
+    private final class ConnectionHandle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final AtomicBoolean handleClosed = new AtomicBoolean();
+
+        ConnectionHandle( PooledConnection pooled ) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+            switch ( name ) {
+                case "close":
+                    // Only the first close returns the connection, even when several threads close it at once.
+                    if ( handleClosed.compareAndSet( false, true ) ) {
+                        checkIn( pooled );
+                    }
+                    return null;
+                case "isClosed":
+                    return handleClosed.get() || pooled.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                case "toString":
+                    return "PooledConnection[" + pooled + ( handleClosed.get() ? ", closed]" : "]" );
+                case "getStatementCache":
+                    return pooled.statementCache;
+                default:
+                    break;
+            }
+            if ( handleClosed.get() ) {
+                throw new SQLException( "Connection has already been returned to the pool." );
+            }
+            try {
+                return method.invoke( pooled.connection, args );
+            } catch ( InvocationTargetException e ) {
+                throw e.getCause();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import ubc.pavlab.ndb.utility.LatencyHistogram;
+
+/**
+ * Execution statistics of one SQL template, collected by {@link InstrumentedDAOFactory}. A template is the SQL text
+ * with IN lists and multi-row VALUES lists collapsed, so lookups of different lengths count as the same query.
+ */
+public final class QueryStats {
+
+    private final String template;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    QueryStats( String template ) {
+        this.template = template;
+    }
+
+    void executed( long nanos ) {
+        latency.record( nanos );
+    }
+
+    void rows( long count ) {
+        rows.add( count );
+    }
+
+    void failed() {
+        errors.increment();
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return The time the driver took to execute the statement, up to the first rows of a query.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getExecutions() {
+        return latency.getCount();
+    }
+
+    /**
+     * @return The number of rows read from the results of queries plus the number of rows changed by updates.
+     */
+    public long getRows() {
+        return rows.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStats [" + template + ", " + latency + ", rows=" + getRows() + ", errors=" + getErrors()
+                + ", totalMs=" + Math.round( latency.getTotal( TimeUnit.MILLISECONDS ) ) + "]";
+    }
+
+}
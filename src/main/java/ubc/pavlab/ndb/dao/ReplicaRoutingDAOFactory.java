@@ -0,0 +1,586 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A DAOFactory which sends writes to a primary database and spreads reads over its replicas. Used when
+ * 'name.replica.N.url' properties are set, see {@link DAOFactory}.
+ * <p>
+ * DAOs take connections for read-only work from {@link #getReadConnection()} and for everything else from
+ * {@link #getConnection()}. Reads go to the primary instead of a replica when
+ * <ul>
+ * <li>the current client wrote within the last 'stickyMs', so it reads its own writes despite replication lag;</li>
+ * <li>the current thread is inside a {@link #readFromPrimary()} scope;</li>
+ * <li>no replica is healthy.</li>
+ * </ul>
+ * The client is whoever the current thread works for, as bound with {@link #actingFor(String)}; web requests are
+ * bound to their HTTP session, so a user reads their own writes on whichever thread their next request lands.
+ * Without a client, for example in background work, the current thread is the client.
+ * <p>
+ * A replica is picked round-robin, or as the one with the fewest connections currently checked out. A replica which
+ * fails to hand out a connection is ejected for 'ejectMs' and then tried again; its reads fall over to the other
+ * replicas or the primary in the meantime. Running out of pooled connections on a replica does not eject it. With
+ * {@link #startHealthChecks(long, String, long)}, every replica is also checked periodically, and left out from the
+ * first failed check until the next one passes: it must answer, and, when a lag query is given, lag the primary by no
+ * more than the given maximum.
+ */
+public class ReplicaRoutingDAOFactory extends DAOFactory {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( ReplicaRoutingDAOFactory.class );
+
+    public static final long DEFAULT_EJECT_MS = 30000;
+    public static final long DEFAULT_STICKY_MS = 5000;
+    public static final long DEFAULT_CHECK_MS = 10000;
+    public static final long DEFAULT_MAX_LAG_MS = 30000;
+
+    private static final ThreadLocal<String> CLIENT = new ThreadLocal<>();
+
+    /**
+     * Clients tracked for read-your-writes, beyond which the least recently writing are forgotten.
+     */
+    private static final int MAX_CLIENTS = 100000;
+
+    private static final ThreadLocal<int[]> PRIMARY_SCOPES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 5;
+
+    private static final Constructor<?> PROXY_CONSTRUCTOR;
+
+    static {
+        try {
+            PROXY_CONSTRUCTOR = Proxy.getProxyClass( ReplicaRoutingDAOFactory.class.getClassLoader(),
+                    Connection.class, StatementCache.StatementCacheOwner.class ).getConstructor(
+                    InvocationHandler.class );
+        } catch ( NoSuchMethodException e ) {
+            throw new ExceptionInInitializerError( e );
+        }
+    }
+
+    /**
+     * How a replica is picked for a read.
+     */
+    public enum Selection {
+        ROUND_ROBIN, LEAST_OUTSTANDING;
+
+        /**
+         * @param name The name as used in the properties file, such as 'roundRobin'.
+         * @return The matching selection, or null if there is none.
+         */
+        public static Selection forName( String name ) {
+            for ( Selection selection : values() ) {
+                if ( selection.name().replace( "_", "" ).equalsIgnoreCase( name.replace( "_", "" ) ) ) {
+                    return selection;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory primary;
+    private final Replica[] replicas;
+    private final Selection selection;
+    private final long ejectMs;
+    private final long stickyMs;
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private final ThreadLocal<long[]> lastWrite = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] { Long.MIN_VALUE / 2 };
+        }
+    };
+
+    private final Cache<String, Long> clientWrites;
+
+    private volatile ScheduledExecutorService healthChecker;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * @param primary The database taking writes.
+     * @param replicas The read-only copies of the primary.
+     * @param selection How a replica is picked for a read.
+     * @param ejectMs How long a failing replica is left out.
+     * @param stickyMs How long reads of a client go to the primary after it wrote.
+     */
+    ReplicaRoutingDAOFactory( DAOFactory primary, List<DAOFactory> replicas, Selection selection, long ejectMs,
+            long stickyMs ) {
+        this.primary = primary;
+        this.replicas = new Replica[replicas.size()];
+        for ( int i = 0; i < this.replicas.length; i++ ) {
+            this.replicas[i] = new Replica( i + 1, replicas.get( i ) );
+        }
+        this.selection = selection;
+        this.ejectMs = ejectMs;
+        this.stickyMs = stickyMs;
+        this.clientWrites = CacheBuilder.newBuilder().expireAfterWrite( Math.max( stickyMs, 1 ), TimeUnit.MILLISECONDS )
+                .maximumSize( MAX_CLIENTS ).build();
+        log.info( "Routing reads over " + this.replicas.length + " replicas (selection: " + selection
+                + ", ejectMs: " + ejectMs + ", stickyMs: " + stickyMs + ")" );
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Sends the reads of the current thread to the primary until the returned scope is closed, for example around
+     * work which must see data it has just written from another thread. Scopes may be nested.
+     * 
+     * <pre>
+     * try (PrimaryScope scope = ReplicaRoutingDAOFactory.readFromPrimary()) {
+     *     ...
+     * }
+     * </pre>
+     * 
+     * @return The scope to close.
+     */
+    public static PrimaryScope readFromPrimary() {
+        PRIMARY_SCOPES.get()[0]++;
+        return new PrimaryScope();
+    }
+
+    /**
+     * Binds the current thread to the given client until the returned scope is closed, so that reads on any thread
+     * bound to the same client see its writes. Scopes may be nested.
+     * 
+     * @param client Identifies the client, such as an HTTP session ID; null binds no client.
+     * @return The scope to close.
+     */
+    public static ClientScope actingFor( String client ) {
+        ClientScope scope = new ClientScope( CLIENT.get() );
+        CLIENT.set( client );
+        return scope;
+    }
+
+    /**
+     * @return The client the current thread works for, or null.
+     */
+    public static String currentClient() {
+        return CLIENT.get();
+    }
+
+    /**
+     * Starts checking the replicas in the background, see {@link #checkHealth(String, long)}.
+     * 
+     * @param periodMs How often the replicas are checked.
+     * @param lagQuery SQL returning how many seconds a replica lags the primary, or null to only check that it answers.
+     * @param maxLagMs How far a replica may lag before it is left out.
+     */
+    public synchronized void startHealthChecks( long periodMs, final String lagQuery, final long maxLagMs ) {
+        if ( healthChecker != null || periodMs <= 0 ) {
+            return;
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder().setDaemon( true )
+                .setNameFormat( "ndb-replica-health" ).build() );
+        healthChecker.scheduleWithFixedDelay( () -> {
+            try {
+                checkHealth( lagQuery, maxLagMs );
+            } catch ( RuntimeException e ) {
+                log.warn( "Replica health check failed", e );
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS );
+        log.info( "Checking replicas every " + periodMs + "ms" + ( lagQuery == null ? "" : " (maxLagMs: "
+                + maxLagMs + ")" ) );
+    }
+
+    /**
+     * Checks that every replica answers and, if a lag query is given, that it lags the primary by no more than
+     * maxLagMs. A replica failing the check takes no reads until a later check passes.
+     * 
+     * @param lagQuery SQL returning how many seconds a replica lags the primary, or null to only check that it answers.
+     * @param maxLagMs How far a replica may lag before it is left out.
+     */
+    void checkHealth( String lagQuery, long maxLagMs ) {
+        for ( Replica replica : replicas ) {
+            String problem;
+            try (Connection connection = replica.factory.getReadConnection()) {
+                problem = check( connection, lagQuery, maxLagMs );
+            } catch ( SQLTransientConnectionException e ) {
+                // Busy, so evidently answering.
+                continue;
+            } catch ( SQLException e ) {
+                problem = e.getMessage();
+            }
+            replica.checked( problem );
+        }
+    }
+
+    @Override
+    Connection getConnection() throws SQLException {
+        String client = CLIENT.get();
+        if ( client == null ) {
+            lastWrite.get()[0] = System.currentTimeMillis();
+        } else if ( stickyMs > 0 ) {
+            clientWrites.put( client, System.currentTimeMillis() );
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    Connection getReadConnection() throws SQLException {
+        if ( PRIMARY_SCOPES.get()[0] > 0 || wroteRecently() ) {
+            return primary.getReadConnection();
+        }
+
+        long now = System.currentTimeMillis();
+        Replica first = select( now );
+        if ( first != null ) {
+            // Try the selected replica first, then the other healthy ones in order.
+            for ( int i = 0; i < replicas.length; i++ ) {
+                Replica replica = replicas[( first.index + i ) % replicas.length];
+                if ( replica.isAvailable( now ) ) {
+                    Connection connection = replica.getConnection();
+                    if ( connection != null ) {
+                        return connection;
+                    }
+                }
+            }
+        }
+        return primary.getReadConnection();
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService checker = healthChecker;
+        if ( checker != null ) {
+            checker.shutdownNow();
+        }
+        for ( Replica replica : replicas ) {
+            replica.factory.close();
+        }
+        primary.close();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return primary.getMaxConnections();
+    }
+
+    /**
+     * @return The connection statistics of the primary and of each replica, prefixed with 'primary.' and 'replicaN.',
+     *         and the number of healthy replicas.
+     */
+    @Override
+    public Map<String, Long> getConnectionStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        for ( Map.Entry<String, Long> stat : primary.getConnectionStats().entrySet() ) {
+            stats.put( "primary." + stat.getKey(), stat.getValue() );
+        }
+        for ( int i = 0; i < replicas.length; i++ ) {
+            for ( Map.Entry<String, Long> stat : replicas[i].factory.getConnectionStats().entrySet() ) {
+                stats.put( "replica" + ( i + 1 ) + "." + stat.getKey(), stat.getValue() );
+            }
+            stats.put( "replica" + ( i + 1 ) + ".outstanding", ( long ) replicas[i].outstanding.get() );
+        }
+        stats.put( "healthyReplicas", ( long ) getHealthyReplicaCount() );
+        return stats;
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * @return The number of replicas currently taking reads.
+     */
+    public int getHealthyReplicaCount() {
+        long now = System.currentTimeMillis();
+        int healthy = 0;
+        for ( Replica replica : replicas ) {
+            if ( replica.isAvailable( now ) ) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    /**
+     * @return The number of connections currently checked out of each replica, in configuration order.
+     */
+    public int[] getOutstandingCounts() {
+        int[] counts = new int[replicas.length];
+        for ( int i = 0; i < replicas.length; i++ ) {
+            counts[i] = replicas[i].outstanding.get();
+        }
+        return counts;
+    }
+
+    public DAOFactory getPrimary() {
+        return primary;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaRoutingDAOFactory[primary: " + primary + ", replicas: " + replicas.length + ", healthy: "
+                + getHealthyReplicaCount() + "]";
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private boolean wroteRecently() {
+        String client = CLIENT.get();
+        long written;
+        if ( client == null ) {
+            written = lastWrite.get()[0];
+        } else {
+            Long clientWritten = clientWrites.getIfPresent( client );
+            written = clientWritten == null ? Long.MIN_VALUE / 2 : clientWritten;
+        }
+        return System.currentTimeMillis() - written < stickyMs;
+    }
+
+    /**
+     * @return Why the replica behind the connection is unfit for reads, or null if it is fine.
+     */
+    private static String check( Connection connection, String lagQuery, long maxLagMs ) throws SQLException {
+        if ( !connection.isValid( HEALTH_CHECK_TIMEOUT_SECONDS ) ) {
+            return "not answering";
+        }
+        if ( lagQuery == null ) {
+            return null;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout( HEALTH_CHECK_TIMEOUT_SECONDS );
+            try (ResultSet resultSet = statement.executeQuery( lagQuery )) {
+                if ( !resultSet.next() ) {
+                    return "lag unknown";
+                }
+                double lagSeconds = resultSet.getDouble( 1 );
+                if ( resultSet.wasNull() ) {
+                    // MySQL reports no lag when replication is not running.
+                    return "lag unknown";
+                }
+                return lagSeconds * 1000 > maxLagMs ? "lagging " + lagSeconds + "s" : null;
+            }
+        }
+    }
+
+    /**
+     * @return The replica to try first, or null if none is healthy.
+     */
+    private Replica select( long now ) {
+        if ( selection == Selection.ROUND_ROBIN ) {
+            for ( int i = 0; i < replicas.length; i++ ) {
+                Replica replica = replicas[( nextReplica.getAndIncrement() & Integer.MAX_VALUE ) % replicas.length];
+                if ( replica.isAvailable( now ) ) {
+                    return replica;
+                }
+            }
+            return null;
+        }
+        Replica best = null;
+        int offset = nextReplica.getAndIncrement() & Integer.MAX_VALUE;
+        for ( int i = 0; i < replicas.length; i++ ) {
+            // Start at a rotating offset so ties are spread out.
+            Replica replica = replicas[( offset + i ) % replicas.length];
+            if ( replica.isAvailable( now )
+                    && ( best == null || replica.outstanding.get() < best.outstanding.get() ) ) {
+                best = replica;
+            }
+        }
+        return best;
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * Closing a scope returned by {@link ReplicaRoutingDAOFactory#readFromPrimary()} lets reads of the current thread
+     * go to the replicas again.
+     */
+    public static final class PrimaryScope implements AutoCloseable {
+        private boolean closed = false;
+
+        private PrimaryScope() {
+        }
+
+        @Override
+        public void close() {
+            if ( !closed ) {
+                closed = true;
+                PRIMARY_SCOPES.get()[0]--;
+            }
+        }
+    }
+
+    /**
+     * Closing a scope returned by {@link ReplicaRoutingDAOFactory#actingFor(String)} binds the current thread to the
+     * client it worked for before.
+     */
+    public static final class ClientScope implements AutoCloseable {
+        private final String previous;
+        private boolean closed = false;
+
+        private ClientScope( String previous ) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if ( !closed ) {
+                closed = true;
+                if ( previous == null ) {
+                    CLIENT.remove();
+                } else {
+                    CLIENT.set( previous );
+                }
+            }
+        }
+    }
+
+    /**
+     * A replica with its health and the number of its connections in use.
+     */
+    private final class Replica {
+        final int index;
+        final DAOFactory factory;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile long ejectedUntil = 0;
+        volatile boolean failedCheck = false;
+
+        Replica( int number, DAOFactory factory ) {
+            this.index = number - 1;
+            this.factory = factory;
+        }
+
+        boolean isAvailable( long now ) {
+            return !failedCheck && ejectedUntil <= now;
+        }
+
+        void checked( String problem ) {
+            if ( problem != null && !failedCheck ) {
+                log.warn( "Leaving out replica " + ( index + 1 ) + " until it passes a health check: " + problem );
+            } else if ( problem == null && failedCheck ) {
+                log.info( "Replica " + ( index + 1 ) + " passed its health check and is taking reads again" );
+            }
+            failedCheck = problem != null;
+        }
+
+        /**
+         * @return A connection counted as outstanding until it is closed, or null if the replica failed.
+         */
+        Connection getConnection() {
+            Connection connection;
+            try {
+                connection = factory.getReadConnection();
+            } catch ( SQLTransientConnectionException e ) {
+                log.debug( "Replica " + ( index + 1 ) + " is busy: " + e.getMessage() );
+                return null;
+            } catch ( SQLException e ) {
+                ejectedUntil = System.currentTimeMillis() + ejectMs;
+                log.warn( "Ejecting replica " + ( index + 1 ) + " for " + ejectMs + "ms: " + e.getMessage() );
+                return null;
+            }
+            if ( ejectedUntil != 0 ) {
+                ejectedUntil = 0;
+                log.info( "Replica " + ( index + 1 ) + " is taking reads again" );
+            }
+            outstanding.incrementAndGet();
+            try {
+                return ( Connection ) PROXY_CONSTRUCTOR.newInstance( new ReplicaConnection( this, connection ) );
+            } catch ( ReflectiveOperationException e ) {
+                outstanding.decrementAndGet();
+                DAOUtil.close( connection );
+                throw new IllegalStateException( "Could not create replica connection proxy", e );
+            }
+        }
+    }
+
+    /**
+     * A connection of a replica which counts as outstanding until it is closed. Keeps the statement cache of the
+     * underlying connection.
+     */
+    private static final class ReplicaConnection implements InvocationHandler {
+        private final Replica replica;
+        private final Connection connection;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ReplicaConnection( Replica replica, Connection connection ) {
+            this.replica = replica;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+            switch ( name ) {
+                case "close":
+                    if ( closed.compareAndSet( false, true ) ) {
+                        replica.outstanding.decrementAndGet();
+                        DAOUtil.close( connection );
+                    }
+                    return null;
+                case "isClosed":
+                    return closed.get() || connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                case "toString":
+                    return "ReplicaConnection[" + ( replica.index + 1 ) + ", " + connection + "]";
+                case "getStatementCache":
+                    return StatementCache.forConnection( connection );
+                default:
+                    break;
+            }
+            if ( closed.get() ) {
+                throw new SQLException( "Connection has already been closed." );
+            }
+            try {
+                return method.invoke( connection, args );
+            } catch ( InvocationTargetException e ) {
+                throw e.getCause();
+            }
+        }
+    }
+
+}
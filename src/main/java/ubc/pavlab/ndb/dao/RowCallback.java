@@ -0,0 +1,37 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+/**
+ * Receives the rows of a streamed query one at a time, see {@link StreamingQuery}.
+ * 
+ * @param <T> The type of object rows are mapped to.
+ */
+public interface RowCallback<T> {
+
+    /**
+     * Handles one row. The row must not be retained if the walk is meant to run in constant memory.
+     * 
+     * @param row The mapped row.
+     * @throws Exception If handling fails; this aborts the walk.
+     */
+    void handle( T row ) throws Exception;
+
+}
@@ -0,0 +1,160 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+/**
+ * An iterator over the rows of a streamed query, see {@link StreamingQuery#open}. Only the current row is held in
+ * memory. The cursor owns its connection, statement and result set and closes them once the last row has been read,
+ * when mapping fails, or when {@link #close()} is called, whichever happens first.
+ * <p>
+ * Cursors are not thread safe.
+ * 
+ * @param <T> The type of object rows are mapped to.
+ */
+public final class RowCursor<T> implements Iterator<T>, AutoCloseable {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final RowMapper<T> mapper;
+    private final boolean restoreAutoCommit;
+
+    private boolean advanced;
+    private boolean hasRow;
+    private boolean closed;
+    private long rows;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    RowCursor( Connection connection, PreparedStatement statement, ResultSet resultSet, RowMapper<T> mapper,
+            boolean restoreAutoCommit ) {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+        this.restoreAutoCommit = restoreAutoCommit;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public boolean hasNext() throws DAOException {
+        if ( closed ) {
+            return false;
+        }
+        if ( !advanced ) {
+            try {
+                hasRow = resultSet.next();
+            } catch ( SQLException e ) {
+                close();
+                throw new DAOException( e );
+            }
+            advanced = true;
+            if ( !hasRow ) {
+                close();
+            }
+        }
+        return hasRow;
+    }
+
+    @Override
+    public T next() throws DAOException {
+        if ( !hasNext() ) {
+            throw new NoSuchElementException();
+        }
+        advanced = false;
+        try {
+            T row = mapper.map( resultSet );
+            rows++;
+            return row;
+        } catch ( SQLException e ) {
+            close();
+            throw new DAOException( e );
+        }
+    }
+
+    /**
+     * Not supported, streamed results are read-only.
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException( "Streamed results are read-only" );
+    }
+
+    /**
+     * Closes the cursor and releases its connection. Closing an exhausted or already closed cursor has no effect.
+     */
+    @Override
+    public void close() {
+        if ( !closed ) {
+            closed = true;
+            hasRow = false;
+            release( connection, statement, resultSet, restoreAutoCommit );
+        }
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * @return The number of rows read so far.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return True if the cursor has released its resources.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    static void release( Connection connection, PreparedStatement statement, ResultSet resultSet,
+            boolean restoreAutoCommit ) {
+        DAOUtil.close( resultSet );
+        DAOUtil.close( statement );
+        if ( restoreAutoCommit && connection != null ) {
+            try {
+                // Nothing was written, end the read-only transaction before handing the connection back.
+                connection.rollback();
+                connection.setAutoCommit( true );
+            } catch ( SQLException e ) {
+                System.err.println( "Restoring autocommit failed: " + e.getMessage() );
+                e.printStackTrace();
+            }
+        }
+        DAOUtil.close( connection );
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a ResultSet to an object. Implementations must not move the cursor.
+ * 
+ * @param <T> The type of object rows are mapped to.
+ */
+public interface RowMapper<T> {
+
+    /**
+     * @param resultSet The ResultSet positioned on the row to map.
+     * @return The object mapped from the current row.
+     * @throws SQLException If reading a column fails.
+     */
+    T map( ResultSet resultSet ) throws SQLException;
+
+}
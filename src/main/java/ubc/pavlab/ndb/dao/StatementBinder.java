@@ -0,0 +1,144 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Typed parameter binding for PreparedStatements. Parameters are bound in order with the overload matching their
+ * type, so primitives are neither boxed nor collected into a varargs array and the driver does not have to infer
+ * their SQL type. A binder is not thread-safe and references its statement until reset, so get a fresh one per
+ * statement from {@link DAOUtil#bind(PreparedStatement)} rather than keeping one around.
+ * <p>
+ * Here is a basic use example:
+ * 
+ * <pre>
+ * PreparedStatement statement = DAOUtil.prepareStatement( connection, SQL_FIND_BY_REGION, false );
+ * DAOUtil.bind( statement ).bind( chromosome ).bind( start ).bind( stop );
+ * resultSet = statement.executeQuery();
+ * </pre>
+ */
+public final class StatementBinder {
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private PreparedStatement statement;
+    private int index;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    public StatementBinder() {
+        // Bound to a statement with reset( PreparedStatement ).
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Points this binder at the given statement; the next bound value becomes its first parameter.
+     * 
+     * @param statement The PreparedStatement to bind parameters of.
+     * @return This binder.
+     */
+    public StatementBinder reset( PreparedStatement statement ) {
+        this.statement = statement;
+        this.index = 0;
+        return this;
+    }
+
+    public StatementBinder bind( int value ) throws SQLException {
+        statement.setInt( ++index, value );
+        return this;
+    }
+
+    public StatementBinder bind( long value ) throws SQLException {
+        statement.setLong( ++index, value );
+        return this;
+    }
+
+    public StatementBinder bind( double value ) throws SQLException {
+        statement.setDouble( ++index, value );
+        return this;
+    }
+
+    public StatementBinder bind( boolean value ) throws SQLException {
+        statement.setBoolean( ++index, value );
+        return this;
+    }
+
+    public StatementBinder bind( String value ) throws SQLException {
+        statement.setString( ++index, value );
+        return this;
+    }
+
+    /**
+     * Binds SQL NULL of the given type.
+     * 
+     * @param sqlType The SQL type code defined in java.sql.Types.
+     * @return This binder.
+     */
+    public StatementBinder bindNull( int sqlType ) throws SQLException {
+        statement.setNull( ++index, sqlType );
+        return this;
+    }
+
+    /**
+     * Binds a value of any type, using the typed setter for common wrapper types and setObject otherwise.
+     * 
+     * @param value The value to bind, may be null.
+     * @return This binder.
+     */
+    public StatementBinder bind( Object value ) throws SQLException {
+        set( statement, ++index, value );
+        return this;
+    }
+
+    /**
+     * @return The number of parameters bound since the last reset.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The statement this binder currently binds to.
+     */
+    public PreparedStatement getStatement() {
+        return statement;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Sets a single parameter, dispatching common wrapper types to their typed setter.
+     */
+    static void set( PreparedStatement statement, int parameterIndex, Object value ) throws SQLException {
+        if ( value instanceof String ) {
+            statement.setString( parameterIndex, ( String ) value );
+        } else if ( value instanceof Integer ) {
+            statement.setInt( parameterIndex, ( Integer ) value );
+        } else if ( value instanceof Long ) {
+            statement.setLong( parameterIndex, ( Long ) value );
+        } else {
+            statement.setObject( parameterIndex, value );
+        }
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.MapMaker;
+
+/**
+ * A bounded LRU cache of PreparedStatements for a single connection, keyed by SQL text and the generated-keys flag.
+ * Used by {@link DAOUtil#prepareStatement(Connection, String, boolean, Object...)} so the hot lookup queries are only
+ * prepared once per connection.
+ * <p>
+ * A cached statement is checked out to one caller at a time. {@link DAOUtil#close(Statement)} hands it back to the
+ * cache (clearing its parameters) instead of closing it. If the same SQL is prepared again while its cached statement
+ * is checked out, for instance from inside a loop over its ResultSet, the caller gets an ordinary uncached statement.
+ * <p>
+ * Only connections which carry a cache of their own ({@link StatementCacheOwner}) cache statements. Those handed out
+ * by the built-in pool keep their cache across checkouts, so the statements live as long as the physical connection
+ * and are closed with it. Connections from the DriverManager or a container DataSource are not cached, since nothing
+ * would tell when they are gone; container pools usually cache statements themselves. Note that
+ * with MySQL Connector/J a PreparedStatement only skips the server-side parse when 'useServerPrepStmts=true' is set on
+ * the JDBC URL; otherwise the cache saves the client-side parse only.
+ */
+final class StatementCache {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    static final int DEFAULT_MAX_SIZE = 64;
+
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong EVICTIONS = new AtomicLong();
+
+    /**
+     * Owning cache of every statement currently held by a cache, by statement identity. The cache holds its statements,
+     * so it is referenced weakly as well; otherwise an entry would keep itself alive.
+     */
+    private static final ConcurrentMap<Statement, StatementCache> STATEMENT_OWNERS = new MapMaker().weakKeys()
+            .weakValues().makeMap();
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final int capacity;
+
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+
+    private final Map<PreparedStatement, Boolean> checkedOut = new IdentityHashMap<>();
+
+    private boolean closed = false;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    StatementCache( int capacity ) {
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<>( 16, 0.75f, true );
+    }
+
+    // Registry -----------------------------------------------------------------------------------
+
+    /**
+     * Sets the maximum number of statements cached per connection for caches created from now on. Zero disables
+     * statement caching.
+     */
+    static void setMaxSize( int size ) {
+        maxSize = Math.max( 0, size );
+    }
+
+    /**
+     * @return A new cache of the configured size, or null if statement caching is disabled.
+     */
+    static StatementCache newInstance() {
+        int size = maxSize;
+        return size == 0 ? null : new StatementCache( size );
+    }
+
+    /**
+     * @return The cache of the given connection, or null if it does not carry one or statement caching is disabled.
+     */
+    static StatementCache forConnection( Connection connection ) {
+        if ( connection instanceof StatementCacheOwner ) {
+            return ( ( StatementCacheOwner ) connection ).getStatementCache();
+        }
+        return null;
+    }
+
+    /**
+     * Hands a statement back to its cache.
+     * 
+     * @return True if the statement is owned by a cache and must stay open, false if it should be closed as usual.
+     */
+    static boolean release( Statement statement ) {
+        StatementCache cache = STATEMENT_OWNERS.get( statement );
+        return cache != null && cache.checkIn( ( PreparedStatement ) statement );
+    }
+
+    /**
+     * @return Hit, miss and eviction counts across all statement caches since startup.
+     */
+    static CacheStats stats() {
+        return new CacheStats( HITS.get(), MISSES.get(), 0, 0, 0, EVICTIONS.get() );
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns a cached statement for the given SQL, preparing and caching it on a miss.
+     */
+    synchronized PreparedStatement prepare( Connection connection, String sql, boolean returnGeneratedKeys )
+            throws SQLException {
+        Key key = new Key( sql, returnGeneratedKeys );
+        PreparedStatement statement = closed ? null : statements.get( key );
+
+        if ( statement != null && !checkedOut.containsKey( statement ) ) {
+            if ( !statement.isClosed() ) {
+                HITS.incrementAndGet();
+                checkedOut.put( statement, Boolean.TRUE );
+                return statement;
+            }
+            // Closed behind our back; drop it and prepare a new one.
+            statements.remove( key );
+            STATEMENT_OWNERS.remove( statement );
+        }
+
+        MISSES.incrementAndGet();
+        PreparedStatement prepared = connection.prepareStatement( sql,
+                returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS );
+
+        // Leave the checked out statement in place and hand out an uncached one.
+        if ( closed || statement != null && checkedOut.containsKey( statement ) ) {
+            return prepared;
+        }
+
+        statements.put( key, prepared );
+        STATEMENT_OWNERS.put( prepared, this );
+        checkedOut.put( prepared, Boolean.TRUE );
+        evictOverflow();
+        return prepared;
+    }
+
+    /**
+     * Marks every statement as returned. Called by the pool when a connection is checked in, in case a caller did not
+     * close its statements.
+     */
+    synchronized void releaseAll() {
+        for ( PreparedStatement statement : new ArrayList<>( checkedOut.keySet() ) ) {
+            checkIn( statement );
+        }
+    }
+
+    /**
+     * Closes every cached statement.
+     */
+    synchronized void close() {
+        closed = true;
+        List<PreparedStatement> toClose = new ArrayList<>( statements.values() );
+        toClose.addAll( checkedOut.keySet() );
+        statements.clear();
+        checkedOut.clear();
+        for ( PreparedStatement statement : toClose ) {
+            STATEMENT_OWNERS.remove( statement );
+            closeQuietly( statement );
+        }
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    // Internal -----------------------------------------------------------------------------------
+
+    private synchronized boolean checkIn( PreparedStatement statement ) {
+        if ( checkedOut.remove( statement ) == null ) {
+            // Already returned, or not ours anymore.
+            return STATEMENT_OWNERS.get( statement ) == this && !closed;
+        }
+        if ( closed || !statements.containsValue( statement ) ) {
+            // Evicted while it was checked out.
+            STATEMENT_OWNERS.remove( statement );
+            closeQuietly( statement );
+            return true;
+        }
+        try {
+            statement.clearParameters();
+            return true;
+        } catch ( SQLException e ) {
+            // Unusable; forget it and let the caller close it.
+            forget( statement );
+            return false;
+        }
+    }
+
+    private void evictOverflow() {
+        Iterator<PreparedStatement> it = statements.values().iterator();
+        while ( statements.size() > capacity && it.hasNext() ) {
+            PreparedStatement eldest = it.next();
+            it.remove();
+            EVICTIONS.incrementAndGet();
+            if ( !checkedOut.containsKey( eldest ) ) {
+                STATEMENT_OWNERS.remove( eldest );
+                closeQuietly( eldest );
+            }
+            // Otherwise it is closed when it is checked in.
+        }
+    }
+
+    private void forget( PreparedStatement statement ) {
+        Iterator<PreparedStatement> it = statements.values().iterator();
+        while ( it.hasNext() ) {
+            if ( it.next() == statement ) {
+                it.remove();
+            }
+        }
+        STATEMENT_OWNERS.remove( statement );
+    }
+
+    private static void closeQuietly( PreparedStatement statement ) {
+        try {
+            statement.close();
+        } catch ( SQLException e ) {
+            // Statement or connection already gone; nothing left to release.
+        }
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * Implemented by connections which keep their statement cache for the lifetime of the physical connection.
+     */
+    interface StatementCacheOwner {
+
+        StatementCache getStatementCache();
+    }
+
+    private static final class Key {
+        private final String sql;
+        private final boolean returnGeneratedKeys;
+
+        Key( String sql, boolean returnGeneratedKeys ) {
+            this.sql = sql;
+            this.returnGeneratedKeys = returnGeneratedKeys;
+        }
+
+        @Override
+        public int hashCode() {
+            return sql.hashCode() * 31 + ( returnGeneratedKeys ? 1 : 0 );
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if ( this == obj ) {
+                return true;
+            }
+            if ( !( obj instanceof Key ) ) {
+                return false;
+            }
+            Key other = ( Key ) obj;
+            return returnGeneratedKeys == other.returnGeneratedKeys && sql.equals( other.sql );
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+/**
+ * Runs queries whose results are too large to be held in memory, such as exports, index rebuilds and statistics over
+ * whole tables. Rows are read through a forward-only, read-only cursor and handed out one at a time, so memory use
+ * does not depend on the size of the result.
+ * <p>
+ * MySQL Connector/J buffers complete results unless the fetch size is {@link Integer#MIN_VALUE}, in which case it
+ * streams row by row; other drivers are given a regular fetch size and autocommit is switched off for the duration of
+ * the query, as PostgreSQL only uses server side cursors inside a transaction.
+ * <p>
+ * Each query holds a connection of its own until it is closed. While a MySQL result is being streamed, no other
+ * statement can be executed on that connection. Streamed statements bypass the statement cache.
+ */
+public final class StreamingQuery {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( StreamingQuery.class );
+
+    /**
+     * The fetch size used for drivers that do not stream with {@link Integer#MIN_VALUE}.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private static final String MYSQL = "MySQL";
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private StreamingQuery() {
+        // Utility class, hide constructor.
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Executes the given query and hands each row to the callback, in order. All resources are closed before this
+     * method returns, also when the callback fails.
+     * 
+     * @param daoFactory The DAOFactory to obtain the connection from.
+     * @param sql The SQL query.
+     * @param mapper Maps each row to an object.
+     * @param callback Receives the mapped rows.
+     * @param values The PreparedStatement values to be set.
+     * @return The number of rows handed to the callback.
+     * @throws DAOException If something fails at database level, or if the callback fails.
+     */
+    public static <T> long forEach( DAOFactory daoFactory, String sql, RowMapper<T> mapper,
+            RowCallback<? super T> callback, Object... values ) throws DAOException {
+        long rows = 0;
+        try (RowCursor<T> cursor = open( daoFactory, sql, mapper, values )) {
+            while ( cursor.hasNext() ) {
+                callback.handle( cursor.next() );
+                rows++;
+            }
+        } catch ( DAOException e ) {
+            throw e;
+        } catch ( Exception e ) {
+            throw new DAOException( "Streaming query failed after " + rows + " rows", e );
+        }
+        return rows;
+    }
+
+    /**
+     * Executes the given query and returns a cursor over its rows. The cursor closes itself once it is exhausted, but
+     * callers must close it when they stop early; use try-with-resources.
+     * 
+     * @param daoFactory The DAOFactory to obtain the connection from.
+     * @param sql The SQL query.
+     * @param mapper Maps each row to an object.
+     * @param values The PreparedStatement values to be set.
+     * @return An open cursor positioned before the first row.
+     * @throws DAOException If something fails at database level.
+     */
+    public static <T> RowCursor<T> open( DAOFactory daoFactory, String sql, RowMapper<T> mapper, Object... values )
+            throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        boolean restoreAutoCommit = false;
+        try {
+            connection = daoFactory.getReadConnection();
+            boolean mysql = isMySQL( connection );
+            if ( !mysql && connection.getAutoCommit() ) {
+                connection.setAutoCommit( false );
+                restoreAutoCommit = true;
+            }
+            statement = connection.prepareStatement( sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+            statement.setFetchSize( mysql ? Integer.MIN_VALUE : DEFAULT_FETCH_SIZE );
+            statement.setFetchDirection( ResultSet.FETCH_FORWARD );
+            DAOUtil.setValues( statement, values );
+            resultSet = statement.executeQuery();
+            return new RowCursor<T>( connection, statement, resultSet, mapper, restoreAutoCommit );
+        } catch ( SQLException e ) {
+            RowCursor.release( connection, statement, resultSet, restoreAutoCommit );
+            throw new DAOException( e );
+        } catch ( RuntimeException e ) {
+            RowCursor.release( connection, statement, resultSet, restoreAutoCommit );
+            throw e;
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private static boolean isMySQL( Connection connection ) {
+        try {
+            return MYSQL.equals( connection.getMetaData().getDatabaseProductName() );
+        } catch ( SQLException e ) {
+            log.warn( "Could not determine database product, streaming with fetch size " + DEFAULT_FETCH_SIZE, e );
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+/**
+ * The commit, rollback and cleanup shared by DAOs which write several statements atomically. Use
+ * {@link #run(DAOFactory, String, Work)} for a single transaction on a connection of its own; {@link BatchWriter},
+ * which commits many chunks on one connection, uses {@link #rollback(Connection, String)} and
+ * {@link #release(Connection, Statement...)} directly.
+ */
+final class Transactions {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( Transactions.class );
+
+    // Constructors -------------------------------------------------------------------------------
+
+    private Transactions() {
+        // Utility class, hide constructor.
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Runs the given work on a new connection with auto-commit off and commits it, or rolls it back if it fails.
+     * 
+     * @param daoFactory The DAOFactory to obtain the connection from.
+     * @param description What the work does, for the exception and log messages.
+     * @param work The statements to execute; it must close the statements it creates.
+     * @return The result of the work.
+     * @throws DAOException If the work fails with an SQLException; nothing it wrote is committed then. Other exceptions
+     *         and errors are rethrown as they are, also after a rollback.
+     */
+    static <T> T run( DAOFactory daoFactory, String description, Work<T> work ) throws DAOException {
+        Connection connection = null;
+        try {
+            connection = daoFactory.getConnection();
+            connection.setAutoCommit( false );
+            T result = work.run( connection );
+            connection.commit();
+            return result;
+        } catch ( SQLException e ) {
+            rollback( connection, description );
+            throw new DAOException( description + " failed", e );
+        } catch ( RuntimeException | Error e ) {
+            // Must not reach release() uncommitted: switching auto-commit back on would commit the partial work.
+            rollback( connection, description );
+            throw e;
+        } finally {
+            release( connection );
+        }
+    }
+
+    /**
+     * Rolls back the current transaction of the connection, logging rather than throwing if that fails.
+     * 
+     * @param connection The connection, or null if it could not be obtained.
+     * @param description What the transaction did, for the log message.
+     */
+    static void rollback( Connection connection, String description ) {
+        if ( connection != null ) {
+            try {
+                connection.rollback();
+            } catch ( SQLException e ) {
+                log.warn( "Rollback of " + description + " failed: " + e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * Switches auto-commit back on and closes the statements and the connection, quietly. Switching auto-commit on
+     * commits an open transaction, so callers must have committed or rolled back.
+     * 
+     * @param connection The connection, or null if it could not be obtained.
+     * @param statements The statements to close, may contain null.
+     */
+    static void release( Connection connection, Statement... statements ) {
+        if ( connection != null ) {
+            try {
+                connection.setAutoCommit( true );
+            } catch ( SQLException e ) {
+                // Connection is closed below anyway.
+            }
+        }
+        for ( Statement statement : statements ) {
+            DAOUtil.close( statement );
+        }
+        DAOUtil.close( connection );
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * Statements executed in one transaction.
+     * 
+     * @param <T> The type of the result.
+     */
+    interface Work<T> {
+        T run( Connection connection ) throws SQLException;
+    }
+
+}
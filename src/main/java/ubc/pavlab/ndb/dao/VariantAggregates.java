@@ -0,0 +1,287 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.dao.AggregateDAO.Dimension;
+import ubc.pavlab.ndb.dao.ReplicaRoutingDAOFactory.PrimaryScope;
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+import com.google.common.util.concurrent.AtomicLongMap;
+
+/**
+ * Keeps the variant_summary table in step with the variant table. Ingest reports every variant it inserts or retracts
+ * with {@link #added(Variant)} and {@link #retracted(Variant)}; the changes are accumulated in memory and written as
+ * one transaction of increments by {@link #flush()}, typically after each committed chunk. {@link #verify()} compares
+ * the table with a full GROUP BY of the variant table and {@link #rebuild()} replaces it from one.
+ * <p>
+ * Instances are thread safe, so parallel ingest workers may share one.
+ * <p>
+ * Here is a basic use example:
+ * 
+ * <pre>
+ * VariantAggregates aggregates = new VariantAggregates( daoFactory );
+ * for ( Variant variant : chunk ) {
+ *     aggregates.added( variant );
+ * }
+ * aggregates.flush();
+ * long count = daoFactory.getAggregateDAO().count( Dimension.GENE, &quot;1234&quot; );
+ * </pre>
+ */
+public class VariantAggregates {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( VariantAggregates.class );
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final AggregateDAO aggregateDAO;
+    private final Map<Dimension, AtomicLongMap<String>> pending = new EnumMap<>( Dimension.class );
+
+    // Constructors -------------------------------------------------------------------------------
+
+    public VariantAggregates( DAOFactory daoFactory ) {
+        this.aggregateDAO = daoFactory.getAggregateDAO();
+        for ( Dimension dimension : Dimension.values() ) {
+            pending.put( dimension, AtomicLongMap.<String> create() );
+        }
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Counts a variant which was inserted.
+     */
+    public void added( Variant variant ) {
+        change( variant, 1 );
+    }
+
+    /**
+     * Uncounts a variant which was deleted.
+     */
+    public void retracted( Variant variant ) {
+        change( variant, -1 );
+    }
+
+    /**
+     * Writes the accumulated changes. Changes made while the flush is running are kept for the next one. If the
+     * write fails the changes are kept as well, so a later flush can retry them.
+     * 
+     * @return The number of changed keys written.
+     * @throws DAOException If the write fails.
+     */
+    public int flush() throws DAOException {
+        Map<Dimension, Map<String, Long>> deltas = drain();
+        int keys = 0;
+        for ( Map<String, Long> values : deltas.values() ) {
+            keys += values.size();
+        }
+        if ( keys == 0 ) {
+            return 0;
+        }
+        try {
+            aggregateDAO.applyDeltas( deltas );
+        } catch ( DAOException e ) {
+            restore( deltas );
+            throw e;
+        }
+        return keys;
+    }
+
+    /**
+     * @return The number of keys with changes not written yet.
+     */
+    public int getPendingKeys() {
+        int keys = 0;
+        for ( AtomicLongMap<String> values : pending.values() ) {
+            keys += values.size();
+        }
+        return keys;
+    }
+
+    /**
+     * Compares the stored counts with counts computed from the variant table. Pending changes are not taken into
+     * account, so flush first and make sure ingest is not writing. Both sides are read from the primary database.
+     * 
+     * @return The keys whose stored count is wrong, empty if the table is correct.
+     * @throws DAOException If something fails at database level.
+     */
+    public List<Mismatch> verify() throws DAOException {
+        List<Mismatch> mismatches = new ArrayList<>();
+        try (PrimaryScope scope = ReplicaRoutingDAOFactory.readFromPrimary()) {
+            for ( Dimension dimension : Dimension.values() ) {
+                Map<String, Long> expected = aggregateDAO.compute( dimension );
+                Map<String, Long> actual = aggregateDAO.findAll( dimension );
+                Set<String> keys = new HashSet<>( expected.keySet() );
+                keys.addAll( actual.keySet() );
+                for ( String key : keys ) {
+                    long e = value( expected, key );
+                    long a = value( actual, key );
+                    if ( e != a ) {
+                        mismatches.add( new Mismatch( dimension, key, e, a ) );
+                    }
+                }
+            }
+        }
+        if ( !mismatches.isEmpty() ) {
+            log.warn( "Variant summary has " + mismatches.size() + " wrong counts, first: " + mismatches.get( 0 ) );
+        }
+        return mismatches;
+    }
+
+    /**
+     * Replaces the stored counts with counts computed from the variant table and discards pending changes.
+     * 
+     * @throws DAOException If something fails at database level; the stored counts are unchanged then.
+     */
+    public void rebuild() throws DAOException {
+        long startTime = System.currentTimeMillis();
+        Map<Dimension, Map<String, Long>> counts = new EnumMap<>( Dimension.class );
+        try (PrimaryScope scope = ReplicaRoutingDAOFactory.readFromPrimary()) {
+            for ( Dimension dimension : Dimension.values() ) {
+                counts.put( dimension, aggregateDAO.compute( dimension ) );
+            }
+        }
+        drain();
+        aggregateDAO.replaceAll( counts );
+        log.info( "Variant summary rebuilt in " + ( System.currentTimeMillis() - startTime ) + " ms" );
+    }
+
+    /**
+     * Verifies the stored counts and rebuilds them if any is wrong.
+     * 
+     * @return The mismatches found before the rebuild.
+     * @throws DAOException If something fails at database level.
+     */
+    public List<Mismatch> verifyAndRepair() throws DAOException {
+        List<Mismatch> mismatches = verify();
+        if ( !mismatches.isEmpty() ) {
+            rebuild();
+        }
+        return mismatches;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private void change( Variant variant, long delta ) {
+        for ( Entry<Dimension, AtomicLongMap<String>> entry : pending.entrySet() ) {
+            String key = entry.getKey().key( variant );
+            if ( key != null ) {
+                entry.getValue().addAndGet( key, delta );
+            }
+        }
+    }
+
+    /**
+     * Takes the pending changes, subtracting rather than clearing so that concurrent changes are not lost.
+     */
+    private Map<Dimension, Map<String, Long>> drain() {
+        Map<Dimension, Map<String, Long>> deltas = new EnumMap<>( Dimension.class );
+        for ( Entry<Dimension, AtomicLongMap<String>> entry : pending.entrySet() ) {
+            AtomicLongMap<String> values = entry.getValue();
+            Map<String, Long> taken = new HashMap<>();
+            for ( String key : new ArrayList<>( values.asMap().keySet() ) ) {
+                long delta = values.get( key );
+                if ( delta != 0 ) {
+                    values.addAndGet( key, -delta );
+                    taken.put( key, delta );
+                }
+            }
+            values.removeAllZeros();
+            deltas.put( entry.getKey(), taken );
+        }
+        return deltas;
+    }
+
+    private void restore( Map<Dimension, Map<String, Long>> deltas ) {
+        for ( Entry<Dimension, Map<String, Long>> entry : deltas.entrySet() ) {
+            AtomicLongMap<String> values = pending.get( entry.getKey() );
+            for ( Entry<String, Long> delta : entry.getValue().entrySet() ) {
+                values.addAndGet( delta.getKey(), delta.getValue() );
+            }
+        }
+    }
+
+    private static long value( Map<String, Long> counts, String key ) {
+        Long value = counts.get( key );
+        return value == null ? 0 : value;
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * A stored count which differs from the computed one.
+     */
+    public static final class Mismatch {
+        private final Dimension dimension;
+        private final String key;
+        private final long expected;
+        private final long actual;
+
+        Mismatch( Dimension dimension, String key, long expected, long actual ) {
+            this.dimension = dimension;
+            this.key = key;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        public Dimension getDimension() {
+            return dimension;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return The count computed from the variant table.
+         */
+        public long getExpected() {
+            return expected;
+        }
+
+        /**
+         * @return The stored count.
+         */
+        public long getActual() {
+            return actual;
+        }
+
+        @Override
+        public String toString() {
+            return "Mismatch [dimension=" + dimension + ", key=" + key + ", expected=" + expected + ", actual="
+                    + actual + "]";
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * This interface represents a contract for a DAO for the {@link Variant} model.
+ */
+public interface VariantDAO {
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Returns the variant from the database matching the given ID, otherwise null.
+     * 
+     * @param id The ID of the variant to be returned.
+     * @return The variant from the database matching the given ID, otherwise null.
+     * @throws DAOException If something fails at database level.
+     */
+    public Variant find( int id ) throws DAOException;
+
+    /**
+     * Returns a list of all variants overlapping the given region, ordered by start.
+     * 
+     * @param chromosome The chromosome.
+     * @param start First position of the region, inclusive.
+     * @param stop Last position of the region, inclusive.
+     * @return A list of all variants overlapping the region.
+     * @throws DAOException If something fails at database level.
+     */
+    public List<Variant> findByRegion( String chromosome, long start, long stop ) throws DAOException;
+
+    /**
+     * Returns all variants in the given genes, ordered by gene ID. Any number of genes can be given, such as a pasted
+     * gene list.
+     * 
+     * @param geneIds The IDs of the genes.
+     * @return A list of all variants in the genes.
+     * @throws DAOException If something fails at database level.
+     */
+    public List<Variant> findByGenes( Collection<Integer> geneIds ) throws DAOException;
+
+    /**
+     * Walks the locations of all variants in constant memory. The variants handed to the callback only have ID,
+     * chromosome, start and stop filled in.
+     * 
+     * @param callback Receives the variant locations one at a time.
+     * @return The number of variants read.
+     * @throws DAOException If something fails at database level, or if the callback fails.
+     */
+    public long streamLocations( RowCallback<? super Variant> callback ) throws DAOException;
+
+    /**
+     * Walks the complete variant table ordered by ID in constant memory, handing each variant to the callback.
+     * 
+     * @param callback Receives the variants one at a time.
+     * @return The number of variants read.
+     * @throws DAOException If something fails at database level, or if the callback fails.
+     */
+    public long streamAll( RowCallback<? super Variant> callback ) throws DAOException;
+
+    /**
+     * Walks the complete variant table ordered by chromosome and start in constant memory, handing each variant to the
+     * callback.
+     * 
+     * @param callback Receives the variants one at a time.
+     * @return The number of variants read.
+     * @throws DAOException If something fails at database level, or if the callback fails.
+     */
+    public long streamAllByPosition( RowCallback<? super Variant> callback ) throws DAOException;
+
+    /**
+     * Opens a cursor over the complete variant table ordered by ID. The cursor must be closed when not read to the
+     * end.
+     * 
+     * @return An open cursor over all variants.
+     * @throws DAOException If something fails at database level.
+     */
+    public RowCursor<Variant> openAll() throws DAOException;
+
+    /**
+     * Writes the chromosome, start, stop, ref and alt of the given variants, matched by ID, for example after they
+     * were harmonized again. Writes are committed in chunks.
+     * 
+     * @param variants The variants to update.
+     * @return The number of variants written.
+     * @throws DAOException If something fails at database level; chunks written before the failure stay committed.
+     */
+    public long updateLocations( List<Variant> variants ) throws DAOException;
+
+}
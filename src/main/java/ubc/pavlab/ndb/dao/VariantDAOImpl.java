@@ -0,0 +1,201 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * This class represents a concrete JDBC implementation of the {@link VariantDAO} interface.
+ */
+public class VariantDAOImpl implements VariantDAO {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final String SQL_COLUMNS = "id, paper_id, gene_id, symbol, chromosome, start, stop, ref, alt, "
+            + "category, func, cdna_change, aa_change";
+    private static final String SQL_TABLE = "variant";
+
+    private static final String SQL_FIND_BY_ID = "SELECT " + SQL_COLUMNS + " FROM " + SQL_TABLE + " WHERE id = ?";
+    private static final String SQL_LIST_BY_REGION = "SELECT " + SQL_COLUMNS + " FROM " + SQL_TABLE
+            + " WHERE chromosome = ? AND start <= ? AND stop >= ? ORDER BY start";
+    private static final String SQL_LIST_LOCATIONS = "SELECT id, chromosome, start, stop FROM " + SQL_TABLE
+            + " ORDER BY chromosome, start";
+    private static final String SQL_LIST_ORDER_BY_ID = "SELECT " + SQL_COLUMNS + " FROM " + SQL_TABLE
+            + " ORDER BY id";
+    private static final String SQL_LIST_ORDER_BY_POSITION = "SELECT " + SQL_COLUMNS + " FROM " + SQL_TABLE
+            + " ORDER BY chromosome, start, id";
+    private static final String SQL_UPDATE_LOCATION = "UPDATE " + SQL_TABLE
+            + " SET chromosome = ?, start = ?, stop = ?, ref = ?, alt = ? WHERE id = ?";
+
+    static final RowMapper<Variant> MAPPER = new RowMapper<Variant>() {
+        @Override
+        public Variant map( ResultSet resultSet ) throws SQLException {
+            return VariantDAOImpl.map( resultSet );
+        }
+    };
+
+    private static final MultiIdLookup<Variant> LOOKUP_BY_GENE = new MultiIdLookup<>( "SELECT " + SQL_COLUMNS
+            + " FROM " + SQL_TABLE, "gene_id", MAPPER );
+
+    private static final RowMapper<Variant> LOCATION_MAPPER = new RowMapper<Variant>() {
+        @Override
+        public Variant map( ResultSet resultSet ) throws SQLException {
+            Variant variant = new Variant();
+            variant.setId( resultSet.getInt( "id" ) );
+            variant.setChromosome( resultSet.getString( "chromosome" ) );
+            variant.setStart( resultSet.getLong( "start" ) );
+            variant.setStop( resultSet.getLong( "stop" ) );
+            return variant;
+        }
+    };
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private DAOFactory daoFactory;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct a Variant DAO for the given DAOFactory. Package private so that it can be constructed inside the DAO
+     * package only.
+     * 
+     * @param daoFactory The DAOFactory to construct this Variant DAO for.
+     */
+    VariantDAOImpl( DAOFactory daoFactory ) {
+        this.daoFactory = daoFactory;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public Variant find( int id ) throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = daoFactory.getReadConnection();
+            statement = DAOUtil.prepareStatement( connection, SQL_FIND_BY_ID, false );
+            DAOUtil.bind( statement ).bind( id );
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? map( resultSet ) : null;
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+    }
+
+    @Override
+    public List<Variant> findByRegion( String chromosome, long start, long stop ) throws DAOException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        List<Variant> list = new ArrayList<>();
+        try {
+            connection = daoFactory.getReadConnection();
+            statement = DAOUtil.prepareStatement( connection, SQL_LIST_BY_REGION, false );
+            DAOUtil.bind( statement ).bind( chromosome ).bind( stop ).bind( start );
+            resultSet = statement.executeQuery();
+            while ( resultSet.next() ) {
+                list.add( map( resultSet ) );
+            }
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        } finally {
+            DAOUtil.close( connection, statement, resultSet );
+        }
+        return list;
+    }
+
+    @Override
+    public List<Variant> findByGenes( Collection<Integer> geneIds ) throws DAOException {
+        return LOOKUP_BY_GENE.find( daoFactory, geneIds );
+    }
+
+    @Override
+    public long streamLocations( RowCallback<? super Variant> callback ) throws DAOException {
+        return StreamingQuery.forEach( daoFactory, SQL_LIST_LOCATIONS, LOCATION_MAPPER, callback );
+    }
+
+    @Override
+    public long streamAll( RowCallback<? super Variant> callback ) throws DAOException {
+        return StreamingQuery.forEach( daoFactory, SQL_LIST_ORDER_BY_ID, MAPPER, callback );
+    }
+
+    @Override
+    public long streamAllByPosition( RowCallback<? super Variant> callback ) throws DAOException {
+        return StreamingQuery.forEach( daoFactory, SQL_LIST_ORDER_BY_POSITION, MAPPER, callback );
+    }
+
+    @Override
+    public RowCursor<Variant> openAll() throws DAOException {
+        return StreamingQuery.open( daoFactory, SQL_LIST_ORDER_BY_ID, MAPPER );
+    }
+
+    @Override
+    public long updateLocations( List<Variant> variants ) throws DAOException {
+        try (BatchWriter writer = new BatchWriter( daoFactory, SQL_UPDATE_LOCATION )) {
+            writer.setStopOnFailure( true );
+            for ( Variant variant : variants ) {
+                writer.add( variant.getChromosome(), variant.getStart(), variant.getStop(), variant.getRef(),
+                        variant.getAlt(), variant.getId() );
+            }
+            return writer.finish().getRowsWritten();
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Map the current row of the given ResultSet to a Variant.
+     * 
+     * @param resultSet The ResultSet of which the current row is to be mapped to a Variant.
+     * @return The mapped Variant from the current row of the given ResultSet.
+     * @throws SQLException If something fails at database level.
+     */
+    private static Variant map( ResultSet resultSet ) throws SQLException {
+        Variant variant = new Variant();
+        variant.setId( resultSet.getInt( "id" ) );
+        variant.setPaperId( resultSet.getInt( "paper_id" ) );
+        variant.setGeneId( resultSet.getInt( "gene_id" ) );
+        variant.setSymbol( resultSet.getString( "symbol" ) );
+        variant.setChromosome( resultSet.getString( "chromosome" ) );
+        variant.setStart( resultSet.getLong( "start" ) );
+        variant.setStop( resultSet.getLong( "stop" ) );
+        variant.setRef( resultSet.getString( "ref" ) );
+        variant.setAlt( resultSet.getString( "alt" ) );
+        variant.setCategory( resultSet.getString( "category" ) );
+        variant.setFunc( resultSet.getString( "func" ) );
+        variant.setCdnaChange( resultSet.getString( "cdna_change" ) );
+        variant.setAaChange( resultSet.getString( "aa_change" ) );
+        return variant;
+    }
+
+}
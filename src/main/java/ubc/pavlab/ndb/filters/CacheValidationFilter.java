@@ -0,0 +1,115 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.filters;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.faces.application.ResourceHandler;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ubc.pavlab.ndb.beans.DataReleaseBean;
+import ubc.pavlab.ndb.model.DataRelease;
+import ubc.pavlab.ndb.utility.ConditionalRequests;
+import ubc.pavlab.ndb.utility.MetricsRegistry;
+
+/**
+ * Adds validators to the data pages. Anonymous pages only change with the data release or a redeployment, so their
+ * <code>ETag</code> is made of the current release and the time the application started, and their
+ * <code>Last-Modified</code> is the later of the two. Pages are sent with <code>Cache-Control: no-cache</code>, so
+ * clients revalidate every time, and a request whose <code>If-None-Match</code> or <code>If-Modified-Since</code>
+ * still matches gets a 304 straight from this filter, without running the JSF lifecycle or touching the database.
+ * <p>
+ * Requests with a session, other methods than GET and HEAD and JSF resource requests pass through untouched; the
+ * latter are cached by the {@link ubc.pavlab.ndb.utility.VersionedResourceHandler}.
+ * 
+ * @version $Id$
+ */
+public class CacheValidationFilter implements Filter {
+
+    private static final String DATA_RELEASE_BEAN = "dataReleaseBean";
+
+    private ServletContext servletContext;
+    private long started;
+    private LongAdder notModified;
+
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+        servletContext = filterConfig.getServletContext();
+        // HTTP dates have second precision.
+        started = System.currentTimeMillis() / 1000 * 1000;
+        notModified = MetricsRegistry.getInstance().counter( "ndb_pages_not_modified_total" );
+    }
+
+    @Override
+    public void doFilter( ServletRequest req, ServletResponse res, FilterChain chain ) throws IOException,
+            ServletException {
+        HttpServletRequest request = ( HttpServletRequest ) req;
+        DataReleaseBean dataReleaseBean = ( DataReleaseBean ) servletContext.getAttribute( DATA_RELEASE_BEAN );
+        if ( dataReleaseBean == null || !isCacheable( request ) ) {
+            chain.doFilter( req, res );
+            return;
+        }
+
+        HttpServletResponse response = ( HttpServletResponse ) res;
+        String eTag = eTag( dataReleaseBean.getVersion(), started );
+        long lastModified = lastModified( dataReleaseBean.getCurrent(), started );
+        response.setHeader( "ETag", eTag );
+        response.setDateHeader( "Last-Modified", lastModified );
+        response.setHeader( "Cache-Control", "no-cache" );
+
+        if ( ConditionalRequests.isNotModified( request, eTag, lastModified ) ) {
+            notModified.increment();
+            response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+            return;
+        }
+        chain.doFilter( req, res );
+    }
+
+    @Override
+    public void destroy() {
+        // Nothing to release.
+    }
+
+    static boolean isCacheable( HttpServletRequest request ) {
+        return StatelessFilter.isAnonymousRead( request )
+                && !request.getRequestURI().contains( ResourceHandler.RESOURCE_IDENTIFIER + "/" );
+    }
+
+    static String eTag( String releaseVersion, long started ) {
+        return "\"" + releaseVersion + "-" + Long.toHexString( started ) + "\"";
+    }
+
+    static long lastModified( DataRelease release, long started ) {
+        if ( release == null || release.getReleased() == null ) {
+            return started;
+        }
+        return Math.max( release.getReleased().getTime() / 1000 * 1000, started );
+    }
+
+}
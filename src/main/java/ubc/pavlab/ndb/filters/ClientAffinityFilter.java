@@ -0,0 +1,68 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.filters;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import ubc.pavlab.ndb.dao.ReplicaRoutingDAOFactory;
+import ubc.pavlab.ndb.dao.ReplicaRoutingDAOFactory.ClientScope;
+
+/**
+ * Binds every request with a session to that session as the client of {@link ReplicaRoutingDAOFactory}, so a user
+ * whose request wrote to the primary reads from the primary in their next requests too, whichever thread serves
+ * them. Requests without a session, which only read, are left unbound.
+ * 
+ * @version $Id$
+ */
+public class ClientAffinityFilter implements Filter {
+
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+        // No configuration.
+    }
+
+    @Override
+    public void doFilter( ServletRequest request, ServletResponse response, FilterChain chain ) throws IOException,
+            ServletException {
+        HttpSession session = ( ( HttpServletRequest ) request ).getSession( false );
+        if ( session == null ) {
+            chain.doFilter( request, response );
+            return;
+        }
+        try (ClientScope scope = ReplicaRoutingDAOFactory.actingFor( session.getId() )) {
+            chain.doFilter( request, response );
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // Nothing to release.
+    }
+
+}
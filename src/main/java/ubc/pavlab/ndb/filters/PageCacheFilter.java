@@ -0,0 +1,450 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.filters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.beans.DataReleaseBean;
+import ubc.pavlab.ndb.beans.DataReleaseListener;
+import ubc.pavlab.ndb.model.DataRelease;
+import ubc.pavlab.ndb.utility.MetricsRegistry;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Caches rendered pages for anonymous visitors. Until the next data load a page such as <code>faq.xhtml</code> or a
+ * gene view is the same for everyone, so the first request renders it through the Faces servlet and the response is
+ * kept gzip compressed; later requests are answered from memory without running JSF at all. Compressed pages are sent
+ * as they are to clients accepting gzip and decompressed for the others.
+ * <p>
+ * Pages are keyed by the data release, the view and the query parameters sorted by name, and the cache is emptied
+ * when a new release is loaded. It is bounded by the compressed size of the pages (init-param <code>maxBytes</code>,
+ * default 32MB), evicting the least recently used. Concurrent requests for a page which is not cached yet wait for
+ * a single rendering. Only complete 200 HTML responses which set no cookie are cached; anything else is passed to the
+ * client as rendered.
+ * <p>
+ * The same requests as for the {@link CacheValidationFilter} are considered: anonymous GET and HEAD requests for
+ * pages. Disabled with the init-param <code>enabled</code> set to false.
+ * 
+ * @version $Id$
+ */
+public class PageCacheFilter implements Filter {
+
+    private static final Logger log = Logger.getLogger( PageCacheFilter.class );
+
+    private static final String INIT_PARAM_ENABLED = "enabled";
+    private static final String INIT_PARAM_MAX_BYTES = "maxBytes";
+    private static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private static final String DATA_RELEASE_BEAN = "dataReleaseBean";
+    private static final String CACHE_NAME = "pages";
+
+    /**
+     * Approximate memory taken by an entry besides its content.
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private boolean enabled;
+    private ServletContext servletContext;
+    private Cache<String, CachedPage> cache;
+    private volatile DataReleaseBean dataReleaseBean;
+
+    private final DataReleaseListener invalidator = new DataReleaseListener() {
+        @Override
+        public void releaseChanged( DataRelease release ) {
+            cache.invalidateAll();
+        }
+    };
+
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+        enabled = !"false".equalsIgnoreCase( filterConfig.getInitParameter( INIT_PARAM_ENABLED ) );
+        servletContext = filterConfig.getServletContext();
+        String maxBytes = filterConfig.getInitParameter( INIT_PARAM_MAX_BYTES );
+        cache = CacheBuilder.newBuilder().maximumWeight( maxBytes == null ? DEFAULT_MAX_BYTES : Long.parseLong(
+                maxBytes.trim() ) ).weigher( new Weigher<String, CachedPage>() {
+            @Override
+            public int weigh( String key, CachedPage page ) {
+                return ENTRY_OVERHEAD + key.length() * 2 + page.gzipped.length;
+            }
+        } ).recordStats().build();
+        registerMetrics( MetricsRegistry.getInstance() );
+    }
+
+    @Override
+    public void doFilter( ServletRequest req, ServletResponse res, FilterChain chain ) throws IOException,
+            ServletException {
+        HttpServletRequest request = ( HttpServletRequest ) req;
+        DataReleaseBean releases = dataReleaseBean();
+        if ( !enabled || releases == null || !CacheValidationFilter.isCacheable( request ) ) {
+            chain.doFilter( req, res );
+            return;
+        }
+
+        HttpServletResponse response = ( HttpServletResponse ) res;
+        String key = key( releases.getVersion(), request );
+        CachedPage page = cache.getIfPresent( key );
+        if ( page == null ) {
+            page = render( key, request, response, chain );
+            if ( page == null ) {
+                return;
+            }
+        }
+        serve( page, request, response );
+    }
+
+    @Override
+    public void destroy() {
+        DataReleaseBean releases = dataReleaseBean;
+        if ( releases != null ) {
+            releases.removeListener( invalidator );
+        }
+        cache.invalidateAll();
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Renders the page once for all concurrent requests of the same key.
+     * 
+     * @return The cached page, or null if this request rendered a page which could not be cached and has been sent
+     *         already.
+     */
+    private CachedPage render( String key, final HttpServletRequest request, final HttpServletResponse response,
+            final FilterChain chain ) throws IOException, ServletException {
+        final CapturingResponse capture = new CapturingResponse( response );
+        try {
+            return cache.get( key, () -> {
+                capture.rendering = true;
+                chain.doFilter( request, capture );
+                CachedPage rendered = capture.toPage();
+                if ( rendered == null ) {
+                    throw new UncacheableException();
+                }
+                return rendered;
+            } );
+        } catch ( ExecutionException | UncheckedExecutionException e ) {
+            if ( !capture.rendering ) {
+                // Another request rendered the page but could not cache it; render this one on its own.
+                chain.doFilter( request, response );
+                return null;
+            }
+            Throwable cause = e.getCause();
+            if ( cause instanceof UncacheableException ) {
+                capture.sendCaptured();
+                return null;
+            }
+            if ( cause instanceof IOException ) {
+                throw ( IOException ) cause;
+            }
+            if ( cause instanceof ServletException ) {
+                throw ( ServletException ) cause;
+            }
+            if ( cause instanceof RuntimeException ) {
+                throw ( RuntimeException ) cause;
+            }
+            throw new ServletException( cause );
+        }
+    }
+
+    private static void serve( CachedPage page, HttpServletRequest request, HttpServletResponse response )
+            throws IOException {
+        response.setContentType( page.contentType );
+        response.setHeader( "Vary", "Accept-Encoding" );
+        boolean gzip = acceptsGzip( request );
+        if ( gzip ) {
+            response.setHeader( "Content-Encoding", "gzip" );
+            response.setContentLength( page.gzipped.length );
+        }
+        if ( "HEAD".equals( request.getMethod() ) ) {
+            return;
+        }
+        if ( gzip ) {
+            response.getOutputStream().write( page.gzipped );
+        } else {
+            try (GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( page.gzipped ) )) {
+                ByteStreams.copy( in, response.getOutputStream() );
+            }
+        }
+    }
+
+    static boolean acceptsGzip( HttpServletRequest request ) {
+        String acceptEncoding = request.getHeader( "Accept-Encoding" );
+        return acceptEncoding != null && acceptEncoding.contains( "gzip" );
+    }
+
+    /**
+     * @return The cache key: release, view and query parameters in name order.
+     */
+    static String key( String releaseVersion, HttpServletRequest request ) {
+        StringBuilder key = new StringBuilder( releaseVersion ).append( '|' ).append( request.getServletPath() );
+        if ( request.getPathInfo() != null ) {
+            key.append( request.getPathInfo() );
+        }
+        char separator = '?';
+        for ( Map.Entry<String, String[]> parameter : new TreeMap<>( request.getParameterMap() ).entrySet() ) {
+            for ( String value : parameter.getValue() ) {
+                key.append( separator ).append( parameter.getKey() ).append( '=' ).append( value );
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    private DataReleaseBean dataReleaseBean() {
+        DataReleaseBean releases = dataReleaseBean;
+        if ( releases == null ) {
+            synchronized ( this ) {
+                releases = dataReleaseBean;
+                if ( releases == null ) {
+                    releases = ( DataReleaseBean ) servletContext.getAttribute( DATA_RELEASE_BEAN );
+                    if ( releases != null ) {
+                        releases.addListener( invalidator );
+                        dataReleaseBean = releases;
+                    }
+                }
+            }
+        }
+        return releases;
+    }
+
+    private long cachedBytes() {
+        long bytes = 0;
+        for ( CachedPage page : cache.asMap().values() ) {
+            bytes += page.gzipped.length;
+        }
+        return bytes;
+    }
+
+    private void registerMetrics( MetricsRegistry metrics ) {
+        String label = "{cache=" + MetricsRegistry.label( CACHE_NAME ) + "}";
+        metrics.gauge( "ndb_cache_hits" + label, () -> cache.stats().hitCount() );
+        metrics.gauge( "ndb_cache_misses" + label, () -> cache.stats().missCount() );
+        metrics.gauge( "ndb_cache_evictions" + label, () -> cache.stats().evictionCount() );
+        metrics.gauge( "ndb_cache_hit_ratio" + label, () -> cache.stats().hitRate() );
+        metrics.gauge( "ndb_cache_size" + label, () -> cache.size() );
+        metrics.gauge( "ndb_cache_bytes" + label, this::cachedBytes );
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * A rendered page, gzip compressed.
+     */
+    static final class CachedPage {
+
+        final String contentType;
+        final byte[] gzipped;
+
+        CachedPage( String contentType, byte[] gzipped ) {
+            this.contentType = contentType;
+            this.gzipped = gzipped;
+        }
+    }
+
+    /**
+     * Thrown from the rendering of a page which may not be cached, so no entry is created.
+     */
+    private static final class UncacheableException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        UncacheableException() {
+            super( null, null, false, false );
+        }
+    }
+
+    /**
+     * Keeps the body of the response in memory. Status and headers go to the real response as they are set.
+     */
+    static final class CapturingResponse extends HttpServletResponseWrapper {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream( 16 * 1024 );
+        private ServletOutputStream stream;
+        private PrintWriter writer;
+        private int status = SC_OK;
+        private boolean cookies = false;
+        boolean rendering = false;
+
+        CapturingResponse( HttpServletResponse response ) {
+            super( response );
+        }
+
+        /**
+         * @return The captured page, or null if it may not be cached.
+         */
+        CachedPage toPage() throws IOException {
+            flush();
+            String contentType = getContentType();
+            if ( status != SC_OK || cookies || contentType == null || !contentType.startsWith( "text/html" ) ) {
+                return null;
+            }
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream( body.size() / 4 + 64 );
+            try (OutputStream out = new GZIPOutputStream( gzipped )) {
+                body.writeTo( out );
+            }
+            return new CachedPage( contentType, gzipped.toByteArray() );
+        }
+
+        /**
+         * Sends what was captured as is, for pages which could not be cached.
+         */
+        void sendCaptured() throws IOException {
+            if ( body.size() > 0 && !getResponse().isCommitted() ) {
+                getResponse().setContentLength( body.size() );
+                body.writeTo( getResponse().getOutputStream() );
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if ( writer != null ) {
+                throw new IllegalStateException( "getWriter() has already been called" );
+            }
+            if ( stream == null ) {
+                stream = new ServletOutputStream() {
+                    @Override
+                    public void write( int b ) {
+                        body.write( b );
+                    }
+
+                    @Override
+                    public void write( byte[] b, int off, int len ) {
+                        body.write( b, off, len );
+                    }
+                };
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if ( stream != null ) {
+                throw new IllegalStateException( "getOutputStream() has already been called" );
+            }
+            if ( writer == null ) {
+                writer = new PrintWriter( new OutputStreamWriter( body, getCharacterEncoding() ) );
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() {
+            // Nothing is sent until the page is complete.
+            flush();
+        }
+
+        @Override
+        public void resetBuffer() {
+            flush();
+            body.reset();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            resetBuffer();
+            status = SC_OK;
+        }
+
+        @Override
+        public void setContentLength( int len ) {
+            // Set when the page is sent.
+        }
+
+        @Override
+        public void setStatus( int sc ) {
+            status = sc;
+            super.setStatus( sc );
+        }
+
+        @Override
+        public void sendError( int sc ) throws IOException {
+            status = sc;
+            super.sendError( sc );
+        }
+
+        @Override
+        public void sendError( int sc, String msg ) throws IOException {
+            status = sc;
+            super.sendError( sc, msg );
+        }
+
+        @Override
+        public void sendRedirect( String location ) throws IOException {
+            status = SC_FOUND;
+            super.sendRedirect( location );
+        }
+
+        @Override
+        public void addCookie( Cookie cookie ) {
+            cookies = true;
+            super.addCookie( cookie );
+        }
+
+        @Override
+        public void setHeader( String name, String value ) {
+            cookies |= "Set-Cookie".equalsIgnoreCase( name );
+            super.setHeader( name, value );
+        }
+
+        @Override
+        public void addHeader( String name, String value ) {
+            cookies |= "Set-Cookie".equalsIgnoreCase( name );
+            super.addHeader( name, value );
+        }
+
+        private void flush() {
+            if ( writer != null ) {
+                writer.flush();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.filters;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.faces.event.PhaseId;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.listeners.PhaseTimingListener;
+import ubc.pavlab.ndb.utility.LatencyHistogram;
+import ubc.pavlab.ndb.utility.MetricsRegistry;
+import ubc.pavlab.ndb.utility.RequestProfile;
+
+/**
+ * Profiles JSF requests: together with the {@link PhaseTimingListener} it records, per view, the total latency, the
+ * time spent in SQL statements and the duration of each lifecycle phase in the {@link MetricsRegistry}. Requests
+ * taking longer than the init-param <code>outlierMs</code> (default 2000, 0 disables) are logged with their full
+ * breakdown.
+ * <p>
+ * Profiling costs a few clock reads and atomic increments per phase. It is on unless the init-param
+ * <code>enabled</code> is false, and can be switched at runtime through {@link #setEnabled(boolean)}, for example by
+ * posting <code>profiling=off</code> to the metrics servlet.
+ * 
+ * @version $Id$
+ */
+public class ProfilingFilter implements Filter {
+
+    private static final Logger log = Logger.getLogger( ProfilingFilter.class );
+
+    private static final String INIT_PARAM_ENABLED = "enabled";
+    private static final String INIT_PARAM_OUTLIER_MS = "outlierMs";
+    private static final long DEFAULT_OUTLIER_MS = 2000;
+
+    /**
+     * Views beyond this many, such as those requested by crawlers probing for pages, are recorded together.
+     */
+    private static final int MAX_VIEWS = 200;
+    private static final String OTHER_VIEW = "other";
+
+    private static volatile boolean enabled = true;
+
+    private final ConcurrentMap<String, ViewHistograms> views = new ConcurrentHashMap<>();
+    private long outlierNanos;
+
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+        setEnabled( !"false".equalsIgnoreCase( filterConfig.getInitParameter( INIT_PARAM_ENABLED ) ) );
+        String outlierMs = filterConfig.getInitParameter( INIT_PARAM_OUTLIER_MS );
+        long outlier = outlierMs == null ? DEFAULT_OUTLIER_MS : Long.parseLong( outlierMs.trim() );
+        outlierNanos = outlier > 0 ? TimeUnit.MILLISECONDS.toNanos( outlier ) : Long.MAX_VALUE;
+        MetricsRegistry.getInstance().gauge( "ndb_profiling_enabled", () -> enabled ? 1 : 0 );
+    }
+
+    @Override
+    public void doFilter( ServletRequest request, ServletResponse response, FilterChain chain ) throws IOException,
+            ServletException {
+        if ( !enabled || RequestProfile.current() != null ) {
+            chain.doFilter( request, response );
+            return;
+        }
+
+        RequestProfile profile = RequestProfile.begin();
+        try {
+            chain.doFilter( request, response );
+        } finally {
+            long nanos = profile.end();
+            if ( profile.getView() != null ) {
+                record( profile, nanos );
+                if ( nanos >= outlierNanos ) {
+                    log.warn( breakdown( ( HttpServletRequest ) request, profile, nanos ) );
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // Nothing to release.
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled( boolean enabled ) {
+        if ( ProfilingFilter.enabled != enabled ) {
+            log.info( "Request profiling " + ( enabled ? "enabled" : "disabled" ) );
+        }
+        ProfilingFilter.enabled = enabled;
+    }
+
+    private void record( RequestProfile profile, long nanos ) {
+        ViewHistograms histograms = histograms( profile.getView() );
+        histograms.total.record( nanos );
+        histograms.queries.record( profile.getQueryNanos() );
+        for ( int phase = 1; phase < RequestProfile.PHASES; phase++ ) {
+            long phaseNanos = profile.getPhaseNanos( phase );
+            if ( phaseNanos > 0 ) {
+                histograms.phases[phase].record( phaseNanos );
+            }
+        }
+    }
+
+    private ViewHistograms histograms( String view ) {
+        ViewHistograms histograms = views.get( view );
+        if ( histograms == null ) {
+            if ( views.size() >= MAX_VIEWS ) {
+                view = OTHER_VIEW;
+            }
+            ViewHistograms created = new ViewHistograms( view );
+            histograms = views.putIfAbsent( view, created );
+            if ( histograms == null ) {
+                histograms = created;
+                created.register( MetricsRegistry.getInstance() );
+            }
+        }
+        return histograms;
+    }
+
+    static String breakdown( HttpServletRequest request, RequestProfile profile, long nanos ) {
+        StringBuilder message = new StringBuilder( "Slow request " ).append( request.getMethod() ).append( ' ' )
+                .append( request.getRequestURI() ).append( " (" ).append( profile.getView() ).append( "): " )
+                .append( TimeUnit.NANOSECONDS.toMillis( nanos ) ).append( " ms;" );
+        for ( int phase = 1; phase < RequestProfile.PHASES; phase++ ) {
+            if ( profile.getPhaseNanos( phase ) > 0 ) {
+                message.append( ' ' ).append( phaseName( phase ) ).append( ' ' )
+                        .append( TimeUnit.NANOSECONDS.toMillis( profile.getPhaseNanos( phase ) ) ).append( " ms," );
+            }
+        }
+        return message.append( ' ' ).append( profile.getQueries() ).append( " queries " )
+                .append( TimeUnit.NANOSECONDS.toMillis( profile.getQueryNanos() ) ).append( " ms" ).toString();
+    }
+
+    private static String phaseName( int phase ) {
+        return PhaseId.VALUES.get( phase ).getName().toLowerCase();
+    }
+
+    /**
+     * The histograms of one view, kept here so recording does not look them up by name.
+     */
+    private static final class ViewHistograms {
+        private final String view;
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final LatencyHistogram queries = new LatencyHistogram();
+        private final LatencyHistogram[] phases = new LatencyHistogram[RequestProfile.PHASES];
+
+        ViewHistograms( String view ) {
+            this.view = view;
+            for ( int phase = 1; phase < phases.length; phase++ ) {
+                phases[phase] = new LatencyHistogram();
+            }
+        }
+
+        void register( MetricsRegistry metrics ) {
+            String label = "{view=" + MetricsRegistry.label( view );
+            metrics.register( "ndb_view_seconds" + label + "}", total );
+            metrics.register( "ndb_view_query_seconds" + label + "}", queries );
+            for ( int phase = 1; phase < phases.length; phase++ ) {
+                metrics.register( "ndb_view_phase_seconds" + label + ",phase=" + MetricsRegistry.label( phaseName(
+                        phase ) ) + "}", phases[phase] );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.filters;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import ubc.pavlab.ndb.utility.LatencyHistogram;
+import ubc.pavlab.ndb.utility.MetricsRegistry;
+
+/**
+ * Records the latency of every request, the number of requests, of server errors and of requests in flight in the
+ * {@link MetricsRegistry}. Asynchronous requests, such as downloads, are measured until they complete.
+ * 
+ * @version $Id$
+ */
+public class RequestMetricsFilter implements Filter {
+
+    private LatencyHistogram latency;
+    private LongAdder requests;
+    private LongAdder errors;
+    private final LongAdder inFlight = new LongAdder();
+
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        latency = metrics.histogram( "ndb_request_seconds" );
+        requests = metrics.counter( "ndb_requests_total" );
+        errors = metrics.counter( "ndb_request_errors_total" );
+        metrics.gauge( "ndb_requests_in_flight", inFlight::sum );
+    }
+
+    @Override
+    public void doFilter( ServletRequest request, ServletResponse response, FilterChain chain ) throws IOException,
+            ServletException {
+        final long start = System.nanoTime();
+        inFlight.increment();
+        boolean failed = true;
+        try {
+            chain.doFilter( request, response );
+            failed = false;
+        } finally {
+            if ( !failed && request.isAsyncStarted() ) {
+                request.getAsyncContext().addListener( new AsyncListener() {
+                    @Override
+                    public void onComplete( AsyncEvent event ) {
+                        done( start, event.getSuppliedResponse(), false );
+                    }
+
+                    @Override
+                    public void onTimeout( AsyncEvent event ) {
+                        // Followed by onComplete once the container finishes the request.
+                    }
+
+                    @Override
+                    public void onError( AsyncEvent event ) {
+                        // Followed by onComplete once the container finishes the request.
+                    }
+
+                    @Override
+                    public void onStartAsync( AsyncEvent event ) {
+                        event.getAsyncContext().addListener( this );
+                    }
+                } );
+            } else {
+                done( start, response, failed );
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // Nothing to release.
+    }
+
+    private void done( long start, ServletResponse response, boolean failed ) {
+        latency.record( System.nanoTime() - start );
+        requests.increment();
+        inFlight.decrement();
+        if ( failed || response instanceof HttpServletResponse
+                && ( ( HttpServletResponse ) response ).getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
+            errors.increment();
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.filters;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.utility.MetricsRegistry;
+
+/**
+ * Keeps anonymous browsing session-less. The public pages are read-only and their views are transient, so a GET or
+ * HEAD from a visitor without a session never needs one: for those requests, {@link HttpServletRequest#getSession()}
+ * returns null instead of creating a session, and URLs are not rewritten with a session id. Crawlers thus no longer
+ * leave an idle session behind per visit. Requests which already carry a session, and all other methods, are passed
+ * through untouched.
+ * <p>
+ * Refused session creations are counted; the stack trace of the first is logged at DEBUG to find what asked for it.
+ * Disabled with the init-param <code>enabled</code> set to false.
+ * 
+ * @version $Id$
+ */
+public class StatelessFilter implements Filter {
+
+    private static final Logger log = Logger.getLogger( StatelessFilter.class );
+
+    private static final String INIT_PARAM_ENABLED = "enabled";
+
+    private boolean enabled;
+    private LongAdder refused;
+    private volatile boolean refusalLogged = false;
+
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+        enabled = !"false".equalsIgnoreCase( filterConfig.getInitParameter( INIT_PARAM_ENABLED ) );
+        refused = MetricsRegistry.getInstance().counter( "ndb_sessions_refused_total" );
+    }
+
+    @Override
+    public void doFilter( ServletRequest request, ServletResponse response, FilterChain chain ) throws IOException,
+            ServletException {
+        if ( enabled && isAnonymousRead( ( HttpServletRequest ) request ) ) {
+            chain.doFilter( new SessionlessRequest( ( HttpServletRequest ) request ), new CookielessResponse(
+                    ( HttpServletResponse ) response ) );
+        } else {
+            chain.doFilter( request, response );
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // Nothing to release.
+    }
+
+    static boolean isAnonymousRead( HttpServletRequest request ) {
+        String method = request.getMethod();
+        return ( "GET".equals( method ) || "HEAD".equals( method ) ) && request.getSession( false ) == null;
+    }
+
+    private void refused() {
+        refused.increment();
+        if ( !refusalLogged && log.isDebugEnabled() ) {
+            refusalLogged = true;
+            log.debug( "Refused to create a session for an anonymous request", new Throwable() );
+        }
+    }
+
+    /**
+     * Hands out the existing session, if any, but never creates one.
+     */
+    final class SessionlessRequest extends HttpServletRequestWrapper {
+
+        SessionlessRequest( HttpServletRequest request ) {
+            super( request );
+        }
+
+        @Override
+        public HttpSession getSession( boolean create ) {
+            HttpSession session = super.getSession( false );
+            if ( session == null && create ) {
+                refused();
+            }
+            return session;
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return getSession( true );
+        }
+    }
+
+    /**
+     * Leaves URLs as they are, so pages carry no session id.
+     */
+    static final class CookielessResponse extends HttpServletResponseWrapper {
+
+        CookielessResponse( HttpServletResponse response ) {
+            super( response );
+        }
+
+        @Override
+        public String encodeURL( String url ) {
+            return url;
+        }
+
+        @Override
+        public String encodeRedirectURL( String url ) {
+            return url;
+        }
+
+        @Override
+        @Deprecated
+        public String encodeUrl( String url ) {
+            return url;
+        }
+
+        @Override
+        @Deprecated
+        public String encodeRedirectUrl( String url ) {
+            return url;
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts locations with a UCSC chain file, such as hg19ToHg38.over.chain.gz. The aligned blocks of every source
+ * chromosome are kept sorted in primitive arrays and found by binary search. A location maps when all of its bases
+ * fall in one block; on the reverse strand the alleles are reverse complemented. Immutable once read.
+ * 
+ * @version $Id$
+ */
+public final class ChainLiftover implements Liftover {
+
+    private final Map<String, Blocks> blocks;
+    private final String[] targetChromosomes;
+
+    private ChainLiftover( Map<String, Blocks> blocks, String[] targetChromosomes ) {
+        this.blocks = blocks;
+        this.targetChromosomes = targetChromosomes;
+    }
+
+    /**
+     * @param file A chain file, gzip compressed if its name ends with '.gz'.
+     * @return The liftover defined by the file.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    public static ChainLiftover read( File file ) throws IOException {
+        InputStream in = new FileInputStream( file );
+        try {
+            if ( file.getName().endsWith( ".gz" ) ) {
+                in = new GZIPInputStream( in, 64 * 1024 );
+            }
+            return read( new InputStreamReader( in, StandardCharsets.US_ASCII ) );
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param reader The chain file contents.
+     * @return The liftover defined by the chains.
+     * @throws IOException If reading fails or the chains are malformed.
+     */
+    public static ChainLiftover read( Reader reader ) throws IOException {
+        Map<String, List<long[]>> parsed = new HashMap<>();
+        List<String> targets = new ArrayList<>();
+        Map<String, Integer> targetIndex = new HashMap<>();
+        BufferedReader in = new BufferedReader( reader, 64 * 1024 );
+
+        List<long[]> current = null;
+        long t = 0;
+        long q = 0;
+        int target = 0;
+        boolean negative = false;
+        long targetSize = 0;
+        String line;
+        while ( ( line = in.readLine() ) != null ) {
+            if ( line.isEmpty() || line.startsWith( "#" ) ) {
+                continue;
+            }
+            String[] fields = line.split( "[ \t]+" );
+            try {
+                if ( fields[0].equals( "chain" ) ) {
+                    String source = Location.normalizeChromosome( fields[2] );
+                    current = parsed.get( source );
+                    if ( current == null ) {
+                        current = new ArrayList<>();
+                        parsed.put( source, current );
+                    }
+                    t = Long.parseLong( fields[5] );
+                    String targetName = Location.normalizeChromosome( fields[7] );
+                    Integer index = targetIndex.get( targetName );
+                    if ( index == null ) {
+                        index = targets.size();
+                        targets.add( targetName );
+                        targetIndex.put( targetName, index );
+                    }
+                    target = index;
+                    targetSize = Long.parseLong( fields[8] );
+                    negative = fields[9].equals( "-" );
+                    q = Long.parseLong( fields[10] );
+                } else if ( current != null ) {
+                    long size = Long.parseLong( fields[0] );
+                    current.add( new long[] { t, size, q, target, negative ? 1 : 0, targetSize } );
+                    if ( fields.length >= 3 ) {
+                        t += size + Long.parseLong( fields[1] );
+                        q += size + Long.parseLong( fields[2] );
+                    } else {
+                        current = null;
+                    }
+                }
+            } catch ( NumberFormatException | ArrayIndexOutOfBoundsException e ) {
+                throw new IOException( "Malformed chain line: " + line, e );
+            }
+        }
+
+        Map<String, Blocks> blocks = new HashMap<>();
+        for ( Map.Entry<String, List<long[]>> entry : parsed.entrySet() ) {
+            blocks.put( entry.getKey(), new Blocks( entry.getValue() ) );
+        }
+        return new ChainLiftover( blocks, targets.toArray( new String[targets.size()] ) );
+    }
+
+    @Override
+    public Location lift( Location location ) {
+        Blocks contig = blocks.get( location.getChromosome() );
+        if ( contig == null ) {
+            return null;
+        }
+        int block = contig.find( location.getStart() - 1 );
+        if ( block < 0 || contig.find( location.getStop() - 1 ) != block ) {
+            return null;
+        }
+        String chromosome = targetChromosomes[contig.targets[block]];
+        long start = contig.map( block, location.getStart() - 1 );
+        long stop = contig.map( block, location.getStop() - 1 );
+        String ref = location.getRef();
+        String alt = location.getAlt();
+        if ( contig.negative[block] ) {
+            if ( Location.EMPTY.equals( ref ) ) {
+                // The insertion now follows the base before the one it followed.
+                start = start - 1;
+                stop = start;
+            } else {
+                long swap = start;
+                start = stop;
+                stop = swap;
+            }
+            ref = reverseComplement( ref );
+            alt = reverseComplement( alt );
+        }
+        return new Location( chromosome, start, stop, ref, alt );
+    }
+
+    static String reverseComplement( String allele ) {
+        if ( allele == null || allele.equals( Location.EMPTY ) ) {
+            return allele;
+        }
+        char[] bases = new char[allele.length()];
+        for ( int i = 0; i < bases.length; i++ ) {
+            char base = allele.charAt( allele.length() - 1 - i );
+            switch ( base ) {
+                case 'A':
+                    bases[i] = 'T';
+                    break;
+                case 'C':
+                    bases[i] = 'G';
+                    break;
+                case 'G':
+                    bases[i] = 'C';
+                    break;
+                case 'T':
+                    bases[i] = 'A';
+                    break;
+                default:
+                    bases[i] = base;
+            }
+        }
+        return new String( bases );
+    }
+
+    /**
+     * The aligned blocks of one source chromosome, sorted by start.
+     */
+    private static final class Blocks {
+        final long[] starts;
+        final long[] sizes;
+        final long[] targetStarts;
+        final int[] targets;
+        final boolean[] negative;
+        final long[] targetSizes;
+
+        Blocks( List<long[]> blocks ) {
+            Collections.sort( blocks, new Comparator<long[]>() {
+                @Override
+                public int compare( long[] a, long[] b ) {
+                    return Long.compare( a[0], b[0] );
+                }
+            } );
+            int n = blocks.size();
+            starts = new long[n];
+            sizes = new long[n];
+            targetStarts = new long[n];
+            targets = new int[n];
+            negative = new boolean[n];
+            targetSizes = new long[n];
+            for ( int i = 0; i < n; i++ ) {
+                long[] block = blocks.get( i );
+                starts[i] = block[0];
+                sizes[i] = block[1];
+                targetStarts[i] = block[2];
+                targets[i] = ( int ) block[3];
+                negative[i] = block[4] == 1;
+                targetSizes[i] = block[5];
+            }
+        }
+
+        /**
+         * @return The block containing the 0-based position, or -1.
+         */
+        int find( long position ) {
+            int i = Arrays.binarySearch( starts, position );
+            if ( i < 0 ) {
+                i = -i - 2;
+            }
+            return i >= 0 && position < starts[i] + sizes[i] ? i : -1;
+        }
+
+        /**
+         * @return The 1-based forward strand target position of the 0-based source position.
+         */
+        long map( int block, long position ) {
+            long offset = targetStarts[block] + position - starts[block];
+            return negative[block] ? targetSizes[block] - offset : offset + 1;
+        }
+    }
+
+}
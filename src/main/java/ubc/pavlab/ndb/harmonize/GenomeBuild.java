@@ -0,0 +1,64 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+/**
+ * The human reference assemblies variants are reported on.
+ * 
+ * @version $Id$
+ */
+public enum GenomeBuild {
+    GRCH37("GRCh37", "hg19"), GRCH38("GRCh38", "hg38");
+
+    private final String name;
+    private final String ucscName;
+
+    private GenomeBuild( String name, String ucscName ) {
+        this.name = name;
+        this.ucscName = ucscName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUcscName() {
+        return ucscName;
+    }
+
+    /**
+     * @param name A GRC or UCSC name of the build, in any case.
+     * @return The build, or null if the name is not known.
+     */
+    public static GenomeBuild forName( String name ) {
+        if ( name == null ) {
+            return null;
+        }
+        String trimmed = name.trim();
+        for ( GenomeBuild build : values() ) {
+            if ( build.name.equalsIgnoreCase( trimmed ) || build.ucscName.equalsIgnoreCase( trimmed ) ) {
+                return build;
+            }
+        }
+        return null;
+    }
+
+}
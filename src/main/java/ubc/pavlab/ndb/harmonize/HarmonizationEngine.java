@@ -0,0 +1,514 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.dao.DAOFactory;
+import ubc.pavlab.ndb.dao.ReplicaRoutingDAOFactory;
+import ubc.pavlab.ndb.dao.ReplicaRoutingDAOFactory.PrimaryScope;
+import ubc.pavlab.ndb.dao.RowCallback;
+import ubc.pavlab.ndb.dao.VariantDAO;
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.DataRelease;
+import ubc.pavlab.ndb.model.Variant;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Harmonizes variant locations: lifts them to the target genome build when reported on another one, then normalizes
+ * them with {@link VariantNormalizer}. Results are memoized per source build, as the same variant is reported by many
+ * papers and a liftover or left-alignment costs reference lookups. Batches are split over a {@link ForkJoinPool}.
+ * <p>
+ * {@link #reharmonize(DAOFactory)} runs the current rules over the whole variant table, streaming it in chunks and
+ * writing back only the variants whose location changed, then adds a data release so running applications drop what
+ * they derived from the old locations.
+ * <p>
+ * {@link ubc.pavlab.ndb.ingest.IngestPipeline} harmonizes new variants before they are written. Existing ones are
+ * reharmonized with:
+ * 
+ * <pre>
+ * java ubc.pavlab.ndb.harmonize.HarmonizationEngine database [--reference fasta] [--target build]
+ *         [--release version]
+ * </pre>
+ * 
+ * where database is the name given to {@link DAOFactory#getInstance(String)} and fasta the sequence of the target
+ * build, indexed with 'samtools faidx'. Without a reference alleles are only trimmed, not left-aligned.
+ * 
+ * @version $Id$
+ */
+public class HarmonizationEngine implements AutoCloseable {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( HarmonizationEngine.class );
+
+    public static final String DEFAULT_CACHE_SPEC = "maximumSize=1000000";
+
+    /**
+     * The build the variant table is on unless '--target' says otherwise.
+     */
+    public static final GenomeBuild DEFAULT_TARGET = GenomeBuild.GRCH37;
+
+    /**
+     * Batches up to this size are harmonized by one fork/join task without splitting further.
+     */
+    private static final int SPLIT_THRESHOLD = 512;
+
+    private static final int REHARMONIZE_CHUNK_SIZE = 20000;
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final GenomeBuild target;
+    private final VariantNormalizer normalizer;
+    private final Map<GenomeBuild, Liftover> liftovers;
+    private final Map<GenomeBuild, LoadingCache<Location, Optional<Location>>> caches;
+    private final ForkJoinPool pool;
+
+    /**
+     * The reference opened by {@link #fromFiles(File, GenomeBuild, Map)}, closed with the engine.
+     */
+    private IndexedFastaReference ownedReference;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * Construct an engine for variants already on the target build, using all cores.
+     */
+    public HarmonizationEngine( ReferenceSequence reference, GenomeBuild target ) {
+        this( reference, target, Collections.<GenomeBuild, Liftover> emptyMap(), Runtime.getRuntime()
+                .availableProcessors(), DEFAULT_CACHE_SPEC );
+    }
+
+    /**
+     * @param reference The sequence of the target build, or null to skip left-alignment.
+     * @param target The build locations are harmonized to.
+     * @param liftovers Per other build, the liftover from that build to the target.
+     * @param parallelism The number of fork/join threads.
+     * @param cacheSpec The CacheBuilderSpec string bounding each memo cache.
+     */
+    public HarmonizationEngine( ReferenceSequence reference, GenomeBuild target, Map<GenomeBuild, Liftover> liftovers,
+            int parallelism, String cacheSpec ) {
+        this.target = target;
+        this.normalizer = new VariantNormalizer( reference );
+        this.liftovers = liftovers;
+        this.pool = new ForkJoinPool( parallelism );
+        this.caches = new EnumMap<>( GenomeBuild.class );
+        for ( final GenomeBuild build : GenomeBuild.values() ) {
+            caches.put( build, CacheBuilder.from( cacheSpec ).recordStats()
+                    .build( new CacheLoader<Location, Optional<Location>>() {
+                        @Override
+                        public Optional<Location> load( Location location ) {
+                            return Optional.fromNullable( compute( build, location ) );
+                        }
+                    } ) );
+        }
+    }
+
+    /**
+     * Construct an engine from files, as named on the command line. The reference is closed with the engine.
+     * 
+     * @param reference The FASTA file of the target build, indexed with 'samtools faidx', or null to skip
+     *        left-alignment.
+     * @param target The build locations are harmonized to.
+     * @param chains Per other build, the chain file from that build to the target.
+     * @return The engine, using all cores.
+     * @throws IOException If a file cannot be read.
+     */
+    public static HarmonizationEngine fromFiles( File reference, GenomeBuild target, Map<GenomeBuild, File> chains )
+            throws IOException {
+        Map<GenomeBuild, Liftover> liftovers = new EnumMap<>( GenomeBuild.class );
+        for ( Map.Entry<GenomeBuild, File> entry : chains.entrySet() ) {
+            liftovers.put( entry.getKey(), ChainLiftover.read( entry.getValue() ) );
+        }
+        IndexedFastaReference sequence = reference == null ? null : new IndexedFastaReference( reference );
+        HarmonizationEngine engine = new HarmonizationEngine( sequence, target, liftovers, Runtime.getRuntime()
+                .availableProcessors(), DEFAULT_CACHE_SPEC );
+        engine.ownedReference = sequence;
+        return engine;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    public static void main( String[] args ) {
+        if ( args.length < 1 ) {
+            System.err.println( "Usage: HarmonizationEngine database [--reference fasta] [--target build] "
+                    + "[--release version]" );
+            System.exit( 2 );
+        }
+        File reference = null;
+        GenomeBuild target = DEFAULT_TARGET;
+        String release = null;
+        for ( int i = 1; i < args.length; i++ ) {
+            if ( args[i].equals( "--reference" ) && i + 1 < args.length ) {
+                reference = new File( args[++i] );
+            } else if ( args[i].equals( "--target" ) && i + 1 < args.length ) {
+                target = parseBuild( args[++i] );
+            } else if ( args[i].equals( "--release" ) && i + 1 < args.length ) {
+                release = args[++i];
+            } else {
+                System.err.println( "Unknown option: " + args[i] );
+                System.exit( 2 );
+            }
+        }
+        if ( reference == null ) {
+            log.warn( "No --reference given, indels are trimmed but not left-aligned" );
+        }
+
+        DAOFactory daoFactory = DAOFactory.getInstance( args[0] );
+        int status = 0;
+        try (HarmonizationEngine engine = fromFiles( reference, target,
+                Collections.<GenomeBuild, File> emptyMap() )) {
+            if ( release == null ) {
+                engine.reharmonize( daoFactory );
+            } else {
+                engine.reharmonize( daoFactory, release );
+            }
+        } catch ( IOException | RuntimeException e ) {
+            log.error( "Reharmonizing failed", e );
+            status = 1;
+        } finally {
+            daoFactory.close();
+        }
+        System.exit( status );
+    }
+
+    /**
+     * @param build The build the location is reported on, null for the target build.
+     * @param location The location as reported.
+     * @return The harmonized location, or null if it cannot be lifted to the target build or its alleles are unknown.
+     */
+    public Location harmonize( GenomeBuild build, Location location ) {
+        try {
+            return caches.get( build == null ? target : build ).getUnchecked( location ).orNull();
+        } catch ( UncheckedExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException ) {
+                throw ( RuntimeException ) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Harmonizes the locations of the given variants in place, in parallel. Variants which cannot be harmonized are
+     * left unchanged.
+     * 
+     * @param build The build the variants are reported on, null for the target build.
+     * @param variants The variants.
+     * @return The outcome.
+     */
+    public Result harmonizeAll( GenomeBuild build, List<Variant> variants ) {
+        return harmonizeAll( build, variants, null, null );
+    }
+
+    /**
+     * Harmonizes the locations of the given variants in place, in parallel, and marks those which cannot be
+     * harmonized, so a caller can reject them.
+     * 
+     * @param build The build the variants are reported on, null for the target build.
+     * @param variants The variants.
+     * @param failed Set to true at the index of every variant which was left unchanged because it cannot be
+     *        harmonized; at least as long as the list.
+     * @return The outcome.
+     */
+    public Result harmonizeAll( GenomeBuild build, List<Variant> variants, boolean[] failed ) {
+        return harmonizeAll( build, variants, null, failed );
+    }
+
+    /**
+     * Harmonizes every variant in the database and writes back those whose location changed, for example after the
+     * normalization rules changed. If any did, a data release labelled 'reharmonize-' and the current time is added.
+     * 
+     * @param daoFactory The database.
+     * @return The outcome.
+     * @throws DAOException If reading or writing fails.
+     * @see #reharmonize(DAOFactory, String)
+     */
+    public Result reharmonize( DAOFactory daoFactory ) throws DAOException {
+        String version = "reharmonize-" + new SimpleDateFormat( "yyyyMMdd-HHmmss" ).format( new Date() );
+        return reharmonize( daoFactory, version );
+    }
+
+    /**
+     * Harmonizes every variant in the database and writes back those whose location changed, for example after the
+     * normalization rules changed. Memoized results are dropped first. If any location changed, the given data
+     * release is added afterwards, so running applications reload their indexes and snapshots of the variant table.
+     * 
+     * @param daoFactory The database.
+     * @param release The version of the data release to add, or null to add none.
+     * @return The outcome.
+     * @throws DAOException If reading or writing fails.
+     */
+    public Result reharmonize( DAOFactory daoFactory, String release ) throws DAOException {
+        long startTime = System.currentTimeMillis();
+        invalidateAll();
+        final VariantDAO variantDAO = daoFactory.getVariantDAO();
+        final List<Variant> chunk = new ArrayList<>( REHARMONIZE_CHUNK_SIZE );
+        final long[] totals = new long[3];
+        try (PrimaryScope scope = ReplicaRoutingDAOFactory.readFromPrimary()) {
+            variantDAO.streamAll( new RowCallback<Variant>() {
+                @Override
+                public void handle( Variant variant ) {
+                    chunk.add( variant );
+                    if ( chunk.size() == REHARMONIZE_CHUNK_SIZE ) {
+                        process( variantDAO, chunk, totals );
+                    }
+                }
+            } );
+            process( variantDAO, chunk, totals );
+        }
+        Result result = new Result( totals[0], totals[1], totals[2] );
+        log.info( "Reharmonized " + result + " in " + ( System.currentTimeMillis() - startTime ) + " ms" );
+        if ( release != null && result.getChanged() > 0 ) {
+            DataRelease dataRelease = daoFactory.getDataReleaseDAO().create( release );
+            log.info( "Added " + dataRelease + " for the changed locations" );
+        }
+        return result;
+    }
+
+    /**
+     * Drops all memoized results, for example because the rules changed.
+     */
+    public void invalidateAll() {
+        for ( LoadingCache<Location, Optional<Location>> cache : caches.values() ) {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        if ( ownedReference != null ) {
+            try {
+                ownedReference.close();
+            } catch ( IOException e ) {
+                log.warn( "Closing the reference failed: " + e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * @param build A build variants may be reported on, null for the target build.
+     * @return Whether locations on that build can be harmonized, that is, it is the target or has a liftover.
+     */
+    public boolean canHarmonize( GenomeBuild build ) {
+        return build == null || build == target || liftovers.containsKey( build );
+    }
+
+    /**
+     * @param name A GRC or UCSC build name given on the command line.
+     * @return The build.
+     * @throws IllegalArgumentException If the name is not known.
+     */
+    public static GenomeBuild parseBuild( String name ) {
+        GenomeBuild build = GenomeBuild.forName( name );
+        if ( build == null ) {
+            throw new IllegalArgumentException( "Unknown genome build: " + name );
+        }
+        return build;
+    }
+
+    /**
+     * Adds the value of a '--chain build=file' option to the given chains.
+     * 
+     * @throws IllegalArgumentException If the value is malformed or the build is not known.
+     */
+    public static void parseChain( String option, Map<GenomeBuild, File> chains ) {
+        int separator = option.indexOf( '=' );
+        if ( separator < 1 || separator == option.length() - 1 ) {
+            throw new IllegalArgumentException( "Expected build=file, not " + option );
+        }
+        chains.put( parseBuild( option.substring( 0, separator ) ), new File( option.substring( separator + 1 ) ) );
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * @return The statistics of the memo cache of each source build.
+     */
+    public Map<GenomeBuild, CacheStats> getCacheStats() {
+        Map<GenomeBuild, CacheStats> stats = new EnumMap<>( GenomeBuild.class );
+        for ( Map.Entry<GenomeBuild, LoadingCache<Location, Optional<Location>>> entry : caches.entrySet() ) {
+            stats.put( entry.getKey(), entry.getValue().stats() );
+        }
+        return stats;
+    }
+
+    public GenomeBuild getTarget() {
+        return target;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private Location compute( GenomeBuild build, Location location ) {
+        Location lifted = location;
+        if ( build != target ) {
+            Liftover liftover = liftovers.get( build );
+            lifted = liftover == null ? null : liftover.lift( location );
+            if ( lifted == null ) {
+                return null;
+            }
+        }
+        return normalizer.normalize( lifted );
+    }
+
+    private Result harmonizeAll( GenomeBuild build, List<Variant> variants, boolean[] changed, boolean[] failed ) {
+        if ( variants.isEmpty() ) {
+            return new Result( 0, 0, 0 );
+        }
+        long[] counts = pool.invoke( new HarmonizeTask( build, variants, changed, failed, 0, variants.size() ) );
+        return new Result( variants.size(), counts[0], counts[1] );
+    }
+
+    private void process( VariantDAO variantDAO, List<Variant> chunk, long[] totals ) {
+        boolean[] changed = new boolean[chunk.size()];
+        Result result = harmonizeAll( target, chunk, changed, null );
+        List<Variant> updates = new ArrayList<>();
+        for ( int i = 0; i < changed.length; i++ ) {
+            if ( changed[i] ) {
+                updates.add( chunk.get( i ) );
+            }
+        }
+        if ( !updates.isEmpty() ) {
+            variantDAO.updateLocations( updates );
+        }
+        totals[0] += result.getVariants();
+        totals[1] += result.getChanged();
+        totals[2] += result.getFailed();
+        chunk.clear();
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * Harmonizes a range of a batch, splitting it in halves while it is larger than {@link #SPLIT_THRESHOLD}. Returns
+     * the number of changed and of failed variants.
+     */
+    private final class HarmonizeTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final GenomeBuild build;
+        private final List<Variant> variants;
+        private final boolean[] changed;
+        private final boolean[] failed;
+        private final int from;
+        private final int to;
+
+        HarmonizeTask( GenomeBuild build, List<Variant> variants, boolean[] changed, boolean[] failed, int from,
+                int to ) {
+            this.build = build;
+            this.variants = variants;
+            this.changed = changed;
+            this.failed = failed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if ( to - from > SPLIT_THRESHOLD ) {
+                int middle = ( from + to ) >>> 1;
+                HarmonizeTask left = new HarmonizeTask( build, variants, changed, failed, from, middle );
+                left.fork();
+                long[] right = new HarmonizeTask( build, variants, changed, failed, middle, to ).compute();
+                long[] counts = left.join();
+                counts[0] += right[0];
+                counts[1] += right[1];
+                return counts;
+            }
+            long[] counts = new long[2];
+            for ( int i = from; i < to; i++ ) {
+                Variant variant = variants.get( i );
+                Location raw = Location.of( variant );
+                Location harmonized = harmonize( build, raw );
+                if ( harmonized == null ) {
+                    counts[1]++;
+                    if ( failed != null ) {
+                        failed[i] = true;
+                    }
+                } else if ( !harmonized.equals( raw ) ) {
+                    harmonized.applyTo( variant );
+                    counts[0]++;
+                    if ( changed != null ) {
+                        changed[i] = true;
+                    }
+                }
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * The outcome of harmonizing a batch.
+     */
+    public static final class Result {
+        private final long variants;
+        private final long changed;
+        private final long failed;
+
+        Result( long variants, long changed, long failed ) {
+            this.variants = variants;
+            this.changed = changed;
+            this.failed = failed;
+        }
+
+        public long getVariants() {
+            return variants;
+        }
+
+        /**
+         * @return The number of variants whose location changed.
+         */
+        public long getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return The number of variants which could not be harmonized and were left unchanged.
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return "Result [variants=" + variants + ", changed=" + changed + ", failed=" + failed + "]";
+        }
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+/**
+ * Parses genomic variant descriptions into {@link Location}s. Understood are HGVS genomic descriptions on a RefSeq
+ * chromosome accession or a chromosome name, such as <code>NC_000002.11:g.166187838C&gt;T</code> or
+ * <code>chr2:g.166187838_166187840del</code>, with substitution, del, dup, ins and delins edits, and VCF-style
+ * descriptions such as <code>2-166187838-C-T</code> or <code>chr2:166187838:C:T</code>. The parser scans the text
+ * once by index without regular expressions or splitting, and only allocates the strings of the result.
+ * <p>
+ * Deleted or duplicated bases that the description leaves out are read from the reference sequence; without one such
+ * descriptions are not parsed. Results are in the stored representation but not yet normalized, see
+ * {@link VariantNormalizer}. Instances are thread safe.
+ * 
+ * @version $Id$
+ */
+public final class HgvsParser {
+
+    private final ReferenceSequence reference;
+
+    /**
+     * @param reference The reference to read left-out bases from, or null.
+     */
+    public HgvsParser( ReferenceSequence reference ) {
+        this.reference = reference;
+    }
+
+    /**
+     * @param text A variant description.
+     * @return The location, or null if the description is not understood or describes no change.
+     */
+    public Location parse( String text ) {
+        if ( text == null ) {
+            return null;
+        }
+        String s = text.trim();
+        int colon = s.indexOf( ':' );
+        if ( colon > 0 && ( s.startsWith( "g.", colon + 1 ) || s.startsWith( "m.", colon + 1 ) ) ) {
+            String chromosome = chromosome( s, 0, colon );
+            return chromosome == null ? null : parseHgvs( chromosome, s, colon + 3 );
+        }
+        return parseVcfStyle( s );
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private Location parseHgvs( String chromosome, String s, int i ) {
+        int end = digits( s, i );
+        if ( end == i ) {
+            return null;
+        }
+        long start = Long.parseLong( s.substring( i, end ) );
+        long stop = start;
+        i = end;
+        if ( i < s.length() && s.charAt( i ) == '_' ) {
+            end = digits( s, i + 1 );
+            if ( end == i + 1 ) {
+                return null;
+            }
+            stop = Long.parseLong( s.substring( i + 1, end ) );
+            i = end;
+        }
+        if ( start < 1 || stop < start ) {
+            return null;
+        }
+
+        if ( s.startsWith( "delins", i ) ) {
+            return replacement( chromosome, start, stop, null, s, i + 6 );
+        }
+        if ( s.startsWith( "del", i ) ) {
+            int seqEnd = bases( s, i + 3 );
+            String deleted = seqEnd > i + 3 ? s.substring( i + 3, seqEnd ) : null;
+            if ( s.startsWith( "ins", seqEnd ) ) {
+                return replacement( chromosome, start, stop, deleted, s, seqEnd + 3 );
+            }
+            if ( seqEnd != s.length() ) {
+                return null;
+            }
+            String ref = checkedRef( chromosome, start, stop, deleted );
+            return ref == null ? null : new Location( chromosome, start, stop, ref, Location.EMPTY );
+        }
+        if ( s.startsWith( "dup", i ) ) {
+            int seqEnd = bases( s, i + 3 );
+            if ( seqEnd != s.length() ) {
+                return null;
+            }
+            String duplicated = checkedRef( chromosome, start, stop, seqEnd > i + 3 ? s.substring( i + 3, seqEnd )
+                    : null );
+            return duplicated == null ? null : new Location( chromosome, stop, stop, Location.EMPTY, duplicated );
+        }
+        if ( s.startsWith( "ins", i ) ) {
+            int seqEnd = bases( s, i + 3 );
+            if ( seqEnd == i + 3 || seqEnd != s.length() || stop != start + 1 ) {
+                return null;
+            }
+            return new Location( chromosome, start, start, Location.EMPTY, s.substring( i + 3, seqEnd ) );
+        }
+
+        // Substitution: ref>alt
+        int refEnd = bases( s, i );
+        if ( refEnd == i || refEnd >= s.length() || s.charAt( refEnd ) != '>' ) {
+            return null;
+        }
+        int altEnd = bases( s, refEnd + 1 );
+        if ( altEnd == refEnd + 1 || altEnd != s.length() ) {
+            return null;
+        }
+        String ref = s.substring( i, refEnd );
+        if ( stop == start && ref.length() > 1 ) {
+            stop = start + ref.length() - 1;
+        }
+        if ( stop - start + 1 != ref.length() ) {
+            return null;
+        }
+        return new Location( chromosome, start, stop, ref, s.substring( refEnd + 1, altEnd ) );
+    }
+
+    private Location replacement( String chromosome, long start, long stop, String deleted, String s, int i ) {
+        int seqEnd = bases( s, i );
+        if ( seqEnd == i || seqEnd != s.length() ) {
+            return null;
+        }
+        String ref = checkedRef( chromosome, start, stop, deleted );
+        return ref == null ? null : new Location( chromosome, start, stop, ref, s.substring( i, seqEnd ) );
+    }
+
+    /**
+     * @return The given bases if they span the range, else the bases read from the reference, or null.
+     */
+    private String checkedRef( String chromosome, long start, long stop, String given ) {
+        if ( given != null ) {
+            return given.length() == stop - start + 1 ? given : null;
+        }
+        if ( reference == null ) {
+            return null;
+        }
+        String bases = reference.getBases( chromosome, start, stop );
+        return bases == null || bases.length() != stop - start + 1 ? null : bases;
+    }
+
+    private static Location parseVcfStyle( String s ) {
+        int[] fields = new int[5];
+        int n = 0;
+        fields[n++] = 0;
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            if ( c == ':' || c == '-' || c == '\t' || c == ' ' ) {
+                if ( n == 4 ) {
+                    return null;
+                }
+                fields[n++] = i + 1;
+            }
+        }
+        if ( n != 4 ) {
+            return null;
+        }
+        fields[4] = s.length() + 1;
+        String chromosome = chromosome( s, 0, fields[1] - 1 );
+        int posEnd = digits( s, fields[1] );
+        if ( chromosome == null || posEnd == fields[1] || posEnd != fields[2] - 1 ) {
+            return null;
+        }
+        long start = Long.parseLong( s.substring( fields[1], posEnd ) );
+        int refEnd = bases( s, fields[2] );
+        int altEnd = bases( s, fields[3] );
+        if ( start < 1 || refEnd == fields[2] || refEnd != fields[3] - 1 || altEnd == fields[3]
+                || altEnd != s.length() ) {
+            return null;
+        }
+        String ref = s.substring( fields[2], refEnd );
+        return new Location( chromosome, start, start + ref.length() - 1, ref, s.substring( fields[3], altEnd ) );
+    }
+
+    /**
+     * @return The chromosome named by a RefSeq accession such as NC_000002.11 or by a name such as chr2, or null.
+     */
+    static String chromosome( String s, int from, int to ) {
+        if ( to - from >= 9 && s.startsWith( "NC_", from ) ) {
+            if ( s.startsWith( "NC_012920", from ) ) {
+                return "MT";
+            }
+            int end = digits( s, from + 3 );
+            if ( end - from - 3 != 6 ) {
+                return null;
+            }
+            int number = Integer.parseInt( s.substring( from + 3, end ) );
+            if ( number >= 1 && number <= 22 ) {
+                return Integer.toString( number );
+            }
+            return number == 23 ? "X" : number == 24 ? "Y" : null;
+        }
+        if ( to <= from ) {
+            return null;
+        }
+        return Location.normalizeChromosome( s.substring( from, to ) );
+    }
+
+    private static int digits( String s, int i ) {
+        while ( i < s.length() && s.charAt( i ) >= '0' && s.charAt( i ) <= '9' ) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int bases( String s, int i ) {
+        while ( i < s.length() ) {
+            char c = s.charAt( i );
+            if ( c != 'A' && c != 'C' && c != 'G' && c != 'T' && c != 'N' ) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads bases from a FASTA file indexed with 'samtools faidx'. Only the requested bytes are read, with positional
+ * reads that do not move a shared file pointer, so lookups may run concurrently.
+ * 
+ * @version $Id$
+ */
+public final class IndexedFastaReference implements ReferenceSequence, AutoCloseable {
+
+    private final FileChannel channel;
+    private final Map<String, Contig> contigs = new HashMap<>();
+
+    /**
+     * @param fasta The FASTA file; its index must be next to it with '.fai' appended.
+     * @throws IOException If either file cannot be read.
+     */
+    public IndexedFastaReference( File fasta ) throws IOException {
+        File index = new File( fasta.getPath() + ".fai" );
+        try (BufferedReader in = Files.newBufferedReader( index.toPath(), StandardCharsets.US_ASCII )) {
+            String line;
+            while ( ( line = in.readLine() ) != null ) {
+                String[] fields = line.split( "\t" );
+                if ( fields.length < 5 ) {
+                    continue;
+                }
+                contigs.put( Location.normalizeChromosome( fields[0] ), new Contig( Long.parseLong( fields[1] ),
+                        Long.parseLong( fields[2] ), Integer.parseInt( fields[3] ), Integer.parseInt( fields[4] ) ) );
+            }
+        }
+        this.channel = FileChannel.open( fasta.toPath(), StandardOpenOption.READ );
+    }
+
+    @Override
+    public String getBases( String chromosome, long start, long stop ) {
+        Contig contig = contigs.get( chromosome );
+        if ( contig == null ) {
+            return null;
+        }
+        long first = Math.max( 0, start - 1 );
+        long last = Math.min( contig.length, stop );
+        if ( last <= first ) {
+            return "";
+        }
+        long from = contig.offset( first );
+        long to = contig.offset( last - 1 ) + 1;
+        ByteBuffer buffer = ByteBuffer.allocate( ( int ) ( to - from ) );
+        try {
+            while ( buffer.hasRemaining() ) {
+                if ( channel.read( buffer, from + buffer.position() ) < 0 ) {
+                    break;
+                }
+            }
+        } catch ( IOException e ) {
+            throw new IllegalStateException( "Reading " + chromosome + ":" + start + "-" + stop + " failed", e );
+        }
+        char[] bases = new char[( int ) ( last - first )];
+        int n = 0;
+        for ( int i = 0; i < buffer.position() && n < bases.length; i++ ) {
+            byte b = buffer.get( i );
+            if ( b != '\n' && b != '\r' ) {
+                bases[n++] = Character.toUpperCase( ( char ) b );
+            }
+        }
+        return new String( bases, 0, n );
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static final class Contig {
+        final long length;
+        final long offset;
+        final int lineBases;
+        final int lineWidth;
+
+        Contig( long length, long offset, int lineBases, int lineWidth ) {
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        /**
+         * @return The file offset of the given 0-based position.
+         */
+        long offset( long position ) {
+            return offset + position / lineBases * lineWidth + position % lineBases;
+        }
+    }
+
+}
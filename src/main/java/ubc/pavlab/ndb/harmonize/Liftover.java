@@ -0,0 +1,36 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+/**
+ * Converts locations from one genome build to another. Implementations must be thread safe.
+ * 
+ * @version $Id$
+ */
+public interface Liftover {
+
+    /**
+     * @param location A location on the source build.
+     * @return The same variant on the target build, or null if it does not map in one piece.
+     */
+    Location lift( Location location );
+
+}
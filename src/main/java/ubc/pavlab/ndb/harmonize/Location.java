@@ -0,0 +1,126 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+import ubc.pavlab.ndb.model.Variant;
+import ubc.pavlab.ndb.utility.IntervalIndex;
+
+/**
+ * The position and alleles of a variant, in the representation stored in the variant table: chromosome without 'chr'
+ * prefix, 1-based inclusive coordinates of the reference bases, and '-' for an empty allele. An insertion has start
+ * and stop on the base before the inserted bases. Immutable, so it can be used as a cache key.
+ * 
+ * @version $Id$
+ */
+public final class Location {
+
+    public static final String EMPTY = "-";
+
+    private final String chromosome;
+    private final long start;
+    private final long stop;
+    private final String ref;
+    private final String alt;
+
+    /**
+     * @param ref The reference allele, or null if it is still to be read from the reference sequence.
+     */
+    public Location( String chromosome, long start, long stop, String ref, String alt ) {
+        this.chromosome = chromosome;
+        this.start = start;
+        this.stop = stop;
+        this.ref = ref;
+        this.alt = alt;
+    }
+
+    public static Location of( Variant variant ) {
+        return new Location( variant.getChromosome(), variant.getStart(), variant.getStop(), variant.getRef(),
+                variant.getAlt() );
+    }
+
+    /**
+     * @param chromosome A chromosome name as found in files, such as 'chr2', '2', 'chrM' or 'MT'.
+     * @return The name used in the database: upper case, without 'chr' prefix and with MT for the mitochondrion.
+     */
+    public static String normalizeChromosome( String chromosome ) {
+        String name = IntervalIndex.normalize( chromosome.trim() ).toUpperCase();
+        return name.equals( "M" ) ? "MT" : name;
+    }
+
+    /**
+     * Copies this location into the given variant.
+     */
+    public void applyTo( Variant variant ) {
+        variant.setChromosome( chromosome );
+        variant.setStart( start );
+        variant.setStop( stop );
+        variant.setRef( ref );
+        variant.setAlt( alt );
+    }
+
+    public String getChromosome() {
+        return chromosome;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getStop() {
+        return stop;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public String getAlt() {
+        return alt;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 + ( chromosome == null ? 0 : chromosome.hashCode() );
+        result = 31 * result + ( int ) ( start ^ ( start >>> 32 ) );
+        result = 31 * result + ( int ) ( stop ^ ( stop >>> 32 ) );
+        result = 31 * result + ( ref == null ? 0 : ref.hashCode() );
+        return 31 * result + ( alt == null ? 0 : alt.hashCode() );
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if ( this == obj ) return true;
+        if ( !( obj instanceof Location ) ) return false;
+        Location other = ( Location ) obj;
+        return start == other.start && stop == other.stop && equal( chromosome, other.chromosome )
+                && equal( ref, other.ref ) && equal( alt, other.alt );
+    }
+
+    @Override
+    public String toString() {
+        return chromosome + ":" + start + "-" + stop + " " + ref + ">" + alt;
+    }
+
+    private static boolean equal( String a, String b ) {
+        return a == null ? b == null : a.equals( b );
+    }
+
+}
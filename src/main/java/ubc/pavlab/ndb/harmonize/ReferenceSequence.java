@@ -0,0 +1,39 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+/**
+ * Access to the bases of a reference assembly, needed to fill in alleles HGVS leaves out and to left-align indels.
+ * Implementations must be thread safe.
+ * 
+ * @version $Id$
+ */
+public interface ReferenceSequence {
+
+    /**
+     * @param chromosome The chromosome, without 'chr' prefix.
+     * @param start The first position, 1-based.
+     * @param stop The last position, inclusive.
+     * @return The upper case bases, cut short at the end of the chromosome, or null if the chromosome is not known.
+     */
+    String getBases( String chromosome, long start, long stop );
+
+}
@@ -0,0 +1,129 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+/**
+ * Brings a location into its one canonical representation, so that the same variant reported as VCF with an anchor
+ * base, as HGVS, or with an indel placed anywhere in a repeat ends up identical. Alleles are trimmed of bases they
+ * share at either end, and insertions and deletions are shifted to their leftmost position in the reference, as
+ * described by Tan et al. (2015), "Unified representation of genetic variants". Instances are thread safe.
+ * 
+ * @version $Id$
+ */
+public final class VariantNormalizer {
+
+    /**
+     * Number of reference bases read at once while shifting an indel to the left.
+     */
+    private static final int WINDOW = 64;
+
+    private final ReferenceSequence reference;
+
+    /**
+     * @param reference The reference to left-align against, or null to only trim alleles.
+     */
+    public VariantNormalizer( ReferenceSequence reference ) {
+        this.reference = reference;
+    }
+
+    /**
+     * @param location A location in the stored representation. A null reference allele is read from the reference.
+     * @return The normalized location, the same instance if nothing changes, or null if the alleles are unknown.
+     */
+    public Location normalize( Location location ) {
+        String ref = location.getRef();
+        String alt = location.getAlt();
+        String chromosome = location.getChromosome();
+        if ( ref == null && reference != null ) {
+            ref = reference.getBases( chromosome, location.getStart(), location.getStop() );
+        }
+        if ( ref == null || alt == null ) {
+            return null;
+        }
+        boolean insertion = Location.EMPTY.equals( ref );
+        ref = insertion ? "" : ref;
+        alt = Location.EMPTY.equals( alt ) ? "" : alt;
+        if ( ref.equals( alt ) ) {
+            return location;
+        }
+
+        // 0-based position before which ref starts.
+        long position = insertion ? location.getStart() : location.getStart() - 1;
+
+        int suffix = 0;
+        while ( suffix < ref.length() && suffix < alt.length()
+                && ref.charAt( ref.length() - 1 - suffix ) == alt.charAt( alt.length() - 1 - suffix ) ) {
+            suffix++;
+        }
+        ref = ref.substring( 0, ref.length() - suffix );
+        alt = alt.substring( 0, alt.length() - suffix );
+        int prefix = 0;
+        while ( prefix < ref.length() && prefix < alt.length() && ref.charAt( prefix ) == alt.charAt( prefix ) ) {
+            prefix++;
+        }
+        ref = ref.substring( prefix );
+        alt = alt.substring( prefix );
+        position += prefix;
+
+        if ( reference != null && ( ref.isEmpty() != alt.isEmpty() ) ) {
+            String indel = ref.isEmpty() ? alt : ref;
+            char[] bases = indel.toCharArray();
+            int last = bases.length - 1;
+            String window = "";
+            int w = 0;
+            while ( position > 0 ) {
+                if ( w == 0 ) {
+                    long from = Math.max( 0, position - WINDOW );
+                    window = reference.getBases( chromosome, from + 1, position );
+                    if ( window == null || window.isEmpty() ) {
+                        break;
+                    }
+                    w = window.length();
+                }
+                char before = window.charAt( w - 1 );
+                if ( before != bases[last] ) {
+                    break;
+                }
+                // Rotate the indel one base to the left.
+                System.arraycopy( bases, 0, bases, 1, last );
+                bases[0] = before;
+                position--;
+                w--;
+            }
+            String shifted = new String( bases );
+            if ( ref.isEmpty() ) {
+                alt = shifted;
+            } else {
+                ref = shifted;
+            }
+        }
+
+        Location normalized;
+        if ( ref.isEmpty() ) {
+            normalized = new Location( chromosome, position, position, Location.EMPTY, alt );
+        } else {
+            normalized = new Location( chromosome, position + 1, position + ref.length(), ref,
+                    alt.isEmpty() ? Location.EMPTY : alt );
+        }
+        return normalized.equals( location ) ? location : normalized;
+    }
+
+}
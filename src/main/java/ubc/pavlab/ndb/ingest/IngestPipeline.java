@@ -0,0 +1,824 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.ingest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.dao.DAOFactory;
+import ubc.pavlab.ndb.dao.IngestDAO;
+import ubc.pavlab.ndb.dao.VariantAggregates;
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.harmonize.GenomeBuild;
+import ubc.pavlab.ndb.harmonize.HarmonizationEngine;
+import ubc.pavlab.ndb.model.DataRelease;
+import ubc.pavlab.ndb.model.Variant;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Loads the supplementary variant tables of a paper. The tables are tab separated with a header line, see
+ * {@link VariantTableParser}. Loading runs as a pipeline of stages connected by bounded queues, so a slow stage holds
+ * back the ones before it instead of letting chunks pile up in memory:
+ * <ol>
+ * <li>read: splits the files into chunks of lines, one file per reader</li>
+ * <li>parse: turns lines into variants, on every core</li>
+ * <li>validate: normalizes variants and resolves genes, see {@link VariantValidator}, then lifts and left-aligns
+ * them with a {@link HarmonizationEngine} if one is set</li>
+ * <li>write: inserts chunks, each in one transaction, with no more writers than the connection pool allows</li>
+ * </ol>
+ * Each written chunk is recorded by {@link IngestDAO} in the same transaction, so after a failure the same command
+ * resumes with the chunks that are missing. The chunk size must not change between attempts. Checkpoints are kept
+ * per file name and content hash; a file changed since an earlier load is refused rather than mixed with the rows
+ * that load wrote. Rows which fail parsing
+ * or validation are logged and skipped. Throughput of every stage is logged periodically and returned in the
+ * {@link IngestResult}.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * java ubc.pavlab.ndb.ingest.IngestPipeline database paperId [--threads n] [--writers n] [--chunk n]
+ *         [--release version] [--reference fasta] [--target build] [--chain build=file]... [--build build] file...
+ * </pre>
+ * 
+ * where database is the name given to {@link DAOFactory#getInstance(String)}, configured in db.properties. With
+ * '--reference', the sequence of the target build indexed with 'samtools faidx', indels are left-aligned. '--build'
+ * names the build the files report positions on, GRCh37 or GRCh38, when it is not the target; a '--chain' file from
+ * that build to the target is then required. Variants which cannot be lifted are rejected.
+ * 
+ * @version $Id$
+ */
+public class IngestPipeline {
+
+    // Constants ----------------------------------------------------------------------------------
+
+    private static final Logger log = Logger.getLogger( IngestPipeline.class );
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    public static final int DEFAULT_WRITERS = 4;
+
+    private static final int MAX_READERS = 2;
+    private static final long REPORT_INTERVAL_SECONDS = 10;
+    private static final int MAX_LOGGED_REJECTIONS = 100;
+
+    /**
+     * Hex digits of the content hash kept in checkpoint sources.
+     */
+    private static final int SOURCE_HASH_LENGTH = 16;
+
+    /**
+     * Marks the end of a queue; every consumer of the queue receives one.
+     */
+    private static final Chunk END = new Chunk( null, null, -1, new ArrayList<String>(), new long[0] );
+
+    // Vars ---------------------------------------------------------------------------------------
+
+    private final DAOFactory daoFactory;
+    private final int paperId;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int writers = DEFAULT_WRITERS;
+    private String release;
+    private HarmonizationEngine harmonizer;
+    private GenomeBuild build;
+
+    private final Stage readStage = new Stage( "read" );
+    private final Stage parseStage = new Stage( "parse" );
+    private final Stage validateStage = new Stage( "validate" );
+    private final Stage writeStage = new Stage( "write" );
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicInteger loggedRejections = new AtomicInteger();
+
+    private IngestDAO ingestDAO;
+    private VariantValidator validator;
+    private VariantAggregates aggregates;
+    private ExecutorService executor;
+    private volatile Throwable failure;
+    private volatile boolean resumed = false;
+    private boolean started = false;
+
+    // Constructors -------------------------------------------------------------------------------
+
+    /**
+     * @param daoFactory The database to load into.
+     * @param paperId The paper the tables belong to.
+     */
+    public IngestPipeline( DAOFactory daoFactory, int paperId ) {
+        this.daoFactory = daoFactory;
+        this.paperId = paperId;
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * Sets the number of rows per chunk, which is the unit of writing and of resuming.
+     */
+    public void setChunkSize( int chunkSize ) {
+        if ( chunkSize < 1 ) {
+            throw new IllegalArgumentException( "Chunk size must be positive: " + chunkSize );
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the number of parse threads; validation uses half as many. Defaults to the number of cores.
+     */
+    public void setThreads( int threads ) {
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException( "Thread count must be positive: " + threads );
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of concurrent writers, each holding one connection while writing a chunk. Capped to the size
+     * of the connection pool.
+     */
+    public void setWriters( int writers ) {
+        if ( writers < 1 ) {
+            throw new IllegalArgumentException( "Writer count must be positive: " + writers );
+        }
+        this.writers = writers;
+    }
+
+    /**
+     * Sets the version of a data release to add once all files are loaded, so running applications pick up the new
+     * data. By default no release is added.
+     */
+    public void setRelease( String release ) {
+        this.release = release;
+    }
+
+    /**
+     * Harmonizes validated variants before they are written; variants which cannot be harmonized are rejected. By
+     * default locations are stored as reported. The engine is not closed by the pipeline.
+     * 
+     * @param harmonizer The engine.
+     * @param build The build the files report positions on, null for the target build of the engine.
+     * @throws IllegalArgumentException If the engine has no liftover from that build.
+     */
+    public void setHarmonizer( HarmonizationEngine harmonizer, GenomeBuild build ) {
+        if ( !harmonizer.canHarmonize( build ) ) {
+            throw new IllegalArgumentException( "No liftover from " + build.getName() + " to "
+                    + harmonizer.getTarget().getName() );
+        }
+        this.harmonizer = harmonizer;
+        this.build = build;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Loads the given files. A pipeline can run only once.
+     * 
+     * @param files The tables to load.
+     * @return The outcome.
+     * @throws IOException If a file cannot be read.
+     * @throws DAOException If writing fails.
+     * @throws IllegalArgumentException If a file lacks a required column.
+     * @throws IllegalStateException If a file changed since an earlier load of it.
+     */
+    public IngestResult run( List<File> files ) throws IOException, DAOException {
+        synchronized ( this ) {
+            if ( started ) {
+                throw new IllegalStateException( "IngestPipeline can only run once." );
+            }
+            started = true;
+        }
+        long startTime = System.currentTimeMillis();
+        ingestDAO = daoFactory.getIngestDAO();
+        validator = VariantValidator.load( daoFactory.getGeneDAO() );
+        aggregates = new VariantAggregates( daoFactory );
+
+        int readers = Math.max( 1, Math.min( files.size(), MAX_READERS ) );
+        int parsers = threads;
+        int validators = Math.max( 1, threads / 2 );
+        int writerCount = writers;
+        int maxConnections = daoFactory.getMaxConnections();
+        if ( maxConnections > 0 ) {
+            writerCount = Math.min( writerCount, maxConnections );
+        }
+        log.info( "Loading " + files.size() + " files for paper " + paperId + " with " + readers + " readers, "
+                + parsers + " parsers, " + validators + " validators and " + writerCount + " writers" );
+
+        int capacity = 2 * Math.max( parsers, writerCount );
+        BlockingQueue<Chunk> parseQueue = new ArrayBlockingQueue<>( capacity );
+        BlockingQueue<Chunk> validateQueue = new ArrayBlockingQueue<>( capacity );
+        BlockingQueue<Chunk> writeQueue = new ArrayBlockingQueue<>( capacity );
+        readStage.queue = parseQueue;
+        parseStage.queue = validateQueue;
+        validateStage.queue = writeQueue;
+
+        executor = Executors.newFixedThreadPool( readers + parsers + validators + writerCount,
+                new ThreadFactoryBuilder().setNameFormat( "ndb-ingest-%d" ).build() );
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor( new ThreadFactoryBuilder()
+                .setDaemon( true ).setNameFormat( "ndb-ingest-reporter" ).build() );
+        reporter.scheduleAtFixedRate( new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS );
+
+        try {
+            Queue<File> pending = new ConcurrentLinkedQueue<>( files );
+            AtomicInteger remainingReaders = new AtomicInteger( readers );
+            for ( int i = 0; i < readers; i++ ) {
+                start( new Reader( pending, parseQueue, remainingReaders, parsers ) );
+            }
+            AtomicInteger remainingParsers = new AtomicInteger( parsers );
+            for ( int i = 0; i < parsers; i++ ) {
+                start( new Parser( parseQueue, validateQueue, remainingParsers, validators ) );
+            }
+            AtomicInteger remainingValidators = new AtomicInteger( validators );
+            for ( int i = 0; i < validators; i++ ) {
+                start( new Validator( validateQueue, writeQueue, remainingValidators, writerCount ) );
+            }
+            AtomicInteger remainingWriters = new AtomicInteger( writerCount );
+            for ( int i = 0; i < writerCount; i++ ) {
+                start( new Writer( writeQueue, remainingWriters ) );
+            }
+            executor.shutdown();
+            executor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            fail( e );
+        } finally {
+            reporter.shutdownNow();
+        }
+
+        // Counts of chunks committed before a crash may have been lost, so a resumed load checks them all.
+        try {
+            aggregates.flush();
+        } catch ( RuntimeException e ) {
+            if ( failure == null ) {
+                throw e;
+            }
+            // The failure of the load is what the caller needs to see; a resumed load repairs the counts.
+            failure.addSuppressed( e );
+        }
+        if ( failure == null && resumed ) {
+            aggregates.verifyAndRepair();
+        }
+
+        if ( failure != null ) {
+            log.error( "Ingest failed after " + writeStage.getRows() + " variants; run again to resume" );
+            if ( failure instanceof IOException ) {
+                throw ( IOException ) failure;
+            }
+            if ( failure instanceof RuntimeException ) {
+                throw ( RuntimeException ) failure;
+            }
+            throw new IllegalStateException( "Ingest failed", failure );
+        }
+
+        DataRelease dataRelease = release == null ? null : daoFactory.getDataReleaseDAO().create( release );
+        IngestResult result = new IngestResult( writeStage.getChunks(), writeStage.getRows(), rejected.get(),
+                skipped.get(), Arrays.asList( readStage, parseStage, validateStage, writeStage ), dataRelease,
+                System.currentTimeMillis() - startTime );
+        log.info( result );
+        return result;
+    }
+
+    public static void main( String[] args ) {
+        if ( args.length < 3 ) {
+            System.err.println( "Usage: IngestPipeline database paperId [--threads n] [--writers n] [--chunk n] "
+                    + "[--release version] [--reference fasta] [--target build] [--chain build=file]... "
+                    + "[--build build] file..." );
+            System.exit( 2 );
+        }
+        List<File> files = new ArrayList<>();
+        int threads = 0;
+        int writers = 0;
+        int chunkSize = 0;
+        String release = null;
+        File reference = null;
+        GenomeBuild target = HarmonizationEngine.DEFAULT_TARGET;
+        Map<GenomeBuild, File> chains = new EnumMap<>( GenomeBuild.class );
+        GenomeBuild build = null;
+        for ( int i = 2; i < args.length; i++ ) {
+            if ( args[i].equals( "--threads" ) && i + 1 < args.length ) {
+                threads = Integer.parseInt( args[++i] );
+            } else if ( args[i].equals( "--writers" ) && i + 1 < args.length ) {
+                writers = Integer.parseInt( args[++i] );
+            } else if ( args[i].equals( "--chunk" ) && i + 1 < args.length ) {
+                chunkSize = Integer.parseInt( args[++i] );
+            } else if ( args[i].equals( "--release" ) && i + 1 < args.length ) {
+                release = args[++i];
+            } else if ( args[i].equals( "--reference" ) && i + 1 < args.length ) {
+                reference = new File( args[++i] );
+            } else if ( args[i].equals( "--target" ) && i + 1 < args.length ) {
+                target = HarmonizationEngine.parseBuild( args[++i] );
+            } else if ( args[i].equals( "--chain" ) && i + 1 < args.length ) {
+                HarmonizationEngine.parseChain( args[++i], chains );
+            } else if ( args[i].equals( "--build" ) && i + 1 < args.length ) {
+                build = HarmonizationEngine.parseBuild( args[++i] );
+            } else {
+                files.add( new File( args[i] ) );
+            }
+        }
+
+        DAOFactory daoFactory = DAOFactory.getInstance( args[0] );
+        HarmonizationEngine harmonizer = null;
+        int status = 0;
+        try {
+            IngestPipeline pipeline = new IngestPipeline( daoFactory, Integer.parseInt( args[1] ) );
+            if ( threads > 0 ) pipeline.setThreads( threads );
+            if ( writers > 0 ) pipeline.setWriters( writers );
+            if ( chunkSize > 0 ) pipeline.setChunkSize( chunkSize );
+            pipeline.setRelease( release );
+            if ( reference != null || build != null ) {
+                harmonizer = HarmonizationEngine.fromFiles( reference, target, chains );
+                pipeline.setHarmonizer( harmonizer, build );
+            }
+            pipeline.run( files );
+        } catch ( IOException | RuntimeException e ) {
+            log.error( "Ingest failed", e );
+            status = 1;
+        } finally {
+            if ( harmonizer != null ) {
+                harmonizer.close();
+            }
+            daoFactory.close();
+        }
+        System.exit( status );
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    /**
+     * Starts a stage worker, unless a worker started before already failed and stopped the executor; the failure is
+     * reported once the executor terminated.
+     */
+    private void start( Runnable worker ) {
+        try {
+            executor.execute( worker );
+        } catch ( RejectedExecutionException e ) {
+            log.debug( "Not starting " + worker.getClass().getSimpleName() + ", ingest already failed" );
+        }
+    }
+
+    /**
+     * Records the first failure and stops all stages.
+     */
+    private void fail( Throwable t ) {
+        synchronized ( this ) {
+            if ( failure == null ) {
+                failure = t;
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return The checkpoint source of the file: the paper, the file name and a hash of the contents.
+     */
+    static String source( int paperId, File file ) throws IOException {
+        HashCode hash = com.google.common.io.Files.asByteSource( file ).hash( Hashing.sha1() );
+        return paperId + ":" + file.getName() + ":" + hash.toString().substring( 0, SOURCE_HASH_LENGTH );
+    }
+
+    private void reject( Chunk chunk, long line, String reason ) {
+        rejected.incrementAndGet();
+        if ( loggedRejections.incrementAndGet() <= MAX_LOGGED_REJECTIONS ) {
+            log.warn( "Skipping " + chunk.source + " line " + line + ": " + reason );
+        }
+    }
+
+    private void report() {
+        for ( Stage stage : Arrays.asList( readStage, parseStage, validateStage, writeStage ) ) {
+            log.info( stage );
+        }
+        try {
+            aggregates.flush();
+        } catch ( DAOException e ) {
+            log.warn( "Updating variant counts failed, will retry: " + e.getMessage() );
+        }
+    }
+
+    private static void end( BlockingQueue<Chunk> queue, AtomicInteger remainingProducers, int consumers )
+            throws InterruptedException {
+        if ( remainingProducers.decrementAndGet() == 0 ) {
+            for ( int i = 0; i < consumers; i++ ) {
+                queue.put( END );
+            }
+        }
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * Consecutive rows of one file, the unit passed between stages.
+     */
+    private static final class Chunk {
+        final String source;
+        final VariantTableParser parser;
+        final int index;
+        final List<String> lines;
+        final long[] lineNumbers;
+        List<Variant> variants;
+        long[] variantLines;
+
+        Chunk( String source, VariantTableParser parser, int index, List<String> lines, long[] lineNumbers ) {
+            this.source = source;
+            this.parser = parser;
+            this.index = index;
+            this.lines = lines;
+            this.lineNumbers = lineNumbers;
+        }
+    }
+
+    /**
+     * Reads files from the shared list until it is empty.
+     */
+    private final class Reader implements Runnable {
+        private final Queue<File> files;
+        private final BlockingQueue<Chunk> out;
+        private final AtomicInteger remaining;
+        private final int consumers;
+
+        Reader( Queue<File> files, BlockingQueue<Chunk> out, AtomicInteger remaining, int consumers ) {
+            this.files = files;
+            this.out = out;
+            this.remaining = remaining;
+            this.consumers = consumers;
+        }
+
+        @Override
+        public void run() {
+            try {
+                File file;
+                while ( failure == null && ( file = files.poll() ) != null ) {
+                    read( file );
+                }
+                end( out, remaining, consumers );
+            } catch ( InterruptedException e ) {
+                // Stopped because another stage failed.
+            } catch ( Throwable t ) {
+                // Errors as well, or the next stage would wait for the end of the queue forever.
+                fail( t );
+            }
+        }
+
+        private void read( File file ) throws IOException, InterruptedException {
+            String source = source( paperId, file );
+            String name = paperId + ":" + file.getName();
+            for ( String earlier : ingestDAO.findSources( name ) ) {
+                // Sources of files whose name merely starts with this one have more than the hash after the name.
+                boolean sameFile = earlier.equals( name ) || earlier.lastIndexOf( ':' ) == name.length();
+                if ( sameFile && !earlier.equals( source ) ) {
+                    throw new IllegalStateException( file + " changed since it was loaded as " + earlier
+                            + "; delete the variants and ingest_checkpoint rows of that load first" );
+                }
+            }
+            Set<Integer> completed = ingestDAO.findCompletedChunks( source );
+            if ( !completed.isEmpty() ) {
+                resumed = true;
+                log.info( "Resuming " + source + ", " + completed.size() + " chunks already loaded" );
+            }
+            try (BufferedReader in = Files.newBufferedReader( file.toPath(), StandardCharsets.UTF_8 )) {
+                VariantTableParser parser = null;
+                int index = 0;
+                List<String> lines = new ArrayList<>( chunkSize );
+                long[] lineNumbers = new long[chunkSize];
+                long lineNumber = 0;
+                String line;
+                while ( ( line = in.readLine() ) != null ) {
+                    lineNumber++;
+                    if ( line.trim().isEmpty() || line.startsWith( "##" ) ) {
+                        continue;
+                    }
+                    if ( parser == null ) {
+                        parser = VariantTableParser.forHeader( line, paperId );
+                        continue;
+                    }
+                    if ( line.startsWith( "#" ) ) {
+                        continue;
+                    }
+                    lineNumbers[lines.size()] = lineNumber;
+                    lines.add( line );
+                    if ( lines.size() == chunkSize ) {
+                        emit( new Chunk( source, parser, index++, lines, lineNumbers ), completed );
+                        lines = new ArrayList<>( chunkSize );
+                        lineNumbers = new long[chunkSize];
+                    }
+                }
+                if ( !lines.isEmpty() ) {
+                    emit( new Chunk( source, parser, index, lines, lineNumbers ), completed );
+                }
+            }
+        }
+
+        private void emit( Chunk chunk, Set<Integer> completed ) throws InterruptedException {
+            if ( completed.contains( chunk.index ) ) {
+                skipped.addAndGet( chunk.lines.size() );
+                return;
+            }
+            readStage.record( chunk.lines.size(), 0 );
+            out.put( chunk );
+        }
+    }
+
+    /**
+     * Takes chunks from one queue, processes them and puts them on the next.
+     */
+    private abstract class Worker implements Runnable {
+        private final Stage stage;
+        private final BlockingQueue<Chunk> in;
+        private final BlockingQueue<Chunk> out;
+        private final AtomicInteger remaining;
+        private final int consumers;
+
+        Worker( Stage stage, BlockingQueue<Chunk> in, BlockingQueue<Chunk> out, AtomicInteger remaining,
+                int consumers ) {
+            this.stage = stage;
+            this.in = in;
+            this.out = out;
+            this.remaining = remaining;
+            this.consumers = consumers;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Chunk chunk;
+                while ( ( chunk = in.take() ) != END ) {
+                    long startTime = System.nanoTime();
+                    process( chunk );
+                    stage.record( chunk.variants.size(), System.nanoTime() - startTime );
+                    if ( out != null ) {
+                        out.put( chunk );
+                    }
+                }
+                if ( out != null ) {
+                    end( out, remaining, consumers );
+                }
+            } catch ( InterruptedException e ) {
+                // Stopped because another stage failed.
+            } catch ( Throwable t ) {
+                // Errors as well, or the next stage would wait for the end of the queue forever.
+                fail( t );
+            }
+        }
+
+        abstract void process( Chunk chunk );
+    }
+
+    private final class Parser extends Worker {
+        Parser( BlockingQueue<Chunk> in, BlockingQueue<Chunk> out, AtomicInteger remaining, int consumers ) {
+            super( parseStage, in, out, remaining, consumers );
+        }
+
+        @Override
+        void process( Chunk chunk ) {
+            List<Variant> variants = new ArrayList<>( chunk.lines.size() );
+            long[] variantLines = new long[chunk.lines.size()];
+            for ( int i = 0; i < chunk.lines.size(); i++ ) {
+                try {
+                    variantLines[variants.size()] = chunk.lineNumbers[i];
+                    variants.add( chunk.parser.parse( chunk.lines.get( i ) ) );
+                } catch ( IllegalArgumentException e ) {
+                    reject( chunk, chunk.lineNumbers[i], e.getMessage() );
+                }
+            }
+            chunk.lines.clear();
+            chunk.variants = variants;
+            chunk.variantLines = variantLines;
+        }
+    }
+
+    private final class Validator extends Worker {
+        Validator( BlockingQueue<Chunk> in, BlockingQueue<Chunk> out, AtomicInteger remaining, int consumers ) {
+            super( validateStage, in, out, remaining, consumers );
+        }
+
+        @Override
+        void process( Chunk chunk ) {
+            List<Variant> valid = new ArrayList<>( chunk.variants.size() );
+            long[] validLines = new long[chunk.variants.size()];
+            for ( int i = 0; i < chunk.variants.size(); i++ ) {
+                Variant variant = chunk.variants.get( i );
+                String reason = validator.validate( variant );
+                if ( reason == null ) {
+                    validLines[valid.size()] = chunk.variantLines[i];
+                    valid.add( variant );
+                } else {
+                    reject( chunk, chunk.variantLines[i], reason );
+                }
+            }
+            if ( harmonizer != null ) {
+                valid = harmonize( chunk, valid, validLines );
+            }
+            chunk.variants = valid;
+        }
+
+        private List<Variant> harmonize( Chunk chunk, List<Variant> variants, long[] lines ) {
+            boolean[] failed = new boolean[variants.size()];
+            if ( harmonizer.harmonizeAll( build, variants, failed ).getFailed() == 0 ) {
+                return variants;
+            }
+            List<Variant> harmonized = new ArrayList<>( variants.size() );
+            for ( int i = 0; i < variants.size(); i++ ) {
+                if ( failed[i] ) {
+                    reject( chunk, lines[i], "cannot be harmonized to " + harmonizer.getTarget().getName() );
+                } else {
+                    harmonized.add( variants.get( i ) );
+                }
+            }
+            return harmonized;
+        }
+    }
+
+    private final class Writer extends Worker {
+        Writer( BlockingQueue<Chunk> in, AtomicInteger remaining ) {
+            super( writeStage, in, null, remaining, 0 );
+        }
+
+        @Override
+        void process( Chunk chunk ) {
+            ingestDAO.writeChunk( chunk.source, chunk.index, chunk.variants );
+            for ( Variant variant : chunk.variants ) {
+                aggregates.added( variant );
+            }
+        }
+    }
+
+    /**
+     * Throughput counters of one stage.
+     */
+    public static final class Stage {
+        private final String name;
+        private final AtomicLong chunks = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final long created = System.nanoTime();
+        private volatile BlockingQueue<?> queue;
+
+        Stage( String name ) {
+            this.name = name;
+        }
+
+        void record( int chunkRows, long nanos ) {
+            chunks.incrementAndGet();
+            rows.addAndGet( chunkRows );
+            busyNanos.addAndGet( nanos );
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getChunks() {
+            return chunks.get();
+        }
+
+        /**
+         * @return The number of rows the stage passed on.
+         */
+        public long getRows() {
+            return rows.get();
+        }
+
+        /**
+         * @return The time the stage's threads spent processing, summed over threads, in milliseconds.
+         */
+        public long getBusyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis( busyNanos.get() );
+        }
+
+        /**
+         * @return The rows passed on per second since the pipeline started.
+         */
+        public long getRowsPerSecond() {
+            long elapsed = System.nanoTime() - created;
+            return elapsed <= 0 ? 0 : rows.get() * TimeUnit.SECONDS.toNanos( 1 ) / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            BlockingQueue<?> q = queue;
+            return "Stage [" + name + ": " + getChunks() + " chunks, " + getRows() + " rows, " + getRowsPerSecond()
+                    + " rows/s, busy " + getBusyMillis() + " ms" + ( q == null ? "" : ", queued " + q.size() ) + "]";
+        }
+    }
+
+    /**
+     * The outcome of a load.
+     */
+    public static final class IngestResult {
+        private final long chunks;
+        private final long variants;
+        private final long rejected;
+        private final long skipped;
+        private final List<Stage> stages;
+        private final DataRelease release;
+        private final long elapsedMillis;
+
+        IngestResult( long chunks, long variants, long rejected, long skipped, List<Stage> stages,
+                DataRelease release, long elapsedMillis ) {
+            this.chunks = chunks;
+            this.variants = variants;
+            this.rejected = rejected;
+            this.skipped = skipped;
+            this.stages = Collections.unmodifiableList( stages );
+            this.release = release;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return The number of chunks written by this run.
+         */
+        public long getChunks() {
+            return chunks;
+        }
+
+        /**
+         * @return The number of variants written by this run.
+         */
+        public long getVariants() {
+            return variants;
+        }
+
+        /**
+         * @return The number of rows which failed parsing or validation.
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return The number of rows in chunks loaded by an earlier run.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public List<Stage> getStages() {
+            return stages;
+        }
+
+        /**
+         * @return The data release added, or null if none was requested.
+         */
+        public DataRelease getRelease() {
+            return release;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "IngestResult [chunks=" + chunks + ", variants=" + variants + ", rejected=" + rejected
+                    + ", skipped=" + skipped + ", elapsedMillis=" + elapsedMillis + ", release=" + release + "]";
+        }
+    }
+
+}
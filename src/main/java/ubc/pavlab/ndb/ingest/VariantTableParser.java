@@ -0,0 +1,185 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.ingest;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import ubc.pavlab.ndb.harmonize.HgvsParser;
+import ubc.pavlab.ndb.harmonize.Location;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * Turns the rows of a tab separated supplementary variant table into {@link Variant}s. Columns are located by the
+ * header line, in any order and under the common names used by papers and annotation tools, for example 'chr',
+ * 'chrom' or 'chromosome'. Values are taken as they are; cleaning them up is left to {@link VariantValidator}.
+ * <p>
+ * Tables may give a genomic HGVS or VCF-style description (column 'hgvs_g') instead of chromosome, position and
+ * alleles; rows without a chromosome take their location from it, parsed by {@link HgvsParser}. Descriptions which
+ * leave out deleted or duplicated bases are not resolved here, as no reference sequence is loaded during ingest.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ * 
+ * @version $Id$
+ */
+public final class VariantTableParser {
+
+    private static final int CHROMOSOME = 0;
+    private static final int START = 1;
+    private static final int STOP = 2;
+    private static final int REF = 3;
+    private static final int ALT = 4;
+    private static final int SYMBOL = 5;
+    private static final int CATEGORY = 6;
+    private static final int FUNC = 7;
+    private static final int CDNA_CHANGE = 8;
+    private static final int AA_CHANGE = 9;
+    private static final int GENOMIC = 10;
+    private static final int FIELDS = 11;
+
+    private static final String[] FIELD_NAMES = { "chromosome", "start", "stop", "ref", "alt", "gene", "category",
+            "func", "cdna_change", "aa_change", "hgvs_g" };
+
+    private static final int[] REQUIRED = { SYMBOL };
+
+    /**
+     * Required unless the table has a genomic description column.
+     */
+    private static final int[] REQUIRED_LOCATION = { CHROMOSOME, START, REF, ALT };
+
+    private static final HgvsParser HGVS = new HgvsParser( null );
+
+    private static final Map<String, Integer> ALIASES = new HashMap<>();
+
+    static {
+        alias( CHROMOSOME, "chromosome", "chrom", "chr", "#chrom" );
+        alias( START, "start", "pos", "position", "begin" );
+        alias( STOP, "stop", "end" );
+        alias( REF, "ref", "reference" );
+        alias( ALT, "alt", "alternate", "alternative" );
+        alias( SYMBOL, "gene", "symbol", "gene_symbol", "gene.refgene" );
+        alias( CATEGORY, "category", "type", "variant_type" );
+        alias( FUNC, "func", "function", "effect", "exonicfunc.refgene" );
+        alias( CDNA_CHANGE, "cdna_change", "cdna", "hgvs_c" );
+        alias( AA_CHANGE, "aa_change", "aa", "protein_change", "hgvs_p" );
+        alias( GENOMIC, "hgvs_g", "hgvs", "gdna_change", "genomic_change" );
+    }
+
+    /**
+     * The column index of each field, -1 if the table does not have it.
+     */
+    private final int[] columns;
+    private final int paperId;
+
+    private VariantTableParser( int[] columns, int paperId ) {
+        this.columns = columns;
+        this.paperId = paperId;
+    }
+
+    /**
+     * @param header The header line of the table.
+     * @param paperId The paper the table belongs to.
+     * @return A parser for the rows of the table.
+     * @throws IllegalArgumentException If a required column is missing.
+     */
+    public static VariantTableParser forHeader( String header, int paperId ) {
+        int[] columns = new int[FIELDS];
+        Arrays.fill( columns, -1 );
+        String[] names = header.split( "\t", -1 );
+        for ( int i = 0; i < names.length; i++ ) {
+            Integer field = ALIASES.get( names[i].trim().toLowerCase() );
+            if ( field != null && columns[field] < 0 ) {
+                columns[field] = i;
+            }
+        }
+        checkRequired( columns, REQUIRED, header );
+        if ( columns[GENOMIC] < 0 ) {
+            checkRequired( columns, REQUIRED_LOCATION, header );
+        }
+        return new VariantTableParser( columns, paperId );
+    }
+
+    /**
+     * @param line A row of the table.
+     * @return The variant of the row.
+     * @throws IllegalArgumentException If a coordinate is not a number.
+     */
+    public Variant parse( String line ) {
+        String[] values = line.split( "\t", -1 );
+        Variant variant = new Variant();
+        variant.setPaperId( paperId );
+        variant.setChromosome( value( values, CHROMOSOME ) );
+        variant.setStart( coordinate( values, START ) );
+        variant.setStop( coordinate( values, STOP ) );
+        variant.setRef( value( values, REF ) );
+        variant.setAlt( value( values, ALT ) );
+        variant.setSymbol( value( values, SYMBOL ) );
+        variant.setCategory( value( values, CATEGORY ) );
+        variant.setFunc( value( values, FUNC ) );
+        variant.setCdnaChange( value( values, CDNA_CHANGE ) );
+        variant.setAaChange( value( values, AA_CHANGE ) );
+        if ( variant.getChromosome() == null ) {
+            Location location = HGVS.parse( value( values, GENOMIC ) );
+            if ( location != null ) {
+                location.applyTo( variant );
+            }
+        }
+        return variant;
+    }
+
+    private String value( String[] values, int field ) {
+        int column = columns[field];
+        if ( column < 0 || column >= values.length ) {
+            return null;
+        }
+        String value = values[column].trim();
+        return value.isEmpty() || value.equals( "." ) ? null : value;
+    }
+
+    private long coordinate( String[] values, int field ) {
+        String value = value( values, field );
+        if ( value == null ) {
+            return 0;
+        }
+        try {
+            return Long.parseLong( value.replace( ",", "" ) );
+        } catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException( "Column '" + FIELD_NAMES[field] + "' is not a position: " + value );
+        }
+    }
+
+    private static void checkRequired( int[] columns, int[] fields, String header ) {
+        for ( int field : fields ) {
+            if ( columns[field] < 0 ) {
+                throw new IllegalArgumentException( "Missing required column '" + FIELD_NAMES[field] + "' in header: "
+                        + header );
+            }
+        }
+    }
+
+    private static void alias( int field, String... names ) {
+        for ( String name : names ) {
+            ALIASES.put( name, field );
+        }
+    }
+
+}
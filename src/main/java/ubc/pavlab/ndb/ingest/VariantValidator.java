@@ -0,0 +1,147 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.ingest;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import ubc.pavlab.ndb.dao.GeneDAO;
+import ubc.pavlab.ndb.dao.RowCallback;
+import ubc.pavlab.ndb.harmonize.Location;
+import ubc.pavlab.ndb.model.Gene;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * Checks parsed variants and brings them into the form stored in the database: chromosomes without 'chr' prefix and
+ * with MT for the mitochondrion, upper case alleles, a stop position derived from the reference allele when missing,
+ * and the gene resolved from its symbol or a previous symbol. Instances are immutable once created and may be shared
+ * between threads.
+ * 
+ * @version $Id$
+ */
+public final class VariantValidator {
+
+    private static final Set<String> CHROMOSOMES = new HashSet<>();
+
+    static {
+        for ( int i = 1; i <= 22; i++ ) {
+            CHROMOSOMES.add( Integer.toString( i ) );
+        }
+        CHROMOSOMES.add( "X" );
+        CHROMOSOMES.add( "Y" );
+        CHROMOSOMES.add( "MT" );
+    }
+
+    private static final Pattern ALLELE = Pattern.compile( "[ACGTN]+|-" );
+
+    /**
+     * Genes by upper case symbol or alias; official symbols take precedence over aliases.
+     */
+    private final Map<String, Gene> genes;
+
+    public VariantValidator( Map<String, Gene> genes ) {
+        this.genes = genes;
+    }
+
+    /**
+     * Loads the symbols and aliases of all genes.
+     * 
+     * @param geneDAO The DAO to read genes from.
+     * @return A validator resolving genes by symbol.
+     */
+    public static VariantValidator load( GeneDAO geneDAO ) {
+        final Map<String, Gene> symbols = new HashMap<>();
+        final Map<String, Gene> aliases = new HashMap<>();
+        geneDAO.streamAll( new RowCallback<Gene>() {
+            @Override
+            public void handle( Gene gene ) {
+                if ( gene.getSymbol() != null ) {
+                    symbols.put( gene.getSymbol().toUpperCase(), gene );
+                }
+                if ( gene.getAliases() != null ) {
+                    for ( String alias : gene.getAliases().split( "\\|" ) ) {
+                        if ( !alias.trim().isEmpty() ) {
+                            aliases.put( alias.trim().toUpperCase(), gene );
+                        }
+                    }
+                }
+            }
+        } );
+        aliases.putAll( symbols );
+        return new VariantValidator( aliases );
+    }
+
+    /**
+     * Normalizes the variant in place.
+     * 
+     * @param variant A parsed variant.
+     * @return Null if the variant is valid, otherwise why it is not.
+     */
+    public String validate( Variant variant ) {
+        String chromosome = variant.getChromosome();
+        if ( chromosome == null ) {
+            return "missing chromosome";
+        }
+        chromosome = Location.normalizeChromosome( chromosome );
+        if ( !CHROMOSOMES.contains( chromosome ) ) {
+            return "unknown chromosome " + variant.getChromosome();
+        }
+        variant.setChromosome( chromosome );
+
+        String ref = allele( variant.getRef() );
+        String alt = allele( variant.getAlt() );
+        if ( ref == null || alt == null ) {
+            return "invalid alleles " + variant.getRef() + ">" + variant.getAlt();
+        }
+        variant.setRef( ref );
+        variant.setAlt( alt );
+
+        if ( variant.getStart() <= 0 ) {
+            return "invalid start " + variant.getStart();
+        }
+        if ( variant.getStop() == 0 ) {
+            variant.setStop( variant.getStart() + Math.max( ref.equals( "-" ) ? 1 : ref.length(), 1 ) - 1 );
+        }
+        if ( variant.getStop() < variant.getStart() ) {
+            return "stop " + variant.getStop() + " before start " + variant.getStart();
+        }
+
+        Gene gene = variant.getSymbol() == null ? null : genes.get( variant.getSymbol().toUpperCase() );
+        if ( gene == null ) {
+            return "unknown gene " + variant.getSymbol();
+        }
+        variant.setGeneId( gene.getId() );
+        variant.setSymbol( gene.getSymbol() );
+        return null;
+    }
+
+    private static String allele( String allele ) {
+        if ( allele == null ) {
+            return null;
+        }
+        String upper = allele.toUpperCase();
+        return ALLELE.matcher( upper ).matches() ? upper : null;
+    }
+
+}
@@ -33,6 +33,8 @@ import javax.servlet.ServletContextListener;
 
 import org.apache.log4j.Logger;
 
+import ubc.pavlab.ndb.dao.DAOUtil;
+
 /**
  * 
  * Context finalization to close threads (MySQL memory leak prevention).
@@ -125,6 +127,9 @@ public class ContextFinalizer
     @Override
     public final void contextDestroyed( final ServletContextEvent sce ) {
 
+        // Stop the lookup threads shared by the DAOs.
+        DAOUtil.shutdown();
+
         // Deregister all drivers.
         Enumeration<Driver> drivers = DriverManager.getDrivers();
         while ( drivers.hasMoreElements() ) {
@@ -19,13 +19,32 @@
 
 package ubc.pavlab.ndb.listeners;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionEvent;
 import javax.servlet.http.HttpSessionListener;
 
 import org.apache.log4j.Logger;
 
+import ubc.pavlab.ndb.logging.LogMessage;
+import ubc.pavlab.ndb.utility.MetricsRegistry;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
 /**
- * Listener that logs when sessions are created and destroyed
+ * Listener that logs when sessions are created and destroyed, and counts them in the {@link MetricsRegistry}. Under
+ * crawler traffic these are the most frequent log events; the file appender samples them.
+ * <p>
+ * Also publishes the estimated footprint of all live sessions: the serialized size of the attributes of up to
+ * {@value #FOOTPRINT_SAMPLE} sessions, scaled to the number of live sessions. Computed when metrics are scraped.
  * 
  * @author mjacobson
  * @version $Id$
@@ -34,13 +53,71 @@ public class HttpSessionChecker implements HttpSessionListener {
 
     private static final Logger log = Logger.getLogger( HttpSessionChecker.class );
 
+    private static final LongAdder created = MetricsRegistry.getInstance().counter( "ndb_sessions_created_total" );
+    private static final LongAdder active = new LongAdder();
+
+    private static final int FOOTPRINT_SAMPLE = 50;
+
+    private static final ConcurrentMap<String, HttpSession> sessions = new ConcurrentHashMap<>();
+
+    static {
+        MetricsRegistry.getInstance().gauge( "ndb_sessions_active", active::sum );
+        MetricsRegistry.getInstance().gauge( "ndb_sessions_estimated_bytes",
+                () -> estimateBytes( sessions.values(), FOOTPRINT_SAMPLE ) );
+    }
+
     @Override
     public void sessionCreated( HttpSessionEvent event ) {
-        log.info( String.format( "Session ID %s created", event.getSession().getId() ) );
+        created.increment();
+        active.increment();
+        sessions.put( event.getSession().getId(), event.getSession() );
+        log.info( LogMessage.format( "Session ID %s created", event.getSession().getId() ) );
     }
 
     @Override
     public void sessionDestroyed( HttpSessionEvent event ) {
-        log.info( String.format( "Session ID %s destroyed", event.getSession().getId() ) );
+        active.decrement();
+        sessions.remove( event.getSession().getId() );
+        log.info( LogMessage.format( "Session ID %s destroyed", event.getSession().getId() ) );
+    }
+
+    /**
+     * @return The serialized size of the given sessions, extrapolated from the first ones which can be serialized.
+     */
+    static long estimateBytes( Collection<HttpSession> live, int sample ) {
+        int total = live.size();
+        int measured = 0;
+        long bytes = 0;
+        for ( HttpSession session : live ) {
+            if ( measured == sample ) {
+                break;
+            }
+            long size = serializedSize( session );
+            if ( size >= 0 ) {
+                bytes += size;
+                measured++;
+            }
+        }
+        return measured == 0 ? 0 : bytes * total / measured;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return The number of bytes the attributes of the session take when serialized, or -1 if the session was
+     *         invalidated, holds an attribute which cannot be serialized or was changed by a request meanwhile.
+     */
+    static long serializedSize( HttpSession session ) {
+        CountingOutputStream counter = new CountingOutputStream( ByteStreams.nullOutputStream() );
+        try (ObjectOutputStream out = new ObjectOutputStream( counter )) {
+            for ( Enumeration<String> names = session.getAttributeNames(); names.hasMoreElements(); ) {
+                String name = names.nextElement();
+                out.writeObject( name );
+                out.writeObject( session.getAttribute( name ) );
+            }
+        } catch ( RuntimeException | IOException e ) {
+            // Sessions are read while requests use them, e.g. ConcurrentModificationException from a collection.
+            return -1;
+        }
+        return counter.getCount();
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.listeners;
+
+import javax.faces.component.UIViewRoot;
+import javax.faces.event.PhaseEvent;
+import javax.faces.event.PhaseId;
+import javax.faces.event.PhaseListener;
+
+import ubc.pavlab.ndb.utility.RequestProfile;
+
+/**
+ * Times the JSF lifecycle phases of requests profiled by the {@link ubc.pavlab.ndb.filters.ProfilingFilter}, and
+ * records which view they rendered. Does nothing for requests which are not profiled.
+ * 
+ * @version $Id$
+ */
+public class PhaseTimingListener implements PhaseListener {
+
+    private static final long serialVersionUID = -3916012468843197460L;
+
+    @Override
+    public PhaseId getPhaseId() {
+        return PhaseId.ANY_PHASE;
+    }
+
+    @Override
+    public void beforePhase( PhaseEvent event ) {
+        RequestProfile profile = RequestProfile.current();
+        if ( profile != null ) {
+            profile.phaseStarted( event.getPhaseId().getOrdinal() );
+        }
+    }
+
+    @Override
+    public void afterPhase( PhaseEvent event ) {
+        RequestProfile profile = RequestProfile.current();
+        if ( profile != null ) {
+            profile.phaseEnded( event.getPhaseId().getOrdinal() );
+            UIViewRoot viewRoot = event.getFacesContext().getViewRoot();
+            if ( viewRoot != null ) {
+                profile.setView( viewRoot.getViewId() );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.RollingFileAppender;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+import ubc.pavlab.ndb.utility.MetricsRegistry;
+
+/**
+ * A {@link RollingFileAppender} which never makes the logging thread wait for the file. Events go into a bounded
+ * buffer and a single writer thread appends them in batches, flushing once per batch. Messages are rendered on the
+ * writer thread, so {@link LogMessage}s are formatted there.
+ * <p>
+ * When the buffer is full, events below WARN are dropped and counted; warnings and errors wait for room, unless
+ * <code>Blocking</code> is true, in which case every event waits. Events of the loggers listed in
+ * <code>SampledLoggers</code> (comma separated name prefixes) below WARN are sampled, keeping one in
+ * <code>SampleRate</code>. Dropped events are reported in the log; dropped and sampled out counts are published in
+ * the {@link MetricsRegistry}.
+ * <p>
+ * Location information (<code>%L</code>, <code>%M</code>) is not available, as taking it would cost a stack trace on
+ * the logging thread. Configured like the RollingFileAppender, plus:
+ * 
+ * <pre>
+ * log4j.appender.file.BufferSize = 8192
+ * log4j.appender.file.BatchSize = 512
+ * log4j.appender.file.Blocking = false
+ * log4j.appender.file.SampledLoggers = ubc.pavlab.ndb.listeners.HttpSessionChecker
+ * log4j.appender.file.SampleRate = 100
+ * </pre>
+ * 
+ * @version $Id$
+ */
+public class AsyncRollingFileAppender extends RollingFileAppender {
+
+    private static final long SHUTDOWN_WAIT_MS = 5000;
+
+    private int bufferSize = 8192;
+    private int batchSize = 512;
+    private boolean blocking = false;
+    private String[] sampledLoggers = new String[0];
+    private int sampleRate = 1;
+
+    private BlockingQueue<LoggingEvent> buffer;
+    private Thread writer;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private long droppedReported = 0;
+
+    // Actions ------------------------------------------------------------------------------------
+
+    @Override
+    public void activateOptions() {
+        super.activateOptions();
+        // The writer thread flushes once per batch.
+        setImmediateFlush( false );
+        buffer = new ArrayBlockingQueue<>( bufferSize );
+        writer = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "ndb-log-" + getName() );
+        writer.setDaemon( true );
+        writer.start();
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String label = "{appender=" + MetricsRegistry.label( String.valueOf( getName() ) ) + "}";
+        metrics.gauge( "ndb_log_dropped" + label, dropped::sum );
+        metrics.gauge( "ndb_log_sampled_out" + label, sampledOut::sum );
+        metrics.gauge( "ndb_log_buffered" + label, () -> buffer.size() );
+    }
+
+    /**
+     * Queues the event without taking the appender's lock, unlike {@link org.apache.log4j.AppenderSkeleton}.
+     */
+    @Override
+    public void doAppend( LoggingEvent event ) {
+        if ( closed || buffer == null || !isAsSevereAsThreshold( event.getLevel() ) || !accepted( event ) ) {
+            return;
+        }
+        boolean important = event.getLevel().isGreaterOrEqual( Level.WARN );
+        if ( !important && isSampledOut( event ) ) {
+            sampledOut.increment();
+            return;
+        }
+
+        // Capture what belongs to the logging thread; the message itself is rendered by the writer.
+        event.getThreadName();
+        event.getNDC();
+        event.getMDCCopy();
+
+        if ( blocking || important ) {
+            try {
+                buffer.put( event );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                dropped.increment();
+            }
+        } else if ( !buffer.offer( event ) ) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Writes the buffered events and closes the file. Does not hold the appender's lock while the writer finishes.
+     */
+    @Override
+    public void close() {
+        Thread thread = writer;
+        writer = null;
+        if ( thread != null ) {
+            thread.interrupt();
+            try {
+                thread.join( SHUTDOWN_WAIT_MS );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.close();
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    public void setBufferSize( int bufferSize ) {
+        this.bufferSize = Math.max( 1, bufferSize );
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBatchSize( int batchSize ) {
+        this.batchSize = Math.max( 1, batchSize );
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBlocking( boolean blocking ) {
+        this.blocking = blocking;
+    }
+
+    public boolean getBlocking() {
+        return blocking;
+    }
+
+    public void setSampledLoggers( String sampledLoggers ) {
+        this.sampledLoggers = sampledLoggers == null || sampledLoggers.trim().isEmpty() ? new String[0]
+                : sampledLoggers.trim().split( "\\s*,\\s*" );
+    }
+
+    public void setSampleRate( int sampleRate ) {
+        this.sampleRate = Math.max( 1, sampleRate );
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getSampledOutCount() {
+        return sampledOut.sum();
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private boolean accepted( LoggingEvent event ) {
+        for ( Filter filter = getFirstFilter(); filter != null; filter = filter.getNext() ) {
+            switch ( filter.decide( event ) ) {
+                case Filter.DENY:
+                    return false;
+                case Filter.ACCEPT:
+                    return true;
+                default:
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private boolean isSampledOut( LoggingEvent event ) {
+        if ( sampleRate == 1 || sampledLoggers.length == 0 ) {
+            return false;
+        }
+        String loggerName = event.getLoggerName();
+        for ( String prefix : sampledLoggers ) {
+            if ( loggerName.startsWith( prefix ) ) {
+                return sampleCounter.getAndIncrement() % sampleRate != 0;
+            }
+        }
+        return false;
+    }
+
+    private void writeLoop() {
+        List<LoggingEvent> batch = new ArrayList<>( batchSize );
+        boolean running = true;
+        while ( running ) {
+            try {
+                batch.add( buffer.take() );
+            } catch ( InterruptedException e ) {
+                running = false;
+            }
+            buffer.drainTo( batch, batchSize - batch.size() );
+            write( batch );
+            batch.clear();
+        }
+        // Write what is left before the file is closed.
+        while ( buffer.drainTo( batch, batchSize ) > 0 ) {
+            write( batch );
+            batch.clear();
+        }
+    }
+
+    private void write( List<LoggingEvent> batch ) {
+        synchronized ( this ) {
+            if ( closed ) {
+                return;
+            }
+            for ( LoggingEvent event : batch ) {
+                append( event );
+            }
+            reportDropped();
+            if ( qw != null ) {
+                qw.flush();
+            }
+        }
+    }
+
+    /**
+     * Writes how many events were dropped since the last report.
+     */
+    private void reportDropped() {
+        long droppedNow = dropped.sum();
+        if ( droppedNow > droppedReported ) {
+            append( new LoggingEvent( AsyncRollingFileAppender.class.getName(), Logger
+                    .getLogger( AsyncRollingFileAppender.class ), Level.WARN, "Log buffer full, dropped "
+                    + ( droppedNow - droppedReported ) + " events", null ) );
+            droppedReported = droppedNow;
+        }
+    }
+
+}
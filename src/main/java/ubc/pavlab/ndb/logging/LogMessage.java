@@ -0,0 +1,60 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.logging;
+
+/**
+ * A log message formatted only when it is written. Passing one to a disabled level costs an allocation and no
+ * formatting; with the {@link AsyncRollingFileAppender} the formatting happens on the writer thread. The arguments must
+ * not change after the call.
+ * 
+ * <pre>
+ * log.debug( LogMessage.format( "Session ID %s created", session.getId() ) );
+ * </pre>
+ * 
+ * @version $Id$
+ */
+public final class LogMessage {
+
+    private final String format;
+    private final Object[] args;
+    private String formatted;
+
+    private LogMessage( String format, Object[] args ) {
+        this.format = format;
+        this.args = args;
+    }
+
+    /**
+     * @return A message formatted with {@link String#format(String, Object...)} when it is written.
+     */
+    public static LogMessage format( String format, Object... args ) {
+        return new LogMessage( format, args );
+    }
+
+    @Override
+    public String toString() {
+        if ( formatted == null ) {
+            formatted = String.format( format, args );
+        }
+        return formatted;
+    }
+
+}
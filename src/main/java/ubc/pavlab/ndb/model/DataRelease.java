@@ -0,0 +1,82 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A version of the data set. Every load of new or corrected data adds a release.
+ * 
+ * @version $Id$
+ */
+public class DataRelease implements Serializable {
+
+    private static final long serialVersionUID = 4815320915711457230L;
+
+    private int id;
+    private String version;
+    private Date released;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId( int id ) {
+        this.id = id;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion( String version ) {
+        this.version = version;
+    }
+
+    public Date getReleased() {
+        return released;
+    }
+
+    public void setReleased( Date released ) {
+        this.released = released;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 + id;
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if ( this == obj ) return true;
+        if ( obj == null ) return false;
+        if ( getClass() != obj.getClass() ) return false;
+        DataRelease other = ( DataRelease ) obj;
+        return id == other.id;
+    }
+
+    @Override
+    public String toString() {
+        return "DataRelease [id=" + id + ", version=" + version + ", released=" + released + "]";
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.model;
+
+import java.io.Serializable;
+
+/**
+ * A gene with its official symbol and previous or alternative symbols.
+ * 
+ * @version $Id$
+ */
+public class Gene implements Serializable {
+
+    private static final long serialVersionUID = 6305713219374520183L;
+
+    private int id;
+    private String symbol;
+    private String name;
+    private String aliases;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId( int id ) {
+        this.id = id;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol( String symbol ) {
+        this.symbol = symbol;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName( String name ) {
+        this.name = name;
+    }
+
+    /**
+     * @return Alternative symbols separated by '|', as stored in the database, or null.
+     */
+    public String getAliases() {
+        return aliases;
+    }
+
+    public void setAliases( String aliases ) {
+        this.aliases = aliases;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 + id;
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if ( this == obj ) return true;
+        if ( obj == null ) return false;
+        if ( getClass() != obj.getClass() ) return false;
+        Gene other = ( Gene ) obj;
+        return id == other.id;
+    }
+
+    @Override
+    public String toString() {
+        return "Gene [id=" + id + ", symbol=" + symbol + "]";
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.model;
+
+import java.io.Serializable;
+
+/**
+ * A peer-reviewed publication reporting variants.
+ * 
+ * @version $Id$
+ */
+public class Paper implements Serializable {
+
+    private static final long serialVersionUID = -801244316207372645L;
+
+    private int id;
+    private int pubmedId;
+    private String author;
+    private String title;
+    private int year;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId( int id ) {
+        this.id = id;
+    }
+
+    public int getPubmedId() {
+        return pubmedId;
+    }
+
+    public void setPubmedId( int pubmedId ) {
+        this.pubmedId = pubmedId;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public void setAuthor( String author ) {
+        this.author = author;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle( String title ) {
+        this.title = title;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public void setYear( int year ) {
+        this.year = year;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 + id;
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if ( this == obj ) return true;
+        if ( obj == null ) return false;
+        if ( getClass() != obj.getClass() ) return false;
+        Paper other = ( Paper ) obj;
+        return id == other.id;
+    }
+
+    @Override
+    public String toString() {
+        return "Paper [id=" + id + ", pubmedId=" + pubmedId + ", author=" + author + ", year=" + year + "]";
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.model;
+
+import java.io.Serializable;
+
+/**
+ * A harmonized variant as reported by a paper. Coordinates are 1-based and inclusive.
+ * 
+ * @version $Id$
+ */
+public class Variant implements Serializable {
+
+    private static final long serialVersionUID = -3148962145390472915L;
+
+    private int id;
+    private int paperId;
+    private int geneId;
+    private String symbol;
+    private String chromosome;
+    private long start;
+    private long stop;
+    private String ref;
+    private String alt;
+    private String category;
+    private String func;
+    private String cdnaChange;
+    private String aaChange;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId( int id ) {
+        this.id = id;
+    }
+
+    public int getPaperId() {
+        return paperId;
+    }
+
+    public void setPaperId( int paperId ) {
+        this.paperId = paperId;
+    }
+
+    public int getGeneId() {
+        return geneId;
+    }
+
+    public void setGeneId( int geneId ) {
+        this.geneId = geneId;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol( String symbol ) {
+        this.symbol = symbol;
+    }
+
+    public String getChromosome() {
+        return chromosome;
+    }
+
+    public void setChromosome( String chromosome ) {
+        this.chromosome = chromosome;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart( long start ) {
+        this.start = start;
+    }
+
+    public long getStop() {
+        return stop;
+    }
+
+    public void setStop( long stop ) {
+        this.stop = stop;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public void setRef( String ref ) {
+        this.ref = ref;
+    }
+
+    public String getAlt() {
+        return alt;
+    }
+
+    public void setAlt( String alt ) {
+        this.alt = alt;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory( String category ) {
+        this.category = category;
+    }
+
+    public String getFunc() {
+        return func;
+    }
+
+    public void setFunc( String func ) {
+        this.func = func;
+    }
+
+    public String getCdnaChange() {
+        return cdnaChange;
+    }
+
+    public void setCdnaChange( String cdnaChange ) {
+        this.cdnaChange = cdnaChange;
+    }
+
+    public String getAaChange() {
+        return aaChange;
+    }
+
+    public void setAaChange( String aaChange ) {
+        this.aaChange = aaChange;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 + id;
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if ( this == obj ) return true;
+        if ( obj == null ) return false;
+        if ( getClass() != obj.getClass() ) return false;
+        Variant other = ( Variant ) obj;
+        return id == other.id;
+    }
+
+    @Override
+    public String toString() {
+        return "Variant [id=" + id + ", symbol=" + symbol + ", chromosome=" + chromosome + ", start=" + start
+                + ", stop=" + stop + ", ref=" + ref + ", alt=" + alt + "]";
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.servlets;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import ubc.pavlab.ndb.beans.AutocompleteBean;
+import ubc.pavlab.ndb.utility.AutocompleteIndex.Suggestion;
+
+/**
+ * JSON endpoint for type-ahead search, <code>/api/autocomplete?q=scn&amp;limit=10</code>, answered from
+ * {@link AutocompleteBean} without going through the JSF lifecycle or touching the session. Responds with
+ * <code>{"query": "scn", "suggestions": [{"label": "SCN2A", "type": "GENE", "id": 6326}, ...]}</code>.
+ * 
+ * @version $Id$
+ */
+public class AutocompleteServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 5137069434788416427L;
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_QUERY_LENGTH = 100;
+
+    /**
+     * Suggestions only change with the data, let browsers reuse them for a while.
+     */
+    private static final String CACHE_CONTROL = "public, max-age=300";
+
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws ServletException,
+            IOException {
+        AutocompleteBean autocompleteBean = ( AutocompleteBean ) getServletContext().getAttribute(
+                "autocompleteBean" );
+        if ( autocompleteBean == null ) {
+            response.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+            return;
+        }
+
+        String query = request.getParameter( "q" );
+        if ( query == null || query.length() > MAX_QUERY_LENGTH ) {
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST );
+            return;
+        }
+        int limit = parseLimit( request.getParameter( "limit" ) );
+
+        List<Suggestion> suggestions = autocompleteBean.suggest( query, limit );
+        JSONArray results = new JSONArray();
+        for ( Suggestion suggestion : suggestions ) {
+            JSONObject result = new JSONObject();
+            result.put( "label", suggestion.getLabel() );
+            result.put( "type", suggestion.getType().name() );
+            result.put( "id", suggestion.getId() );
+            results.put( result );
+        }
+        JSONObject json = new JSONObject();
+        json.put( "query", query );
+        json.put( "suggestions", results );
+
+        response.setContentType( "application/json" );
+        response.setCharacterEncoding( "UTF-8" );
+        response.setHeader( "Cache-Control", CACHE_CONTROL );
+        json.write( response.getWriter() );
+    }
+
+    static int parseLimit( String limit ) {
+        if ( limit == null ) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            return Math.max( 1, Math.min( Integer.parseInt( limit ), AutocompleteBean.MAX_RESULTS ) );
+        } catch ( NumberFormatException e ) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+}
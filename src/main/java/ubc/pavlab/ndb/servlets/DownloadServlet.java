@@ -0,0 +1,435 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.servlets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.beans.ApplicationProperties;
+import ubc.pavlab.ndb.beans.DAOFactoryBean;
+import ubc.pavlab.ndb.beans.DataReleaseBean;
+import ubc.pavlab.ndb.dao.VariantDAO;
+import ubc.pavlab.ndb.utility.ConditionalRequests;
+import ubc.pavlab.ndb.utility.VariantExporter;
+import ubc.pavlab.ndb.utility.VariantExporter.Format;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Serves bulk downloads of the complete variant collection as gzip compressed TSV or VCF, under
+ * <code>/download/variants.tsv.gz</code> and <code>/download/variants.vcf.gz</code>.
+ * <p>
+ * When a snapshot file of the requested format exists for the current data release in the downloads directory
+ * (property <code>ndb.downloads.dir</code>, by default the container's temporary directory) it is served as is, with
+ * <code>ETag</code>, <code>Last-Modified</code> and single byte range support. On Tomcat the file is handed to the
+ * connector through sendfile, which transfers it from the page cache without involving any application thread;
+ * elsewhere it is copied by a download worker. When no snapshot exists yet, the data is streamed from a database
+ * cursor while a snapshot is built in the background for subsequent requests. Snapshots of previous releases are
+ * deleted once the new one is in place.
+ * <p>
+ * Request threads are released immediately through asynchronous processing; copying and streaming happen on a bounded
+ * pool of download workers (init-param <code>workers</code>, default 4), and requests beyond what the pool can queue
+ * are turned away with 503.
+ * 
+ * @version $Id$
+ */
+public class DownloadServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -2714533389284512398L;
+
+    private static final Logger log = Logger.getLogger( DownloadServlet.class );
+
+    private static final String PROPERTY_DOWNLOADS_DIR = "ndb.downloads.dir";
+
+    private static final String INIT_PARAM_WORKERS = "workers";
+    private static final String INIT_PARAM_QUEUE = "queue";
+    private static final String INIT_PARAM_TIMEOUT_MS = "timeoutMs";
+    private static final int DEFAULT_WORKERS = 4;
+    private static final int DEFAULT_QUEUE = 16;
+    private static final long DEFAULT_TIMEOUT_MS = TimeUnit.HOURS.toMillis( 2 );
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String RETRY_AFTER_SECONDS = "60";
+
+    private transient ThreadPoolExecutor workers;
+    private transient ConcurrentMap<Format, Boolean> snapshotsInProgress;
+    private long timeoutMs;
+
+    @Override
+    public void init() throws ServletException {
+        int workerCount = intInitParameter( INIT_PARAM_WORKERS, DEFAULT_WORKERS );
+        int queueSize = intInitParameter( INIT_PARAM_QUEUE, DEFAULT_QUEUE );
+        String timeout = getInitParameter( INIT_PARAM_TIMEOUT_MS );
+        timeoutMs = timeout == null ? DEFAULT_TIMEOUT_MS : Long.parseLong( timeout );
+
+        workers = new ThreadPoolExecutor( workerCount, workerCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>( queueSize ), new ThreadFactoryBuilder().setDaemon( true )
+                        .setNameFormat( "ndb-download-%d" ).build() );
+        workers.allowCoreThreadTimeOut( true );
+        snapshotsInProgress = new ConcurrentHashMap<>();
+        log.info( "DownloadServlet init (workers: " + workerCount + ", queue: " + queueSize + ")" );
+    }
+
+    @Override
+    public void destroy() {
+        log.info( "DownloadServlet destroy" );
+        workers.shutdownNow();
+    }
+
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws ServletException,
+            IOException {
+        serve( request, response, true );
+    }
+
+    @Override
+    protected void doHead( HttpServletRequest request, HttpServletResponse response ) throws ServletException,
+            IOException {
+        serve( request, response, false );
+    }
+
+    private void serve( HttpServletRequest request, HttpServletResponse response, boolean content )
+            throws IOException {
+        String pathInfo = request.getPathInfo();
+        Format format = pathInfo == null ? null : Format.forFileName( pathInfo.substring( 1 ) );
+        if ( format == null ) {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        DAOFactoryBean daoFactoryBean = ( DAOFactoryBean ) getServletContext().getAttribute( "daoFactoryBean" );
+        File directory = getDownloadsDirectory();
+        if ( daoFactoryBean == null || directory == null ) {
+            response.setHeader( "Retry-After", RETRY_AFTER_SECONDS );
+            response.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+            return;
+        }
+
+        response.setContentType( VariantExporter.CONTENT_TYPE );
+        response.setHeader( "Content-Disposition", "attachment; filename=\"" + format.getFileName() + "\"" );
+
+        File snapshot = new File( directory, snapshotPrefix( format ) + getReleaseVersion() );
+        if ( snapshot.isFile() ) {
+            serveSnapshot( request, response, snapshot, content );
+        } else {
+            VariantDAO variantDAO = daoFactoryBean.getDAOFactory().getVariantDAO();
+            buildSnapshot( variantDAO, format, snapshot );
+            if ( content ) {
+                stream( request, response, variantDAO, format );
+            }
+        }
+    }
+
+    private void serveSnapshot( HttpServletRequest request, HttpServletResponse response, final File snapshot,
+            boolean content ) throws IOException {
+        long length = snapshot.length();
+        long lastModified = snapshot.lastModified();
+        String eTag = eTag( length, lastModified );
+
+        response.setHeader( "Accept-Ranges", "bytes" );
+        response.setHeader( "ETag", eTag );
+        response.setDateHeader( "Last-Modified", lastModified );
+
+        if ( ConditionalRequests.isNotModified( request, eTag, lastModified ) ) {
+            response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+            return;
+        }
+
+        ByteRange range = null;
+        long ifRangeDate = ConditionalRequests.dateHeader( request, "If-Range" );
+        if ( isRangeApplicable( request.getHeader( "If-Range" ), ifRangeDate, eTag, lastModified ) ) {
+            range = ByteRange.parse( request.getHeader( "Range" ), length );
+        }
+        if ( range == ByteRange.UNSATISFIABLE ) {
+            response.setHeader( "Content-Range", "bytes */" + length );
+            response.sendError( HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE );
+            return;
+        }
+        if ( range == null ) {
+            range = new ByteRange( 0, length - 1 );
+        } else {
+            response.setStatus( HttpServletResponse.SC_PARTIAL_CONTENT );
+            response.setHeader( "Content-Range", "bytes " + range.start + "-" + range.end + "/" + length );
+        }
+        setContentLength( response, range.length() );
+
+        if ( !content || range.length() == 0 ) {
+            return;
+        }
+
+        if ( Boolean.TRUE.equals( request.getAttribute( SENDFILE_SUPPORT ) ) ) {
+            request.setAttribute( SENDFILE_FILENAME, snapshot.getAbsolutePath() );
+            request.setAttribute( SENDFILE_START, range.start );
+            request.setAttribute( SENDFILE_END, range.end + 1 );
+            return;
+        }
+
+        final ByteRange transfer = range;
+        dispatch( request, response, new Task() {
+            @Override
+            public void run( HttpServletResponse response ) throws IOException {
+                try (FileChannel in = FileChannel.open( snapshot.toPath(), StandardOpenOption.READ )) {
+                    WritableByteChannel out = Channels.newChannel( response.getOutputStream() );
+                    long position = transfer.start;
+                    long remaining = transfer.length();
+                    while ( remaining > 0 ) {
+                        long written = in.transferTo( position, remaining, out );
+                        if ( written <= 0 ) {
+                            throw new IOException( "Snapshot " + snapshot + " was truncated during transfer" );
+                        }
+                        position += written;
+                        remaining -= written;
+                    }
+                }
+            }
+        } );
+    }
+
+    private void stream( HttpServletRequest request, HttpServletResponse response, final VariantDAO variantDAO,
+            final Format format ) throws IOException {
+        dispatch( request, response, new Task() {
+            @Override
+            public void run( HttpServletResponse response ) throws IOException {
+                OutputStream out = response.getOutputStream();
+                long rows = VariantExporter.export( variantDAO, format, out );
+                out.flush();
+                log.debug( "Streamed " + rows + " variants as " + format );
+            }
+        } );
+    }
+
+    private void buildSnapshot( final VariantDAO variantDAO, final Format format, final File snapshot ) {
+        if ( snapshotsInProgress.putIfAbsent( format, Boolean.TRUE ) != null ) {
+            return;
+        }
+        try {
+            workers.execute( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        VariantExporter.writeSnapshot( variantDAO, format, snapshot );
+                        deleteOtherSnapshots( format, snapshot );
+                    } catch ( Exception e ) {
+                        log.error( "Building " + format + " snapshot failed", e );
+                    } finally {
+                        snapshotsInProgress.remove( format );
+                    }
+                }
+            } );
+        } catch ( RejectedExecutionException e ) {
+            snapshotsInProgress.remove( format );
+            log.warn( "Download workers busy, " + format + " snapshot will be built on a later request" );
+        }
+    }
+
+    /**
+     * Releases the request thread and runs the task on a download worker.
+     */
+    private void dispatch( HttpServletRequest request, HttpServletResponse response, final Task task )
+            throws IOException {
+        final AsyncContext asyncContext = request.startAsync( request, response );
+        asyncContext.setTimeout( timeoutMs );
+        try {
+            workers.execute( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run( ( HttpServletResponse ) asyncContext.getResponse() );
+                    } catch ( IOException e ) {
+                        // Most likely the client went away.
+                        log.debug( "Download aborted: " + e.getMessage() );
+                    } catch ( RuntimeException e ) {
+                        log.error( "Download failed", e );
+                    } finally {
+                        try {
+                            asyncContext.complete();
+                        } catch ( IllegalStateException e ) {
+                            // Already completed by the container, e.g. after a timeout.
+                        }
+                    }
+                }
+            } );
+        } catch ( RejectedExecutionException e ) {
+            HttpServletResponse asyncResponse = ( HttpServletResponse ) asyncContext.getResponse();
+            asyncResponse.reset();
+            asyncResponse.setHeader( "Retry-After", RETRY_AFTER_SECONDS );
+            asyncResponse.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+            asyncContext.complete();
+        }
+    }
+
+    private void deleteOtherSnapshots( Format format, File current ) {
+        File[] files = current.getParentFile().listFiles();
+        if ( files == null ) {
+            return;
+        }
+        for ( File file : files ) {
+            if ( file.getName().startsWith( snapshotPrefix( format ) ) && !file.equals( current ) ) {
+                if ( file.delete() ) {
+                    log.info( "Deleted outdated snapshot " + file );
+                } else {
+                    log.warn( "Could not delete outdated snapshot " + file );
+                }
+            }
+        }
+    }
+
+    private static String snapshotPrefix( Format format ) {
+        return format.getFileName() + ".release-";
+    }
+
+    private String getReleaseVersion() {
+        DataReleaseBean dataReleaseBean = ( DataReleaseBean ) getServletContext().getAttribute( "dataReleaseBean" );
+        return dataReleaseBean == null ? "0" : dataReleaseBean.getVersion();
+    }
+
+    private File getDownloadsDirectory() {
+        ApplicationProperties properties = ( ApplicationProperties ) getServletContext().getAttribute(
+                "applicationProperties" );
+        String path = properties == null ? null : properties.getProperty( PROPERTY_DOWNLOADS_DIR );
+        File directory = path != null ? new File( path ) : ( File ) getServletContext().getAttribute(
+                "javax.servlet.context.tempdir" );
+        if ( directory == null || !( directory.isDirectory() || directory.mkdirs() ) ) {
+            log.error( "Downloads directory " + directory + " is not available" );
+            return null;
+        }
+        return directory;
+    }
+
+    private int intInitParameter( String name, int defaultValue ) {
+        String value = getInitParameter( name );
+        return value == null ? defaultValue : Integer.parseInt( value );
+    }
+
+    private static void setContentLength( HttpServletResponse response, long length ) {
+        // setContentLength(int) cannot express files over 2GB on Servlet 3.0.
+        response.setHeader( "Content-Length", Long.toString( length ) );
+    }
+
+    static String eTag( long length, long lastModified ) {
+        return "\"" + Long.toHexString( length ) + "-" + Long.toHexString( lastModified ) + "\"";
+    }
+
+    /**
+     * @return True if a Range header may be honoured, that is when If-Range is absent or still matches the file.
+     */
+    static boolean isRangeApplicable( String ifRange, long ifRangeDate, String eTag, long lastModified ) {
+        if ( ifRange == null ) {
+            return true;
+        }
+        if ( ifRange.startsWith( "\"" ) ) {
+            return ifRange.equals( eTag );
+        }
+        return ifRangeDate != -1 && lastModified / 1000 == ifRangeDate / 1000;
+    }
+
+    /**
+     * Work performed on a download worker, with the response of the asynchronous request.
+     */
+    private interface Task {
+        void run( HttpServletResponse response ) throws IOException;
+    }
+
+    /**
+     * An inclusive range of bytes.
+     */
+    static final class ByteRange {
+
+        static final ByteRange UNSATISFIABLE = new ByteRange( -1, -1 );
+
+        final long start;
+        final long end;
+
+        ByteRange( long start, long end ) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        /**
+         * Parses a single range "bytes=first-last", "bytes=first-" or "bytes=-suffix". Missing, malformed and
+         * multi-range headers yield null, meaning the whole file is served; ranges that start beyond the end of the
+         * file yield {@link #UNSATISFIABLE}.
+         */
+        static ByteRange parse( String header, long length ) {
+            if ( header == null || !header.startsWith( "bytes=" ) || header.indexOf( ',' ) >= 0 ) {
+                return null;
+            }
+            String spec = header.substring( "bytes=".length() ).trim();
+            int dash = spec.indexOf( '-' );
+            if ( dash < 0 ) {
+                return null;
+            }
+            try {
+                String first = spec.substring( 0, dash ).trim();
+                String last = spec.substring( dash + 1 ).trim();
+                if ( first.isEmpty() ) {
+                    if ( last.isEmpty() ) {
+                        return null;
+                    }
+                    long suffix = Long.parseLong( last );
+                    if ( suffix <= 0 || length == 0 ) {
+                        return UNSATISFIABLE;
+                    }
+                    return new ByteRange( Math.max( 0, length - suffix ), length - 1 );
+                }
+                long start = Long.parseLong( first );
+                long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong( last );
+                if ( start < 0 || end < start ) {
+                    return null;
+                }
+                if ( start >= length ) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange( start, Math.min( end, length - 1 ) );
+            } catch ( NumberFormatException e ) {
+                return null;
+            }
+        }
+    }
+
+}
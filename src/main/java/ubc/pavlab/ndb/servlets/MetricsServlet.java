@@ -0,0 +1,204 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.servlets;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.beans.DAOFactoryBean;
+import ubc.pavlab.ndb.dao.InstrumentedDAOFactory;
+import ubc.pavlab.ndb.dao.QueryStats;
+import ubc.pavlab.ndb.filters.ProfilingFilter;
+import ubc.pavlab.ndb.utility.MetricsRegistry;
+
+/**
+ * Serves a snapshot of the {@link MetricsRegistry} under <code>/metrics</code>, in the Prometheus text format or, with
+ * <code>?format=json</code> or an <code>Accept: application/json</code> header, as JSON. Besides what the application
+ * records (requests, sessions, connection pool, caches, async DAO), the snapshot holds heap, GC and thread numbers of
+ * the JVM and the latency of every SQL template seen by the {@link InstrumentedDAOFactory}.
+ * <p>
+ * Posting <code>profiling=on</code> or <code>profiling=off</code> switches the {@link ProfilingFilter}.
+ * <p>
+ * SQL and internals are exposed, so requests are only served if they come from an address in the init-param
+ * <code>allow</code> (comma separated, <code>*</code> for any) or carry the init-param <code>token</code> as
+ * <code>Authorization: Bearer &lt;token&gt;</code>. Neither is set by default, so nothing is served until one is
+ * configured. Loopback addresses are not trusted implicitly: behind a reverse proxy on the same host every request
+ * appears to come from them.
+ * 
+ * @version $Id$
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -6310781627386532045L;
+
+    private static final Logger log = Logger.getLogger( MetricsServlet.class );
+
+    private static final String INIT_PARAM_ALLOW = "allow";
+    private static final String INIT_PARAM_TOKEN = "token";
+    private static final String ALLOW_ANY = "*";
+    private static final String BEARER = "Bearer ";
+
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+    private static final String JSON_CONTENT_TYPE = "application/json";
+
+    private transient Set<String> allowed;
+    private transient String token;
+
+    @Override
+    public void init() throws ServletException {
+        allowed = parseAllowed( getInitParameter( INIT_PARAM_ALLOW ) );
+        token = getInitParameter( INIT_PARAM_TOKEN );
+        if ( token != null && token.trim().isEmpty() ) {
+            token = null;
+        }
+        if ( allowed.isEmpty() && token == null ) {
+            log.warn( "Metrics are not served: neither init-param '" + INIT_PARAM_ALLOW + "' nor '" + INIT_PARAM_TOKEN
+                    + "' is set" );
+        }
+        registerJvmMetrics( MetricsRegistry.getInstance() );
+    }
+
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws ServletException,
+            IOException {
+        if ( !isAuthorized( allowed, token, request.getRemoteAddr(), request.getHeader( "Authorization" ) ) ) {
+            response.sendError( HttpServletResponse.SC_FORBIDDEN );
+            return;
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        DAOFactoryBean daoFactoryBean = ( DAOFactoryBean ) getServletContext().getAttribute( "daoFactoryBean" );
+        if ( daoFactoryBean != null && daoFactoryBean.getInstrumentation() != null ) {
+            registerQueryMetrics( metrics, daoFactoryBean.getInstrumentation() );
+        }
+
+        response.setHeader( "Cache-Control", "no-cache" );
+        String accept = request.getHeader( "Accept" );
+        if ( "json".equals( request.getParameter( "format" ) ) || accept != null
+                && accept.contains( JSON_CONTENT_TYPE ) ) {
+            response.setContentType( JSON_CONTENT_TYPE );
+            response.setCharacterEncoding( "UTF-8" );
+            PrintWriter writer = response.getWriter();
+            writer.write( metrics.toJson().toString() );
+        } else {
+            response.setContentType( PROMETHEUS_CONTENT_TYPE );
+            metrics.writePrometheus( response.getWriter() );
+        }
+    }
+
+    /**
+     * Switches request profiling on or off with <code>profiling=on|off</code>.
+     */
+    @Override
+    protected void doPost( HttpServletRequest request, HttpServletResponse response ) throws ServletException,
+            IOException {
+        if ( !isAuthorized( allowed, token, request.getRemoteAddr(), request.getHeader( "Authorization" ) ) ) {
+            response.sendError( HttpServletResponse.SC_FORBIDDEN );
+            return;
+        }
+        String profiling = request.getParameter( "profiling" );
+        if ( "on".equals( profiling ) || "off".equals( profiling ) ) {
+            ProfilingFilter.setEnabled( "on".equals( profiling ) );
+            response.setStatus( HttpServletResponse.SC_NO_CONTENT );
+        } else {
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST );
+        }
+    }
+
+    /**
+     * @param allow The comma separated addresses, or null.
+     * @return The allowed addresses, empty if none.
+     */
+    static Set<String> parseAllowed( String allow ) {
+        if ( allow == null || allow.trim().isEmpty() ) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>( Arrays.asList( allow.trim().split( "\\s*,\\s*" ) ) );
+    }
+
+    /**
+     * @param allowed The addresses served without a token.
+     * @param token The token which is served from any address, or null if none.
+     * @param remoteAddr The address of the request.
+     * @param authorization The Authorization header of the request, or null.
+     * @return Whether the request may be served.
+     */
+    static boolean isAuthorized( Set<String> allowed, String token, String remoteAddr, String authorization ) {
+        if ( allowed.contains( ALLOW_ANY ) || allowed.contains( remoteAddr ) ) {
+            return true;
+        }
+        if ( token == null || authorization == null || !authorization.startsWith( BEARER ) ) {
+            return false;
+        }
+        // Constant time, so the token cannot be guessed from response times.
+        return MessageDigest.isEqual( token.getBytes( StandardCharsets.UTF_8 ),
+                authorization.substring( BEARER.length() ).trim().getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Publishes the statistics of SQL templates seen since the last scrape; templates seen before are already
+     * registered and keep updating.
+     */
+    private static void registerQueryMetrics( MetricsRegistry metrics, InstrumentedDAOFactory instrumentation ) {
+        for ( final QueryStats stats : instrumentation.getQueryStats() ) {
+            String label = "{template=" + MetricsRegistry.label( stats.getTemplate() ) + "}";
+            metrics.register( "ndb_query_seconds" + label, stats.getLatency() );
+            metrics.gauge( "ndb_query_rows" + label, stats::getRows );
+            metrics.gauge( "ndb_query_errors" + label, stats::getErrors );
+        }
+    }
+
+    private static void registerJvmMetrics( MetricsRegistry metrics ) {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        metrics.gauge( "jvm_memory_bytes{area=\"heap\",kind=\"used\"}", () -> memory.getHeapMemoryUsage().getUsed() );
+        metrics.gauge( "jvm_memory_bytes{area=\"heap\",kind=\"committed\"}",
+                () -> memory.getHeapMemoryUsage().getCommitted() );
+        metrics.gauge( "jvm_memory_bytes{area=\"heap\",kind=\"max\"}", () -> memory.getHeapMemoryUsage().getMax() );
+        metrics.gauge( "jvm_memory_bytes{area=\"nonheap\",kind=\"used\"}",
+                () -> memory.getNonHeapMemoryUsage().getUsed() );
+
+        for ( final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() ) {
+            String label = "{gc=" + MetricsRegistry.label( gc.getName() ) + "}";
+            metrics.gauge( "jvm_gc_collections" + label, gc::getCollectionCount );
+            metrics.gauge( "jvm_gc_collection_seconds" + label, () -> gc.getCollectionTime() / 1000.0 );
+        }
+
+        metrics.gauge( "jvm_threads_live", ManagementFactory.getThreadMXBean()::getThreadCount );
+        metrics.gauge( "jvm_uptime_seconds", () -> ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0 );
+    }
+
+}
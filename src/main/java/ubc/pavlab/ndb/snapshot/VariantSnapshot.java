@@ -0,0 +1,409 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only view of a columnar variant snapshot written by {@link VariantSnapshotWriter}. The file is memory-mapped,
+ * so its columns live in the page cache rather than on the heap, and columns are read with absolute accessors that
+ * create no objects per row. Instances are thread safe.
+ * <p>
+ * The file layout, all numbers big-endian:
+ * 
+ * <pre>
+ * magic "NDBSNAP1", int format version, int row count, long creation time, string data version,
+ * int column count, per column: string name, byte type, byte width, long data offset, long dictionary offset,
+ * column sections, each aligned to 8 bytes:
+ *   INT and LONG columns: row count values
+ *   DICTIONARY columns: int value count, values as strings, then row count codes of 1, 2 or 4 bytes
+ * strings are an int byte length, -1 for null, followed by UTF-8 bytes
+ * </pre>
+ * 
+ * Closing the snapshot releases the file; the mapping itself is released when it is garbage collected, so columns
+ * obtained earlier remain readable.
+ * 
+ * @version $Id$
+ */
+public final class VariantSnapshot implements AutoCloseable {
+
+    static final byte[] MAGIC = "NDBSNAP1".getBytes( StandardCharsets.US_ASCII );
+    static final int FORMAT_VERSION = 1;
+
+    static final byte TYPE_INT = 1;
+    static final byte TYPE_LONG = 2;
+    static final byte TYPE_DICTIONARY = 3;
+
+    public static final String ID = "id";
+    public static final String PAPER_ID = "paper_id";
+    public static final String GENE_ID = "gene_id";
+    public static final String START = "start";
+    public static final String STOP = "stop";
+    public static final String CHROMOSOME = "chromosome";
+    public static final String SYMBOL = "symbol";
+    public static final String CATEGORY = "category";
+    public static final String FUNC = "func";
+
+    /**
+     * Sparse integer keys above this are counted in a map instead of an array indexed by key.
+     */
+    private static final int MAX_DENSE_KEY = 1 << 22;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int rows;
+    private final long created;
+    private final String dataVersion;
+    private final Map<String, ColumnInfo> columns;
+
+    private VariantSnapshot( File file, FileChannel channel, MappedByteBuffer buffer ) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+
+        ByteBuffer header = buffer.duplicate();
+        byte[] magic = new byte[MAGIC.length];
+        header.get( magic );
+        for ( int i = 0; i < MAGIC.length; i++ ) {
+            if ( magic[i] != MAGIC[i] ) {
+                throw new IOException( file + " is not a variant snapshot" );
+            }
+        }
+        int formatVersion = header.getInt();
+        if ( formatVersion != FORMAT_VERSION ) {
+            throw new IOException( file + " has snapshot format " + formatVersion + ", expected " + FORMAT_VERSION );
+        }
+        this.rows = header.getInt();
+        this.created = header.getLong();
+        this.dataVersion = readString( header );
+        int columnCount = header.getInt();
+        Map<String, ColumnInfo> columns = new LinkedHashMap<>();
+        for ( int i = 0; i < columnCount; i++ ) {
+            String name = readString( header );
+            byte type = header.get();
+            byte width = header.get();
+            long dataOffset = header.getLong();
+            long dictionaryOffset = header.getLong();
+            columns.put( name, new ColumnInfo( type, width, checkOffset( dataOffset ), dictionaryOffset ) );
+        }
+        this.columns = Collections.unmodifiableMap( columns );
+    }
+
+    /**
+     * Maps the given snapshot file.
+     * 
+     * @param file The snapshot file.
+     * @return The open snapshot.
+     * @throws IOException If the file cannot be read or is not a snapshot of the supported format.
+     */
+    public static VariantSnapshot open( File file ) throws IOException {
+        FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+        try {
+            if ( channel.size() > Integer.MAX_VALUE ) {
+                throw new IOException( file + " is too large to be mapped in one piece" );
+            }
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            return new VariantSnapshot( file, channel, buffer );
+        } catch ( IOException | RuntimeException e ) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of variants in the snapshot.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return When the snapshot was written, in milliseconds since the epoch.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return The version of the data the snapshot was written from.
+     */
+    public String getDataVersion() {
+        return dataVersion;
+    }
+
+    public IntColumn getIntColumn( String name ) {
+        return new IntColumn( buffer, column( name, TYPE_INT ).dataOffset, rows );
+    }
+
+    public LongColumn getLongColumn( String name ) {
+        return new LongColumn( buffer, column( name, TYPE_LONG ).dataOffset, rows );
+    }
+
+    public DictionaryColumn getDictionaryColumn( String name ) {
+        ColumnInfo info = column( name, TYPE_DICTIONARY );
+        ByteBuffer dictionary = buffer.duplicate();
+        dictionary.position( ( int ) info.dictionaryOffset );
+        String[] values = new String[dictionary.getInt()];
+        for ( int i = 0; i < values.length; i++ ) {
+            values[i] = readString( dictionary );
+        }
+        return new DictionaryColumn( buffer, info.dataOffset, info.width, rows, values );
+    }
+
+    // Aggregates ---------------------------------------------------------------------------------
+
+    /**
+     * @return The number of variants per value of the given dictionary column, such as category or func. Null values
+     *         are counted under the key null.
+     */
+    public Map<String, Integer> countBy( String dictionaryColumn ) {
+        DictionaryColumn column = getDictionaryColumn( dictionaryColumn );
+        int[] counts = column.counts();
+        Map<String, Integer> result = new HashMap<>();
+        for ( int code = 0; code < counts.length; code++ ) {
+            if ( counts[code] > 0 ) {
+                result.put( column.value( code ), counts[code] );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of variants per value of the given integer column, such as gene_id or paper_id.
+     */
+    public Map<Integer, Integer> countByInt( String intColumn ) {
+        IntColumn column = getIntColumn( intColumn );
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for ( int row = 0; row < rows; row++ ) {
+            int value = column.get( row );
+            min = Math.min( min, value );
+            max = Math.max( max, value );
+        }
+        Map<Integer, Integer> result = new HashMap<>();
+        if ( rows == 0 ) {
+            return result;
+        }
+        if ( min >= 0 && max <= MAX_DENSE_KEY ) {
+            int[] counts = new int[max + 1];
+            for ( int row = 0; row < rows; row++ ) {
+                counts[column.get( row )]++;
+            }
+            for ( int key = 0; key < counts.length; key++ ) {
+                if ( counts[key] > 0 ) {
+                    result.put( key, counts[key] );
+                }
+            }
+        } else {
+            for ( int row = 0; row < rows; row++ ) {
+                int key = column.get( row );
+                Integer count = result.get( key );
+                result.put( key, count == null ? 1 : count + 1 );
+            }
+        }
+        return result;
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private ColumnInfo column( String name, byte type ) {
+        ColumnInfo info = columns.get( name );
+        if ( info == null || info.type != type ) {
+            throw new IllegalArgumentException( "Snapshot " + file + " has no column '" + name + "' of type " + type );
+        }
+        return info;
+    }
+
+    private int checkOffset( long offset ) throws IOException {
+        if ( offset < 0 || offset > buffer.capacity() ) {
+            throw new IOException( file + " is truncated or corrupt" );
+        }
+        return ( int ) offset;
+    }
+
+    static String readString( ByteBuffer buffer ) {
+        int length = buffer.getInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    private static final class ColumnInfo {
+        final byte type;
+        final byte width;
+        final int dataOffset;
+        final long dictionaryOffset;
+
+        ColumnInfo( byte type, byte width, int dataOffset, long dictionaryOffset ) {
+            this.type = type;
+            this.width = width;
+            this.dataOffset = dataOffset;
+            this.dictionaryOffset = dictionaryOffset;
+        }
+    }
+
+    /**
+     * A column of int values, such as IDs.
+     */
+    public static final class IntColumn {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int rows;
+
+        IntColumn( ByteBuffer buffer, int offset, int rows ) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.rows = rows;
+        }
+
+        public int get( int row ) {
+            return buffer.getInt( offset + ( row << 2 ) );
+        }
+
+        public int size() {
+            return rows;
+        }
+    }
+
+    /**
+     * A column of long values, such as coordinates.
+     */
+    public static final class LongColumn {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int rows;
+
+        LongColumn( ByteBuffer buffer, int offset, int rows ) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.rows = rows;
+        }
+
+        public long get( int row ) {
+            return buffer.getLong( offset + ( row << 3 ) );
+        }
+
+        public int size() {
+            return rows;
+        }
+    }
+
+    /**
+     * A column of strings from a small set of values, stored as codes into a dictionary of the distinct values.
+     * Aggregations should work on codes and look up values only for the result.
+     */
+    public static final class DictionaryColumn {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int width;
+        private final int rows;
+        private final String[] values;
+
+        DictionaryColumn( ByteBuffer buffer, int offset, int width, int rows, String[] values ) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.width = width;
+            this.rows = rows;
+            this.values = values;
+        }
+
+        public int code( int row ) {
+            switch ( width ) {
+                case 1:
+                    return buffer.get( offset + row ) & 0xFF;
+                case 2:
+                    return buffer.getShort( offset + ( row << 1 ) ) & 0xFFFF;
+                default:
+                    return buffer.getInt( offset + ( row << 2 ) );
+            }
+        }
+
+        public String get( int row ) {
+            return values[code( row )];
+        }
+
+        public String value( int code ) {
+            return values[code];
+        }
+
+        /**
+         * @return The code of the given value, or -1 if it does not occur.
+         */
+        public int codeOf( String value ) {
+            for ( int code = 0; code < values.length; code++ ) {
+                if ( value == null ? values[code] == null : value.equals( values[code] ) ) {
+                    return code;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return The number of distinct values.
+         */
+        public int getCardinality() {
+            return values.length;
+        }
+
+        /**
+         * @return The number of rows per code.
+         */
+        public int[] counts() {
+            int[] counts = new int[values.length];
+            for ( int row = 0; row < rows; row++ ) {
+                counts[code( row )]++;
+            }
+            return counts;
+        }
+
+        public int size() {
+            return rows;
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.dao.RowCallback;
+import ubc.pavlab.ndb.dao.VariantDAO;
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * Writes the variant table to a columnar snapshot file that can be mapped by {@link VariantSnapshot}. Variants are
+ * streamed from the database in position order and each column is spooled to its own temporary file, so only the
+ * dictionaries of the categorical columns are held in memory. The columns are then concatenated into a file next to
+ * the target, which is moved into place once complete.
+ * 
+ * @version $Id$
+ */
+public final class VariantSnapshotWriter {
+
+    private static final Logger log = Logger.getLogger( VariantSnapshotWriter.class );
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ALIGNMENT = 8;
+
+    private VariantSnapshotWriter() {
+        // Utility class, hide constructor.
+    }
+
+    /**
+     * Writes a snapshot of all variants.
+     * 
+     * @param variantDAO The DAO to read variants from.
+     * @param target The snapshot file.
+     * @param dataVersion The version of the data being written, recorded in the snapshot.
+     * @return The number of variants written.
+     * @throws IOException If writing fails.
+     * @throws DAOException If reading fails.
+     */
+    public static int write( VariantDAO variantDAO, File target, String dataVersion ) throws IOException,
+            DAOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        final List<Column> columns = new ArrayList<>();
+        File temp = null;
+        try {
+            final IntColumn id = add( columns, new IntColumn( VariantSnapshot.ID, dir ) );
+            final IntColumn paperId = add( columns, new IntColumn( VariantSnapshot.PAPER_ID, dir ) );
+            final IntColumn geneId = add( columns, new IntColumn( VariantSnapshot.GENE_ID, dir ) );
+            final LongColumn start = add( columns, new LongColumn( VariantSnapshot.START, dir ) );
+            final LongColumn stop = add( columns, new LongColumn( VariantSnapshot.STOP, dir ) );
+            final DictionaryColumn chromosome = add( columns, new DictionaryColumn( VariantSnapshot.CHROMOSOME, dir ) );
+            final DictionaryColumn symbol = add( columns, new DictionaryColumn( VariantSnapshot.SYMBOL, dir ) );
+            final DictionaryColumn category = add( columns, new DictionaryColumn( VariantSnapshot.CATEGORY, dir ) );
+            final DictionaryColumn func = add( columns, new DictionaryColumn( VariantSnapshot.FUNC, dir ) );
+
+            long rows;
+            try {
+                rows = variantDAO.streamAllByPosition( new RowCallback<Variant>() {
+                    @Override
+                    public void handle( Variant variant ) throws IOException {
+                        id.write( variant.getId() );
+                        paperId.write( variant.getPaperId() );
+                        geneId.write( variant.getGeneId() );
+                        start.write( variant.getStart() );
+                        stop.write( variant.getStop() );
+                        chromosome.write( variant.getChromosome() );
+                        symbol.write( variant.getSymbol() );
+                        category.write( variant.getCategory() );
+                        func.write( variant.getFunc() );
+                    }
+                } );
+            } catch ( DAOException e ) {
+                if ( e.getCause() instanceof IOException ) {
+                    throw ( IOException ) e.getCause();
+                }
+                throw e;
+            }
+            if ( rows > Integer.MAX_VALUE ) {
+                throw new IOException( "Too many variants for a snapshot: " + rows );
+            }
+            for ( Column column : columns ) {
+                column.finish();
+            }
+
+            temp = File.createTempFile( target.getName(), ".tmp", dir );
+            assemble( temp, columns, ( int ) rows, dataVersion );
+            Files.move( temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+            log.info( "Wrote " + rows + " variants to snapshot " + target + " (" + target.length() + " bytes)" );
+            return ( int ) rows;
+        } finally {
+            for ( Column column : columns ) {
+                column.delete();
+            }
+            if ( temp != null && temp.exists() && !temp.delete() ) {
+                log.warn( "Could not delete temporary snapshot " + temp );
+            }
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private static <C extends Column> C add( List<Column> columns, C column ) {
+        columns.add( column );
+        return column;
+    }
+
+    private static void assemble( File file, List<Column> columns, int rows, String dataVersion ) throws IOException {
+        // The header has a fixed size for given names, so lay it out once to learn where the columns start.
+        int headerLength = header( columns, rows, dataVersion ).length;
+        long offset = align( headerLength );
+        for ( Column column : columns ) {
+            column.dictionaryOffset = -1;
+            if ( column.dictionary != null ) {
+                column.dictionaryOffset = offset;
+                offset = align( offset + column.dictionary.length );
+            }
+            column.dataOffset = offset;
+            offset = align( offset + ( long ) rows * column.width );
+        }
+
+        try (FileChannel out = FileChannel.open( file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING )) {
+            writeFully( out, ByteBuffer.wrap( header( columns, rows, dataVersion ) ) );
+            for ( Column column : columns ) {
+                if ( column.dictionary != null ) {
+                    pad( out, column.dictionaryOffset );
+                    writeFully( out, ByteBuffer.wrap( column.dictionary ) );
+                }
+                pad( out, column.dataOffset );
+                column.copyTo( out, rows );
+            }
+            pad( out, offset );
+            out.force( true );
+        }
+    }
+
+    private static byte[] header( List<Column> columns, int rows, String dataVersion ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.write( VariantSnapshot.MAGIC );
+        out.writeInt( VariantSnapshot.FORMAT_VERSION );
+        out.writeInt( rows );
+        out.writeLong( System.currentTimeMillis() );
+        writeString( out, dataVersion );
+        out.writeInt( columns.size() );
+        for ( Column column : columns ) {
+            writeString( out, column.name );
+            out.writeByte( column.type );
+            out.writeByte( column.width );
+            out.writeLong( column.dataOffset );
+            out.writeLong( column.dictionaryOffset );
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString( DataOutputStream out, String s ) throws IOException {
+        if ( s == null ) {
+            out.writeInt( -1 );
+        } else {
+            byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    private static long align( long offset ) {
+        return ( offset + ALIGNMENT - 1 ) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static void pad( FileChannel out, long offset ) throws IOException {
+        long padding = offset - out.position();
+        if ( padding > 0 ) {
+            writeFully( out, ByteBuffer.allocate( ( int ) padding ) );
+        }
+    }
+
+    private static void writeFully( FileChannel out, ByteBuffer buffer ) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            out.write( buffer );
+        }
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * A column being spooled to a temporary file.
+     */
+    private abstract static class Column {
+        final String name;
+        final byte type;
+        final File spool;
+        final DataOutputStream out;
+        byte width;
+        byte[] dictionary;
+        long dataOffset;
+        long dictionaryOffset;
+
+        Column( String name, byte type, int width, File dir ) throws IOException {
+            this.name = name;
+            this.type = type;
+            this.width = ( byte ) width;
+            this.spool = File.createTempFile( "snapshot-" + name, ".col", dir );
+            this.out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( spool ), BUFFER_SIZE ) );
+        }
+
+        void finish() throws IOException {
+            out.close();
+        }
+
+        void copyTo( FileChannel target, int rows ) throws IOException {
+            try (FileChannel in = FileChannel.open( spool.toPath(), StandardOpenOption.READ )) {
+                long position = 0;
+                long size = in.size();
+                while ( position < size ) {
+                    position += in.transferTo( position, size - position, target );
+                }
+            }
+        }
+
+        void delete() {
+            try {
+                out.close();
+            } catch ( IOException e ) {
+                log.warn( "Could not close column spool " + spool, e );
+            }
+            if ( spool.exists() && !spool.delete() ) {
+                log.warn( "Could not delete column spool " + spool );
+            }
+        }
+    }
+
+    private static final class IntColumn extends Column {
+        IntColumn( String name, File dir ) throws IOException {
+            super( name, VariantSnapshot.TYPE_INT, 4, dir );
+        }
+
+        void write( int value ) throws IOException {
+            out.writeInt( value );
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        LongColumn( String name, File dir ) throws IOException {
+            super( name, VariantSnapshot.TYPE_LONG, 8, dir );
+        }
+
+        void write( long value ) throws IOException {
+            out.writeLong( value );
+        }
+    }
+
+    /**
+     * Spools int codes and narrows them to the smallest width that fits the final dictionary when copied.
+     */
+    private static final class DictionaryColumn extends Column {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        DictionaryColumn( String name, File dir ) throws IOException {
+            super( name, VariantSnapshot.TYPE_DICTIONARY, 4, dir );
+        }
+
+        void write( String value ) throws IOException {
+            Integer code = codes.get( value );
+            if ( code == null ) {
+                code = values.size();
+                codes.put( value, code );
+                values.add( value );
+            }
+            out.writeInt( code );
+        }
+
+        @Override
+        void finish() throws IOException {
+            super.finish();
+            width = ( byte ) ( values.size() <= 1 << 8 ? 1 : values.size() <= 1 << 16 ? 2 : 4 );
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream dict = new DataOutputStream( bytes );
+            dict.writeInt( values.size() );
+            for ( String value : values ) {
+                writeString( dict, value );
+            }
+            dict.flush();
+            dictionary = bytes.toByteArray();
+        }
+
+        @Override
+        void copyTo( FileChannel target, int rows ) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate( BUFFER_SIZE );
+            try (InputStream in = new BufferedInputStream( new FileInputStream( spool ), BUFFER_SIZE )) {
+                DataInputStream codes = new DataInputStream( in );
+                for ( int row = 0; row < rows; row++ ) {
+                    if ( buffer.remaining() < width ) {
+                        buffer.flip();
+                        writeFully( target, buffer );
+                        buffer.clear();
+                    }
+                    int code = codes.readInt();
+                    if ( width == 1 ) {
+                        buffer.put( ( byte ) code );
+                    } else if ( width == 2 ) {
+                        buffer.putShort( ( short ) code );
+                    } else {
+                        buffer.putInt( code );
+                    }
+                }
+            }
+            buffer.flip();
+            writeFully( target, buffer );
+        }
+    }
+
+}
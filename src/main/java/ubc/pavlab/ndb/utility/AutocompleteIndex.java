@@ -0,0 +1,337 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, case-insensitive prefix index for type-ahead search, returning the best ranked entries for a prefix.
+ * <p>
+ * Entries are held in parallel arrays sorted by key, so all entries sharing a prefix form one contiguous range found
+ * by binary search. Small ranges are ranked on the fly; for prefixes matching more than {@link #SCAN_LIMIT} entries,
+ * typically the first one or two characters typed, the ranking is precomputed at build time. Every query therefore
+ * looks at no more than {@link #SCAN_LIMIT} entries. Entries rank by exact match first, then score, then shorter
+ * label.
+ * 
+ * @version $Id$
+ */
+public final class AutocompleteIndex {
+
+    /**
+     * Prefix ranges larger than this use precomputed rankings.
+     */
+    static final int SCAN_LIMIT = 64;
+
+    /**
+     * What an entry refers to.
+     */
+    public enum Type {
+        GENE, ALIAS, HGVS, PAPER
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    private final String[] keys;
+    private final String[] labels;
+    private final byte[] types;
+    private final int[] ids;
+    private final int[] scores;
+    private final int maxResults;
+    private final Map<String, int[]> ranked;
+
+    private AutocompleteIndex( List<Entry> entries, int maxResults ) {
+        int n = entries.size();
+        this.keys = new String[n];
+        this.labels = new String[n];
+        this.types = new byte[n];
+        this.ids = new int[n];
+        this.scores = new int[n];
+        for ( int i = 0; i < n; i++ ) {
+            Entry e = entries.get( i );
+            keys[i] = e.key;
+            labels[i] = e.label;
+            types[i] = ( byte ) e.type.ordinal();
+            ids[i] = e.id;
+            scores[i] = e.score;
+        }
+        this.maxResults = maxResults;
+        this.ranked = precompute();
+    }
+
+    /**
+     * @param query The text typed so far.
+     * @param limit The maximum number of suggestions, capped at the index's maximum.
+     * @return The best ranked entries whose key starts with the query, best first.
+     */
+    public List<Suggestion> suggest( String query, int limit ) {
+        String prefix = normalize( query );
+        limit = Math.min( limit, maxResults );
+        if ( prefix.isEmpty() || limit <= 0 ) {
+            return Collections.emptyList();
+        }
+        int lo = lowerBound( prefix );
+        int hi = upperBound( prefix, lo );
+        int[] best = hi - lo > SCAN_LIMIT ? ranked.get( prefix ) : rank( lo, hi, prefix.length() );
+
+        List<Suggestion> suggestions = new ArrayList<>( Math.min( limit, best.length ) );
+        for ( int i = 0; i < best.length && i < limit; i++ ) {
+            int e = best[i];
+            suggestions.add( new Suggestion( labels[e], TYPES[types[e]], ids[e] ) );
+        }
+        return suggestions;
+    }
+
+    /**
+     * @return The number of entries in the index.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @return The number of prefixes with a precomputed ranking.
+     */
+    int getRankedPrefixes() {
+        return ranked.size();
+    }
+
+    static String normalize( String s ) {
+        return s.trim().toLowerCase( Locale.ENGLISH );
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private int lowerBound( String prefix ) {
+        int lo = 0;
+        int hi = keys.length;
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if ( keys[mid].compareTo( prefix ) < 0 ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int upperBound( String prefix, int from ) {
+        int lo = from;
+        int hi = keys.length;
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if ( keys[mid].startsWith( prefix ) ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Selects the best {@link #maxResults} entries of the range [lo, hi) by insertion into a small sorted array.
+     */
+    private int[] rank( int lo, int hi, int prefixLength ) {
+        int[] best = new int[Math.min( maxResults, hi - lo )];
+        int found = 0;
+        for ( int e = lo; e < hi; e++ ) {
+            if ( found == best.length && !better( e, best[found - 1], prefixLength ) ) {
+                continue;
+            }
+            int i = found == best.length ? found - 1 : found++;
+            while ( i > 0 && better( e, best[i - 1], prefixLength ) ) {
+                best[i] = best[i - 1];
+                i--;
+            }
+            best[i] = e;
+        }
+        return best;
+    }
+
+    private boolean better( int a, int b, int prefixLength ) {
+        boolean exactA = keys[a].length() == prefixLength;
+        boolean exactB = keys[b].length() == prefixLength;
+        if ( exactA != exactB ) {
+            return exactA;
+        }
+        if ( scores[a] != scores[b] ) {
+            return scores[a] > scores[b];
+        }
+        if ( labels[a].length() != labels[b].length() ) {
+            return labels[a].length() < labels[b].length();
+        }
+        return a < b;
+    }
+
+    /**
+     * Ranks every prefix matching more than {@link #SCAN_LIMIT} entries, level by level, until no prefix of the
+     * current length is that common.
+     */
+    private Map<String, int[]> precompute() {
+        Map<String, int[]> ranked = new HashMap<>();
+        for ( int length = 1;; length++ ) {
+            boolean any = false;
+            int start = 0;
+            while ( start < keys.length ) {
+                if ( keys[start].length() < length ) {
+                    start++;
+                    continue;
+                }
+                String prefix = keys[start].substring( 0, length );
+                int end = upperBound( prefix, start );
+                if ( end - start > SCAN_LIMIT ) {
+                    ranked.put( prefix, rank( start, end, length ) );
+                    any = true;
+                }
+                start = end;
+            }
+            if ( !any ) {
+                return ranked;
+            }
+        }
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    /**
+     * A single autocomplete result.
+     */
+    public static final class Suggestion {
+
+        private final String label;
+        private final Type type;
+        private final int id;
+
+        Suggestion( String label, Type type, int id ) {
+            this.label = label;
+            this.type = type;
+            this.id = id;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return The ID of the gene, variant or paper the entry refers to.
+         */
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return type + ":" + label + ":" + id;
+        }
+    }
+
+    /**
+     * Collects entries and builds the index. When more than the maximum number of entries are added, the lowest
+     * scored are dropped, which bounds the memory of the index. Not thread safe.
+     */
+    public static final class Builder {
+
+        private final int maxEntries;
+        private final int maxResults;
+        private final List<Entry> entries = new ArrayList<>();
+        private final Set<String> seen = new HashSet<>();
+
+        /**
+         * @param maxEntries The maximum number of entries kept.
+         * @param maxResults The maximum number of suggestions per query.
+         */
+        public Builder( int maxEntries, int maxResults ) {
+            if ( maxResults < 1 ) {
+                throw new IllegalArgumentException( "maxResults must be positive" );
+            }
+            this.maxEntries = maxEntries;
+            this.maxResults = maxResults;
+        }
+
+        /**
+         * @param text The text matched against typed prefixes, case-insensitively.
+         * @param label The text displayed for the entry.
+         * @param type What the entry refers to.
+         * @param id The ID of what the entry refers to.
+         * @param score Higher scores rank first.
+         * @return This builder.
+         */
+        public Builder add( String text, String label, Type type, int id, int score ) {
+            if ( text == null ) {
+                return this;
+            }
+            String key = normalize( text );
+            if ( !key.isEmpty() && seen.add( key + '\0' + type.ordinal() + '\0' + id ) ) {
+                entries.add( new Entry( key, label, type, id, score ) );
+            }
+            return this;
+        }
+
+        public AutocompleteIndex build() {
+            if ( entries.size() > maxEntries ) {
+                Collections.sort( entries, new Comparator<Entry>() {
+                    @Override
+                    public int compare( Entry a, Entry b ) {
+                        return Integer.compare( b.score, a.score );
+                    }
+                } );
+                entries.subList( maxEntries, entries.size() ).clear();
+            }
+            Collections.sort( entries, new Comparator<Entry>() {
+                @Override
+                public int compare( Entry a, Entry b ) {
+                    return a.key.compareTo( b.key );
+                }
+            } );
+            return new AutocompleteIndex( entries, maxResults );
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final String label;
+        final Type type;
+        final int id;
+        final int score;
+
+        Entry( String key, String label, Type type, int id, int score ) {
+            this.key = key;
+            this.label = label;
+            this.type = type;
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+}
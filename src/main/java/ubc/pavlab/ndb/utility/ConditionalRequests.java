@@ -0,0 +1,76 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.utility;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Evaluates the validators of conditional GET requests, shared by everything that sets <code>ETag</code> or
+ * <code>Last-Modified</code> on its responses.
+ * 
+ * @version $Id$
+ */
+public final class ConditionalRequests {
+
+    private ConditionalRequests() {
+        // Utility class, hide constructor.
+    }
+
+    /**
+     * @return True if the client's copy is current according to If-None-Match, or If-Modified-Since when the former
+     *         is absent.
+     */
+    public static boolean isNotModified( String ifNoneMatch, long ifModifiedSince, String eTag, long lastModified ) {
+        if ( ifNoneMatch != null ) {
+            for ( String tag : ifNoneMatch.split( "," ) ) {
+                tag = tag.trim();
+                if ( tag.startsWith( "W/" ) ) {
+                    tag = tag.substring( 2 );
+                }
+                if ( tag.equals( "*" ) || tag.equals( eTag ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // HTTP dates have second precision.
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * @return True if the request's If-None-Match or If-Modified-Since header shows the client's copy is current.
+     */
+    public static boolean isNotModified( HttpServletRequest request, String eTag, long lastModified ) {
+        return isNotModified( request.getHeader( "If-None-Match" ), dateHeader( request, "If-Modified-Since" ), eTag,
+                lastModified );
+    }
+
+    /**
+     * @return The value of the date header, or -1 if it is absent or malformed.
+     */
+    public static long dateHeader( HttpServletRequest request, String name ) {
+        try {
+            return request.getDateHeader( name );
+        } catch ( IllegalArgumentException e ) {
+            return -1;
+        }
+    }
+
+}
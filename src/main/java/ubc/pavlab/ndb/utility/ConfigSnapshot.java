@@ -0,0 +1,169 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ubc.pavlab.ndb.exceptions.ConfigurationException;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+
+/**
+ * An immutable copy of a properties file with typed getters. Lookups read a plain immutable map, so any number of
+ * request threads can read settings without taking a lock; a changed file is read into a new snapshot, see
+ * {@link ReloadableConfig}.
+ * 
+ * @version $Id$
+ */
+public final class ConfigSnapshot {
+
+    private final ImmutableMap<String, String> values;
+    private final File source;
+    private final long loaded;
+
+    ConfigSnapshot( Map<String, String> values, File source ) {
+        this.values = ImmutableMap.copyOf( values );
+        this.source = source;
+        this.loaded = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads a snapshot of the given properties file.
+     * 
+     * @throws ConfigurationException If the file cannot be read.
+     */
+    public static ConfigSnapshot load( File file ) throws ConfigurationException {
+        PropertiesFile properties = new PropertiesFile();
+        properties.load( file );
+        ImmutableMap.Builder<String, String> values = ImmutableMap.builder();
+        for ( String key : properties.stringPropertyNames() ) {
+            values.put( key, properties.getProperty( key ) );
+        }
+        return new ConfigSnapshot( values.build(), file );
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * @return The value of the given key, or null if it is missing.
+     */
+    public String getProperty( String key ) {
+        return values.get( key );
+    }
+
+    /**
+     * @return The trimmed value of the given key, or the default if it is missing or empty.
+     */
+    public String getProperty( String key, String defaultValue ) {
+        String value = values.get( key );
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * @return The value of the given key as an int, or the default if it is missing or empty.
+     * @throws ConfigurationException If the value is not a valid integer.
+     */
+    public int getInt( String key, int defaultValue ) throws ConfigurationException {
+        long value = getLong( key, defaultValue );
+        if ( value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ) {
+            throw new ConfigurationException( "Property '" + key + "' is out of range: '" + value + "'." );
+        }
+        return ( int ) value;
+    }
+
+    /**
+     * @return The value of the given key as a long, or the default if it is missing or empty.
+     * @throws ConfigurationException If the value is not a valid integer.
+     */
+    public long getLong( String key, long defaultValue ) throws ConfigurationException {
+        String value = getProperty( key, null );
+        if ( value == null ) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong( value );
+        } catch ( NumberFormatException e ) {
+            throw new ConfigurationException( "Property '" + key + "' is not a valid integer: '" + value + "'.", e );
+        }
+    }
+
+    /**
+     * @return The value of the given key as a boolean, or the default if it is missing or empty.
+     * @throws ConfigurationException If the value is neither 'true' nor 'false'.
+     */
+    public boolean getBoolean( String key, boolean defaultValue ) throws ConfigurationException {
+        String value = getProperty( key, null );
+        if ( value == null ) {
+            return defaultValue;
+        }
+        if ( "true".equalsIgnoreCase( value ) || "false".equalsIgnoreCase( value ) ) {
+            return Boolean.parseBoolean( value );
+        }
+        throw new ConfigurationException( "Property '" + key + "' must be 'true' or 'false', not '" + value + "'." );
+    }
+
+    public boolean contains( String key ) {
+        return values.containsKey( key );
+    }
+
+    /**
+     * @return All settings.
+     */
+    public Map<String, String> asMap() {
+        return values;
+    }
+
+    /**
+     * @return The keys which were added, removed or changed compared to the given snapshot.
+     */
+    public Set<String> changedKeys( ConfigSnapshot previous ) {
+        MapDifference<String, String> difference = Maps.difference( previous.values, values );
+        Set<String> changed = new TreeSet<>( difference.entriesDiffering().keySet() );
+        changed.addAll( difference.entriesOnlyOnLeft().keySet() );
+        changed.addAll( difference.entriesOnlyOnRight().keySet() );
+        return changed;
+    }
+
+    /**
+     * @return The file the snapshot was read from.
+     */
+    public File getSource() {
+        return source;
+    }
+
+    /**
+     * @return When the snapshot was read, in milliseconds since the epoch.
+     */
+    public long getLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigSnapshot [source=" + source + ", keys=" + values.size() + "]";
+    }
+
+}
@@ -0,0 +1,347 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of genomic intervals answering overlap queries in O(log n + k). Coordinates are 1-based and
+ * inclusive, as stored in the database.
+ * <p>
+ * Each chromosome holds its intervals in primitive arrays sorted by start. The sorted array doubles as an implicit,
+ * perfectly balanced binary search tree in which the element at index i sits at the level given by the number of
+ * trailing one bits of i; every element additionally stores the largest end within its subtree, which lets a query
+ * skip subtrees that end before the query starts (the layout used by cgranges). This costs 28 bytes per interval and
+ * allocates nothing per entry.
+ * 
+ * @version $Id$
+ */
+public final class IntervalIndex {
+
+    private static final int[] NO_IDS = new int[0];
+
+    /**
+     * Subtrees at or below this level are scanned linearly, which is faster than descending into them.
+     */
+    private static final int SCAN_LEVEL = 3;
+
+    private final Map<String, Contig> contigs;
+    private final int size;
+
+    private IntervalIndex( Map<String, Contig> contigs ) {
+        this.contigs = contigs;
+        int size = 0;
+        for ( Contig contig : contigs.values() ) {
+            size += contig.ids.length;
+        }
+        this.size = size;
+    }
+
+    /**
+     * @param chromosome The chromosome, with or without 'chr' prefix.
+     * @param start First position of the region, inclusive.
+     * @param stop Last position of the region, inclusive.
+     * @return The IDs of all intervals overlapping the region, ordered by start.
+     */
+    public int[] overlap( String chromosome, long start, long stop ) {
+        Contig contig = contigs.get( normalize( chromosome ) );
+        if ( contig == null || stop < start ) {
+            return NO_IDS;
+        }
+        return contig.overlap( start, stop + 1 );
+    }
+
+    /**
+     * @return The number of intervals overlapping the region, see {@link #overlap(String, long, long)}.
+     */
+    public int count( String chromosome, long start, long stop ) {
+        return overlap( chromosome, start, stop ).length;
+    }
+
+    /**
+     * @return The total number of intervals in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The chromosomes holding at least one interval.
+     */
+    public Set<String> getChromosomes() {
+        return Collections.unmodifiableSet( contigs.keySet() );
+    }
+
+    /**
+     * Strips a leading 'chr' so that 'chr1' and '1' refer to the same chromosome.
+     * 
+     * @return The chromosome without prefix, or null if it is null.
+     */
+    public static String normalize( String chromosome ) {
+        if ( chromosome != null && chromosome.length() > 3 && chromosome.regionMatches( true, 0, "chr", 0, 3 ) ) {
+            return chromosome.substring( 3 );
+        }
+        return chromosome;
+    }
+
+    /**
+     * Accumulates intervals in growing primitive arrays and builds the index. Not thread safe.
+     */
+    public static final class Builder {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final Map<String, ContigBuilder> contigs = new HashMap<>();
+
+        /**
+         * @param chromosome The chromosome, with or without 'chr' prefix; not null.
+         * @param start First position, inclusive.
+         * @param stop Last position, inclusive; must not be before start.
+         * @param id The ID returned by queries overlapping this interval.
+         * @return This builder.
+         * @see #isValid(String, long, long)
+         */
+        public Builder add( String chromosome, long start, long stop, int id ) {
+            if ( chromosome == null ) {
+                throw new IllegalArgumentException( "Interval " + start + "-" + stop + " has no chromosome" );
+            }
+            if ( stop < start ) {
+                throw new IllegalArgumentException( "Interval " + chromosome + ":" + start + "-" + stop
+                        + " ends before it starts" );
+            }
+            String key = normalize( chromosome );
+            ContigBuilder contig = contigs.get( key );
+            if ( contig == null ) {
+                contig = new ContigBuilder();
+                contigs.put( key, contig );
+            }
+            contig.add( start, stop + 1, id );
+            return this;
+        }
+
+        /**
+         * @return Whether {@link #add(String, long, long, int)} accepts the interval.
+         */
+        public static boolean isValid( String chromosome, long start, long stop ) {
+            return chromosome != null && stop >= start;
+        }
+
+        public IntervalIndex build() {
+            Map<String, Contig> built = new HashMap<>();
+            for ( Map.Entry<String, ContigBuilder> e : contigs.entrySet() ) {
+                built.put( e.getKey(), e.getValue().build() );
+            }
+            return new IntervalIndex( built );
+        }
+    }
+
+    private static final class ContigBuilder {
+        private long[] starts = new long[Builder.INITIAL_CAPACITY];
+        private long[] ends = new long[Builder.INITIAL_CAPACITY];
+        private int[] ids = new int[Builder.INITIAL_CAPACITY];
+        private int n;
+        private boolean sorted = true;
+
+        void add( long start, long end, int id ) {
+            if ( n == ids.length ) {
+                int capacity = n + ( n >> 1 );
+                starts = Arrays.copyOf( starts, capacity );
+                ends = Arrays.copyOf( ends, capacity );
+                ids = Arrays.copyOf( ids, capacity );
+            }
+            if ( n > 0 && start < starts[n - 1] ) {
+                sorted = false;
+            }
+            starts[n] = start;
+            ends[n] = end;
+            ids[n] = id;
+            n++;
+        }
+
+        Contig build() {
+            long[] s = Arrays.copyOf( starts, n );
+            long[] e = Arrays.copyOf( ends, n );
+            int[] d = Arrays.copyOf( ids, n );
+            if ( !sorted ) {
+                int[] order = sortedOrder( s );
+                for ( int i = 0; i < n; i++ ) {
+                    s[i] = starts[order[i]];
+                    e[i] = ends[order[i]];
+                    d[i] = ids[order[i]];
+                }
+            }
+            return new Contig( s, e, d );
+        }
+
+        /**
+         * Stable bottom-up merge sort of positions by start, avoiding boxed comparators.
+         */
+        private static int[] sortedOrder( long[] keys ) {
+            int n = keys.length;
+            int[] a = new int[n];
+            int[] b = new int[n];
+            for ( int i = 0; i < n; i++ ) {
+                a[i] = i;
+            }
+            for ( int width = 1; width < n; width <<= 1 ) {
+                for ( int lo = 0; lo < n; lo += width << 1 ) {
+                    int mid = Math.min( lo + width, n );
+                    int hi = Math.min( lo + ( width << 1 ), n );
+                    int i = lo, j = mid, k = lo;
+                    while ( i < mid && j < hi ) {
+                        b[k++] = keys[a[j]] < keys[a[i]] ? a[j++] : a[i++];
+                    }
+                    while ( i < mid ) {
+                        b[k++] = a[i++];
+                    }
+                    while ( j < hi ) {
+                        b[k++] = a[j++];
+                    }
+                }
+                int[] t = a;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+    }
+
+    /**
+     * Intervals of one chromosome as half-open [start, end), sorted by start, with the subtree maximum end per node.
+     */
+    private static final class Contig {
+        private final long[] starts;
+        private final long[] ends;
+        private final long[] maxEnds;
+        private final int[] ids;
+        private final int rootLevel;
+
+        Contig( long[] starts, long[] ends, int[] ids ) {
+            this.starts = starts;
+            this.ends = ends;
+            this.ids = ids;
+            this.maxEnds = new long[ids.length];
+            this.rootLevel = augment();
+        }
+
+        /**
+         * Fills in the subtree maximum ends bottom up and returns the level of the root.
+         */
+        private int augment() {
+            int n = ids.length;
+            if ( n == 0 ) {
+                return 0;
+            }
+            int lastIndex = 0;
+            long last = 0;
+            for ( int i = 0; i < n; i += 2 ) {
+                lastIndex = i;
+                last = maxEnds[i] = ends[i];
+            }
+            int level;
+            for ( level = 1; 1L << level <= n; level++ ) {
+                int half = 1 << ( level - 1 );
+                int first = ( half << 1 ) - 1;
+                int step = half << 2;
+                for ( int i = first; i < n; i += step ) {
+                    long left = maxEnds[i - half];
+                    // The right subtree may be partly out of range; its maximum is then the last complete one seen.
+                    long right = i + half < n ? maxEnds[i + half] : last;
+                    maxEnds[i] = Math.max( ends[i], Math.max( left, right ) );
+                }
+                lastIndex = ( lastIndex >> level & 1 ) != 0 ? lastIndex - half : lastIndex + half;
+                if ( lastIndex < n && maxEnds[lastIndex] > last ) {
+                    last = maxEnds[lastIndex];
+                }
+            }
+            return level - 1;
+        }
+
+        /**
+         * @param start Query start, inclusive.
+         * @param end Query end, exclusive.
+         */
+        int[] overlap( long start, long end ) {
+            int n = ids.length;
+            if ( n == 0 ) {
+                return NO_IDS;
+            }
+            int[] hits = new int[16];
+            int found = 0;
+
+            // Explicit stack of (node, level, leftDone); depth is bounded by the number of levels.
+            long[] stackNode = new long[64];
+            int[] stackLevel = new int[64];
+            boolean[] stackLeftDone = new boolean[64];
+            int top = 0;
+            stackNode[top] = ( 1L << rootLevel ) - 1;
+            stackLevel[top] = rootLevel;
+            stackLeftDone[top++] = false;
+
+            while ( top > 0 ) {
+                top--;
+                long node = stackNode[top];
+                int level = stackLevel[top];
+                boolean leftDone = stackLeftDone[top];
+
+                if ( level <= SCAN_LEVEL ) {
+                    long first = node >> level << level;
+                    long stop = Math.min( first + ( 1L << ( level + 1 ) ) - 1, n );
+                    for ( int i = ( int ) first; i < stop && starts[i] < end; i++ ) {
+                        if ( start < ends[i] ) {
+                            if ( found == hits.length ) {
+                                hits = Arrays.copyOf( hits, found << 1 );
+                            }
+                            hits[found++] = ids[i];
+                        }
+                    }
+                } else if ( !leftDone ) {
+                    long left = node - ( 1L << ( level - 1 ) );
+                    stackNode[top] = node;
+                    stackLevel[top] = level;
+                    stackLeftDone[top++] = true;
+                    // Descend left unless everything there ends before the query starts.
+                    if ( left >= n || maxEnds[( int ) left] > start ) {
+                        stackNode[top] = left;
+                        stackLevel[top] = level - 1;
+                        stackLeftDone[top++] = false;
+                    }
+                } else if ( node < n && starts[( int ) node] < end ) {
+                    if ( start < ends[( int ) node] ) {
+                        if ( found == hits.length ) {
+                            hits = Arrays.copyOf( hits, found << 1 );
+                        }
+                        hits[found++] = ids[( int ) node];
+                    }
+                    stackNode[top] = node + ( 1L << ( level - 1 ) );
+                    stackLevel[top] = level - 1;
+                    stackLeftDone[top++] = false;
+                }
+            }
+            return Arrays.copyOf( hits, found );
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations with microsecond resolution, for percentiles of request and query latencies.
+ * Buckets are log-linear: every power of two is split into {@value #SUB_BUCKETS} equal buckets, so a percentile is
+ * off by at most 12.5% while the histogram takes a fixed 2 KB from 1 microsecond to over an hour. Recording is a
+ * few atomic increments and never allocates.
+ * 
+ * @version $Id$
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Durations from 2^MAX_EXPONENT microseconds (about 1.2 hours) up land in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 32;
+
+    private static final int BUCKETS = ( MAX_EXPONENT - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator( Math::max, 0 );
+
+    /**
+     * @param nanos A duration in nanoseconds, as measured with {@link System#nanoTime()}.
+     */
+    public void record( long nanos ) {
+        long micros = Math.max( 0, nanos / 1000 );
+        counts.incrementAndGet( bucket( micros ) );
+        count.increment();
+        totalMicros.add( micros );
+        maxMicros.accumulate( micros );
+    }
+
+    /**
+     * @param p The percentile, between 0 and 100.
+     * @param unit The unit of the result.
+     * @return The duration below which the given percentage of recorded durations falls, 0 if none were recorded.
+     */
+    public double getPercentile( double p, TimeUnit unit ) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            snapshot[i] = counts.get( i );
+            total += snapshot[i];
+        }
+        if ( total == 0 ) {
+            return 0;
+        }
+        long rank = Math.max( 1, ( long ) Math.ceil( total * p / 100 ) );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            seen += snapshot[i];
+            if ( seen >= rank ) {
+                // Report the upper end of the bucket, but never more than was actually recorded.
+                return convert( Math.min( upperBound( i ), maxMicros.get() ), unit );
+            }
+        }
+        return convert( maxMicros.get(), unit );
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The sum of all recorded durations.
+     */
+    public double getTotal( TimeUnit unit ) {
+        return convert( totalMicros.sum(), unit );
+    }
+
+    public double getMean( TimeUnit unit ) {
+        long n = count.sum();
+        return n == 0 ? 0 : convert( totalMicros.sum(), unit ) / n;
+    }
+
+    public double getMax( TimeUnit unit ) {
+        return convert( maxMicros.get(), unit );
+    }
+
+    @Override
+    public String toString() {
+        TimeUnit ms = TimeUnit.MILLISECONDS;
+        return String.format( "count=%d, mean=%.2fms, p50=%.2fms, p95=%.2fms, p99=%.2fms, max=%.2fms", getCount(),
+                getMean( ms ), getPercentile( 50, ms ), getPercentile( 95, ms ), getPercentile( 99, ms ),
+                getMax( ms ) );
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    static int bucket( long micros ) {
+        if ( micros < SUB_BUCKETS ) {
+            return ( int ) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( micros );
+        if ( exponent >= MAX_EXPONENT ) {
+            return BUCKETS - 1;
+        }
+        int sub = ( int ) ( micros >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+        return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return The largest duration in microseconds that falls in the given bucket; the last bucket is unbounded.
+     */
+    static long upperBound( int bucket ) {
+        if ( bucket < SUB_BUCKETS ) {
+            return bucket;
+        }
+        if ( bucket == BUCKETS - 1 ) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ( ( SUB_BUCKETS + sub + 1 ) << ( exponent - SUB_BUCKET_BITS ) ) - 1;
+    }
+
+    private static double convert( long micros, TimeUnit unit ) {
+        return micros / ( unit.toNanos( 1 ) / 1000.0 );
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+
+/**
+ * Named counters, gauges and latency histograms of the application, written out by the metrics servlet in the
+ * Prometheus text format or as JSON.
+ * <p>
+ * Names follow Prometheus conventions and may carry labels, for example
+ * <code>ndb_cache_hit_ratio{cache="variant"}</code>. Counters are {@link LongAdder}s and histograms are
+ * {@link LatencyHistogram}s, so recording never takes a lock and never waits for a scrape; callers on hot paths should
+ * look their metric up once and keep it. Gauges are evaluated when the metrics are written.
+ * 
+ * @version $Id$
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    MetricsRegistry() {
+        // Use getInstance(), or a private instance in tests.
+    }
+
+    /**
+     * @return The registry shared by the whole application.
+     */
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * @return The counter of the given name, created on first use.
+     */
+    public LongAdder counter( String name ) {
+        LongAdder counter = counters.get( name );
+        if ( counter == null ) {
+            LongAdder created = new LongAdder();
+            counter = counters.putIfAbsent( name, created );
+            if ( counter == null ) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return The histogram of the given name, created on first use.
+     */
+    public LatencyHistogram histogram( String name ) {
+        LatencyHistogram histogram = histograms.get( name );
+        if ( histogram == null ) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent( name, created );
+            if ( histogram == null ) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Publishes a histogram recorded elsewhere, replacing any histogram of the same name.
+     */
+    public void register( String name, LatencyHistogram histogram ) {
+        histograms.put( name, histogram );
+    }
+
+    /**
+     * Publishes a value computed when the metrics are written, replacing any gauge of the same name. A gauge
+     * returning null is left out.
+     */
+    public void gauge( String name, Supplier<? extends Number> gauge ) {
+        gauges.put( name, gauge );
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format. Histograms are written as summaries in seconds.
+     */
+    public void writePrometheus( Appendable out ) throws IOException {
+        Set<String> typed = new HashSet<>();
+        for ( Map.Entry<String, LongAdder> counter : counters.entrySet() ) {
+            type( out, typed, counter.getKey(), "counter" );
+            out.append( counter.getKey() ).append( ' ' ).append( Long.toString( counter.getValue().sum() ) )
+                    .append( '\n' );
+        }
+        for ( Map.Entry<String, Supplier<? extends Number>> gauge : gauges.entrySet() ) {
+            Number value = gauge.getValue().get();
+            if ( value != null ) {
+                type( out, typed, gauge.getKey(), "gauge" );
+                out.append( gauge.getKey() ).append( ' ' ).append( value.toString() ).append( '\n' );
+            }
+        }
+        for ( Map.Entry<String, LatencyHistogram> entry : histograms.entrySet() ) {
+            String name = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            type( out, typed, name, "summary" );
+            for ( double quantile : QUANTILES ) {
+                out.append( withLabel( name, "quantile", Double.toString( quantile ) ) ).append( ' ' )
+                        .append( Double.toString( histogram.getPercentile( quantile * 100, TimeUnit.SECONDS ) ) )
+                        .append( '\n' );
+            }
+            out.append( suffixed( name, "_sum" ) ).append( ' ' )
+                    .append( Double.toString( histogram.getTotal( TimeUnit.SECONDS ) ) ).append( '\n' );
+            out.append( suffixed( name, "_count" ) ).append( ' ' ).append( Long.toString( histogram.getCount() ) )
+                    .append( '\n' );
+        }
+    }
+
+    /**
+     * @return All metrics by name; histograms as objects with their count and their mean, percentiles and maximum in
+     *         milliseconds.
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        for ( Map.Entry<String, LongAdder> counter : counters.entrySet() ) {
+            json.put( counter.getKey(), counter.getValue().sum() );
+        }
+        for ( Map.Entry<String, Supplier<? extends Number>> gauge : gauges.entrySet() ) {
+            Number value = gauge.getValue().get();
+            if ( value != null ) {
+                json.put( gauge.getKey(), value );
+            }
+        }
+        TimeUnit ms = TimeUnit.MILLISECONDS;
+        for ( Map.Entry<String, LatencyHistogram> entry : histograms.entrySet() ) {
+            LatencyHistogram histogram = entry.getValue();
+            JSONObject summary = new JSONObject();
+            summary.put( "count", histogram.getCount() );
+            summary.put( "meanMs", histogram.getMean( ms ) );
+            summary.put( "p50Ms", histogram.getPercentile( 50, ms ) );
+            summary.put( "p95Ms", histogram.getPercentile( 95, ms ) );
+            summary.put( "p99Ms", histogram.getPercentile( 99, ms ) );
+            summary.put( "maxMs", histogram.getMax( ms ) );
+            json.put( entry.getKey(), summary );
+        }
+        return json;
+    }
+
+    /**
+     * @return The value quoted for use as a label value, with backslashes, quotes and line breaks escaped.
+     */
+    public static String label( String value ) {
+        return "\"" + value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" ) + "\"";
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private static void type( Appendable out, Set<String> typed, String name, String type ) throws IOException {
+        String family = family( name );
+        if ( typed.add( family ) ) {
+            out.append( "# TYPE " ).append( family ).append( ' ' ).append( type ).append( '\n' );
+        }
+    }
+
+    private static String family( String name ) {
+        int labels = name.indexOf( '{' );
+        return labels < 0 ? name : name.substring( 0, labels );
+    }
+
+    static String withLabel( String name, String label, String value ) {
+        String pair = label + "=" + label( value );
+        int end = name.lastIndexOf( '}' );
+        return end < 0 ? name + "{" + pair + "}" : name.substring( 0, end ) + "," + pair + "}";
+    }
+
+    static String suffixed( String name, String suffix ) {
+        String family = family( name );
+        return family + suffix + name.substring( family.length() );
+    }
+
+}
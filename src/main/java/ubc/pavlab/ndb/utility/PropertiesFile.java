@@ -19,8 +19,8 @@
 
 package ubc.pavlab.ndb.utility;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Paths;
@@ -34,6 +34,9 @@ import ubc.pavlab.ndb.exceptions.ConfigurationException;
  * Extends java.util.Properties with a loader which looks for files a path order:
  * 1) Given filepath if not null
  * 2) Current user.dir
+ * <p>
+ * Being a Hashtable, every lookup takes a lock; settings read on request paths go through {@link ConfigSnapshot}
+ * instead, which uses this class only to parse the file.
  * 
  * @author mjacobson
  * @version $Id$
@@ -49,36 +52,41 @@ public class PropertiesFile extends Properties {
     }
 
     public void load( String fileName, String filePath, String backupFilePath ) throws ConfigurationException {
-        InputStream propertiesFile = null;
+        load( locate( fileName, filePath, backupFilePath ) );
+    }
 
-        try {
-            propertiesFile = new FileInputStream( Paths.get( filePath, fileName ).toFile() );
-            log.info( "Found PROPERTIES_FILE : (" + fileName + ") in: (" + filePath + ")" );
-        } catch ( FileNotFoundException e ) {
-            log.warn( "Could not find PROPERTIES_FILE : (" + fileName + ") in: (" + filePath + ")" );
-            try {
-                propertiesFile = new FileInputStream( Paths.get( backupFilePath, fileName ).toFile() );
-                log.info( "Found PROPERTIES_FILE : (" + fileName + ") in: (" + backupFilePath + ")" );
-            } catch ( FileNotFoundException e2 ) {
-                log.warn( "Could not find PROPERTIES_FILE : (" + fileName + ") in: (" + backupFilePath + ")" );
-            }
+    /**
+     * Loads the given properties file.
+     */
+    public void load( File file ) throws ConfigurationException {
+        try (InputStream propertiesFile = new FileInputStream( file )) {
+            super.load( propertiesFile );
+        } catch ( IOException e ) {
+            throw new ConfigurationException( "Cannot load properties file '" + file.getName() + "'.", e );
         }
+    }
 
-        if ( propertiesFile == null ) {
-            throw new ConfigurationException( "Properties file '" + fileName + "' is missing." );
+    /**
+     * @return The properties file in filePath, otherwise the one in backupFilePath.
+     * @throws ConfigurationException If neither exists.
+     */
+    public static File locate( String fileName, String filePath, String backupFilePath )
+            throws ConfigurationException {
+        File file = Paths.get( filePath, fileName ).toFile();
+        if ( file.isFile() ) {
+            log.info( "Found PROPERTIES_FILE : (" + fileName + ") in: (" + filePath + ")" );
+            return file;
         }
+        log.warn( "Could not find PROPERTIES_FILE : (" + fileName + ") in: (" + filePath + ")" );
 
-        try {
-            super.load( propertiesFile );
-        } catch ( IOException e ) {
-            throw new ConfigurationException( "Cannot load properties file '" + fileName + "'.", e );
+        file = Paths.get( backupFilePath, fileName ).toFile();
+        if ( file.isFile() ) {
+            log.info( "Found PROPERTIES_FILE : (" + fileName + ") in: (" + backupFilePath + ")" );
+            return file;
         }
+        log.warn( "Could not find PROPERTIES_FILE : (" + fileName + ") in: (" + backupFilePath + ")" );
 
-        try {
-            propertiesFile.close();
-        } catch ( IOException e ) {
-            e.printStackTrace();
-        }
+        throw new ConfigurationException( "Properties file '" + fileName + "' is missing." );
     }
 
 }
@@ -0,0 +1,224 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.exceptions.ConfigurationException;
+
+/**
+ * A properties file published as a {@link ConfigSnapshot} through a volatile reference, so readers never lock and
+ * always see one complete version of the file.
+ * <p>
+ * {@link #reload()} reads the file into a new snapshot and swaps it in only if it passes the validator; otherwise the
+ * error is logged and the current settings stay in effect. {@link #watch()} starts a daemon thread which reloads
+ * whenever the file is written or replaced, so settings can be changed without restarting the container. Listeners are
+ * told about every snapshot swapped in; settings only read at startup still need a restart.
+ * 
+ * @version $Id$
+ */
+public class ReloadableConfig implements AutoCloseable {
+
+    private static final Logger log = Logger.getLogger( ReloadableConfig.class );
+
+    /**
+     * Editors often write a file in several steps; wait this long after the last change before reading it.
+     */
+    private static final long SETTLE_MS = 200;
+
+    /**
+     * Checks a snapshot before it is swapped in.
+     */
+    public interface Validator {
+        /**
+         * @throws ConfigurationException If the snapshot must not be used.
+         */
+        void validate( ConfigSnapshot snapshot ) throws ConfigurationException;
+    }
+
+    private final File file;
+    private final Validator validator;
+    private final List<Consumer<ConfigSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile ConfigSnapshot current;
+    private WatchService watchService;
+
+    /**
+     * Reads and validates the file.
+     * 
+     * @param file The properties file.
+     * @param validator Checks every version of the file, may be null.
+     * @throws ConfigurationException If the file cannot be read or is not valid.
+     */
+    public ReloadableConfig( File file, Validator validator ) throws ConfigurationException {
+        this.file = file.getAbsoluteFile();
+        this.validator = validator;
+        this.current = read();
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * @return The current settings.
+     */
+    public ConfigSnapshot get() {
+        return current;
+    }
+
+    /**
+     * Reads the file again and swaps it in if it is valid and differs from the current settings.
+     * 
+     * @return False if the file could not be read or is not valid, in which case the current settings are kept.
+     */
+    public boolean reload() {
+        ConfigSnapshot snapshot;
+        try {
+            snapshot = read();
+        } catch ( ConfigurationException e ) {
+            log.error( "Keeping the current settings, " + file + " is not valid: " + e.getMessage() );
+            return false;
+        }
+
+        ConfigSnapshot previous = current;
+        Set<String> changed = snapshot.changedKeys( previous );
+        if ( changed.isEmpty() ) {
+            return true;
+        }
+        current = snapshot;
+        log.info( "Reloaded " + file + ", changed: " + changed );
+        for ( Consumer<ConfigSnapshot> listener : listeners ) {
+            try {
+                listener.accept( snapshot );
+            } catch ( RuntimeException e ) {
+                log.error( "Applying the settings of " + file + " failed", e );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param listener Called on the reloading thread with every new snapshot.
+     */
+    public void addListener( Consumer<ConfigSnapshot> listener ) {
+        listeners.add( listener );
+    }
+
+    /**
+     * Starts reloading the file whenever it changes. Does nothing if already watching.
+     * 
+     * @throws ConfigurationException If the directory of the file cannot be watched.
+     */
+    public synchronized void watch() throws ConfigurationException {
+        if ( watchService != null ) {
+            return;
+        }
+        final Path directory = file.getParentFile().toPath();
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register( watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY );
+        } catch ( IOException e ) {
+            throw new ConfigurationException( "Cannot watch " + file + " for changes.", e );
+        }
+
+        final WatchService service = watchService;
+        Thread watcher = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                watchLoop( service );
+            }
+        }, "ndb-config-" + file.getName() );
+        watcher.setDaemon( true );
+        watcher.start();
+        log.info( "Watching " + file + " for changes" );
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    @Override
+    public synchronized void close() {
+        if ( watchService != null ) {
+            try {
+                watchService.close();
+            } catch ( IOException e ) {
+                log.warn( "Closing the watch of " + file + " failed", e );
+            }
+            watchService = null;
+        }
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private ConfigSnapshot read() throws ConfigurationException {
+        ConfigSnapshot snapshot = ConfigSnapshot.load( file );
+        if ( validator != null ) {
+            validator.validate( snapshot );
+        }
+        return snapshot;
+    }
+
+    private void watchLoop( WatchService service ) {
+        try {
+            while ( true ) {
+                WatchKey key = service.take();
+                boolean changed = collect( key );
+                // Let a burst of writes settle, then read the file once.
+                while ( ( key = service.poll( SETTLE_MS, TimeUnit.MILLISECONDS ) ) != null ) {
+                    changed |= collect( key );
+                }
+                if ( changed ) {
+                    reload();
+                }
+            }
+        } catch ( ClosedWatchServiceException | InterruptedException e ) {
+            log.debug( "Stopped watching " + file );
+        }
+    }
+
+    /**
+     * @return True if the events of the key concern the watched file.
+     */
+    private boolean collect( WatchKey key ) {
+        boolean changed = false;
+        for ( WatchEvent<?> event : key.pollEvents() ) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getName().equals( String.valueOf( event.context() ) );
+        }
+        key.reset();
+        return changed;
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+/**
+ * Where the time of one request went: the duration of each JSF lifecycle phase and of the SQL statements it ran.
+ * Started by the profiling filter and bound to the request thread, so the phase listener and the DAO instrumentation
+ * can add to it without passing it around. Work the request hands to other threads, such as the async DAO, is not
+ * included.
+ * 
+ * @version $Id$
+ */
+public final class RequestProfile {
+
+    /**
+     * Phases are indexed by their JSF ordinal, 1 (restore view) to 6 (render response).
+     */
+    public static final int PHASES = 7;
+
+    private static final ThreadLocal<RequestProfile> CURRENT = new ThreadLocal<>();
+
+    private final long start = System.nanoTime();
+    private final long[] phaseNanos = new long[PHASES];
+    private final long[] phaseStart = new long[PHASES];
+    private String view;
+    private int queries;
+    private long queryNanos;
+
+    private RequestProfile() {
+        // Use begin().
+    }
+
+    // Actions ------------------------------------------------------------------------------------
+
+    /**
+     * Starts profiling the request of the current thread.
+     */
+    public static RequestProfile begin() {
+        RequestProfile profile = new RequestProfile();
+        CURRENT.set( profile );
+        return profile;
+    }
+
+    /**
+     * @return The profile of the request of the current thread, or null if it is not profiled.
+     */
+    public static RequestProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Stops profiling the request of the current thread.
+     * 
+     * @return The time since {@link #begin()} in nanoseconds.
+     */
+    public long end() {
+        CURRENT.remove();
+        return System.nanoTime() - start;
+    }
+
+    public void phaseStarted( int phase ) {
+        phaseStart[phase] = System.nanoTime();
+    }
+
+    public void phaseEnded( int phase ) {
+        if ( phaseStart[phase] != 0 ) {
+            phaseNanos[phase] += System.nanoTime() - phaseStart[phase];
+            phaseStart[phase] = 0;
+        }
+    }
+
+    /**
+     * Adds a statement executed on the request thread.
+     */
+    public static void queryExecuted( long nanos ) {
+        RequestProfile profile = CURRENT.get();
+        if ( profile != null ) {
+            profile.queries++;
+            profile.queryNanos += nanos;
+        }
+    }
+
+    // Getters/setters ----------------------------------------------------------------------------
+
+    /**
+     * @return The nanoseconds spent in the given phase, 0 if it did not run.
+     */
+    public long getPhaseNanos( int phase ) {
+        return phaseNanos[phase];
+    }
+
+    /**
+     * @return The JSF view of the request, or null if the request did not go through the JSF lifecycle.
+     */
+    public String getView() {
+        return view;
+    }
+
+    public void setView( String view ) {
+        this.view = view;
+    }
+
+    public int getQueries() {
+        return queries;
+    }
+
+    public long getQueryNanos() {
+        return queryNanos;
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import ubc.pavlab.ndb.dao.RowCallback;
+import ubc.pavlab.ndb.dao.VariantDAO;
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * Writes the complete variant collection as gzip compressed TSV or VCF. Rows are streamed from the database and
+ * written as they arrive, so memory use does not depend on the number of variants.
+ * <p>
+ * The VCF holds substitutions only. Insertions and deletions are stored without the preceding reference base VCF
+ * requires, with '-' for the empty allele, and no reference sequence is at hand here to add it; they are in the TSV.
+ * 
+ * @version $Id$
+ */
+public final class VariantExporter {
+
+    private static final Logger log = Logger.getLogger( VariantExporter.class );
+
+    public static final String CONTENT_TYPE = "application/gzip";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String TSV_HEADER = "id\tpaper_id\tgene_id\tsymbol\tchromosome\tstart\tstop\tref\talt"
+            + "\tcategory\tfunc\tcdna_change\taa_change\n";
+
+    private static final String VCF_HEADER = "##fileformat=VCFv4.2\n" + "##source=ndb\n"
+            + "##INFO=<ID=GENE,Number=1,Type=String,Description=\"Gene symbol\">\n"
+            + "##INFO=<ID=PAPER,Number=1,Type=Integer,Description=\"Paper ID\">\n"
+            + "##INFO=<ID=CATEGORY,Number=1,Type=String,Description=\"Variant category\">\n"
+            + "##INFO=<ID=FUNC,Number=1,Type=String,Description=\"Variant function\">\n"
+            + "##comment=Substitutions only; insertions and deletions are left out, see variants.tsv.gz\n"
+            + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n";
+
+    private static final String MISSING = ".";
+
+    /**
+     * An allele VCF accepts without an anchor base.
+     */
+    private static final Pattern VCF_ALLELE = Pattern.compile( "[ACGTNacgtn]+" );
+
+    /**
+     * The available download formats.
+     */
+    public enum Format {
+        TSV("variants.tsv.gz"), VCF("variants.vcf.gz");
+
+        private final String fileName;
+
+        private Format( String fileName ) {
+            this.fileName = fileName;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * @param fileName The requested file name.
+         * @return The format served under the given file name, or null if there is none.
+         */
+        public static Format forFileName( String fileName ) {
+            for ( Format format : values() ) {
+                if ( format.fileName.equals( fileName ) ) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private VariantExporter() {
+        // Utility class, hide constructor.
+    }
+
+    /**
+     * Streams all variants to the given output stream as gzip compressed data. The stream is finished but not closed.
+     * 
+     * @param variantDAO The DAO to read variants from.
+     * @param format The format to write.
+     * @param out The stream to write to.
+     * @return The number of variants written, which leaves out those the format cannot represent.
+     * @throws IOException If writing fails.
+     * @throws DAOException If reading fails.
+     */
+    public static long export( VariantDAO variantDAO, final Format format, OutputStream out ) throws IOException,
+            DAOException {
+        GZIPOutputStream gzip = new GZIPOutputStream( out, BUFFER_SIZE );
+        final Writer writer = new BufferedWriter( new OutputStreamWriter( gzip, StandardCharsets.UTF_8 ),
+                BUFFER_SIZE );
+        writer.write( format == Format.VCF ? VCF_HEADER : TSV_HEADER );
+
+        final long[] written = new long[1];
+        RowCallback<Variant> callback = new RowCallback<Variant>() {
+            @Override
+            public void handle( Variant variant ) throws IOException {
+                if ( writeRow( format, variant, writer ) ) {
+                    written[0]++;
+                }
+            }
+        };
+
+        long rows;
+        try {
+            rows = format == Format.VCF ? variantDAO.streamAllByPosition( callback )
+                    : variantDAO.streamAll( callback );
+        } catch ( DAOException e ) {
+            // Writes to the client end up here as well; surface those as what they are.
+            if ( e.getCause() instanceof IOException ) {
+                throw ( IOException ) e.getCause();
+            }
+            throw e;
+        }
+
+        writer.flush();
+        gzip.finish();
+        if ( written[0] < rows ) {
+            log.debug( "Left " + ( rows - written[0] ) + " of " + rows + " variants out of the " + format );
+        }
+        return written[0];
+    }
+
+    /**
+     * Writes all variants to a snapshot file. The file is written under a temporary name next to it and then moved
+     * into place, so readers either see the previous snapshot or the complete new one.
+     * 
+     * @param variantDAO The DAO to read variants from.
+     * @param format The format to write.
+     * @param target The snapshot file.
+     * @return The snapshot file.
+     * @throws IOException If writing fails.
+     * @throws DAOException If reading fails.
+     */
+    public static File writeSnapshot( VariantDAO variantDAO, Format format, File target ) throws IOException,
+            DAOException {
+        File temp = File.createTempFile( target.getName(), ".tmp", target.getAbsoluteFile().getParentFile() );
+        try {
+            long rows;
+            try (OutputStream out = new FileOutputStream( temp )) {
+                rows = export( variantDAO, format, out );
+            }
+            Files.move( temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+            log.info( "Wrote " + rows + " variants to snapshot " + target + " (" + target.length() + " bytes)" );
+            return target;
+        } finally {
+            if ( temp.exists() && !temp.delete() ) {
+                log.warn( "Could not delete temporary snapshot " + temp );
+            }
+        }
+    }
+
+    /**
+     * @return Whether the row was written; VCF leaves out variants without a chromosome or with an allele that is not
+     *         plain bases, such as the '-' of insertions and deletions.
+     */
+    static boolean writeRow( Format format, Variant variant, Writer writer ) throws IOException {
+        if ( format == Format.VCF ) {
+            if ( !isVcfRecord( variant ) ) {
+                return false;
+            }
+            writer.write( value( variant.getChromosome() ) );
+            writer.write( '\t' );
+            writer.write( Long.toString( variant.getStart() ) );
+            writer.write( '\t' );
+            writer.write( Integer.toString( variant.getId() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getRef() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getAlt() ) );
+            writer.write( "\t.\t.\tGENE=" );
+            writer.write( info( variant.getSymbol() ) );
+            writer.write( ";PAPER=" );
+            writer.write( Integer.toString( variant.getPaperId() ) );
+            writer.write( ";CATEGORY=" );
+            writer.write( info( variant.getCategory() ) );
+            writer.write( ";FUNC=" );
+            writer.write( info( variant.getFunc() ) );
+        } else {
+            writer.write( Integer.toString( variant.getId() ) );
+            writer.write( '\t' );
+            writer.write( Integer.toString( variant.getPaperId() ) );
+            writer.write( '\t' );
+            writer.write( Integer.toString( variant.getGeneId() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getSymbol() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getChromosome() ) );
+            writer.write( '\t' );
+            writer.write( Long.toString( variant.getStart() ) );
+            writer.write( '\t' );
+            writer.write( Long.toString( variant.getStop() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getRef() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getAlt() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getCategory() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getFunc() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getCdnaChange() ) );
+            writer.write( '\t' );
+            writer.write( value( variant.getAaChange() ) );
+        }
+        writer.write( '\n' );
+        return true;
+    }
+
+    private static boolean isVcfRecord( Variant variant ) {
+        return variant.getChromosome() != null && !variant.getChromosome().isEmpty() && variant.getRef() != null
+                && VCF_ALLELE.matcher( variant.getRef() ).matches() && variant.getAlt() != null
+                && VCF_ALLELE.matcher( variant.getAlt() ).matches();
+    }
+
+    private static String value( String s ) {
+        if ( s == null || s.isEmpty() ) {
+            return MISSING;
+        }
+        return s.indexOf( '\t' ) < 0 && s.indexOf( '\n' ) < 0 ? s : s.replace( '\t', ' ' ).replace( '\n', ' ' );
+    }
+
+    private static String info( String s ) {
+        // VCF INFO values may not contain whitespace, semicolons or equals signs.
+        return value( s ).replace( ' ', '_' ).replace( ';', ',' ).replace( '=', ':' );
+    }
+
+}
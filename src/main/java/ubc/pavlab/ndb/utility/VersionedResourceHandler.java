@@ -0,0 +1,168 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.utility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.faces.application.Resource;
+import javax.faces.application.ResourceHandler;
+import javax.faces.application.ResourceHandlerWrapper;
+import javax.faces.application.ResourceWrapper;
+import javax.faces.context.FacesContext;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Fingerprints JSF resources so browsers and proxies may keep them indefinitely. Resource URLs get a
+ * <code>v</code> parameter derived from the content, and a request carrying the current fingerprint is answered with
+ * <code>Cache-Control: public, max-age=31536000, immutable</code>; a changed stylesheet or logo gets a new URL instead
+ * of being revalidated. Resources already versioned by their library, such as PrimeFaces', keep their own
+ * <code>v</code> and are cached the same way.
+ * <p>
+ * Fingerprints are computed once per resource, on first use.
+ * 
+ * @version $Id$
+ */
+public class VersionedResourceHandler extends ResourceHandlerWrapper {
+
+    private static final Logger log = Logger.getLogger( VersionedResourceHandler.class );
+
+    static final String VERSION_PARAMETER = "v";
+
+    static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private final ResourceHandler wrapped;
+
+    private final ConcurrentMap<String, String> fingerprints = new ConcurrentHashMap<>();
+
+    public VersionedResourceHandler( ResourceHandler wrapped ) {
+        this.wrapped = wrapped;
+    }
+
+    @Override
+    public ResourceHandler getWrapped() {
+        return wrapped;
+    }
+
+    @Override
+    public Resource createResource( String resourceName ) {
+        return versioned( super.createResource( resourceName ) );
+    }
+
+    @Override
+    public Resource createResource( String resourceName, String libraryName ) {
+        return versioned( super.createResource( resourceName, libraryName ) );
+    }
+
+    @Override
+    public Resource createResource( String resourceName, String libraryName, String contentType ) {
+        return versioned( super.createResource( resourceName, libraryName, contentType ) );
+    }
+
+    // Helpers ------------------------------------------------------------------------------------
+
+    private Resource versioned( Resource resource ) {
+        return resource == null ? null : new VersionedResource( resource );
+    }
+
+    private String fingerprint( Resource resource ) {
+        String key = resource.getLibraryName() + ":" + resource.getResourceName();
+        String fingerprint = fingerprints.get( key );
+        if ( fingerprint == null ) {
+            try (InputStream in = resource.getInputStream()) {
+                fingerprint = in == null ? "" : Hashing.murmur3_32().hashBytes( ByteStreams.toByteArray( in ) )
+                        .toString();
+            } catch ( IOException e ) {
+                log.warn( "Could not fingerprint resource " + key, e );
+                return "";
+            }
+            fingerprints.put( key, fingerprint );
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return The value of the version parameter in the given resource path, or null if there is none.
+     */
+    static String version( String path ) {
+        int query = path.indexOf( '?' );
+        if ( query < 0 ) {
+            return null;
+        }
+        for ( String parameter : path.substring( query + 1 ).split( "&" ) ) {
+            if ( parameter.startsWith( VERSION_PARAMETER + "=" ) ) {
+                return parameter.substring( VERSION_PARAMETER.length() + 1 );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The resource path with the fingerprint as version parameter, or the path as is if there is none.
+     */
+    static String withVersion( String path, String fingerprint ) {
+        if ( fingerprint.isEmpty() ) {
+            return path;
+        }
+        return path + ( path.indexOf( '?' ) < 0 ? '?' : '&' ) + VERSION_PARAMETER + "=" + fingerprint;
+    }
+
+    // Nested classes -----------------------------------------------------------------------------
+
+    private final class VersionedResource extends ResourceWrapper {
+
+        private final Resource resource;
+
+        VersionedResource( Resource resource ) {
+            this.resource = resource;
+        }
+
+        @Override
+        public Resource getWrapped() {
+            return resource;
+        }
+
+        @Override
+        public String getRequestPath() {
+            String path = super.getRequestPath();
+            return version( path ) == null ? withVersion( path, fingerprint( resource ) ) : path;
+        }
+
+        @Override
+        public Map<String, String> getResponseHeaders() {
+            Map<String, String> headers = new HashMap<>( super.getResponseHeaders() );
+            String requested = FacesContext.getCurrentInstance().getExternalContext().getRequestParameterMap()
+                    .get( VERSION_PARAMETER );
+            if ( requested != null && requested.equals( version( getRequestPath() ) ) ) {
+                headers.put( "Cache-Control", IMMUTABLE );
+            }
+            return headers;
+        }
+    }
+
+}
@@ -0,0 +1,10 @@
+-- One row per chunk of a supplementary table loaded by ubc.pavlab.ndb.ingest.IngestPipeline, written in the same
+-- transaction as the chunk's variants, so that a failed load resumes after the last committed chunk. Rows of finished
+-- loads may be deleted; a deleted source is loaded again in full when it is next ingested.
+CREATE TABLE IF NOT EXISTS ingest_checkpoint (
+    source VARCHAR(255) NOT NULL,
+    chunk INT NOT NULL,
+    variants INT NOT NULL,
+    completed TIMESTAMP NOT NULL,
+    PRIMARY KEY (source, chunk)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
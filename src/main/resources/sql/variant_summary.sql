@@ -0,0 +1,9 @@
+-- Number of variants per gene, paper, category and func, so that pages read a count as a single row instead of
+-- grouping the variant table. Kept current by ubc.pavlab.ndb.dao.VariantAggregates during ingest; after creating the
+-- table, or whenever VariantAggregates.verify() reports mismatches, fill it with VariantAggregates.rebuild().
+CREATE TABLE IF NOT EXISTS variant_summary (
+    dimension VARCHAR(16) NOT NULL,
+    item VARCHAR(255) NOT NULL,
+    variants BIGINT NOT NULL,
+    PRIMARY KEY (dimension, item)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
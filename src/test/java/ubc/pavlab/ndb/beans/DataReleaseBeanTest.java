@@ -0,0 +1,60 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.beans;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ubc.pavlab.ndb.model.DataRelease;
+
+public class DataReleaseBeanTest {
+
+    @Test
+    public void testVersionIsPublishedAfterListeners() {
+        final DataReleaseBean bean = new DataReleaseBean();
+        final List<String> seen = new ArrayList<>();
+        bean.addListener( release -> seen.add( bean.getVersion() ) );
+        bean.addListener( release -> {
+            throw new IllegalStateException( "failing listener" );
+        } );
+        bean.addListener( release -> seen.add( bean.getVersion() ) );
+
+        assertThat( bean.releaseLoaded( release( 7 ) ), is( true ) );
+        assertThat( seen, contains( "0", "0" ) );
+        assertThat( bean.getVersion(), is( "7" ) );
+
+        assertThat( bean.releaseLoaded( release( 7 ) ), is( false ) );
+        assertThat( bean.releaseLoaded( null ), is( false ) );
+        assertThat( seen.size(), is( 2 ) );
+    }
+
+    private static DataRelease release( int id ) {
+        DataRelease release = new DataRelease();
+        release.setId( id );
+        return release;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+public class AsyncDAOTest {
+
+    private static final DAOFactory NO_DATABASE = new DAOFactory() {
+        @Override
+        Connection getConnection() throws SQLException {
+            throw new SQLException( "No database in this test" );
+        }
+    };
+
+    private AsyncDAO asyncDAO;
+
+    @After
+    public void tearDown() {
+        asyncDAO.close();
+    }
+
+    @Test
+    public void testRunsInParallel() {
+        asyncDAO = new AsyncDAO( NO_DATABASE, 2, 10, 5000 );
+        // Each call waits for the other, so both only finish when they run at the same time.
+        CountDownLatch started = new CountDownLatch( 2 );
+        CompletableFuture<String> first = asyncDAO.submit( f -> meet( started, "first" ) );
+        CompletableFuture<String> second = asyncDAO.submit( f -> meet( started, "second" ) );
+
+        AsyncDAO.awaitAll( 5, TimeUnit.SECONDS, first, second );
+        assertThat( first.join(), is( "first" ) );
+        assertThat( second.join(), is( "second" ) );
+    }
+
+    @Test
+    public void testTimeoutInterruptsWork() throws InterruptedException {
+        asyncDAO = new AsyncDAO( NO_DATABASE, 1, 10, 5000 );
+        CountDownLatch interrupted = new CountDownLatch( 1 );
+        CompletableFuture<Object> slow = asyncDAO.submit( f -> {
+            try {
+                Thread.sleep( 10000 );
+            } catch ( InterruptedException e ) {
+                interrupted.countDown();
+            }
+            return null;
+        }, 50, TimeUnit.MILLISECONDS );
+
+        try {
+            slow.get();
+            fail();
+        } catch ( ExecutionException e ) {
+            assertThat( e.getCause(), instanceOf( TimeoutException.class ) );
+        }
+        assertThat( interrupted.await( 5, TimeUnit.SECONDS ), is( true ) );
+        assertThat( asyncDAO.getTimedOutCount(), is( 1L ) );
+
+        // The thread is free again.
+        assertThat( asyncDAO.submit( f -> "next" ).join(), is( "next" ) );
+    }
+
+    @Test
+    public void testFullQueueRejects() throws InterruptedException {
+        asyncDAO = new AsyncDAO( NO_DATABASE, 1, 1, 5000 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        CompletableFuture<Object> running = asyncDAO.submit( f -> {
+            await( release );
+            return null;
+        } );
+        CompletableFuture<String> queued = asyncDAO.submit( f -> "queued" );
+        CompletableFuture<String> rejected = asyncDAO.submit( f -> "rejected" );
+
+        assertThat( rejected.isCompletedExceptionally(), is( true ) );
+        assertThat( asyncDAO.getRejectedCount(), is( 1L ) );
+        release.countDown();
+        running.join();
+        assertThat( queued.join(), is( "queued" ) );
+    }
+
+    @Test
+    public void testAwaitAllRethrowsDAOException() {
+        asyncDAO = new AsyncDAO( NO_DATABASE, 2, 10, 30000 );
+        CountDownLatch never = new CountDownLatch( 1 );
+        CompletableFuture<String> blocked = asyncDAO.submit( f -> {
+            try {
+                never.await();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            return "blocked";
+        } );
+        CompletableFuture<Object> failing = asyncDAO.submit( f -> f.getGeneDAO().find( 1 ) );
+
+        long start = System.nanoTime();
+        try {
+            AsyncDAO.awaitAll( 30, TimeUnit.SECONDS, blocked, failing );
+            fail();
+        } catch ( DAOException e ) {
+            assertThat( e.getCause(), not( instanceOf( TimeoutException.class ) ) );
+        }
+        // Fails with the cause of the first failure instead of waiting for the blocked query.
+        assertThat( TimeUnit.NANOSECONDS.toSeconds( System.nanoTime() - start ) < 5, is( true ) );
+        assertThat( blocked.isCancelled(), is( true ) );
+    }
+
+    private static String meet( CountDownLatch started, String value ) {
+        started.countDown();
+        await( started );
+        return value;
+    }
+
+    private static void await( CountDownLatch latch ) {
+        try {
+            if ( !latch.await( 5, TimeUnit.SECONDS ) ) {
+                throw new IllegalStateException( "Timed out" );
+            }
+        } catch ( InterruptedException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import ubc.pavlab.ndb.dao.BatchWriter.BatchFailure;
+import ubc.pavlab.ndb.dao.BatchWriter.BatchResult;
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+public class BatchWriterTest {
+
+    private static final String URL = "jdbc:h2:mem:batchwriter;DB_CLOSE_DELAY=-1;MODE=MySQL";
+    private static final String SQL_INSERT = "INSERT INTO variant (id, symbol, start) VALUES (?, ?, ?)";
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private DAOFactory daoFactory;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        daoFactory = new DriverManagerDAOFactory( URL, "sa", "" );
+        connection = DriverManager.getConnection( URL, "sa", "" );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "CREATE TABLE variant (id INT PRIMARY KEY, symbol VARCHAR(32), start BIGINT)" );
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DROP TABLE variant" );
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testRowsAreWrittenInChunks() {
+        BatchResult result = write( false, 2500, 0 );
+
+        assertThat( result.isSuccessful(), is( true ) );
+        assertThat( result.getChunks(), is( 3 ) );
+        assertThat( result.getRowsWritten(), is( 2500L ) );
+        assertThat( count( "SELECT COUNT(*) FROM variant" ), is( 2500L ) );
+    }
+
+    @Test
+    public void testMultiRowRewrite() {
+        BatchResult result = write( true, 2500, 0 );
+
+        assertThat( result.isSuccessful(), is( true ) );
+        assertThat( result.getRowsWritten(), is( 2500L ) );
+        assertThat( count( "SELECT SUM(start) FROM variant" ), is( 2500L * 2499 / 2 ) );
+    }
+
+    @Test
+    public void testRewriteRepeatsValuesGroup() {
+        assertThat( BatchWriter.rewriteMultiRow( "INSERT INTO t (a, b) VALUES (?, ?) ON DUPLICATE KEY UPDATE b = 1", 3 ),
+                is( "INSERT INTO t (a, b) VALUES (?, ?),(?, ?),(?, ?) ON DUPLICATE KEY UPDATE b = 1" ) );
+    }
+
+    @Test
+    public void testRewriteKeepsNestedParentheses() {
+        assertThat( BatchWriter.rewriteMultiRow( "INSERT INTO t (a, b, c) VALUES (?, NOW(), ?)", 2 ),
+                is( "INSERT INTO t (a, b, c) VALUES (?, NOW(), ?),(?, NOW(), ?)" ) );
+        assertThat( BatchWriter.rewriteMultiRow( "INSERT INTO t (a, b) VALUES (?, CONCAT(')', ?))", 2 ),
+                is( "INSERT INTO t (a, b) VALUES (?, CONCAT(')', ?)),(?, CONCAT(')', ?))" ) );
+    }
+
+    @Test
+    public void testMultiRowRewriteWithFunctionCall() {
+        String sql = "INSERT INTO variant (id, symbol, start) VALUES (?, UPPER(COALESCE(?, 'none')), ?)";
+        try (BatchWriter writer = new BatchWriter( daoFactory, sql, 4 )) {
+            writer.setMultiRowRewrite( true );
+            for ( int i = 0; i < 10; i++ ) {
+                writer.add( i, i % 2 == 0 ? "brca1" : null, (long) i );
+            }
+            assertThat( writer.finish().isSuccessful(), is( true ) );
+        }
+
+        assertThat( count( "SELECT COUNT(*) FROM variant WHERE symbol = 'BRCA1'" ), is( 5L ) );
+        assertThat( count( "SELECT COUNT(*) FROM variant WHERE symbol = 'NONE'" ), is( 5L ) );
+    }
+
+    @Test
+    public void testMultiRowRewriteRejectsUnbalancedValues() {
+        thrown.expect( IllegalArgumentException.class );
+        try (BatchWriter writer = new BatchWriter( daoFactory, "INSERT INTO variant (id) VALUES (?, NOW(", 4 )) {
+            writer.setMultiRowRewrite( true );
+        }
+    }
+
+    @Test
+    public void testUpsertOverwritesExistingRows() {
+        write( false, 10, 0 );
+
+        String upsert = BatchWriter.upsert( SQL_INSERT, "symbol", "start" );
+        try (BatchWriter writer = new BatchWriter( daoFactory, upsert, 4 )) {
+            writer.setMultiRowRewrite( true );
+            for ( int i = 5; i < 15; i++ ) {
+                writer.add( i, "UPDATED", -1L );
+            }
+            assertThat( writer.finish().isSuccessful(), is( true ) );
+        }
+
+        assertThat( count( "SELECT COUNT(*) FROM variant" ), is( 15L ) );
+        assertThat( count( "SELECT COUNT(*) FROM variant WHERE symbol = 'UPDATED'" ), is( 10L ) );
+    }
+
+    @Test
+    public void testFailedChunkIsReportedAndSkipped() {
+        // Row 1500 duplicates an id of the first chunk, so only the second chunk fails.
+        BatchResult result = write( false, 2500, 1500 );
+
+        assertThat( result.getFailures().size(), is( 1 ) );
+        BatchFailure failure = result.getFailures().get( 0 );
+        assertThat( failure.getChunk(), is( 1 ) );
+        assertThat( failure.getFirstRow(), is( 1000L ) );
+        assertThat( failure.getRows(), is( 1000 ) );
+        assertThat( result.getRowsWritten(), is( 1500L ) );
+        assertThat( count( "SELECT COUNT(*) FROM variant" ), is( 1500L ) );
+    }
+
+    @Test
+    public void testStopOnFailure() {
+        thrown.expect( DAOException.class );
+        try (BatchWriter writer = new BatchWriter( daoFactory, SQL_INSERT, 10 )) {
+            writer.setStopOnFailure( true );
+            writer.add( 1, "A", 1L );
+            writer.add( 1, "A", 1L );
+            writer.finish();
+        }
+    }
+
+    private BatchResult write( boolean multiRow, int rows, int duplicateAt ) {
+        try (BatchWriter writer = new BatchWriter( daoFactory, SQL_INSERT, 1000 )) {
+            writer.setMultiRowRewrite( multiRow );
+            for ( int i = 0; i < rows; i++ ) {
+                int id = duplicateAt > 0 && i == duplicateAt ? 0 : i;
+                writer.add( id, "GENE" + i, ( long ) i );
+            }
+            return writer.finish();
+        }
+    }
+
+    private long count( String sql ) {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery( sql )) {
+            resultSet.next();
+            return resultSet.getLong( 1 );
+        } catch ( SQLException e ) {
+            throw new DAOException( e );
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class EntityCacheTest {
+
+    private static final Weigher<Integer, String> WEIGHER = new Weigher<Integer, String>() {
+        @Override
+        public int weigh( Integer id, String value ) {
+            return value.length();
+        }
+    };
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final ExecutorService threads = Executors.newFixedThreadPool( 8 );
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void testHitsAndNegativeLookupsAreCached() {
+        EntityCache<String> cache = cache( "maximumSize=100", new CountingFinder( 0 ) );
+
+        assertThat( cache.get( 1 ), is( "entity1" ) );
+        assertThat( cache.get( 1 ), is( "entity1" ) );
+        assertThat( cache.get( -1 ), is( nullValue() ) );
+        assertThat( cache.get( -1 ), is( nullValue() ) );
+
+        assertThat( lookups.get(), is( 2 ) );
+        assertThat( cache.getStats().hitCount(), is( 2L ) );
+        assertThat( cache.getStats().missCount(), is( 2L ) );
+    }
+
+    @Test
+    public void testConcurrentMissesCollapseIntoOneLookup() throws Exception {
+        final EntityCache<String> cache = cache( "maximumSize=100", new CountingFinder( 200 ) );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        List<Future<String>> results = new ArrayList<>();
+        for ( int i = 0; i < 8; i++ ) {
+            results.add( threads.submit( new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return cache.get( 7 );
+                }
+            } ) );
+        }
+        start.countDown();
+        for ( Future<String> result : results ) {
+            assertThat( result.get( 5, TimeUnit.SECONDS ), is( "entity7" ) );
+        }
+
+        assertThat( lookups.get(), is( 1 ) );
+    }
+
+    @Test
+    public void testWeightBoundEvicts() {
+        EntityCache<String> cache = cache( "maximumWeight=2000", new CountingFinder( 0 ) );
+        for ( int i = 0; i < 100; i++ ) {
+            cache.get( i );
+        }
+
+        assertThat( cache.size(), lessThan( 100L ) );
+        assertThat( cache.getStats().evictionCount(), greaterThan( 0L ) );
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        EntityCache<String> cache = cache( "maximumSize=100,expireAfterWrite=1h", new CountingFinder( 0 ) );
+        cache.get( 1 );
+        cache.invalidateAll();
+        cache.get( 1 );
+
+        assertThat( lookups.get(), is( 2 ) );
+    }
+
+    @Test
+    public void testLookupFailureIsRethrown() {
+        EntityCache<String> cache = cache( "maximumSize=100", new EntityCache.Finder<String>() {
+            @Override
+            public String find( int id ) {
+                throw new DAOException( "Database down" );
+            }
+        } );
+
+        thrown.expect( DAOException.class );
+        thrown.expectMessage( "Database down" );
+        cache.get( 1 );
+    }
+
+    private EntityCache<String> cache( String spec, EntityCache.Finder<String> finder ) {
+        return new EntityCache<>( "test", spec, WEIGHER, finder, MoreExecutors.sameThreadExecutor() );
+    }
+
+    private final class CountingFinder implements EntityCache.Finder<String> {
+        private final long delayMs;
+
+        CountingFinder( long delayMs ) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public String find( int id ) {
+            lookups.incrementAndGet();
+            if ( delayMs > 0 ) {
+                try {
+                    Thread.sleep( delayMs );
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return id < 0 ? null : "entity" + id;
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+/**
+ * A {@link VariantDAO} over a list of variants, for tests of code which only reads or streams variants. Orderings
+ * follow the contract of the interface. Cursors need a database, so {@link #openAll()} is not supported; use
+ * {@link TestDAOFactory} for code that opens them.
+ */
+public final class InMemoryVariantDAO implements VariantDAO {
+
+    private static final Comparator<Variant> BY_ID = Comparator.comparingInt( Variant::getId );
+    private static final Comparator<Variant> BY_GENE = Comparator.comparingInt( Variant::getGeneId ).thenComparing(
+            BY_ID );
+    private static final Comparator<Variant> BY_START = Comparator.comparingLong( Variant::getStart ).thenComparing(
+            BY_ID );
+    private static final Comparator<Variant> BY_POSITION = Comparator.comparing( Variant::getChromosome,
+            Comparator.nullsLast( Comparator.<String> naturalOrder() ) ).thenComparing( BY_START );
+
+    private final List<Variant> variants;
+
+    public InMemoryVariantDAO( Variant... variants ) {
+        this( Arrays.asList( variants ) );
+    }
+
+    /**
+     * @param variants The variants, kept by reference so that tests can inspect updates.
+     */
+    public InMemoryVariantDAO( List<Variant> variants ) {
+        this.variants = variants;
+    }
+
+    @Override
+    public Variant find( int id ) {
+        for ( Variant variant : variants ) {
+            if ( variant.getId() == id ) {
+                return variant;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Variant> findByRegion( String chromosome, long start, long stop ) {
+        List<Variant> found = new ArrayList<>();
+        for ( Variant variant : variants ) {
+            if ( chromosome.equals( variant.getChromosome() ) && variant.getStart() <= stop
+                    && variant.getStop() >= start ) {
+                found.add( variant );
+            }
+        }
+        Collections.sort( found, BY_START );
+        return found;
+    }
+
+    @Override
+    public List<Variant> findByGenes( Collection<Integer> geneIds ) {
+        List<Variant> found = new ArrayList<>();
+        for ( Variant variant : variants ) {
+            if ( geneIds.contains( variant.getGeneId() ) ) {
+                found.add( variant );
+            }
+        }
+        Collections.sort( found, BY_GENE );
+        return found;
+    }
+
+    @Override
+    public long streamLocations( RowCallback<? super Variant> callback ) {
+        List<Variant> locations = new ArrayList<>();
+        for ( Variant variant : variants ) {
+            Variant location = new Variant();
+            location.setId( variant.getId() );
+            location.setChromosome( variant.getChromosome() );
+            location.setStart( variant.getStart() );
+            location.setStop( variant.getStop() );
+            locations.add( location );
+        }
+        return stream( locations, BY_ID, callback );
+    }
+
+    @Override
+    public long streamAll( RowCallback<? super Variant> callback ) {
+        return stream( variants, BY_ID, callback );
+    }
+
+    @Override
+    public long streamAllByPosition( RowCallback<? super Variant> callback ) {
+        return stream( variants, BY_POSITION, callback );
+    }
+
+    @Override
+    public RowCursor<Variant> openAll() {
+        throw new UnsupportedOperationException( "Cursors need a database, use TestDAOFactory" );
+    }
+
+    @Override
+    public long updateLocations( List<Variant> updates ) {
+        long written = 0;
+        for ( Variant update : updates ) {
+            Variant variant = find( update.getId() );
+            if ( variant != null ) {
+                variant.setChromosome( update.getChromosome() );
+                variant.setStart( update.getStart() );
+                variant.setStop( update.getStop() );
+                variant.setRef( update.getRef() );
+                variant.setAlt( update.getAlt() );
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private static long stream( List<Variant> variants, Comparator<Variant> order,
+            RowCallback<? super Variant> callback ) {
+        List<Variant> sorted = new ArrayList<>( variants );
+        Collections.sort( sorted, order );
+        for ( Variant variant : sorted ) {
+            try {
+                callback.handle( variant );
+            } catch ( Exception e ) {
+                throw new DAOException( e );
+            }
+        }
+        return sorted.size();
+    }
+
+}
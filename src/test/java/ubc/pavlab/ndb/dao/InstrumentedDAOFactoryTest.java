@@ -0,0 +1,163 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.utility.RequestProfile;
+
+public class InstrumentedDAOFactoryTest {
+
+    private static final String URL = "jdbc:h2:mem:instrumented;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+    private Connection connection;
+    private PooledDAOFactory pool;
+    private InstrumentedDAOFactory factory;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection( URL, "sa", "" );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "CREATE TABLE gene (id INT PRIMARY KEY, symbol VARCHAR(32), name VARCHAR(255), "
+                    + "aliases VARCHAR(255))" );
+            for ( int id = 1; id <= 10; id++ ) {
+                statement.execute( "INSERT INTO gene (id, symbol) VALUES (" + id + ", 'GENE" + id + "')" );
+            }
+        }
+        pool = new PooledDAOFactory( URL, "sa", "", 2, 0, 1000, 600000, 0 );
+        factory = new InstrumentedDAOFactory( pool, 0 );
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        factory.close();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DROP ALL OBJECTS" );
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testRecordsQueries() {
+        GeneDAO geneDAO = factory.getGeneDAO();
+        for ( int id = 1; id <= 5; id++ ) {
+            assertThat( geneDAO.find( id ).getSymbol(), is( "GENE" + id ) );
+        }
+        assertThat( geneDAO.find( 42 ), is( ( Object ) null ) );
+
+        List<QueryStats> stats = factory.getQueryStats();
+        assertThat( stats.size(), is( 1 ) );
+        assertThat( stats.get( 0 ).getTemplate(), containsString( "FROM gene WHERE id = ?" ) );
+        assertThat( stats.get( 0 ).getExecutions(), is( 6L ) );
+        assertThat( stats.get( 0 ).getRows(), is( 5L ) );
+        assertThat( stats.get( 0 ).getErrors(), is( 0L ) );
+        assertThat( factory.getConnectionWait().getCount(), is( 6L ) );
+        assertThat( pool.getActiveCount(), is( 0 ) );
+    }
+
+    @Test
+    public void testListsShareTemplate() {
+        GeneDAO geneDAO = factory.getGeneDAO();
+        assertThat( geneDAO.findByIds( Arrays.asList( 1, 2, 3 ) ).size(), is( 3 ) );
+        assertThat( geneDAO.findByIds( Arrays.asList( 4, 5, 6, 7, 8, 9, 10 ) ).size(), is( 7 ) );
+
+        List<QueryStats> stats = factory.getQueryStats();
+        assertThat( stats.size(), is( 1 ) );
+        assertThat( stats.get( 0 ).getRows(), is( 10L ) );
+    }
+
+    @Test
+    public void testAddsToRequestProfile() {
+        RequestProfile profile = RequestProfile.begin();
+        try {
+            factory.getGeneDAO().find( 1 );
+            factory.getGeneDAO().find( 2 );
+        } finally {
+            profile.end();
+        }
+        assertThat( profile.getQueries(), is( 2 ) );
+    }
+
+    @Test
+    public void testTemplate() {
+        assertThat( InstrumentedDAOFactory.template( "SELECT * FROM gene WHERE id IN (?, ?,?) AND symbol = ?" ),
+                is( "SELECT * FROM gene WHERE id IN (?, ...) AND symbol = ?" ) );
+        assertThat( InstrumentedDAOFactory.template( "INSERT INTO t (a, b) VALUES (?, ?), (?, ?), (?, ?)" ),
+                is( "INSERT INTO t (a, b) VALUES (?, ...), ..." ) );
+        assertThat( InstrumentedDAOFactory.template( "SELECT * FROM t1 WHERE a = 'it''s' AND b IN (1, 2.5) LIMIT 10" ),
+                is( "SELECT * FROM t1 WHERE a = ? AND b IN (?, ...) LIMIT ?" ) );
+        assertThat( InstrumentedDAOFactory.template( "INSERT INTO t (a, b) VALUES (1, 'x'), (2, 'y\\'z')" ),
+                is( "INSERT INTO t (a, b) VALUES (?, ...), ..." ) );
+    }
+
+    @Test
+    public void testTemplatesAreCapped() throws SQLException {
+        try (Connection instrumented = factory.getConnection();
+                Statement statement = instrumented.createStatement()) {
+            for ( int i = 0; i < InstrumentedDAOFactory.MAX_TEMPLATES + 50; i++ ) {
+                statement.executeQuery( "SELECT id AS c" + i + " FROM gene WHERE id = 1" ).close();
+            }
+        }
+        List<QueryStats> stats = factory.getQueryStats();
+        assertThat( stats.size(), is( InstrumentedDAOFactory.MAX_TEMPLATES + 1 ) );
+        long other = 0;
+        for ( QueryStats queryStats : stats ) {
+            if ( queryStats.getTemplate().equals( InstrumentedDAOFactory.OTHER_TEMPLATE ) ) {
+                other = queryStats.getExecutions();
+            }
+        }
+        assertThat( other, is( 50L ) );
+    }
+
+    @Test
+    public void testCountsErrors() {
+        List<String> errors = new ArrayList<>();
+        try {
+            factory.getGeneDAO().find( 1 );
+            try (Statement statement = connection.createStatement()) {
+                statement.execute( "DROP TABLE gene" );
+            }
+            factory.getGeneDAO().find( 1 );
+        } catch ( DAOException | SQLException e ) {
+            errors.add( e.getMessage() );
+        }
+        assertThat( errors.size(), is( 1 ) );
+        QueryStats stats = factory.getQueryStats().get( 0 );
+        assertThat( stats.getExecutions(), is( 1L ) );
+        assertThat( stats.getErrors(), is( 1L ) );
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.pavlab.ndb.model.Gene;
+import ubc.pavlab.ndb.model.Variant;
+
+public class MultiIdLookupTest {
+
+    private static final String URL = "jdbc:h2:mem:lookup;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+    /**
+     * Genes 1 to GENES each have one variant; only even gene IDs exist.
+     */
+    private static final int GENES = 20000;
+
+    private PooledDAOFactory daoFactory;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        daoFactory = new PooledDAOFactory( URL, "sa", "", 8, 0, 1000, 600000, 0 );
+        connection = DriverManager.getConnection( URL, "sa", "" );
+        TestDAOFactory.createSchema( URL );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "INSERT INTO gene (id, symbol) SELECT X * 2, CONCAT('GENE', X * 2) "
+                    + "FROM SYSTEM_RANGE(1, " + GENES / 2 + ")" );
+            statement.execute( "INSERT INTO variant (id, paper_id, gene_id, chromosome, start, stop, ref, alt) "
+                    + "SELECT X, 1, X, '1', X * 10, X * 10, 'A', 'G' FROM SYSTEM_RANGE(1, " + GENES + ")" );
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        daoFactory.close();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DROP ALL OBJECTS" );
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testBucket() {
+        assertThat( MultiIdLookup.bucket( 1 ), is( 0 ) );
+        assertThat( MultiIdLookup.bucket( 2 ), is( 1 ) );
+        assertThat( MultiIdLookup.bucket( 3 ), is( 2 ) );
+        assertThat( MultiIdLookup.bucket( 1000 ), is( 10 ) );
+        assertThat( MultiIdLookup.bucket( MultiIdLookup.MAX_BUCKET_SIZE ), is( MultiIdLookup.BUCKETS - 1 ) );
+    }
+
+    @Test
+    public void testSmallList() {
+        List<Gene> genes = daoFactory.getGeneDAO().findByIds( Arrays.asList( 6, 3, 2, 6, 9999 ) );
+        assertThat( genes.size(), is( 2 ) );
+        assertThat( genes.get( 0 ).getId(), is( 2 ) );
+        assertThat( genes.get( 1 ).getSymbol(), is( "GENE6" ) );
+
+        assertThat( daoFactory.getGeneDAO().findByIds( Collections.<Integer> emptyList() ), is( empty() ) );
+    }
+
+    @Test
+    public void testChunkedList() {
+        assertIdsInOrder( daoFactory.getVariantDAO().findByGenes( range( 3, 5000 ) ), 3, 5000 );
+        assertThat( daoFactory.getActiveCount(), is( 0 ) );
+    }
+
+    @Test
+    public void testChunkedListAfterShutdown() {
+        DAOUtil.shutdown();
+        assertIdsInOrder( daoFactory.getVariantDAO().findByGenes( range( 3, 5000 ) ), 3, 5000 );
+        assertThat( daoFactory.getActiveCount(), is( 0 ) );
+    }
+
+    @Test
+    public void testTemporaryTable() {
+        List<Integer> ids = range( 1, MultiIdLookup.TEMP_TABLE_THRESHOLD + 100 );
+        Collections.reverse( ids );
+        assertIdsInOrder( daoFactory.getVariantDAO().findByGenes( ids ), 1, MultiIdLookup.TEMP_TABLE_THRESHOLD + 100 );
+
+        // The temporary table is emptied, so a following lookup on the same connection sees only its own keys.
+        List<Gene> genes = daoFactory.getGeneDAO().findByIds( range( 10001, 19000 ) );
+        assertThat( genes.size(), is( 4500 ) );
+        assertThat( genes.get( 0 ).getId(), is( 10002 ) );
+        assertThat( daoFactory.getActiveCount(), is( 0 ) );
+    }
+
+    private static List<Integer> range( int from, int to ) {
+        List<Integer> ids = new ArrayList<>();
+        for ( int i = from; i <= to; i++ ) {
+            ids.add( i );
+        }
+        return ids;
+    }
+
+    private static void assertIdsInOrder( List<Variant> variants, int from, int to ) {
+        assertThat( variants.size(), is( to - from + 1 ) );
+        for ( int i = 0; i < variants.size(); i++ ) {
+            assertThat( variants.get( i ).getGeneId(), is( from + i ) );
+        }
+    }
+
+}
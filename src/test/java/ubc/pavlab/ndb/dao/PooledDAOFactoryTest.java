@@ -0,0 +1,211 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class PooledDAOFactoryTest {
+
+    private static final String URL = "jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1";
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private PooledDAOFactory pool;
+
+    @Before
+    public void setUp() {
+        pool = new PooledDAOFactory( URL, "sa", "", 2, 0, 100, 600000, 0 );
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testPhysicalConnectionIsReused() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection physical = first.unwrap( Connection.class );
+        first.close();
+
+        Connection second = pool.getConnection();
+        assertThat( second, not( sameInstance( first ) ) );
+        assertThat( second.unwrap( Connection.class ), sameInstance( physical ) );
+        assertThat( pool.getTotalCount(), is( 1 ) );
+        assertThat( pool.getActiveCount(), is( 1 ) );
+        second.close();
+
+        assertThat( pool.getActiveCount(), is( 0 ) );
+        assertThat( pool.getIdleCount(), is( 1 ) );
+    }
+
+    @Test
+    public void testClosedHandleCannotBeUsed() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+        // Closing twice must not return the connection twice.
+        connection.close();
+
+        assertThat( connection.isClosed(), is( true ) );
+        assertThat( pool.getIdleCount(), is( 1 ) );
+
+        thrown.expect( SQLException.class );
+        connection.createStatement();
+    }
+
+    @Test
+    public void testConcurrentCloseReturnsConnectionOnce() throws Exception {
+        for ( int i = 0; i < 20; i++ ) {
+            final Connection connection = pool.getConnection();
+            final CyclicBarrier barrier = new CyclicBarrier( 4 );
+            Thread[] threads = new Thread[4];
+            for ( int t = 0; t < threads.length; t++ ) {
+                threads[t] = new Thread( () -> {
+                    try {
+                        barrier.await();
+                        connection.close();
+                    } catch ( Exception e ) {
+                        throw new IllegalStateException( e );
+                    }
+                } );
+                threads[t].start();
+            }
+            for ( Thread thread : threads ) {
+                thread.join();
+            }
+            assertThat( pool.getIdleCount(), is( 1 ) );
+        }
+
+        // Still only two permits: a third checkout times out.
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            thrown.expect( SQLTransientConnectionException.class );
+            pool.getConnection();
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testFillMinIdleStaysWithinMaximum() throws SQLException {
+        PooledDAOFactory filled = new PooledDAOFactory( URL, "sa", "", 2, 2, 100, 600000, 0 );
+        try {
+            Connection first = filled.getConnection();
+            Connection second = filled.getConnection();
+            filled.fillMinIdle();
+            assertThat( filled.getTotalCount(), is( 2 ) );
+            first.close();
+            second.close();
+
+            filled.fillMinIdle();
+            assertThat( filled.getIdleCount(), is( 2 ) );
+            assertThat( filled.getTotalCount(), is( 2 ) );
+        } finally {
+            filled.close();
+        }
+    }
+
+    @Test
+    public void testCheckoutTimesOutWhenExhausted() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            thrown.expect( SQLTransientConnectionException.class );
+            pool.getConnection();
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testConnectionStateIsResetOnReturn() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.setAutoCommit( false );
+        connection.setReadOnly( true );
+        connection.close();
+
+        connection = pool.getConnection();
+        assertThat( connection.getAutoCommit(), is( true ) );
+        assertThat( connection.isReadOnly(), is( false ) );
+        connection.close();
+    }
+
+    @Test
+    public void testBrokenConnectionIsDiscarded() throws Exception {
+        Connection connection = pool.getConnection();
+        Connection physical = connection.unwrap( Connection.class );
+        connection.close();
+        physical.close();
+        Thread.sleep( PooledDAOFactory.VALIDATION_INTERVAL_MS + 50 );
+
+        connection = pool.getConnection();
+        assertThat( connection.unwrap( Connection.class ), not( sameInstance( physical ) ) );
+        assertThat( connection.isValid( 1 ), is( true ) );
+        assertThat( pool.getTotalCount(), is( 1 ) );
+        connection.close();
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        PooledDAOFactory shortLived = new PooledDAOFactory( URL, "sa", "", 2, 0, 100, 1, 0 );
+        try {
+            shortLived.getConnection().close();
+            assertThat( shortLived.getIdleCount(), is( 1 ) );
+            Thread.sleep( 10 );
+
+            shortLived.evictIdle();
+            assertThat( shortLived.getIdleCount(), is( 0 ) );
+            assertThat( shortLived.getTotalCount(), is( 0 ) );
+        } finally {
+            shortLived.close();
+        }
+    }
+
+    @Test
+    public void testConnectionStats() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            Map<String, Long> stats = pool.getConnectionStats();
+            assertThat( stats.get( "active" ), is( 1L ) );
+            assertThat( stats.get( "idle" ), is( 0L ) );
+            assertThat( stats.get( "max" ), is( 2L ) );
+        }
+        assertThat( pool.getConnectionStats().get( "idle" ), is( 1L ) );
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.pavlab.ndb.dao.ReplicaRoutingDAOFactory.ClientScope;
+import ubc.pavlab.ndb.dao.ReplicaRoutingDAOFactory.PrimaryScope;
+import ubc.pavlab.ndb.dao.ReplicaRoutingDAOFactory.Selection;
+
+public class ReplicaRoutingDAOFactoryTest {
+
+    private static final String[] URLS = { "jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1;MODE=MySQL",
+            "jdbc:h2:mem:replica1;DB_CLOSE_DELAY=-1;MODE=MySQL", "jdbc:h2:mem:replica2;DB_CLOSE_DELAY=-1;MODE=MySQL" };
+
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<PooledDAOFactory> factories = new ArrayList<>();
+
+    @Before
+    public void setUp() throws SQLException {
+        // Each database has a single gene whose symbol names the database.
+        for ( int i = 0; i < URLS.length; i++ ) {
+            Connection connection = DriverManager.getConnection( URLS[i], "sa", "" );
+            try (Statement statement = connection.createStatement()) {
+                statement.execute( "CREATE TABLE gene (id INT PRIMARY KEY, symbol VARCHAR(32), name VARCHAR(255), "
+                        + "aliases VARCHAR(255))" );
+                statement.execute( "INSERT INTO gene (id, symbol) VALUES (1, '" + ( i == 0 ? "primary" : "replica" + i )
+                        + "')" );
+            }
+            connections.add( connection );
+            factories.add( new PooledDAOFactory( URLS[i], "sa", "", 4, 0, 100, 600000, 0 ) );
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        for ( PooledDAOFactory factory : factories ) {
+            factory.close();
+        }
+        for ( Connection connection : connections ) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute( "DROP ALL OBJECTS" );
+            }
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testRoundRobin() {
+        ReplicaRoutingDAOFactory router = router( Selection.ROUND_ROBIN, factories.get( 1 ), factories.get( 2 ) );
+        List<String> seen = new ArrayList<>();
+        for ( int i = 0; i < 4; i++ ) {
+            seen.add( symbol( router ) );
+        }
+        assertThat( seen, is( Arrays.asList( "replica1", "replica2", "replica1", "replica2" ) ) );
+        assertThat( router.getOutstandingCounts()[0], is( 0 ) );
+    }
+
+    @Test
+    public void testLeastOutstanding() throws SQLException {
+        ReplicaRoutingDAOFactory router = router( Selection.LEAST_OUTSTANDING, factories.get( 1 ),
+                factories.get( 2 ) );
+        try (Connection held = router.getReadConnection()) {
+            assertThat( sum( router.getOutstandingCounts() ), is( 1 ) );
+            int busy = router.getOutstandingCounts()[0] == 1 ? 1 : 2;
+            for ( int i = 0; i < 3; i++ ) {
+                assertThat( symbol( router ), is( "replica" + ( 3 - busy ) ) );
+            }
+        }
+        assertThat( sum( router.getOutstandingCounts() ), is( 0 ) );
+    }
+
+    @Test
+    public void testWritesAndReadYourWrites() throws SQLException {
+        ReplicaRoutingDAOFactory router = new ReplicaRoutingDAOFactory( factories.get( 0 ),
+                Arrays.<DAOFactory> asList( factories.get( 1 ) ), Selection.ROUND_ROBIN, 60000, 60000 );
+        assertThat( symbol( router ), is( "replica1" ) );
+
+        try (PrimaryScope scope = ReplicaRoutingDAOFactory.readFromPrimary()) {
+            assertThat( symbol( router ), is( "primary" ) );
+        }
+        assertThat( symbol( router ), is( "replica1" ) );
+
+        DAOUtil.close( router.getConnection() );
+        assertThat( factories.get( 0 ).getActiveCount(), is( 0 ) );
+        assertThat( symbol( router ), is( "primary" ) );
+    }
+
+    @Test
+    public void testReadYourWritesFollowsClientAcrossThreads() throws Exception {
+        final ReplicaRoutingDAOFactory router = new ReplicaRoutingDAOFactory( factories.get( 0 ),
+                Arrays.<DAOFactory> asList( factories.get( 1 ) ), Selection.ROUND_ROBIN, 60000, 60000 );
+
+        inThread( () -> {
+            try (ClientScope scope = ReplicaRoutingDAOFactory.actingFor( "session1" )) {
+                DAOUtil.close( router.getConnection() );
+            } catch ( SQLException e ) {
+                throw new IllegalStateException( e );
+            }
+        } );
+
+        final List<String> seen = new ArrayList<>();
+        inThread( () -> {
+            try (ClientScope scope = ReplicaRoutingDAOFactory.actingFor( "session1" )) {
+                seen.add( symbol( router ) );
+            }
+            try (ClientScope scope = ReplicaRoutingDAOFactory.actingFor( "session2" )) {
+                seen.add( symbol( router ) );
+            }
+        } );
+        assertThat( seen, is( Arrays.asList( "primary", "replica1" ) ) );
+        assertThat( ReplicaRoutingDAOFactory.currentClient(), is( nullValue() ) );
+    }
+
+    @Test
+    public void testHealthCheckLeavesOutLaggingReplica() throws SQLException {
+        for ( int i = 1; i < URLS.length; i++ ) {
+            try (Statement statement = connections.get( i ).createStatement()) {
+                statement.execute( "CREATE TABLE replication (lag_seconds INT)" );
+                statement.execute( "INSERT INTO replication VALUES (" + ( i == 1 ? 120 : 0 ) + ")" );
+            }
+        }
+        ReplicaRoutingDAOFactory router = router( Selection.ROUND_ROBIN, factories.get( 1 ), factories.get( 2 ) );
+        router.checkHealth( "SELECT lag_seconds FROM replication", 30000 );
+        assertThat( router.getHealthyReplicaCount(), is( 1 ) );
+        for ( int i = 0; i < 4; i++ ) {
+            assertThat( symbol( router ), is( "replica2" ) );
+        }
+
+        try (Statement statement = connections.get( 1 ).createStatement()) {
+            statement.execute( "UPDATE replication SET lag_seconds = 1" );
+        }
+        router.checkHealth( "SELECT lag_seconds FROM replication", 30000 );
+        assertThat( router.getHealthyReplicaCount(), is( 2 ) );
+    }
+
+    @Test
+    public void testEjectsFailingReplica() {
+        DAOFactory broken = new DAOFactory() {
+            @Override
+            Connection getConnection() throws SQLException {
+                throw new SQLException( "Connection refused", "08S01" );
+            }
+        };
+        ReplicaRoutingDAOFactory router = router( Selection.ROUND_ROBIN, broken, factories.get( 2 ) );
+        assertThat( router.getHealthyReplicaCount(), is( 2 ) );
+        for ( int i = 0; i < 4; i++ ) {
+            assertThat( symbol( router ), is( "replica2" ) );
+        }
+        assertThat( router.getHealthyReplicaCount(), is( 1 ) );
+
+        ReplicaRoutingDAOFactory alone = router( Selection.LEAST_OUTSTANDING, broken );
+        assertThat( symbol( alone ), is( "primary" ) );
+        assertThat( alone.getHealthyReplicaCount(), is( 0 ) );
+    }
+
+    private ReplicaRoutingDAOFactory router( Selection selection, DAOFactory... replicas ) {
+        return new ReplicaRoutingDAOFactory( factories.get( 0 ), Arrays.asList( replicas ), selection, 60000, 0 );
+    }
+
+    private static void inThread( Runnable runnable ) throws InterruptedException {
+        Thread thread = new Thread( runnable );
+        thread.start();
+        thread.join();
+    }
+
+    private static String symbol( DAOFactory daoFactory ) {
+        return daoFactory.getGeneDAO().find( 1 ).getSymbol();
+    }
+
+    private static int sum( int[] counts ) {
+        int sum = 0;
+        for ( int count : counts ) {
+            sum += count;
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementBinderTest {
+
+    private static final String URL = "jdbc:h2:mem:binder;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection( URL, "sa", "" );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "CREATE TABLE binder (i INT, l BIGINT, d DOUBLE, b BOOLEAN, s VARCHAR(32), "
+                    + "o VARCHAR(32))" );
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DROP TABLE binder" );
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testBindsInOrder() throws SQLException {
+        String sql = "INSERT INTO binder VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement statement = connection.prepareStatement( sql )) {
+            StatementBinder binder = DAOUtil.bind( statement ).bind( 1 ).bind( 2L ).bind( 0.5 ).bind( true )
+                    .bind( "text" ).bind( ( Object ) 42 );
+            assertThat( binder.getIndex(), is( 6 ) );
+            statement.executeUpdate();
+        }
+
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery( "SELECT * FROM binder" )) {
+            assertThat( resultSet.next(), is( true ) );
+            assertThat( resultSet.getInt( "i" ), is( 1 ) );
+            assertThat( resultSet.getLong( "l" ), is( 2L ) );
+            assertThat( resultSet.getDouble( "d" ), is( 0.5 ) );
+            assertThat( resultSet.getBoolean( "b" ), is( true ) );
+            assertThat( resultSet.getString( "s" ), is( "text" ) );
+            assertThat( resultSet.getString( "o" ), is( "42" ) );
+        }
+    }
+
+    @Test
+    public void testBindsNulls() throws SQLException {
+        String sql = "INSERT INTO binder (i, s, o) VALUES (?, ?, ?)";
+        try (PreparedStatement statement = connection.prepareStatement( sql )) {
+            DAOUtil.bind( statement ).bindNull( Types.INTEGER ).bind( ( String ) null ).bind( ( Object ) null );
+            statement.executeUpdate();
+        }
+
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery( "SELECT i, s, o FROM binder" )) {
+            assertThat( resultSet.next(), is( true ) );
+            assertThat( resultSet.getObject( "i" ), is( nullValue() ) );
+            assertThat( resultSet.getObject( "s" ), is( nullValue() ) );
+            assertThat( resultSet.getObject( "o" ), is( nullValue() ) );
+        }
+    }
+
+    @Test
+    public void testResetStartsAtFirstParameter() throws SQLException {
+        try (PreparedStatement first = connection.prepareStatement( "SELECT ?, ?" );
+                PreparedStatement second = connection.prepareStatement( "SELECT ?" )) {
+            StatementBinder binder = new StatementBinder().reset( first ).bind( 1 ).bind( 2 );
+            assertThat( binder.getIndex(), is( 2 ) );
+
+            binder.reset( second ).bind( "x" );
+            assertThat( binder.getIndex(), is( 1 ) );
+            assertThat( binder.getStatement(), is( sameInstance( second ) ) );
+        }
+    }
+
+    @Test
+    public void testBinderIsNotShared() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement( "SELECT ?" )) {
+            StatementBinder first = DAOUtil.bind( statement );
+            StatementBinder second = DAOUtil.bind( statement );
+            // A binder kept per thread would pin the last statement, and its connection, for the thread's lifetime.
+            assertThat( first, is( not( sameInstance( second ) ) ) );
+        }
+    }
+
+}
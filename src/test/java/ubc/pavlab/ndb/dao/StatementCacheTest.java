@@ -0,0 +1,150 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+    private static final String URL = "jdbc:h2:mem:statementcache;DB_CLOSE_DELAY=-1";
+    private static final String SQL_A = "SELECT ? FROM DUAL";
+    private static final String SQL_B = "SELECT ?, 1 FROM DUAL";
+    private static final String SQL_C = "SELECT ?, 2 FROM DUAL";
+
+    private PooledDAOFactory pool;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        pool = new PooledDAOFactory( URL, "sa", "", 1, 0, 100, 600000, 0 );
+        connection = pool.getConnection();
+    }
+
+    @After
+    public void tearDown() {
+        StatementCache.setMaxSize( StatementCache.DEFAULT_MAX_SIZE );
+        DAOUtil.close( connection );
+        pool.close();
+    }
+
+    @Test
+    public void testStatementIsReusedAfterClose() throws SQLException {
+        long hits = DAOUtil.getStatementCacheStats().hitCount();
+
+        PreparedStatement first = DAOUtil.prepareStatement( connection, SQL_A, false, 1 );
+        DAOUtil.close( first );
+        assertThat( first.isClosed(), is( false ) );
+
+        PreparedStatement second = DAOUtil.prepareStatement( connection, SQL_A, false, 2 );
+        assertThat( second, sameInstance( first ) );
+        assertThat( DAOUtil.getStatementCacheStats().hitCount(), is( hits + 1 ) );
+
+        // The generated keys flag is part of the key.
+        PreparedStatement withKeys = DAOUtil.prepareStatement( connection, SQL_A, true, 3 );
+        assertThat( withKeys, not( sameInstance( first ) ) );
+        DAOUtil.close( withKeys );
+        DAOUtil.close( second );
+    }
+
+    @Test
+    public void testCheckedOutStatementIsNotShared() throws SQLException {
+        PreparedStatement outer = DAOUtil.prepareStatement( connection, SQL_A, false, 1 );
+        PreparedStatement inner = DAOUtil.prepareStatement( connection, SQL_A, false, 2 );
+        assertThat( inner, not( sameInstance( outer ) ) );
+
+        DAOUtil.close( inner );
+        assertThat( inner.isClosed(), is( true ) );
+        DAOUtil.close( outer );
+        assertThat( outer.isClosed(), is( false ) );
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStatementIsEvicted() throws SQLException {
+        DAOUtil.close( connection );
+        pool.close();
+        StatementCache.setMaxSize( 2 );
+        pool = new PooledDAOFactory( URL, "sa", "", 1, 0, 100, 600000, 0 );
+        connection = pool.getConnection();
+
+        PreparedStatement a = DAOUtil.prepareStatement( connection, SQL_A, false, 1 );
+        DAOUtil.close( a );
+        PreparedStatement b = DAOUtil.prepareStatement( connection, SQL_B, false, 1 );
+        DAOUtil.close( b );
+        // Touch A so that B becomes the eldest.
+        DAOUtil.close( DAOUtil.prepareStatement( connection, SQL_A, false, 1 ) );
+        PreparedStatement c = DAOUtil.prepareStatement( connection, SQL_C, false, 1 );
+        DAOUtil.close( c );
+
+        assertThat( a.isClosed(), is( false ) );
+        assertThat( b.isClosed(), is( true ) );
+        assertThat( c.isClosed(), is( false ) );
+    }
+
+    @Test
+    public void testClosingPoolClosesCachedStatements() throws SQLException {
+        PreparedStatement statement = DAOUtil.prepareStatement( connection, SQL_A, false, 1 );
+        DAOUtil.close( connection, statement );
+        assertThat( statement.isClosed(), is( false ) );
+
+        pool.close();
+        assertThat( statement.isClosed(), is( true ) );
+    }
+
+    @Test
+    public void testConnectionWithoutCacheIsNotCached() throws SQLException {
+        Connection plain = DriverManager.getConnection( URL, "sa", "" );
+        try {
+            PreparedStatement first = DAOUtil.prepareStatement( plain, SQL_A, false, 1 );
+            DAOUtil.close( first );
+            assertThat( first.isClosed(), is( true ) );
+
+            PreparedStatement second = DAOUtil.prepareStatement( plain, SQL_A, false, 1 );
+            assertThat( second, not( sameInstance( first ) ) );
+            DAOUtil.close( second );
+        } finally {
+            DAOUtil.close( plain );
+        }
+    }
+
+    @Test
+    public void testPooledConnectionKeepsCacheAcrossCheckouts() throws SQLException {
+        PreparedStatement first = DAOUtil.prepareStatement( connection, SQL_A, false, 1 );
+        DAOUtil.close( connection, first );
+
+        connection = pool.getConnection();
+        PreparedStatement second = DAOUtil.prepareStatement( connection, SQL_A, false, 1 );
+        assertThat( second, sameInstance( first ) );
+        assertThat( second.isClosed(), is( false ) );
+        DAOUtil.close( second );
+    }
+
+}
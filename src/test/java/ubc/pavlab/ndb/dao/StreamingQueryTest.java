@@ -0,0 +1,159 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.model.Variant;
+
+public class StreamingQueryTest {
+
+    private static final String URL = "jdbc:h2:mem:streaming;DB_CLOSE_DELAY=-1;MODE=MySQL";
+    private static final int ROWS = 2500;
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private PooledDAOFactory daoFactory;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        daoFactory = new PooledDAOFactory( URL, "sa", "", 2, 0, 100, 600000, 0 );
+        connection = DriverManager.getConnection( URL, "sa", "" );
+        TestDAOFactory.createSchema( URL );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "INSERT INTO variant (id, paper_id, gene_id, symbol, chromosome, start, stop, ref, alt) "
+                    + "SELECT X, 1, X, CONCAT('GENE', X), '1', X * 10, X * 10, 'A', 'G' FROM SYSTEM_RANGE(1, "
+                    + ROWS + ")" );
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        daoFactory.close();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DROP ALL OBJECTS" );
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testStreamAllVisitsEveryRowInOrder() {
+        final long[] last = { 0 };
+        long rows = daoFactory.getVariantDAO().streamAll( new RowCallback<Variant>() {
+            @Override
+            public void handle( Variant row ) {
+                assertThat( row.getId(), is( ( int ) last[0] + 1 ) );
+                last[0] = row.getId();
+            }
+        } );
+
+        assertThat( rows, is( ( long ) ROWS ) );
+        assertThat( last[0], is( ( long ) ROWS ) );
+        assertThat( daoFactory.getActiveCount(), is( 0 ) );
+    }
+
+    @Test
+    public void testCursorClosesWhenExhausted() {
+        RowCursor<Variant> cursor = daoFactory.getVariantDAO().openAll();
+        assertThat( daoFactory.getActiveCount(), is( 1 ) );
+        while ( cursor.hasNext() ) {
+            cursor.next();
+        }
+
+        assertThat( cursor.getRows(), is( ( long ) ROWS ) );
+        assertThat( cursor.isClosed(), is( true ) );
+        assertThat( daoFactory.getActiveCount(), is( 0 ) );
+    }
+
+    @Test
+    public void testEarlyCloseReleasesConnection() {
+        try (RowCursor<Variant> cursor = daoFactory.getVariantDAO().openAll()) {
+            assertThat( cursor.next().getSymbol(), is( "GENE1" ) );
+        }
+
+        assertThat( daoFactory.getActiveCount(), is( 0 ) );
+    }
+
+    @Test
+    public void testCallbackFailureReleasesConnection() {
+        try {
+            daoFactory.getVariantDAO().streamAll( new RowCallback<Variant>() {
+                @Override
+                public void handle( Variant row ) throws Exception {
+                    if ( row.getId() == 10 ) {
+                        throw new Exception( "Stop" );
+                    }
+                }
+            } );
+        } catch ( DAOException e ) {
+            assertThat( e.getCause().getMessage(), is( "Stop" ) );
+        }
+
+        assertThat( daoFactory.getActiveCount(), is( 0 ) );
+    }
+
+    @Test
+    public void testBadQueryThrowsAndReleasesConnection() {
+        try {
+            StreamingQuery.open( daoFactory, "SELECT * FROM missing", VariantDAOImpl.MAPPER );
+        } catch ( DAOException e ) {
+            assertThat( daoFactory.getActiveCount(), is( 0 ) );
+            return;
+        }
+        throw new AssertionError( "Expected DAOException" );
+    }
+
+    @Test
+    public void testFind() {
+        VariantDAO variantDAO = daoFactory.getVariantDAO();
+
+        Variant variant = variantDAO.find( 42 );
+        assertThat( variant.getSymbol(), is( "GENE42" ) );
+        assertThat( variant.getStart(), is( 420L ) );
+        assertThat( variantDAO.find( ROWS + 1 ), is( nullValue() ) );
+    }
+
+    @Test
+    public void testRemoveIsNotSupported() {
+        thrown.expect( UnsupportedOperationException.class );
+        try (RowCursor<Variant> cursor = daoFactory.getVariantDAO().openAll()) {
+            cursor.next();
+            cursor.remove();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Gives tests outside the DAO package a pooled factory for an in-memory database without a db.properties file, and
+ * tests in any package the schema of the tables they use.
+ */
+public final class TestDAOFactory {
+
+    /**
+     * The base tables needed by tests, followed by the production scripts of the tables the application maintains.
+     */
+    private static final String[] SCHEMA = { "/sql/test-schema.sql", "/sql/variant_summary.sql",
+            "/sql/ingest_checkpoint.sql" };
+
+    private TestDAOFactory() {
+        // Utility class, hide constructor.
+    }
+
+    public static DAOFactory pooled( String url, int maxSize ) {
+        return new PooledDAOFactory( url, "sa", "", maxSize, 0, 1000, 600000, 0 );
+    }
+
+    /**
+     * Creates the gene, variant, data_release, variant_summary and ingest_checkpoint tables. Tests drop them with
+     * <code>DROP ALL OBJECTS</code>.
+     * 
+     * @param url The JDBC URL of the in-memory database.
+     */
+    public static void createSchema( String url ) throws SQLException {
+        try (Connection connection = DriverManager.getConnection( url, "sa", "" );
+                Statement statement = connection.createStatement()) {
+            for ( String script : SCHEMA ) {
+                statement.execute( "RUNSCRIPT FROM 'classpath:" + script + "'" );
+            }
+        }
+    }
+
+}
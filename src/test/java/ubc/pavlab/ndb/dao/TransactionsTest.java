@@ -0,0 +1,124 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.pavlab.ndb.exceptions.DAOException;
+
+public class TransactionsTest {
+
+    private static final String URL = "jdbc:h2:mem:transactions;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+    private DAOFactory daoFactory;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        daoFactory = TestDAOFactory.pooled( URL, 1 );
+        connection = DriverManager.getConnection( URL, "sa", "" );
+        TestDAOFactory.createSchema( URL );
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        daoFactory.close();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DROP ALL OBJECTS" );
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testCommits() throws SQLException {
+        int rows = Transactions.run( daoFactory, "insert", c -> insert( c ) );
+        assertThat( rows, is( 1 ) );
+        assertThat( count(), is( 1L ) );
+    }
+
+    @Test
+    public void testRollsBackOnSQLException() throws SQLException {
+        try {
+            Transactions.run( daoFactory, "insert", c -> {
+                insert( c );
+                throw new SQLException( "Simulated" );
+            } );
+            fail( "The SQLException should be wrapped" );
+        } catch ( DAOException e ) {
+            assertThat( e.getMessage(), is( "insert failed" ) );
+        }
+        assertThat( count(), is( 0L ) );
+    }
+
+    @Test
+    public void testRollsBackOnRuntimeException() throws SQLException {
+        try {
+            Transactions.run( daoFactory, "insert", c -> {
+                insert( c );
+                throw new IllegalStateException( "Simulated" );
+            } );
+            fail( "The exception should be rethrown" );
+        } catch ( IllegalStateException e ) {
+            assertThat( e.getMessage(), is( "Simulated" ) );
+        }
+        // Restoring auto-commit on release must not have committed the insert.
+        assertThat( count(), is( 0L ) );
+    }
+
+    @Test
+    public void testRollsBackOnError() throws SQLException {
+        try {
+            Transactions.run( daoFactory, "insert", c -> {
+                insert( c );
+                throw new AssertionError( "Simulated" );
+            } );
+            fail( "The error should be rethrown" );
+        } catch ( AssertionError e ) {
+            assertThat( e.getMessage(), is( "Simulated" ) );
+        }
+        assertThat( count(), is( 0L ) );
+    }
+
+    private static int insert( Connection connection ) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeUpdate( "INSERT INTO ingest_checkpoint VALUES ('test', 0, 0, NOW())" );
+        }
+    }
+
+    private long count() throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery( "SELECT COUNT(*) FROM ingest_checkpoint" )) {
+            resultSet.next();
+            return resultSet.getLong( 1 );
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.dao;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.pavlab.ndb.dao.AggregateDAO.Dimension;
+import ubc.pavlab.ndb.dao.VariantAggregates.Mismatch;
+import ubc.pavlab.ndb.model.Variant;
+
+public class VariantAggregatesTest {
+
+    private static final String URL = "jdbc:h2:mem:aggregates;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+    private PooledDAOFactory daoFactory;
+    private Connection connection;
+    private AggregateDAO aggregateDAO;
+    private VariantAggregates aggregates;
+
+    @Before
+    public void setUp() throws SQLException {
+        daoFactory = new PooledDAOFactory( URL, "sa", "", 2, 0, 100, 600000, 0 );
+        connection = DriverManager.getConnection( URL, "sa", "" );
+        TestDAOFactory.createSchema( URL );
+        aggregateDAO = daoFactory.getAggregateDAO();
+        aggregates = new VariantAggregates( daoFactory );
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        daoFactory.close();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DROP ALL OBJECTS" );
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testIncrementalCounts() throws SQLException {
+        insert( variant( 1, 10, 100, "missense" ) );
+        insert( variant( 2, 10, 101, "missense" ) );
+        insert( variant( 3, 11, 100, null ) );
+        assertThat( aggregates.getPendingKeys(), is( 5 ) );
+        assertThat( aggregates.flush(), is( 5 ) );
+        assertThat( aggregates.getPendingKeys(), is( 0 ) );
+
+        assertThat( aggregateDAO.count( Dimension.GENE, "100" ), is( 2L ) );
+        assertThat( aggregateDAO.count( Dimension.PAPER, "10" ), is( 2L ) );
+        assertThat( aggregateDAO.count( Dimension.FUNC, "missense" ), is( 2L ) );
+        assertThat( aggregateDAO.count( Dimension.GENE, "999" ), is( 0L ) );
+
+        insert( variant( 4, 11, 100, "missense" ) );
+        retract( variant( 1, 10, 100, "missense" ) );
+        aggregates.flush();
+
+        assertThat( aggregateDAO.count( Dimension.GENE, "100" ), is( 2L ) );
+        assertThat( aggregateDAO.count( Dimension.PAPER, "10" ), is( 1L ) );
+        assertThat( aggregateDAO.count( Dimension.PAPER, "11" ), is( 2L ) );
+        assertThat( aggregates.verify(), is( empty() ) );
+    }
+
+    @Test
+    public void testRetractingLastVariantRemovesRow() throws SQLException {
+        insert( variant( 1, 10, 100, "missense" ) );
+        aggregates.flush();
+        retract( variant( 1, 10, 100, "missense" ) );
+        aggregates.flush();
+
+        assertThat( aggregateDAO.findAll( Dimension.GENE ).isEmpty(), is( true ) );
+        assertThat( aggregates.verify(), is( empty() ) );
+    }
+
+    @Test
+    public void testVerifyAndRepair() throws SQLException {
+        insert( variant( 1, 10, 100, "missense" ) );
+        insert( variant( 2, 10, 101, "frameshift" ) );
+        // Inserted behind the maintainer's back.
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "INSERT INTO variant (id, paper_id, gene_id, func) VALUES (3, 12, 100, 'missense')" );
+        }
+        aggregates.flush();
+
+        List<Mismatch> mismatches = aggregates.verifyAndRepair();
+        assertThat( mismatches, hasSize( 3 ) );
+        assertThat( aggregates.verify(), is( empty() ) );
+        assertThat( aggregateDAO.count( Dimension.GENE, "100" ), is( 2L ) );
+        assertThat( aggregateDAO.count( Dimension.PAPER, "12" ), is( 1L ) );
+    }
+
+    @Test
+    public void testVariantsWithoutGeneAreNotCounted() throws SQLException {
+        insert( variant( 1, 10, 0, "missense" ) );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "INSERT INTO variant (id, paper_id, gene_id, func) VALUES (2, 10, NULL, 'missense')" );
+        }
+        aggregates.added( variant( 2, 10, 0, "missense" ) );
+        aggregates.flush();
+
+        assertThat( aggregateDAO.findAll( Dimension.GENE ).isEmpty(), is( true ) );
+        assertThat( aggregateDAO.count( Dimension.PAPER, "10" ), is( 2L ) );
+        assertThat( aggregates.verify(), is( empty() ) );
+    }
+
+    @Test
+    public void testFailedFlushKeepsChanges() throws SQLException {
+        insert( variant( 1, 10, 100, "missense" ) );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "ALTER TABLE variant_summary RENAME TO variant_summary_moved" );
+        }
+        try {
+            aggregates.flush();
+        } catch ( RuntimeException e ) {
+            // Expected.
+        } finally {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute( "ALTER TABLE variant_summary_moved RENAME TO variant_summary" );
+            }
+        }
+        assertThat( aggregates.getPendingKeys(), is( 3 ) );
+        aggregates.flush();
+        assertThat( aggregates.verify(), is( empty() ) );
+    }
+
+    private void insert( Variant variant ) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "INSERT INTO variant (id, paper_id, gene_id, func) VALUES (" + variant.getId() + ", "
+                    + variant.getPaperId() + ", " + variant.getGeneId() + ", "
+                    + ( variant.getFunc() == null ? "NULL" : "'" + variant.getFunc() + "'" ) + ")" );
+        }
+        aggregates.added( variant );
+    }
+
+    private void retract( Variant variant ) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DELETE FROM variant WHERE id = " + variant.getId() );
+        }
+        aggregates.retracted( variant );
+    }
+
+    private static Variant variant( int id, int paperId, int geneId, String func ) {
+        Variant variant = new Variant();
+        variant.setId( id );
+        variant.setPaperId( paperId );
+        variant.setGeneId( geneId );
+        variant.setFunc( func );
+        return variant;
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.filters;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.pavlab.ndb.beans.DataReleaseBean;
+import ubc.pavlab.ndb.model.DataRelease;
+
+public class CacheValidationFilterTest {
+
+    private CacheValidationFilter filter;
+    private final Map<String, Object> responseHeaders = new HashMap<>();
+    private final AtomicBoolean chained = new AtomicBoolean();
+
+    @Before
+    public void setUp() throws Exception {
+        final ServletContext context = ( ServletContext ) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class<?>[] { ServletContext.class }, ( proxy, m, args ) -> m.getName().equals( "getAttribute" )
+                        && "dataReleaseBean".equals( args[0] ) ? new DataReleaseBean() : null );
+        filter = new CacheValidationFilter();
+        filter.init( ( FilterConfig ) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class<?>[] { FilterConfig.class },
+                ( proxy, m, args ) -> m.getName().equals( "getServletContext" ) ? context : null ) );
+    }
+
+    @Test
+    public void testFirstRequestGetsValidators() throws Exception {
+        filter( "GET", "/ndb/gene.xhtml", null );
+        assertThat( chained.get(), is( true ) );
+        assertThat( responseHeaders.get( "Cache-Control" ), is( ( Object ) "no-cache" ) );
+        assertThat( responseHeaders.get( "status" ), is( nullValue() ) );
+    }
+
+    @Test
+    public void testMatchingETagIsNotModified() throws Exception {
+        filter( "GET", "/ndb/gene.xhtml", null );
+        Object eTag = responseHeaders.get( "ETag" );
+        chained.set( false );
+        responseHeaders.clear();
+
+        filter( "GET", "/ndb/gene.xhtml", ( String ) eTag );
+        assertThat( chained.get(), is( false ) );
+        assertThat( responseHeaders.get( "status" ), is( ( Object ) HttpServletResponse.SC_NOT_MODIFIED ) );
+    }
+
+    @Test
+    public void testStaleETagRendersPage() throws Exception {
+        filter( "GET", "/ndb/gene.xhtml", "\"stale\"" );
+        assertThat( chained.get(), is( true ) );
+    }
+
+    @Test
+    public void testResourcesAndPostsPassThrough() throws Exception {
+        filter( "GET", "/ndb/javax.faces.resource/logo.png.xhtml", "*" );
+        assertThat( chained.get(), is( true ) );
+        assertThat( responseHeaders.isEmpty(), is( true ) );
+
+        chained.set( false );
+        filter( "POST", "/ndb/gene.xhtml", "*" );
+        assertThat( chained.get(), is( true ) );
+        assertThat( responseHeaders.isEmpty(), is( true ) );
+    }
+
+    @Test
+    public void testLastModifiedFollowsRelease() {
+        DataRelease release = new DataRelease();
+        assertThat( CacheValidationFilter.lastModified( release, 5000 ), is( 5000L ) );
+        release.setReleased( new Date( 9999 ) );
+        assertThat( CacheValidationFilter.lastModified( release, 5000 ), is( 9000L ) );
+        assertThat( CacheValidationFilter.lastModified( null, 5000 ), is( 5000L ) );
+    }
+
+    private void filter( final String method, final String uri, final String ifNoneMatch ) throws Exception {
+        HttpServletRequest request = ( HttpServletRequest ) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, ( proxy, m, args ) -> {
+                    switch ( m.getName() ) {
+                        case "getMethod":
+                            return method;
+                        case "getRequestURI":
+                            return uri;
+                        case "getHeader":
+                            return "If-None-Match".equals( args[0] ) ? ifNoneMatch : null;
+                        case "getDateHeader":
+                            return -1L;
+                        default:
+                            return null;
+                    }
+                } );
+        HttpServletResponse response = ( HttpServletResponse ) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, ( proxy, m, args ) -> {
+                    if ( m.getName().startsWith( "set" ) && args.length == 2 ) {
+                        responseHeaders.put( ( String ) args[0], args[1] );
+                    } else if ( m.getName().equals( "setStatus" ) ) {
+                        responseHeaders.put( "status", args[0] );
+                    }
+                    return null;
+                } );
+        filter.doFilter( request, response, ( ServletRequest req, ServletResponse res ) -> chained.set( true ) );
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.filters;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.pavlab.ndb.beans.DataReleaseBean;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+public class PageCacheFilterTest {
+
+    private static final String PAGE = "<html><body>FAQ</body></html>";
+
+    private PageCacheFilter filter;
+    private final AtomicInteger renders = new AtomicInteger();
+    private int status = HttpServletResponse.SC_OK;
+
+    private final FilterChain chain = ( request, response ) -> {
+        renders.incrementAndGet();
+        response.setContentType( "text/html;charset=UTF-8" );
+        if ( status != HttpServletResponse.SC_OK ) {
+            ( ( HttpServletResponse ) response ).setStatus( status );
+        }
+        response.getWriter().write( PAGE );
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        final DataReleaseBean dataReleaseBean = new DataReleaseBean();
+        final ServletContext context = ( ServletContext ) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class<?>[] { ServletContext.class }, ( proxy, m, args ) -> m.getName().equals( "getAttribute" )
+                        && "dataReleaseBean".equals( args[0] ) ? dataReleaseBean : null );
+        filter = new PageCacheFilter();
+        filter.init( ( FilterConfig ) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class<?>[] { FilterConfig.class },
+                ( proxy, m, args ) -> m.getName().equals( "getServletContext" ) ? context : null ) );
+    }
+
+    @Test
+    public void testSecondRequestIsServedFromCache() throws Exception {
+        FakeResponse first = request( "/faq.xhtml", ImmutableMap.<String, String[]> of(), null );
+        FakeResponse second = request( "/faq.xhtml", ImmutableMap.<String, String[]> of(), null );
+
+        assertThat( renders.get(), is( 1 ) );
+        assertThat( first.text(), is( PAGE ) );
+        assertThat( second.text(), is( PAGE ) );
+        assertThat( second.headers.get( "Content-Type" ), is( "text/html;charset=UTF-8" ) );
+    }
+
+    @Test
+    public void testGzipIsSentAsIs() throws Exception {
+        request( "/faq.xhtml", ImmutableMap.<String, String[]> of(), null );
+        FakeResponse response = request( "/faq.xhtml", ImmutableMap.<String, String[]> of(), "gzip, deflate" );
+
+        assertThat( response.headers.get( "Content-Encoding" ), is( "gzip" ) );
+        byte[] body = ByteStreams.toByteArray( new GZIPInputStream( new ByteArrayInputStream( response.body
+                .toByteArray() ) ) );
+        assertThat( new String( body, StandardCharsets.UTF_8 ), is( PAGE ) );
+    }
+
+    @Test
+    public void testParametersAreNormalized() throws Exception {
+        request( "/gene.xhtml", ImmutableMap.of( "a", new String[] { "1" }, "b", new String[] { "2" } ), null );
+        request( "/gene.xhtml", ImmutableMap.of( "b", new String[] { "2" }, "a", new String[] { "1" } ), null );
+        assertThat( renders.get(), is( 1 ) );
+
+        request( "/gene.xhtml", ImmutableMap.of( "a", new String[] { "2" } ), null );
+        assertThat( renders.get(), is( 2 ) );
+    }
+
+    @Test
+    public void testErrorsAreNotCached() throws Exception {
+        status = HttpServletResponse.SC_NOT_FOUND;
+        FakeResponse first = request( "/missing.xhtml", ImmutableMap.<String, String[]> of(), null );
+        request( "/missing.xhtml", ImmutableMap.<String, String[]> of(), null );
+
+        assertThat( renders.get(), is( 2 ) );
+        assertThat( first.text(), is( PAGE ) );
+        assertThat( first.headers.get( "Content-Encoding" ), not( is( "gzip" ) ) );
+    }
+
+    private FakeResponse request( final String servletPath, final Map<String, String[]> parameters,
+            final String acceptEncoding ) throws Exception {
+        HttpServletRequest request = ( HttpServletRequest ) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, ( proxy, m, args ) -> {
+                    switch ( m.getName() ) {
+                        case "getMethod":
+                            return "GET";
+                        case "getRequestURI":
+                            return "/ndb" + servletPath;
+                        case "getServletPath":
+                            return servletPath;
+                        case "getParameterMap":
+                            return parameters;
+                        case "getHeader":
+                            return "Accept-Encoding".equals( args[0] ) ? acceptEncoding : null;
+                        default:
+                            return null;
+                    }
+                } );
+        FakeResponse response = new FakeResponse();
+        filter.doFilter( request, response.proxy(), chain );
+        return response;
+    }
+
+    private static final class FakeResponse {
+
+        final Map<String, String> headers = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        String text() {
+            return new String( body.toByteArray(), StandardCharsets.UTF_8 );
+        }
+
+        HttpServletResponse proxy() {
+            final ServletOutputStream out = new ServletOutputStream() {
+                @Override
+                public void write( int b ) {
+                    body.write( b );
+                }
+            };
+            return ( HttpServletResponse ) Proxy.newProxyInstance( getClass().getClassLoader(),
+                    new Class<?>[] { HttpServletResponse.class }, ( proxy, m, args ) -> {
+                        switch ( m.getName() ) {
+                            case "setContentType":
+                                headers.put( "Content-Type", ( String ) args[0] );
+                                return null;
+                            case "getContentType":
+                                return headers.get( "Content-Type" );
+                            case "getCharacterEncoding":
+                                return "UTF-8";
+                            case "setHeader":
+                                headers.put( ( String ) args[0], ( String ) args[1] );
+                                return null;
+                            case "getOutputStream":
+                                return out;
+                            case "isCommitted":
+                                return false;
+                            default:
+                                return null;
+                        }
+                    } );
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.filters;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatelessFilterTest {
+
+    private static final HttpSession SESSION = fake( HttpSession.class, null, null );
+
+    private StatelessFilter filter;
+
+    @Before
+    public void setUp() throws Exception {
+        filter = new StatelessFilter();
+        filter.init( fake( FilterConfig.class, null, null ) );
+    }
+
+    @Test
+    public void testAnonymousGetNeverCreatesSession() throws Exception {
+        HttpServletRequest request = filter( "GET", null );
+        assertThat( request.getSession(), is( nullValue() ) );
+        assertThat( request.getSession( true ), is( nullValue() ) );
+        assertThat( request.getSession( false ), is( nullValue() ) );
+    }
+
+    @Test
+    public void testExistingSessionPassesThrough() throws Exception {
+        HttpServletRequest request = filter( "GET", SESSION );
+        assertThat( request, not( instanceOf( StatelessFilter.SessionlessRequest.class ) ) );
+        assertThat( request.getSession(), sameInstance( SESSION ) );
+    }
+
+    @Test
+    public void testPostPassesThrough() throws Exception {
+        HttpServletRequest request = filter( "POST", null );
+        assertThat( request, not( instanceOf( StatelessFilter.SessionlessRequest.class ) ) );
+    }
+
+    @Test
+    public void testUrlsAreNotRewritten() {
+        HttpServletResponse response = new StatelessFilter.CookielessResponse( fake( HttpServletResponse.class,
+                "encodeURL", "/page.xhtml;jsessionid=1" ) );
+        assertThat( response.encodeURL( "/page.xhtml" ), is( "/page.xhtml" ) );
+        assertThat( response.encodeRedirectURL( "/page.xhtml" ), is( "/page.xhtml" ) );
+    }
+
+    private HttpServletRequest filter( final String method, final HttpSession session ) throws Exception {
+        HttpServletRequest request = ( HttpServletRequest ) Proxy.newProxyInstance( getClass().getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, ( proxy, m, args ) -> {
+                    switch ( m.getName() ) {
+                        case "getMethod":
+                            return method;
+                        case "getSession":
+                            return session;
+                        default:
+                            return null;
+                    }
+                } );
+        final AtomicReference<ServletRequest> seen = new AtomicReference<>();
+        filter.doFilter( request, fake( HttpServletResponse.class, null, null ), ( ServletRequest req,
+                ServletResponse res ) -> seen.set( req ) );
+        return ( HttpServletRequest ) seen.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T fake( Class<T> type, final String method, final Object result ) {
+        return ( T ) Proxy.newProxyInstance( StatelessFilterTest.class.getClassLoader(), new Class<?>[] { type },
+                ( proxy, m, args ) -> m.getName().equals( method ) ? result : null );
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.pavlab.ndb.dao.DAOFactory;
+import ubc.pavlab.ndb.dao.TestDAOFactory;
+import ubc.pavlab.ndb.harmonize.HarmonizationEngine.Result;
+import ubc.pavlab.ndb.model.Variant;
+
+public class HarmonizationEngineTest {
+
+    private static final String URL = "jdbc:h2:mem:harmonize;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+    /**
+     * Maps positions 101-112 of the old build onto positions 1-12 of the new one.
+     */
+    private static final String CHAIN = "chain 1000 chr1 1000 + 100 112 chr1 12 + 0 12 1\n12\n";
+
+    private HarmonizationEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        engine = new HarmonizationEngine( HgvsParserTest.REFERENCE, GenomeBuild.GRCH38, Collections.singletonMap(
+                GenomeBuild.GRCH37, ( Liftover ) ChainLiftover.read( new StringReader( CHAIN ) ) ), 2,
+                HarmonizationEngine.DEFAULT_CACHE_SPEC );
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void testHarmonize() {
+        Location expected = new Location( "1", 4, 5, "CA", "-" );
+        assertThat( engine.harmonize( null, new Location( "1", 7, 9, "ACA", "A" ) ), is( expected ) );
+        assertThat( engine.harmonize( GenomeBuild.GRCH37, new Location( "1", 107, 109, "ACA", "A" ) ),
+                is( expected ) );
+        assertThat( engine.harmonize( GenomeBuild.GRCH37, new Location( "1", 500, 500, "A", "T" ) ), nullValue() );
+
+        engine.harmonize( null, new Location( "1", 7, 9, "ACA", "A" ) );
+        assertThat( engine.getCacheStats().get( GenomeBuild.GRCH38 ).hitCount(), is( 1L ) );
+        assertThat( engine.getCacheStats().get( GenomeBuild.GRCH37 ).missCount(), is( 2L ) );
+    }
+
+    @Test
+    public void testHarmonizeAll() {
+        List<Variant> variants = new ArrayList<>();
+        for ( int i = 0; i < 3000; i++ ) {
+            // Splits over several tasks; a third changes, a third is already normal and a third fails.
+            variants.add( i % 3 == 0 ? variant( i, 8, 9, "CA", "-" ) : i % 3 == 1 ? variant( i, 5, 5, "A", "T" )
+                    : variant( i, 5, 5, "A", null ) );
+        }
+        Result result = engine.harmonizeAll( null, variants );
+        assertThat( result.getVariants(), is( 3000L ) );
+        assertThat( result.getChanged(), is( 1000L ) );
+        assertThat( result.getFailed(), is( 1000L ) );
+        assertThat( variants.get( 0 ).getStart(), is( 4L ) );
+        assertThat( variants.get( 1 ).getStart(), is( 5L ) );
+    }
+
+    @Test
+    public void testReharmonize() throws SQLException {
+        DAOFactory daoFactory = TestDAOFactory.pooled( URL, 2 );
+        TestDAOFactory.createSchema( URL );
+        try (Connection connection = DriverManager.getConnection( URL, "sa", "" );
+                Statement statement = connection.createStatement()) {
+            statement.execute( "INSERT INTO variant (paper_id, gene_id, chromosome, start, stop, ref, alt) VALUES "
+                    + "(1, 1, '1', 8, 9, 'CA', '-'), (1, 1, '1', 5, 5, 'A', 'T'), (1, 1, '1', 9, 9, 'A', 'ACA'), "
+                    + "(1, 1, '2', 5, 5, NULL, 'T')" );
+            try {
+                Result result = engine.reharmonize( daoFactory, "rules-2" );
+                assertThat( result.getVariants(), is( 4L ) );
+                assertThat( result.getChanged(), is( 2L ) );
+                assertThat( result.getFailed(), is( 1L ) );
+                assertThat( daoFactory.getDataReleaseDAO().findLatest().getVersion(), is( "rules-2" ) );
+
+                // Nothing changes the second time, so no release is added.
+                assertThat( engine.reharmonize( daoFactory, "rules-3" ).getChanged(), is( 0L ) );
+                assertThat( daoFactory.getDataReleaseDAO().findLatest().getVersion(), is( "rules-2" ) );
+
+                try (ResultSet resultSet = statement.executeQuery( "SELECT start, stop, ref, alt FROM variant "
+                        + "ORDER BY id" )) {
+                    resultSet.next();
+                    assertThat( resultSet.getLong( 1 ), is( 4L ) );
+                    assertThat( resultSet.getLong( 2 ), is( 5L ) );
+                    resultSet.next();
+                    assertThat( resultSet.getString( 3 ), is( "A" ) );
+                    resultSet.next();
+                    assertThat( resultSet.getLong( 1 ), is( 3L ) );
+                    assertThat( resultSet.getString( 3 ), is( "-" ) );
+                    assertThat( resultSet.getString( 4 ), is( "CA" ) );
+                }
+            } finally {
+                statement.execute( "DROP ALL OBJECTS" );
+                daoFactory.close();
+            }
+        }
+    }
+
+    private static Variant variant( int id, long start, long stop, String ref, String alt ) {
+        Variant variant = new Variant();
+        variant.setId( id );
+        variant.setChromosome( "1" );
+        variant.setStart( start );
+        variant.setStop( stop );
+        variant.setRef( ref );
+        variant.setAlt( alt );
+        return variant;
+    }
+
+}
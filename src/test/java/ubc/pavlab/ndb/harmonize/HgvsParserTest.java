@@ -0,0 +1,85 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class HgvsParserTest {
+
+    /**
+     * Chromosome 1 of a tiny genome: GGGCACACATTT.
+     */
+    static final ReferenceSequence REFERENCE = new ReferenceSequence() {
+        private static final String CHR1 = "GGGCACACATTT";
+
+        @Override
+        public String getBases( String chromosome, long start, long stop ) {
+            if ( !chromosome.equals( "1" ) ) {
+                return null;
+            }
+            return CHR1.substring( ( int ) Math.min( start - 1, CHR1.length() ),
+                    ( int ) Math.min( stop, CHR1.length() ) );
+        }
+    };
+
+    private final HgvsParser parser = new HgvsParser( REFERENCE );
+
+    @Test
+    public void testSubstitution() {
+        assertThat( parser.parse( "NC_000001.10:g.5A>T" ), is( new Location( "1", 5, 5, "A", "T" ) ) );
+        assertThat( parser.parse( "chrX:g.100C>G" ), is( new Location( "X", 100, 100, "C", "G" ) ) );
+        assertThat( parser.parse( "NC_012920.1:m.3243A>G" ), is( new Location( "MT", 3243, 3243, "A", "G" ) ) );
+        assertThat( parser.parse( "1:g.4_5CA>TT" ), is( new Location( "1", 4, 5, "CA", "TT" ) ) );
+    }
+
+    @Test
+    public void testIndels() {
+        assertThat( parser.parse( "1:g.4_5del" ), is( new Location( "1", 4, 5, "CA", "-" ) ) );
+        assertThat( parser.parse( "1:g.4_5delCA" ), is( new Location( "1", 4, 5, "CA", "-" ) ) );
+        assertThat( parser.parse( "1:g.4_5dup" ), is( new Location( "1", 5, 5, "-", "CA" ) ) );
+        assertThat( parser.parse( "1:g.9_10insCA" ), is( new Location( "1", 9, 9, "-", "CA" ) ) );
+        assertThat( parser.parse( "1:g.4_5delinsTT" ), is( new Location( "1", 4, 5, "CA", "TT" ) ) );
+        assertThat( parser.parse( "1:g.4_5delCAinsG" ), is( new Location( "1", 4, 5, "CA", "G" ) ) );
+    }
+
+    @Test
+    public void testVcfStyle() {
+        assertThat( parser.parse( "2-166187838-C-T" ), is( new Location( "2", 166187838, 166187838, "C", "T" ) ) );
+        assertThat( parser.parse( "chr1:7:ACA:A" ), is( new Location( "1", 7, 9, "ACA", "A" ) ) );
+    }
+
+    @Test
+    public void testInvalid() {
+        assertThat( parser.parse( null ), nullValue() );
+        assertThat( parser.parse( "SCN2A" ), nullValue() );
+        assertThat( parser.parse( "1:g.5A>" ), nullValue() );
+        assertThat( parser.parse( "1:g.5_4del" ), nullValue() );
+        assertThat( parser.parse( "1:g.4_5delC" ), nullValue() );
+        assertThat( parser.parse( "1:g.4_6insCA" ), nullValue() );
+        assertThat( parser.parse( "NC_000025.10:g.5A>T" ), nullValue() );
+        assertThat( new HgvsParser( null ).parse( "1:g.4_5del" ), nullValue() );
+    }
+
+}
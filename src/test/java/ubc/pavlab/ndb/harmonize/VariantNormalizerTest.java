@@ -0,0 +1,79 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.harmonize;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class VariantNormalizerTest {
+
+    private final VariantNormalizer normalizer = new VariantNormalizer( HgvsParserTest.REFERENCE );
+
+    @Test
+    public void testUnchanged() {
+        Location snv = new Location( "1", 5, 5, "A", "T" );
+        assertThat( normalizer.normalize( snv ), sameInstance( snv ) );
+    }
+
+    @Test
+    public void testTrim() {
+        assertThat( normalizer.normalize( new Location( "1", 4, 5, "CA", "CT" ) ),
+                is( new Location( "1", 5, 5, "A", "T" ) ) );
+        assertThat( normalizer.normalize( new Location( "1", 3, 5, "GCA", "GTA" ) ),
+                is( new Location( "1", 4, 4, "C", "T" ) ) );
+    }
+
+    @Test
+    public void testLeftAlignDeletion() {
+        // Deleting any CA of the repeat gives the same sequence.
+        Location expected = new Location( "1", 4, 5, "CA", "-" );
+        assertThat( normalizer.normalize( new Location( "1", 7, 9, "ACA", "A" ) ), is( expected ) );
+        assertThat( normalizer.normalize( new Location( "1", 8, 9, "CA", "-" ) ), is( expected ) );
+        assertThat( normalizer.normalize( expected ), sameInstance( expected ) );
+    }
+
+    @Test
+    public void testLeftAlignInsertion() {
+        assertThat( normalizer.normalize( new Location( "1", 9, 9, "-", "CA" ) ),
+                is( new Location( "1", 3, 3, "-", "CA" ) ) );
+        assertThat( normalizer.normalize( new Location( "1", 9, 9, "A", "ACA" ) ),
+                is( new Location( "1", 3, 3, "-", "CA" ) ) );
+    }
+
+    @Test
+    public void testWithoutReference() {
+        VariantNormalizer trimOnly = new VariantNormalizer( null );
+        assertThat( trimOnly.normalize( new Location( "1", 8, 9, "CA", "-" ) ),
+                is( new Location( "1", 8, 9, "CA", "-" ) ) );
+        assertThat( trimOnly.normalize( new Location( "1", 5, 5, null, "T" ) ), nullValue() );
+    }
+
+    @Test
+    public void testRefFromReference() {
+        assertThat( normalizer.normalize( new Location( "1", 5, 5, null, "T" ) ),
+                is( new Location( "1", 5, 5, "A", "T" ) ) );
+    }
+
+}
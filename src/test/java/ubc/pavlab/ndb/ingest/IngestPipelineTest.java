@@ -0,0 +1,337 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.ingest;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import ubc.pavlab.ndb.dao.AggregateDAO.Dimension;
+import ubc.pavlab.ndb.dao.DAOFactory;
+import ubc.pavlab.ndb.dao.TestDAOFactory;
+import ubc.pavlab.ndb.exceptions.DAOException;
+import ubc.pavlab.ndb.harmonize.GenomeBuild;
+import ubc.pavlab.ndb.harmonize.HarmonizationEngine;
+import ubc.pavlab.ndb.harmonize.ReferenceSequence;
+import ubc.pavlab.ndb.ingest.IngestPipeline.IngestResult;
+import ubc.pavlab.ndb.model.Gene;
+import ubc.pavlab.ndb.model.Variant;
+
+public class IngestPipelineTest {
+
+    private static final String URL = "jdbc:h2:mem:ingest;DB_CLOSE_DELAY=-1;MODE=MySQL";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private DAOFactory daoFactory;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        daoFactory = TestDAOFactory.pooled( URL, 3 );
+        connection = DriverManager.getConnection( URL, "sa", "" );
+        TestDAOFactory.createSchema( URL );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "INSERT INTO gene VALUES (1, 'SCN2A', 'sodium channel', 'NAC2|SCN2A1'), "
+                    + "(2, 'CHD8', 'chromodomain helicase', NULL)" );
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        daoFactory.close();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DROP ALL OBJECTS" );
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testParser() {
+        VariantTableParser parser = VariantTableParser.forHeader( "Gene\tCHROM\tPOS\tREF\tALT\tEffect", 3 );
+        Variant variant = parser.parse( "SCN2A\tchr2\t166,187,838\tc\tt\tmissense" );
+        assertThat( variant.getPaperId(), is( 3 ) );
+        assertThat( variant.getChromosome(), is( "chr2" ) );
+        assertThat( variant.getStart(), is( 166187838L ) );
+        assertThat( variant.getFunc(), is( "missense" ) );
+        assertThat( variant.getStop(), is( 0L ) );
+    }
+
+    @Test
+    public void testParserReadsGenomicDescription() {
+        VariantTableParser parser = VariantTableParser.forHeader( "gene\thgvs_g", 3 );
+        Variant variant = parser.parse( "SCN2A\tNC_000002.11:g.166187838C>T" );
+        assertThat( variant.getChromosome(), is( "2" ) );
+        assertThat( variant.getStart(), is( 166187838L ) );
+        assertThat( variant.getStop(), is( 166187838L ) );
+        assertThat( variant.getRef(), is( "C" ) );
+        assertThat( variant.getAlt(), is( "T" ) );
+
+        // Without a reference sequence the deleted bases cannot be resolved, which the validator then rejects.
+        assertThat( parser.parse( "SCN2A\tchr2:g.166187838del" ).getChromosome(), nullValue() );
+    }
+
+    @Test
+    public void testParserRequiresColumns() {
+        thrown.expect( IllegalArgumentException.class );
+        VariantTableParser.forHeader( "gene\tchrom\tref\talt", 3 );
+    }
+
+    @Test
+    public void testValidator() {
+        Gene gene = new Gene();
+        gene.setId( 1 );
+        gene.setSymbol( "SCN2A" );
+        Map<String, Gene> genes = new HashMap<>();
+        genes.put( "SCN2A", gene );
+        genes.put( "NAC2", gene );
+        VariantValidator validator = new VariantValidator( genes );
+
+        Variant variant = variant( "chrM", 100, "acg", "a", "nac2" );
+        assertThat( validator.validate( variant ), nullValue() );
+        assertThat( variant.getChromosome(), is( "MT" ) );
+        assertThat( variant.getStop(), is( 102L ) );
+        assertThat( variant.getRef(), is( "ACG" ) );
+        assertThat( variant.getGeneId(), is( 1 ) );
+        assertThat( variant.getSymbol(), is( "SCN2A" ) );
+
+        assertThat( validator.validate( variant( "chr2", 100, "A", "T", "FOO" ) ), notNullValue() );
+        assertThat( validator.validate( variant( "chrUn", 100, "A", "T", "SCN2A" ) ), notNullValue() );
+        assertThat( validator.validate( variant( "2", 100, "A", "<DEL>", "SCN2A" ) ), notNullValue() );
+        assertThat( validator.validate( variant( "2", 0, "A", "T", "SCN2A" ) ), notNullValue() );
+    }
+
+    @Test
+    public void testLoad() throws IOException, SQLException {
+        File first = table( "first.tsv", 2500, 0 );
+        File second = table( "second.tsv", 700, 3 );
+
+        IngestPipeline pipeline = new IngestPipeline( daoFactory, 7 );
+        pipeline.setChunkSize( 100 );
+        pipeline.setThreads( 4 );
+        pipeline.setWriters( 8 );
+        pipeline.setRelease( "test" );
+        IngestResult result = pipeline.run( Arrays.asList( first, second ) );
+
+        assertThat( result.getVariants(), is( 3197L ) );
+        assertThat( result.getRejected(), is( 3L ) );
+        assertThat( result.getSkipped(), is( 0L ) );
+        assertThat( result.getChunks(), is( 32L ) );
+        assertThat( result.getRelease().getVersion(), is( "test" ) );
+        assertThat( count( "SELECT COUNT(*) FROM variant WHERE paper_id = 7" ), is( 3197L ) );
+        assertThat( count( "SELECT COUNT(*) FROM ingest_checkpoint" ), is( 32L ) );
+        assertThat( daoFactory.getAggregateDAO().count( Dimension.PAPER, "7" ), is( 3197L ) );
+    }
+
+    @Test
+    public void testResume() throws IOException, SQLException {
+        File file = table( "table.tsv", 1000, 0 );
+        // An earlier attempt got as far as chunk 2, and its counts were never written.
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "INSERT INTO ingest_checkpoint VALUES ('" + IngestPipeline.source( 7, file )
+                    + "', 2, 100, NOW())" );
+            statement.execute( "INSERT INTO variant (paper_id, gene_id, symbol, chromosome, start, stop, ref, alt) "
+                    + "SELECT 7, 1, 'SCN2A', '2', X, X, 'A', 'T' FROM SYSTEM_RANGE(1, 100)" );
+        }
+
+        IngestPipeline pipeline = new IngestPipeline( daoFactory, 7 );
+        pipeline.setChunkSize( 100 );
+        IngestResult result = pipeline.run( Collections.singletonList( file ) );
+
+        assertThat( result.getSkipped(), is( 100L ) );
+        assertThat( result.getVariants(), is( 900L ) );
+        assertThat( result.getRelease(), nullValue() );
+        assertThat( count( "SELECT COUNT(*) FROM variant" ), is( 1000L ) );
+        assertThat( daoFactory.getAggregateDAO().count( Dimension.PAPER, "7" ), is( 1000L ) );
+    }
+
+    @Test
+    public void testHarmonizes() throws IOException, SQLException {
+        File fasta = folder.newFile( "hg38.fa" );
+        Files.write( fasta.toPath(), ">chr1\nGGGCACACATTT\n".getBytes( StandardCharsets.US_ASCII ) );
+        Files.write( new File( fasta.getPath() + ".fai" ).toPath(), "chr1\t12\t6\t12\t13\n".getBytes(
+                StandardCharsets.US_ASCII ) );
+        // Positions 101-112 of GRCh37 are positions 1-12 of GRCh38.
+        File chain = folder.newFile( "hg19ToHg38.over.chain" );
+        Files.write( chain.toPath(), "chain 1000 chr1 1000 + 100 112 chr1 12 + 0 12 1\n12\n".getBytes(
+                StandardCharsets.US_ASCII ) );
+        File file = folder.newFile( "hg19.tsv" );
+        Files.write( file.toPath(), ( "gene\tchr\tstart\tref\talt\n" + "SCN2A\tchr1\t107\tACA\tA\n"
+                + "SCN2A\tchr1\t105\tA\tT\n" + "SCN2A\tchr1\t500\tA\tT\n" ).getBytes( StandardCharsets.UTF_8 ) );
+
+        try (HarmonizationEngine harmonizer = HarmonizationEngine.fromFiles( fasta, GenomeBuild.GRCH38,
+                Collections.singletonMap( GenomeBuild.GRCH37, chain ) )) {
+            IngestPipeline pipeline = new IngestPipeline( daoFactory, 7 );
+            pipeline.setHarmonizer( harmonizer, GenomeBuild.GRCH37 );
+            IngestResult result = pipeline.run( Collections.singletonList( file ) );
+            assertThat( result.getVariants(), is( 2L ) );
+            assertThat( result.getRejected(), is( 1L ) );
+        }
+
+        // The deletion is lifted and shifted to the leftmost copy of the repeat.
+        assertThat( count( "SELECT COUNT(*) FROM variant WHERE start = 4 AND stop = 5 AND ref = 'CA' AND alt = '-'" ),
+                is( 1L ) );
+        assertThat( count( "SELECT COUNT(*) FROM variant WHERE start = 5 AND ref = 'A' AND alt = 'T'" ), is( 1L ) );
+    }
+
+    @Test
+    public void testHarmonizerNeedsLiftover() throws IOException {
+        try (HarmonizationEngine harmonizer = HarmonizationEngine.fromFiles( null, GenomeBuild.GRCH38,
+                Collections.<GenomeBuild, File> emptyMap() )) {
+            thrown.expect( IllegalArgumentException.class );
+            new IngestPipeline( daoFactory, 7 ).setHarmonizer( harmonizer, GenomeBuild.GRCH37 );
+        }
+    }
+
+    @Test
+    public void testChangedFileIsNotResumed() throws IOException, SQLException {
+        File file = table( "table.tsv", 300, 0 );
+        String earlier = IngestPipeline.source( 7, file );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "INSERT INTO ingest_checkpoint VALUES ('" + earlier + "', 0, 100, NOW())" );
+            // Another file whose name starts the same is no reason to refuse.
+            statement.execute( "INSERT INTO ingest_checkpoint VALUES ('7:table.tsv.old:0123456789abcdef', 0, 100, "
+                    + "NOW())" );
+        }
+        Files.write( file.toPath(), "SCN2A\tchr2\t1000\tA\tG\tmissense\n".getBytes( StandardCharsets.UTF_8 ),
+                StandardOpenOption.APPEND );
+        assertThat( IngestPipeline.source( 7, file ).equals( earlier ), is( false ) );
+
+        thrown.expect( IllegalStateException.class );
+        thrown.expectMessage( earlier );
+        new IngestPipeline( daoFactory, 7 ).run( Collections.singletonList( file ) );
+    }
+
+    @Test(timeout = 60000)
+    public void testErrorInStageFailsIngest() throws IOException, SQLException {
+        File file = folder.newFile( "indels.tsv" );
+        Files.write( file.toPath(), "gene\tchr\tstart\tref\talt\nSCN2A\tchr1\t7\tACA\tA\n".getBytes(
+                StandardCharsets.UTF_8 ) );
+        ReferenceSequence broken = new ReferenceSequence() {
+            @Override
+            public String getBases( String chromosome, long start, long stop ) {
+                throw new OutOfMemoryError( "Simulated" );
+            }
+        };
+        try (HarmonizationEngine harmonizer = new HarmonizationEngine( broken, GenomeBuild.GRCH37 )) {
+            IngestPipeline pipeline = new IngestPipeline( daoFactory, 7 );
+            pipeline.setHarmonizer( harmonizer, null );
+            pipeline.run( Collections.singletonList( file ) );
+            fail( "An error in the validate stage should fail the ingest" );
+        } catch ( IllegalStateException e ) {
+            assertThat( e.getCause(), instanceOf( Error.class ) );
+        }
+        assertThat( count( "SELECT COUNT(*) FROM variant" ), is( 0L ) );
+    }
+
+    @Test
+    public void testMissingColumnFails() throws IOException {
+        File file = folder.newFile( "bad.tsv" );
+        Files.write( file.toPath(), "gene\tpos\n".getBytes( StandardCharsets.UTF_8 ) );
+
+        thrown.expect( IllegalArgumentException.class );
+        new IngestPipeline( daoFactory, 7 ).run( Collections.singletonList( file ) );
+    }
+
+    @Test
+    public void testWriteFailureIsNotReplacedByCountFailure() throws IOException, SQLException {
+        File file = table( "long.tsv", 200, 0 );
+        String text = new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 );
+        String longRef = new String( new char[300] ).replace( '\0', 'A' );
+        text = text.replace( "\tchr2\t150\tA\t", "\tchr2\t150\t" + longRef + "\t" );
+        Files.write( file.toPath(), text.getBytes( StandardCharsets.UTF_8 ) );
+        try (Statement statement = connection.createStatement()) {
+            statement.execute( "DROP TABLE variant_summary" );
+        }
+
+        IngestPipeline pipeline = new IngestPipeline( daoFactory, 7 );
+        pipeline.setChunkSize( 100 );
+        pipeline.setThreads( 1 );
+        pipeline.setWriters( 1 );
+        try {
+            pipeline.run( Collections.singletonList( file ) );
+            fail( "Writing a ref longer than the column should fail" );
+        } catch ( DAOException e ) {
+            assertThat( e.getMessage(), startsWith( "Writing chunk" ) );
+            assertThat( e.getSuppressed().length, is( 1 ) );
+            assertThat( e.getSuppressed()[0], instanceOf( DAOException.class ) );
+        }
+    }
+
+    private File table( String name, int rows, int invalid ) throws IOException {
+        StringBuilder text = new StringBuilder( "##source=test\ngene\tchr\tstart\tref\talt\tfunc\n" );
+        for ( int i = 0; i < rows; i++ ) {
+            String gene = i < invalid ? "UNKNOWN" : i % 2 == 0 ? "SCN2A" : "chd8";
+            text.append( gene ).append( "\tchr2\t" ).append( i + 1 ).append( "\tA\tG\tmissense\n" );
+        }
+        File file = folder.newFile( name );
+        Files.write( file.toPath(), text.toString().getBytes( StandardCharsets.UTF_8 ) );
+        return file;
+    }
+
+    private long count( String sql ) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery( sql )) {
+            resultSet.next();
+            return resultSet.getLong( 1 );
+        }
+    }
+
+    private static Variant variant( String chromosome, long start, String ref, String alt, String symbol ) {
+        Variant variant = new Variant();
+        variant.setChromosome( chromosome );
+        variant.setStart( start );
+        variant.setRef( ref );
+        variant.setAlt( alt );
+        variant.setSymbol( symbol );
+        return variant;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.listeners;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+
+import javax.servlet.http.HttpSession;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class HttpSessionCheckerTest {
+
+    @Test
+    public void testSerializedSize() {
+        long empty = HttpSessionChecker.serializedSize( session( Collections.<String, Object> emptyMap() ) );
+        long small = HttpSessionChecker.serializedSize( session( ImmutableMap.<String, Object> of( "a", "x" ) ) );
+        long large = HttpSessionChecker.serializedSize( session( ImmutableMap.<String, Object> of( "a",
+                new int[10000] ) ) );
+        assertThat( small, greaterThan( empty ) );
+        assertThat( large, greaterThan( 40000L ) );
+    }
+
+    @Test
+    public void testUnserializableSessionIsSkipped() {
+        HttpSession unserializable = session( ImmutableMap.<String, Object> of( "a", new Object() ) );
+        HttpSession serializable = session( ImmutableMap.<String, Object> of( "a", "x" ) );
+        long size = HttpSessionChecker.serializedSize( serializable );
+
+        assertThat( HttpSessionChecker.serializedSize( unserializable ), is( -1L ) );
+        assertThat( HttpSessionChecker.estimateBytes( Arrays.asList( unserializable, serializable ), 10 ),
+                is( 2 * size ) );
+    }
+
+    @Test
+    public void testSessionChangedMeanwhileIsSkipped() {
+        HttpSession changing = session( ImmutableMap.<String, Object> of( "a", new ChangedWhileWritten() ) );
+        HttpSession serializable = session( ImmutableMap.<String, Object> of( "a", "x" ) );
+        long size = HttpSessionChecker.serializedSize( serializable );
+
+        assertThat( HttpSessionChecker.serializedSize( changing ), is( -1L ) );
+        assertThat( HttpSessionChecker.estimateBytes( Arrays.asList( changing, serializable ), 10 ), is( 2 * size ) );
+    }
+
+    @Test
+    public void testEstimateExtrapolatesFromSample() {
+        HttpSession session = session( ImmutableMap.<String, Object> of( "a", "x" ) );
+        long size = HttpSessionChecker.serializedSize( session );
+
+        assertThat( HttpSessionChecker.estimateBytes( Collections.nCopies( 100, session ), 5 ), is( 100 * size ) );
+        assertThat( HttpSessionChecker.estimateBytes( Collections.<HttpSession> emptyList(), 5 ), is( 0L ) );
+    }
+
+    private static HttpSession session( final Map<String, Object> attributes ) {
+        return ( HttpSession ) Proxy.newProxyInstance( HttpSessionCheckerTest.class.getClassLoader(),
+                new Class<?>[] { HttpSession.class }, ( proxy, m, args ) -> {
+                    switch ( m.getName() ) {
+                        case "getAttributeNames":
+                            return Collections.enumeration( attributes.keySet() );
+                        case "getAttribute":
+                            return attributes.get( args[0] );
+                        default:
+                            return null;
+                    }
+                } );
+    }
+
+    /**
+     * Fails like a collection which a request modifies while the session is being measured.
+     */
+    private static final class ChangedWhileWritten implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private void writeObject( ObjectOutputStream out ) throws IOException {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+}
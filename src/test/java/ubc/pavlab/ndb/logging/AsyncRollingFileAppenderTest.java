@@ -0,0 +1,123 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.logging;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncRollingFileAppenderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File file;
+    private AsyncRollingFileAppender appender;
+    private Logger logger;
+    private Logger sampled;
+
+    @Before
+    public void setUp() {
+        file = new File( tempFolder.getRoot(), "ndb.log" );
+        appender = new AsyncRollingFileAppender();
+        appender.setName( "test" );
+        appender.setFile( file.getAbsolutePath() );
+        appender.setLayout( new PatternLayout( "%-5p %c{1} - %m%n" ) );
+        appender.setBatchSize( 16 );
+        appender.setSampledLoggers( "sampled" );
+        appender.setSampleRate( 10 );
+        appender.activateOptions();
+
+        logger = logger( "plain" );
+        sampled = logger( "sampled.Sessions" );
+    }
+
+    @After
+    public void tearDown() {
+        appender.close();
+    }
+
+    @Test
+    public void testWritesEverythingInOrder() throws IOException {
+        for ( int i = 0; i < 1000; i++ ) {
+            logger.info( LogMessage.format( "event %d", i ) );
+        }
+        appender.close();
+
+        List<String> lines = lines();
+        assertThat( lines.size(), is( 1000 ) );
+        assertThat( lines.get( 0 ), is( "INFO  plain - event 0" ) );
+        assertThat( lines.get( 999 ), is( "INFO  plain - event 999" ) );
+    }
+
+    @Test
+    public void testSamplesOnlyBelowWarn() throws IOException {
+        for ( int i = 0; i < 100; i++ ) {
+            sampled.info( "created" );
+        }
+        sampled.warn( "kept" );
+        appender.close();
+
+        List<String> lines = lines();
+        assertThat( lines.size(), is( 11 ) );
+        assertThat( lines.get( 10 ), is( "WARN  Sessions - kept" ) );
+        assertThat( appender.getSampledOutCount(), is( 90L ) );
+    }
+
+    @Test
+    public void testLazyMessageNotFormattedWhenDisabled() {
+        Object argument = new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError( "Formatted a disabled message" );
+            }
+        };
+        logger.debug( LogMessage.format( "%s", argument ) );
+    }
+
+    private Logger logger( String name ) {
+        Logger created = Logger.getLogger( name );
+        created.removeAllAppenders();
+        created.setAdditivity( false );
+        created.addAppender( appender );
+        created.setLevel( Level.INFO );
+        return created;
+    }
+
+    private List<String> lines() throws IOException {
+        return Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 );
+    }
+
+}
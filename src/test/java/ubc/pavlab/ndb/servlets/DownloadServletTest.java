@@ -0,0 +1,89 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.servlets;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import ubc.pavlab.ndb.servlets.DownloadServlet.ByteRange;
+import ubc.pavlab.ndb.utility.ConditionalRequests;
+
+public class DownloadServletTest {
+
+    private static final long LENGTH = 1000;
+    private static final long LAST_MODIFIED = 1445000000123L;
+    private static final String ETAG = DownloadServlet.eTag( LENGTH, LAST_MODIFIED );
+
+    @Test
+    public void testRangeForms() {
+        assertRange( ByteRange.parse( "bytes=0-99", LENGTH ), 0, 99 );
+        assertRange( ByteRange.parse( "bytes=900-", LENGTH ), 900, 999 );
+        assertRange( ByteRange.parse( "bytes=-100", LENGTH ), 900, 999 );
+        assertRange( ByteRange.parse( "bytes=-5000", LENGTH ), 0, 999 );
+        assertRange( ByteRange.parse( "bytes=500-5000", LENGTH ), 500, 999 );
+    }
+
+    @Test
+    public void testUnsupportedRangesServeWholeFile() {
+        assertThat( ByteRange.parse( null, LENGTH ), is( nullValue() ) );
+        assertThat( ByteRange.parse( "bytes=0-1,5-6", LENGTH ), is( nullValue() ) );
+        assertThat( ByteRange.parse( "bytes=abc", LENGTH ), is( nullValue() ) );
+        assertThat( ByteRange.parse( "bytes=9-1", LENGTH ), is( nullValue() ) );
+        assertThat( ByteRange.parse( "items=0-1", LENGTH ), is( nullValue() ) );
+    }
+
+    @Test
+    public void testUnsatisfiableRange() {
+        assertThat( ByteRange.parse( "bytes=1000-", LENGTH ), sameInstance( ByteRange.UNSATISFIABLE ) );
+        assertThat( ByteRange.parse( "bytes=-0", LENGTH ), sameInstance( ByteRange.UNSATISFIABLE ) );
+    }
+
+    @Test
+    public void testConditionalGet() {
+        assertThat( ConditionalRequests.isNotModified( ETAG, -1, ETAG, LAST_MODIFIED ), is( true ) );
+        assertThat( ConditionalRequests.isNotModified( "\"other\", W/" + ETAG, -1, ETAG, LAST_MODIFIED ), is( true ) );
+        assertThat( ConditionalRequests.isNotModified( "\"other\"", LAST_MODIFIED, ETAG, LAST_MODIFIED ), is( false ) );
+        assertThat( ConditionalRequests.isNotModified( null, LAST_MODIFIED - 123, ETAG, LAST_MODIFIED ), is( true ) );
+        assertThat( ConditionalRequests.isNotModified( null, LAST_MODIFIED - 1000, ETAG, LAST_MODIFIED ), is( false ) );
+        assertThat( ConditionalRequests.isNotModified( null, -1, ETAG, LAST_MODIFIED ), is( false ) );
+    }
+
+    @Test
+    public void testIfRange() {
+        assertThat( DownloadServlet.isRangeApplicable( null, -1, ETAG, LAST_MODIFIED ), is( true ) );
+        assertThat( DownloadServlet.isRangeApplicable( ETAG, -1, ETAG, LAST_MODIFIED ), is( true ) );
+        assertThat( DownloadServlet.isRangeApplicable( "\"stale\"", -1, ETAG, LAST_MODIFIED ), is( false ) );
+        assertThat( DownloadServlet.isRangeApplicable( "Fri, 16 Oct 2015 12:53:20 GMT", LAST_MODIFIED - 123, ETAG,
+                LAST_MODIFIED ), is( true ) );
+        assertThat( DownloadServlet.isRangeApplicable( "Fri, 16 Oct 2015 12:53:19 GMT", LAST_MODIFIED - 1123, ETAG,
+                LAST_MODIFIED ), is( false ) );
+    }
+
+    private static void assertRange( ByteRange range, long start, long end ) {
+        assertThat( range.start, is( start ) );
+        assertThat( range.end, is( end ) );
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.servlets;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class MetricsServletTest {
+
+    private static final Set<String> NONE = Collections.emptySet();
+
+    @Test
+    public void testNothingIsServedByDefault() {
+        assertThat( MetricsServlet.parseAllowed( null ).isEmpty(), is( true ) );
+        assertThat( MetricsServlet.parseAllowed( " " ).isEmpty(), is( true ) );
+        assertThat( MetricsServlet.isAuthorized( NONE, null, "127.0.0.1", null ), is( false ) );
+        assertThat( MetricsServlet.isAuthorized( NONE, null, "::1", "Bearer " ), is( false ) );
+    }
+
+    @Test
+    public void testAllowList() {
+        Set<String> allowed = MetricsServlet.parseAllowed( "10.0.0.5, 10.0.0.6" );
+        assertThat( MetricsServlet.isAuthorized( allowed, null, "10.0.0.6", null ), is( true ) );
+        assertThat( MetricsServlet.isAuthorized( allowed, null, "127.0.0.1", null ), is( false ) );
+        assertThat( MetricsServlet.isAuthorized( MetricsServlet.parseAllowed( "*" ), null, "8.8.8.8", null ),
+                is( true ) );
+    }
+
+    @Test
+    public void testToken() {
+        assertThat( MetricsServlet.isAuthorized( NONE, "s3cret", "8.8.8.8", "Bearer s3cret" ), is( true ) );
+        assertThat( MetricsServlet.isAuthorized( NONE, "s3cret", "8.8.8.8", "Bearer s3cre" ), is( false ) );
+        assertThat( MetricsServlet.isAuthorized( NONE, "s3cret", "8.8.8.8", "Basic s3cret" ), is( false ) );
+        assertThat( MetricsServlet.isAuthorized( NONE, "s3cret", "8.8.8.8", null ), is( false ) );
+    }
+
+}
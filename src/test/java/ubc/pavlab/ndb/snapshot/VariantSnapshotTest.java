@@ -0,0 +1,179 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.snapshot;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import ubc.pavlab.ndb.dao.InMemoryVariantDAO;
+import ubc.pavlab.ndb.model.Variant;
+import ubc.pavlab.ndb.snapshot.VariantSnapshot.DictionaryColumn;
+import ubc.pavlab.ndb.snapshot.VariantSnapshot.IntColumn;
+import ubc.pavlab.ndb.snapshot.VariantSnapshot.LongColumn;
+
+public class VariantSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        // Listed in position order, the order rows are written in.
+        List<Variant> variants = new ArrayList<>();
+        variants.add( variant( 2, 10, 101, "CHD8", "14", 21853353, null ) );
+        variants.add( variant( 1, 10, 100, "SCN2A", "2", 166187838, "missense" ) );
+        variants.add( variant( 3, 11, 100, "SCN2A", "2", 166245230, "missense" ) );
+
+        File file = folder.newFile( "variants.snap" );
+        int rows = VariantSnapshotWriter.write( new InMemoryVariantDAO( variants ), file, "42" );
+        assertThat( rows, is( 3 ) );
+
+        try (VariantSnapshot snapshot = VariantSnapshot.open( file )) {
+            assertThat( snapshot.getRows(), is( 3 ) );
+            assertThat( snapshot.getDataVersion(), is( "42" ) );
+
+            IntColumn ids = snapshot.getIntColumn( VariantSnapshot.ID );
+            LongColumn starts = snapshot.getLongColumn( VariantSnapshot.START );
+            DictionaryColumn symbols = snapshot.getDictionaryColumn( VariantSnapshot.SYMBOL );
+            DictionaryColumn funcs = snapshot.getDictionaryColumn( VariantSnapshot.FUNC );
+            for ( int row = 0; row < rows; row++ ) {
+                Variant expected = variants.get( row );
+                assertThat( ids.get( row ), is( expected.getId() ) );
+                assertThat( starts.get( row ), is( expected.getStart() ) );
+                assertThat( symbols.get( row ), is( expected.getSymbol() ) );
+            }
+            assertThat( symbols.getCardinality(), is( 2 ) );
+            assertThat( funcs.get( 0 ), nullValue() );
+            assertThat( funcs.codeOf( "missense" ), is( funcs.code( 1 ) ) );
+        }
+    }
+
+    @Test
+    public void testAggregates() throws IOException {
+        List<Variant> variants = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ ) {
+            variants.add( variant( i, i % 7, i % 3 == 0 ? 5000000 + i % 2 : i % 13, "G" + i % 13, "1", i,
+                    i % 4 == 0 ? "frameshift" : "missense" ) );
+        }
+        File file = folder.newFile( "variants.snap" );
+        VariantSnapshotWriter.write( new InMemoryVariantDAO( variants ), file, "1" );
+
+        try (VariantSnapshot snapshot = VariantSnapshot.open( file )) {
+            Map<String, Integer> byFunc = snapshot.countBy( VariantSnapshot.FUNC );
+            assertThat( byFunc.get( "frameshift" ), is( 250 ) );
+            assertThat( byFunc.get( "missense" ), is( 750 ) );
+
+            Map<Integer, Integer> byPaper = snapshot.countByInt( VariantSnapshot.PAPER_ID );
+            assertThat( byPaper.size(), is( 7 ) );
+            assertThat( byPaper.get( 0 ), is( 143 ) );
+
+            // Keys beyond the dense range are counted in a map.
+            Map<Integer, Integer> byGene = snapshot.countByInt( VariantSnapshot.GENE_ID );
+            int total = 0;
+            for ( int count : byGene.values() ) {
+                total += count;
+            }
+            assertThat( total, is( 1000 ) );
+            assertThat( byGene.get( 5000000 ), is( 167 ) );
+        }
+    }
+
+    @Test
+    public void testWideDictionary() throws IOException {
+        List<Variant> variants = new ArrayList<>();
+        for ( int i = 0; i < 70000; i++ ) {
+            variants.add( variant( i, 1, i, "G" + i, "X", i, "missense" ) );
+        }
+        File file = folder.newFile( "variants.snap" );
+        VariantSnapshotWriter.write( new InMemoryVariantDAO( variants ), file, "1" );
+
+        try (VariantSnapshot snapshot = VariantSnapshot.open( file )) {
+            DictionaryColumn symbols = snapshot.getDictionaryColumn( VariantSnapshot.SYMBOL );
+            assertThat( symbols.getCardinality(), is( 70000 ) );
+            assertThat( symbols.get( 300 ), is( "G300" ) );
+            assertThat( symbols.get( 69999 ), is( "G69999" ) );
+            assertThat( snapshot.getDictionaryColumn( VariantSnapshot.CHROMOSOME ).get( 69999 ), is( "X" ) );
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        File file = folder.newFile( "variants.snap" );
+        VariantSnapshotWriter.write( new InMemoryVariantDAO( new ArrayList<Variant>() ), file, "1" );
+
+        try (VariantSnapshot snapshot = VariantSnapshot.open( file )) {
+            assertThat( snapshot.getRows(), is( 0 ) );
+            assertThat( snapshot.countByInt( VariantSnapshot.GENE_ID ).isEmpty(), is( true ) );
+            assertThat( snapshot.countBy( VariantSnapshot.CATEGORY ).isEmpty(), is( true ) );
+        }
+    }
+
+    @Test
+    public void testNotASnapshot() throws IOException {
+        File file = folder.newFile( "variants.snap" );
+        Files.write( file.toPath(), "id\tpaper_id\tgene_id\n".getBytes( "UTF-8" ) );
+
+        thrown.expect( IOException.class );
+        VariantSnapshot.open( file );
+    }
+
+    @Test
+    public void testWrongColumnType() throws IOException {
+        File file = folder.newFile( "variants.snap" );
+        VariantSnapshotWriter.write( new InMemoryVariantDAO( new ArrayList<Variant>() ), file, "1" );
+
+        try (VariantSnapshot snapshot = VariantSnapshot.open( file )) {
+            thrown.expect( IllegalArgumentException.class );
+            snapshot.getIntColumn( VariantSnapshot.SYMBOL );
+        }
+    }
+
+    private static Variant variant( int id, int paperId, int geneId, String symbol, String chromosome, long start,
+            String func ) {
+        Variant variant = new Variant();
+        variant.setId( id );
+        variant.setPaperId( paperId );
+        variant.setGeneId( geneId );
+        variant.setSymbol( symbol );
+        variant.setChromosome( chromosome );
+        variant.setStart( start );
+        variant.setStop( start );
+        variant.setFunc( func );
+        return variant;
+    }
+
+}
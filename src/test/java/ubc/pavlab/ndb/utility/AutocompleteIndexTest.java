@@ -0,0 +1,142 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ubc.pavlab.ndb.utility.AutocompleteIndex.Suggestion;
+import ubc.pavlab.ndb.utility.AutocompleteIndex.Type;
+
+public class AutocompleteIndexTest {
+
+    @Test
+    public void testRankingPrefersExactMatchThenScore() {
+        AutocompleteIndex index = new AutocompleteIndex.Builder( 100, 5 ).add( "SCN2A", "SCN2A", Type.GENE, 1, 50 )
+                .add( "SCN1A", "SCN1A", Type.GENE, 2, 80 ).add( "SCN", "SCN", Type.ALIAS, 3, 0 )
+                .add( "CHD8", "CHD8", Type.GENE, 4, 100 ).build();
+
+        assertThat( labels( index.suggest( "scn", 5 ) ), contains( "SCN", "SCN1A", "SCN2A" ) );
+        assertThat( labels( index.suggest( " SCN2", 5 ) ), contains( "SCN2A" ) );
+        assertThat( labels( index.suggest( "scn", 1 ) ), contains( "SCN" ) );
+    }
+
+    @Test
+    public void testNoMatch() {
+        AutocompleteIndex index = new AutocompleteIndex.Builder( 100, 5 ).add( "CHD8", "CHD8", Type.GENE, 4, 1 )
+                .build();
+
+        assertThat( index.suggest( "x", 5 ), is( empty() ) );
+        assertThat( index.suggest( "", 5 ), is( empty() ) );
+        assertThat( index.suggest( "chd89", 5 ), is( empty() ) );
+    }
+
+    @Test
+    public void testDuplicatesAreIgnored() {
+        AutocompleteIndex index = new AutocompleteIndex.Builder( 100, 5 ).add( "CHD8", "CHD8", Type.GENE, 4, 1 )
+                .add( "chd8", "CHD8", Type.GENE, 4, 1 ).add( "CHD8", "CHD8", Type.ALIAS, 4, 1 ).build();
+
+        assertThat( index.size(), is( 2 ) );
+    }
+
+    @Test
+    public void testLowestScoresAreDroppedBeyondMaxEntries() {
+        AutocompleteIndex.Builder builder = new AutocompleteIndex.Builder( 10, 20 );
+        for ( int i = 0; i < 100; i++ ) {
+            builder.add( "GENE" + i, "GENE" + i, Type.GENE, i, i );
+        }
+        AutocompleteIndex index = builder.build();
+
+        assertThat( index.size(), is( 10 ) );
+        assertThat( index.suggest( "gene", 20 ).get( 9 ).getId(), is( 90 ) );
+    }
+
+    @Test
+    public void testPrecomputedRankingMatchesBruteForce() {
+        Random random = new Random( 42 );
+        AutocompleteIndex.Builder builder = new AutocompleteIndex.Builder( 100000, 10 );
+        final List<String> keys = new ArrayList<>();
+        final List<Integer> scores = new ArrayList<>();
+        String alphabet = "abc";
+        for ( int i = 0; i < 5000; i++ ) {
+            StringBuilder key = new StringBuilder();
+            for ( int c = 1 + random.nextInt( 6 ); c > 0; c-- ) {
+                key.append( alphabet.charAt( random.nextInt( alphabet.length() ) ) );
+            }
+            keys.add( key.toString() );
+            scores.add( random.nextInt( 1000 ) );
+            builder.add( key.toString(), key.toString(), Type.GENE, i, scores.get( i ) );
+        }
+        AutocompleteIndex index = builder.build();
+        assertThat( index.getRankedPrefixes(), greaterThan( 0 ) );
+
+        for ( String query : new String[] { "a", "b", "ab", "abc", "cab", "aaaa", "cbacba" } ) {
+            final String prefix = query;
+            List<Integer> expected = new ArrayList<>();
+            for ( int i = 0; i < keys.size(); i++ ) {
+                if ( keys.get( i ).startsWith( prefix ) ) {
+                    expected.add( i );
+                }
+            }
+            Collections.sort( expected, new Comparator<Integer>() {
+                @Override
+                public int compare( Integer a, Integer b ) {
+                    boolean exactA = keys.get( a ).equals( prefix );
+                    boolean exactB = keys.get( b ).equals( prefix );
+                    if ( exactA != exactB ) {
+                        return exactA ? -1 : 1;
+                    }
+                    if ( !scores.get( a ).equals( scores.get( b ) ) ) {
+                        return Integer.compare( scores.get( b ), scores.get( a ) );
+                    }
+                    return Integer.compare( keys.get( a ).length(), keys.get( b ).length() );
+                }
+            } );
+
+            List<Suggestion> actual = index.suggest( query, 10 );
+            assertThat( query, actual.size(), is( Math.min( 10, expected.size() ) ) );
+            for ( int i = 0; i < actual.size(); i++ ) {
+                int e = expected.get( i );
+                assertThat( query + " #" + i, scores.get( actual.get( i ).getId() ), is( scores.get( e ) ) );
+            }
+        }
+    }
+
+    private static List<String> labels( List<Suggestion> suggestions ) {
+        List<String> labels = new ArrayList<>();
+        for ( Suggestion suggestion : suggestions ) {
+            labels.add( suggestion.getLabel() );
+        }
+        return labels;
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import ubc.pavlab.ndb.exceptions.ConfigurationException;
+
+import com.google.common.collect.ImmutableMap;
+
+public class ConfigSnapshotTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final ConfigSnapshot snapshot = new ConfigSnapshot( ImmutableMap.of( "threads", " 8 ", "empty", "",
+            "enabled", "TRUE", "name", "ndb" ), null );
+
+    @Test
+    public void testTypedGetters() {
+        assertThat( snapshot.getInt( "threads", 1 ), is( 8 ) );
+        assertThat( snapshot.getInt( "empty", 1 ), is( 1 ) );
+        assertThat( snapshot.getLong( "missing", 5L ), is( 5L ) );
+        assertThat( snapshot.getBoolean( "enabled", false ), is( true ) );
+        assertThat( snapshot.getProperty( "empty", "default" ), is( "default" ) );
+        assertThat( snapshot.getProperty( "missing" ), is( nullValue() ) );
+        assertThat( snapshot.contains( "empty" ), is( true ) );
+    }
+
+    @Test
+    public void testInvalidInteger() {
+        thrown.expect( ConfigurationException.class );
+        thrown.expectMessage( "Property 'name' is not a valid integer: 'ndb'." );
+        snapshot.getInt( "name", 0 );
+    }
+
+    @Test
+    public void testInvalidBoolean() {
+        thrown.expect( ConfigurationException.class );
+        snapshot.getBoolean( "threads", false );
+    }
+
+    @Test
+    public void testChangedKeys() {
+        ConfigSnapshot next = new ConfigSnapshot( ImmutableMap.of( "threads", "16", "empty", "", "enabled", "TRUE",
+                "added", "x" ), null );
+        assertThat( next.changedKeys( snapshot ), contains( "added", "name", "threads" ) );
+        assertThat( snapshot.changedKeys( snapshot ).isEmpty(), is( true ) );
+    }
+
+}
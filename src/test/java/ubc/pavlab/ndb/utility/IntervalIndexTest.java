@@ -0,0 +1,119 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class IntervalIndexTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testBoundariesAreInclusive() {
+        IntervalIndex index = new IntervalIndex.Builder().add( "1", 100, 200, 1 ).add( "1", 201, 201, 2 ).build();
+
+        assertThat( index.overlap( "1", 1, 99 ), is( new int[0] ) );
+        assertThat( index.overlap( "1", 1, 100 ), is( new int[] { 1 } ) );
+        assertThat( index.overlap( "1", 200, 201 ), is( new int[] { 1, 2 } ) );
+        assertThat( index.overlap( "1", 201, 1000 ), is( new int[] { 2 } ) );
+        assertThat( index.overlap( "1", 202, 1000 ), is( new int[0] ) );
+    }
+
+    @Test
+    public void testChromosomesAreSeparateAndPrefixInsensitive() {
+        IntervalIndex index = new IntervalIndex.Builder().add( "chr1", 10, 20, 1 ).add( "2", 10, 20, 2 ).build();
+
+        assertThat( index.overlap( "1", 15, 15 ), is( new int[] { 1 } ) );
+        assertThat( index.overlap( "CHR2", 15, 15 ), is( new int[] { 2 } ) );
+        assertThat( index.overlap( "X", 15, 15 ), is( new int[0] ) );
+        assertThat( index.size(), is( 2 ) );
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        IntervalIndex index = new IntervalIndex.Builder().build();
+
+        assertThat( index.overlap( "1", 1, Long.MAX_VALUE - 1 ), is( new int[0] ) );
+        assertThat( index.size(), is( 0 ) );
+    }
+
+    @Test
+    public void testInvertedIntervalIsRejected() {
+        thrown.expect( IllegalArgumentException.class );
+        new IntervalIndex.Builder().add( "1", 10, 9, 1 );
+    }
+
+    @Test
+    public void testMissingChromosome() {
+        IntervalIndex index = new IntervalIndex.Builder().add( "1", 10, 20, 1 ).build();
+
+        assertThat( index.overlap( null, 10, 20 ), is( new int[0] ) );
+        assertThat( IntervalIndex.Builder.isValid( null, 10, 20 ), is( false ) );
+        assertThat( IntervalIndex.Builder.isValid( "1", 10, 9 ), is( false ) );
+        assertThat( IntervalIndex.Builder.isValid( "1", 10, 10 ), is( true ) );
+        thrown.expect( IllegalArgumentException.class );
+        new IntervalIndex.Builder().add( null, 10, 20, 1 );
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random( 42 );
+        // Sizes around powers of two exercise incomplete right subtrees.
+        for ( int n : new int[] { 1, 2, 3, 7, 8, 9, 15, 16, 17, 100, 1023, 1024, 1025, 5000 } ) {
+            long[] starts = new long[n];
+            long[] stops = new long[n];
+            IntervalIndex.Builder builder = new IntervalIndex.Builder();
+            for ( int i = 0; i < n; i++ ) {
+                starts[i] = 1 + random.nextInt( 100000 );
+                // Mostly short intervals with the occasional very long one.
+                stops[i] = starts[i] + ( random.nextInt( 20 ) == 0 ? random.nextInt( 50000 ) : random.nextInt( 10 ) );
+                builder.add( "1", starts[i], stops[i], i );
+            }
+            IntervalIndex index = builder.build();
+
+            for ( int q = 0; q < 200; q++ ) {
+                long start = 1 + random.nextInt( 110000 );
+                long stop = start + random.nextInt( q % 2 == 0 ? 10 : 5000 );
+                int[] expected = new int[n];
+                int found = 0;
+                for ( int i = 0; i < n; i++ ) {
+                    if ( starts[i] <= stop && stops[i] >= start ) {
+                        expected[found++] = i;
+                    }
+                }
+                int[] actual = index.overlap( "1", start, stop );
+                Arrays.sort( actual );
+                assertThat( "n=" + n + " query " + start + "-" + stop, actual,
+                        is( Arrays.copyOf( expected, found ) ) );
+            }
+        }
+    }
+
+}
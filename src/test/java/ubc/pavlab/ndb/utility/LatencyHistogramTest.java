@@ -0,0 +1,70 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverEveryDuration() {
+        for ( long micros = 0; micros < 100000; micros++ ) {
+            int bucket = LatencyHistogram.bucket( micros );
+            assertThat( micros <= LatencyHistogram.upperBound( bucket ), is( true ) );
+            assertThat( bucket == 0 || micros > LatencyHistogram.upperBound( bucket - 1 ), is( true ) );
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for ( int ms = 1; ms <= 100; ms++ ) {
+            histogram.record( TimeUnit.MILLISECONDS.toNanos( ms ) );
+        }
+        assertThat( histogram.getCount(), is( 100L ) );
+        assertThat( histogram.getMean( TimeUnit.MILLISECONDS ), closeTo( 50.5, 0.001 ) );
+        assertThat( histogram.getMax( TimeUnit.MILLISECONDS ), closeTo( 100, 0.001 ) );
+        assertThat( histogram.getPercentile( 50, TimeUnit.MILLISECONDS ), closeTo( 50, 50 * 0.125 ) );
+        assertThat( histogram.getPercentile( 95, TimeUnit.MILLISECONDS ), closeTo( 95, 95 * 0.125 ) );
+        assertThat( histogram.getPercentile( 100, TimeUnit.MILLISECONDS ), closeTo( 100, 0.001 ) );
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat( histogram.getPercentile( 99, TimeUnit.MILLISECONDS ), is( 0.0 ) );
+        assertThat( histogram.getMean( TimeUnit.MILLISECONDS ), is( 0.0 ) );
+    }
+
+    @Test
+    public void testHugeDurationsLandInLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record( TimeUnit.DAYS.toNanos( 2 ) );
+        assertThat( histogram.getPercentile( 50, TimeUnit.DAYS ), closeTo( 2, 0.001 ) );
+    }
+
+}
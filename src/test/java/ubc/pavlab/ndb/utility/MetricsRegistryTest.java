@@ -0,0 +1,90 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+    private MetricsRegistry metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new MetricsRegistry();
+        metrics.counter( "ndb_requests_total" ).add( 3 );
+        metrics.gauge( "ndb_cache_size{cache=\"gene\"}", () -> 42 );
+        metrics.gauge( "ndb_cache_size{cache=\"paper\"}", () -> 7 );
+        metrics.gauge( "ndb_missing", () -> null );
+        LatencyHistogram histogram = metrics.histogram( "ndb_query_seconds{template=\"SELECT 1\"}" );
+        histogram.record( TimeUnit.MILLISECONDS.toNanos( 2 ) );
+        histogram.record( TimeUnit.MILLISECONDS.toNanos( 2 ) );
+    }
+
+    @Test
+    public void testSameMetricForSameName() {
+        assertThat( metrics.counter( "ndb_requests_total" ), sameInstance( metrics.counter( "ndb_requests_total" ) ) );
+        assertThat( metrics.histogram( "a" ), sameInstance( metrics.histogram( "a" ) ) );
+    }
+
+    @Test
+    public void testPrometheus() throws IOException {
+        StringBuilder out = new StringBuilder();
+        metrics.writePrometheus( out );
+        String text = out.toString();
+
+        assertThat( text, containsString( "# TYPE ndb_requests_total counter\nndb_requests_total 3\n" ) );
+        assertThat( text, containsString( "# TYPE ndb_cache_size gauge\nndb_cache_size{cache=\"gene\"} 42\n"
+                + "ndb_cache_size{cache=\"paper\"} 7\n" ) );
+        assertThat( text, not( containsString( "ndb_missing" ) ) );
+        assertThat( text, containsString( "# TYPE ndb_query_seconds summary\n" ) );
+        assertThat( text, containsString( "ndb_query_seconds{template=\"SELECT 1\",quantile=\"0.99\"} 0.002" ) );
+        assertThat( text, containsString( "ndb_query_seconds_sum{template=\"SELECT 1\"} 0.004\n" ) );
+        assertThat( text, containsString( "ndb_query_seconds_count{template=\"SELECT 1\"} 2\n" ) );
+    }
+
+    @Test
+    public void testJson() {
+        JSONObject json = metrics.toJson();
+        assertThat( json.getLong( "ndb_requests_total" ), is( 3L ) );
+        assertThat( json.getInt( "ndb_cache_size{cache=\"gene\"}" ), is( 42 ) );
+        assertThat( json.has( "ndb_missing" ), is( false ) );
+        assertThat( json.getJSONObject( "ndb_query_seconds{template=\"SELECT 1\"}" ).getLong( "count" ), is( 2L ) );
+    }
+
+    @Test
+    public void testLabelEscaping() {
+        assertThat( MetricsRegistry.label( "a\"b\\c\nd" ), is( "\"a\\\"b\\\\c\\nd\"" ) );
+        assertThat( MetricsRegistry.withLabel( "x", "quantile", "0.5" ), is( "x{quantile=\"0.5\"}" ) );
+        assertThat( MetricsRegistry.suffixed( "x{a=\"b\"}", "_sum" ), is( "x_sum{a=\"b\"}" ) );
+    }
+
+}
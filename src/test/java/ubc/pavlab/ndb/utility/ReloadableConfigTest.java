@@ -0,0 +1,125 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import ubc.pavlab.ndb.exceptions.ConfigurationException;
+
+public class ReloadableConfigTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final ReloadableConfig.Validator REQUIRE_DB = new ReloadableConfig.Validator() {
+        @Override
+        public void validate( ConfigSnapshot snapshot ) throws ConfigurationException {
+            if ( snapshot.getProperty( "ndb.db", null ) == null ) {
+                throw new ConfigurationException( "Required property 'ndb.db' is missing." );
+            }
+        }
+    };
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File( tempFolder.getRoot(), "ndb.properties" );
+        write( file, "ndb.db = primary", "ndb.async.threads = 4" );
+    }
+
+    @Test
+    public void testReloadSwapsValidFile() throws IOException {
+        ReloadableConfig config = new ReloadableConfig( file, REQUIRE_DB );
+        final List<ConfigSnapshot> seen = new ArrayList<>();
+        config.addListener( seen::add );
+        ConfigSnapshot before = config.get();
+
+        assertThat( config.reload(), is( true ) );
+        assertThat( config.get() == before, is( true ) );
+        assertThat( seen.isEmpty(), is( true ) );
+
+        write( file, "ndb.db = primary", "ndb.async.threads = 8" );
+        assertThat( config.reload(), is( true ) );
+        assertThat( config.get().getInt( "ndb.async.threads", 0 ), is( 8 ) );
+        assertThat( before.getInt( "ndb.async.threads", 0 ), is( 4 ) );
+        assertThat( seen.size(), is( 1 ) );
+    }
+
+    @Test
+    public void testInvalidFileIsNotSwappedIn() throws IOException {
+        ReloadableConfig config = new ReloadableConfig( file, REQUIRE_DB );
+        write( file, "ndb.async.threads = 8" );
+        assertThat( config.reload(), is( false ) );
+        assertThat( config.get().getProperty( "ndb.db" ), is( "primary" ) );
+        assertThat( config.get().getInt( "ndb.async.threads", 0 ), is( 4 ) );
+    }
+
+    @Test
+    public void testInvalidFileAtStartup() throws IOException {
+        write( file, "ndb.async.threads = 8" );
+        thrown.expect( ConfigurationException.class );
+        new ReloadableConfig( file, REQUIRE_DB );
+    }
+
+    @Test
+    public void testWatchPicksUpReplacedFile() throws Exception {
+        try (ReloadableConfig config = new ReloadableConfig( file, REQUIRE_DB )) {
+            config.watch();
+            // Replace the file the way editors and deployment tools do.
+            File next = tempFolder.newFile( "ndb.properties.new" );
+            write( next, "ndb.db = replica" );
+            Files.move( next.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while ( !"replica".equals( config.get().getProperty( "ndb.db" ) )
+                    && System.currentTimeMillis() < deadline ) {
+                Thread.sleep( 20 );
+            }
+            assertThat( config.get().getProperty( "ndb.db" ), is( "replica" ) );
+        }
+    }
+
+    private static void write( File target, String... lines ) throws IOException {
+        Files.write( target.toPath(), Arrays.asList( lines ), StandardCharsets.UTF_8 );
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class RequestProfileTest {
+
+    @Test
+    public void testBoundToThreadUntilEnd() {
+        assertThat( RequestProfile.current(), is( nullValue() ) );
+        RequestProfile profile = RequestProfile.begin();
+        assertThat( RequestProfile.current(), sameInstance( profile ) );
+
+        RequestProfile.queryExecuted( 1000 );
+        RequestProfile.queryExecuted( 500 );
+        assertThat( profile.end(), greaterThan( 0L ) );
+        assertThat( RequestProfile.current(), is( nullValue() ) );
+
+        // Statements after the end are not added.
+        RequestProfile.queryExecuted( 1000 );
+        assertThat( profile.getQueries(), is( 2 ) );
+        assertThat( profile.getQueryNanos(), is( 1500L ) );
+    }
+
+    @Test
+    public void testPhases() throws InterruptedException {
+        RequestProfile profile = RequestProfile.begin();
+        try {
+            profile.phaseStarted( 6 );
+            Thread.sleep( 2 );
+            profile.phaseEnded( 6 );
+            // An end without a start, as when a phase is skipped, adds nothing.
+            profile.phaseEnded( 1 );
+        } finally {
+            profile.end();
+        }
+        assertThat( profile.getPhaseNanos( 6 ), greaterThan( 1000000L ) );
+        assertThat( profile.getPhaseNanos( 1 ), is( 0L ) );
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+
+package ubc.pavlab.ndb.utility;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import ubc.pavlab.ndb.dao.InMemoryVariantDAO;
+import ubc.pavlab.ndb.model.Variant;
+import ubc.pavlab.ndb.utility.VariantExporter.Format;
+
+import com.google.common.io.ByteStreams;
+
+public class VariantExporterTest {
+
+    @Test
+    public void testTsvRow() throws IOException {
+        StringWriter writer = new StringWriter();
+        VariantExporter.writeRow( Format.TSV, variant(), writer );
+        assertThat( writer.toString(), is( "7\t3\t11\tSCN2A\t2\t166187838\t166187838\tC\tT\t.\tmissense\t"
+                + "c.2558G>A\tp.R853 Q\n" ) );
+    }
+
+    @Test
+    public void testVcfRow() throws IOException {
+        StringWriter writer = new StringWriter();
+        VariantExporter.writeRow( Format.VCF, variant(), writer );
+        assertThat( writer.toString(),
+                is( "2\t166187838\t7\tC\tT\t.\t.\tGENE=SCN2A;PAPER=3;CATEGORY=.;FUNC=missense\n" ) );
+    }
+
+    @Test
+    public void testVcfLeavesOutIndels() throws IOException {
+        StringWriter writer = new StringWriter();
+        Variant deletion = variant();
+        deletion.setRef( "CA" );
+        deletion.setAlt( "-" );
+        assertThat( VariantExporter.writeRow( Format.VCF, deletion, writer ), is( false ) );
+        Variant insertion = variant();
+        insertion.setRef( "-" );
+        insertion.setAlt( "TTG" );
+        assertThat( VariantExporter.writeRow( Format.VCF, insertion, writer ), is( false ) );
+        Variant unknown = variant();
+        unknown.setAlt( null );
+        assertThat( VariantExporter.writeRow( Format.VCF, unknown, writer ), is( false ) );
+        assertThat( writer.toString(), is( "" ) );
+
+        // The TSV keeps them.
+        assertThat( VariantExporter.writeRow( Format.TSV, deletion, writer ), is( true ) );
+    }
+
+    @Test
+    public void testVcfExportCountsWrittenRows() throws IOException {
+        Variant deletion = variant();
+        deletion.setId( 8 );
+        deletion.setRef( "CA" );
+        deletion.setAlt( "-" );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = VariantExporter.export( new InMemoryVariantDAO( variant(), deletion ), Format.VCF, out );
+
+        String text = new String( ByteStreams.toByteArray( new GZIPInputStream( new ByteArrayInputStream(
+                out.toByteArray() ) ) ), "UTF-8" );
+        assertThat( rows, is( 1L ) );
+        assertThat( text.endsWith( "\n2\t166187838\t7\tC\tT\t.\t.\tGENE=SCN2A;PAPER=3;CATEGORY=.;FUNC=missense\n" ),
+                is( true ) );
+    }
+
+    @Test
+    public void testExportIsGzipped() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = VariantExporter.export( new InMemoryVariantDAO( variant() ), Format.TSV, out );
+
+        String text = new String( ByteStreams.toByteArray( new GZIPInputStream( new ByteArrayInputStream(
+                out.toByteArray() ) ) ), "UTF-8" );
+        assertThat( rows, is( 1L ) );
+        assertThat( text.split( "\n" ).length, is( 2 ) );
+        assertThat( text.startsWith( "id\tpaper_id\t" ), is( true ) );
+    }
+
+    private static Variant variant() {
+        Variant variant = new Variant();
+        variant.setId( 7 );
+        variant.setPaperId( 3 );
+        variant.setGeneId( 11 );
+        variant.setSymbol( "SCN2A" );
+        variant.setChromosome( "2" );
+        variant.setStart( 166187838 );
+        variant.setStop( 166187838 );
+        variant.setRef( "C" );
+        variant.setAlt( "T" );
+        variant.setFunc( "missense" );
+        variant.setCdnaChange( "c.2558G>A" );
+        variant.setAaChange( "p.R853\tQ" );
+        return variant;
+    }
+
+}
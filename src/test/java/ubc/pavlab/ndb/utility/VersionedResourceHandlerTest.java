@@ -0,0 +1,54 @@
+/*
+ * The ndb project
+ * 
+ * Copyright (c) 2015 University of British Columbia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package ubc.pavlab.ndb.utility;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class VersionedResourceHandlerTest {
+
+    @Test
+    public void testVersion() {
+        assertThat( VersionedResourceHandler.version( "/ndb/javax.faces.resource/logo.png.xhtml" ),
+                is( nullValue() ) );
+        assertThat( VersionedResourceHandler.version( "/ndb/javax.faces.resource/a.css.xhtml?ln=css" ),
+                is( nullValue() ) );
+        assertThat( VersionedResourceHandler.version( "/ndb/javax.faces.resource/a.js.xhtml?ln=primefaces&v=5.1" ),
+                is( "5.1" ) );
+        assertThat( VersionedResourceHandler.version( "/ndb/javax.faces.resource/a.js.xhtml?v=1a2b&ln=x" ),
+                is( "1a2b" ) );
+        assertThat( VersionedResourceHandler.version( "/ndb/javax.faces.resource/a.js.xhtml?lv=1" ),
+                is( nullValue() ) );
+    }
+
+    @Test
+    public void testWithVersion() {
+        assertThat( VersionedResourceHandler.withVersion( "/r/logo.png.xhtml", "1a2b" ),
+                is( "/r/logo.png.xhtml?v=1a2b" ) );
+        assertThat( VersionedResourceHandler.withVersion( "/r/a.css.xhtml?ln=css", "1a2b" ),
+                is( "/r/a.css.xhtml?ln=css&v=1a2b" ) );
+        assertThat( VersionedResourceHandler.withVersion( "/r/a.css.xhtml?ln=css", "" ),
+                is( "/r/a.css.xhtml?ln=css" ) );
+    }
+
+}
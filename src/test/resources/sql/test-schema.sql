@@ -0,0 +1,30 @@
+-- The tables of the base schema the tests need, in H2's MySQL mode. The tables maintained by the application are
+-- created from their production scripts, see ubc.pavlab.ndb.dao.TestDAOFactory.createSchema.
+CREATE TABLE gene (
+    id INT PRIMARY KEY,
+    symbol VARCHAR(32),
+    name VARCHAR(255),
+    aliases VARCHAR(255)
+);
+
+CREATE TABLE variant (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    paper_id INT,
+    gene_id INT,
+    symbol VARCHAR(32),
+    chromosome VARCHAR(2),
+    start BIGINT,
+    stop BIGINT,
+    ref VARCHAR(255),
+    alt VARCHAR(255),
+    category VARCHAR(32),
+    func VARCHAR(32),
+    cdna_change VARCHAR(255),
+    aa_change VARCHAR(255)
+);
+
+CREATE TABLE data_release (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    version VARCHAR(64),
+    released TIMESTAMP
+);